@@ -1,13 +1,25 @@
 package com.montefiore.thaidinhle.adhoc_plugin;
 
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothManager;
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 
 import com.montefiore.thaidinhle.adhoc_plugin.ble.BleManager;
+import com.montefiore.thaidinhle.adhoc_plugin.ble.BleScanner;
 import com.montefiore.thaidinhle.adhoc_plugin.ble.BleUtils;
+import com.montefiore.thaidinhle.adhoc_plugin.ble.GattClientManager;
 import com.montefiore.thaidinhle.adhoc_plugin.ble.GattServerManager;
+import com.montefiore.thaidinhle.adhoc_plugin.ble.L2capManager;
+import com.montefiore.thaidinhle.adhoc_plugin.ble.PeerRegistry;
+import com.montefiore.thaidinhle.adhoc_plugin.utils.LazyTransport;
+import com.montefiore.thaidinhle.adhoc_plugin.wifi.WifiFileTransferManager;
 import com.montefiore.thaidinhle.adhoc_plugin.wifi.WifiAdHocManager;
+import com.montefiore.thaidinhle.adhoc_plugin.wifi.WifiAwareManager;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.plugin.common.BinaryMessenger;
@@ -16,9 +28,19 @@ import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Class managing the Android platform-specific code, which is responsible 
  * of managing platform call from the Flutter client.
+ * 
+ * The transports are created on first use (see LazyTransport), so that an 
+ * application using a single transport, or a background engine, does not 
+ * pay for the others. The capabilities of the device are checked when the 
+ * plugin is attached, and an unsupported transport is never created.
  */
 public class AdhocPlugin implements FlutterPlugin, MethodCallHandler {
   private static final String METHOD_NAME = "ad.hoc.lib/ble.method.channel";
@@ -27,31 +49,169 @@ public class AdhocPlugin implements FlutterPlugin, MethodCallHandler {
   private BinaryMessenger messenger;
   private Context context;
 
-  private BleManager bleManager;
-  private BluetoothManager bluetoothManager;
-  private GattServerManager gattServerManager;
+  private LazyTransport<BleManager> bleManager;
+  private LazyTransport<BleScanner> bleScanner;
+  private LazyTransport<GattServerManager> gattServerManager;
+  private LazyTransport<GattClientManager> gattClientManager;
+  private LazyTransport<L2capManager> l2capManager;
+  private LazyTransport<WifiAdHocManager> wifiAdHocManager;
+  private LazyTransport<WifiAwareManager> wifiAwareManager;
 
-  private WifiAdHocManager wifiAdHocManager;
+  // Settings applied to the transports once created
+  private boolean verbose;
+  private Integer batchMaxEvents;
+  private Long batchMaxDelayUs;
+  // Time spent attaching the plugin
+  private long attachTimeUs;
 
   @Override
   public void onAttachedToEngine(@NonNull FlutterPluginBinding binding) {
+    final long start = SystemClock.elapsedRealtimeNanos();
+
     this.messenger = binding.getBinaryMessenger();
     this.context = binding.getApplicationContext();
-    this.bluetoothManager = 
-      (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
 
     // Attach this plugin to the Flutter environment
     this.methodChannel = new MethodChannel(this.messenger, METHOD_NAME);
     this.methodChannel.setMethodCallHandler(this);
 
-    // GattServerManager and BleManager (BLE)
-    this.gattServerManager = new GattServerManager(this.context);
-    this.gattServerManager.setupEventChannel(this.messenger);
-    this.bleManager = new BleManager();
+    final PackageManager packageManager = context.getPackageManager();
+    final boolean bleSupported = 
+      packageManager.hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE)
+        && BluetoothAdapter.getDefaultAdapter() != null;
+    final boolean wifiDirectSupported = 
+      packageManager.hasSystemFeature(PackageManager.FEATURE_WIFI_DIRECT);
+
+    // BleManager (BLE advertisement)
+    this.bleManager = new LazyTransport<BleManager>("BLE", bleSupported, messenger) {
+      @Override
+      protected BleManager create(BinaryMessenger messenger) {
+        BleManager manager = new BleManager();
+        manager.setVerbose(verbose);
+        return manager;
+      }
+    };
+
+    // BleScanner (BLE discovery)
+    this.bleScanner = new LazyTransport<BleScanner>(
+      "BLE", bleSupported, messenger, BleScanner.EVENT_NAME
+    ) {
+      @Override
+      protected BleScanner create(BinaryMessenger messenger) {
+        BleScanner scanner = new BleScanner();
+        scanner.setVerbose(verbose);
+        scanner.setupEventChannel(messenger);
+        return scanner;
+      }
+    };
+
+    // GattServerManager (BLE GATT server)
+    this.gattServerManager = new LazyTransport<GattServerManager>(
+      "BLE", bleSupported, messenger, GattServerManager.EVENT_NAME
+    ) {
+      @Override
+      protected GattServerManager create(BinaryMessenger messenger) {
+        GattServerManager manager = new GattServerManager(context);
+        manager.setVerbose(verbose);
+        if (batchMaxEvents != null)
+          manager.setEventBatching(batchMaxEvents, batchMaxDelayUs);
+        manager.setupEventChannel(messenger);
+        // Adapt the advertisement to the remote peers connected
+        manager.setConnectionListener(new GattServerManager.ConnectionListener() {
+          @Override
+          public void onConnectionsChanged(int count) {
+            bleManager.get().onNeighboursChanged(count);
+          }
+
+          @Override
+          public void onReclaimed(String mac) {
+            // The link is shared with the Gatt client and the L2CAP channel
+            if (gattClientManager.peek() != null)
+              gattClientManager.peek().disconnect(mac);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && l2capManager.peek() != null)
+              l2capManager.peek().disconnect(mac);
+          }
+        });
+        // The traffic of the L2CAP channels bypasses the Gatt server, so 
+        // their peers are never reclaimed
+        manager.setPinPolicy(new PeerRegistry.PinPolicy() {
+          @Override
+          public boolean isPinned(String mac) {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q 
+              && l2capManager.peek() != null && l2capManager.peek().isConnected(mac);
+          }
+        });
+        return manager;
+      }
+    };
+
+    // GattClientManager (BLE GATT client)
+    this.gattClientManager = new LazyTransport<GattClientManager>("BLE", bleSupported, messenger) {
+      @Override
+      protected GattClientManager create(BinaryMessenger messenger) {
+        GattClientManager manager = new GattClientManager(context);
+        manager.setVerbose(verbose);
+        return manager;
+      }
+    };
+
+    // L2capManager (BLE L2CAP channels, API 29+)
+    this.l2capManager = new LazyTransport<L2capManager>(
+      "BLE L2CAP", bleSupported && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q, messenger
+    ) {
+      @Override
+      @SuppressLint("NewApi") // Only created on API 29+
+      protected L2capManager create(BinaryMessenger messenger) {
+        L2capManager manager = new L2capManager();
+        manager.setVerbose(verbose);
+        manager.setMessenger(messenger);
+        return manager;
+      }
+    };
 
     // WifiAdHocManager (Wi-Fi Direct)
-    this.wifiAdHocManager = new WifiAdHocManager(this.context);
-    this.wifiAdHocManager.initMethodCallHandler(this.messenger);
+    this.wifiAdHocManager = new LazyTransport<WifiAdHocManager>(
+      "Wi-Fi Direct", wifiDirectSupported, messenger, WifiAdHocManager.METHOD_NAME, 
+      WifiAdHocManager.EVENT_NAME, WifiFileTransferManager.EVENT_NAME
+    ) {
+      @Override
+      protected WifiAdHocManager create(BinaryMessenger messenger) {
+        WifiAdHocManager manager = new WifiAdHocManager(context);
+        if (batchMaxEvents != null)
+          manager.setEventBatching(batchMaxEvents, batchMaxDelayUs);
+        manager.initMethodCallHandler(messenger);
+        return manager;
+      }
+
+      @Override
+      protected boolean isDeferred(String channel, String method) {
+        // Called by the Flutter client as soon as the manager is built
+        return WifiAdHocManager.METHOD_NAME.equals(channel) && "setVerbose".equals(method);
+      }
+    };
+
+    // WifiAwareManager (Wi-Fi Aware, API 26+), which answers by itself when 
+    // Wi-Fi Aware is not supported
+    this.wifiAwareManager = new LazyTransport<WifiAwareManager>(
+      "Wi-Fi Aware", true, messenger, WifiAwareManager.METHOD_NAME, 
+      WifiAwareManager.EVENT_NAME
+    ) {
+      @Override
+      protected WifiAwareManager create(BinaryMessenger messenger) {
+        WifiAwareManager manager = new WifiAwareManager(context);
+        if (batchMaxEvents != null)
+          manager.setEventBatching(batchMaxEvents, batchMaxDelayUs);
+        manager.initMethodCallHandler(messenger);
+        return manager;
+      }
+
+      @Override
+      protected boolean isDeferred(String channel, String method) {
+        return WifiAwareManager.METHOD_NAME.equals(channel) && "setVerbose".equals(method);
+      }
+    };
+
+    this.attachTimeUs = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
   }
 
   @Override
@@ -59,58 +219,227 @@ public class AdhocPlugin implements FlutterPlugin, MethodCallHandler {
     // Method that communicate with the Flutter client (Platform Channel)
     switch (call.method) {
       case "setVerbose":
-        final boolean verbose = call.arguments();
+        verbose = call.arguments();
         bleManager.setVerbose(verbose);
+        bleScanner.setVerbose(verbose);
         gattServerManager.setVerbose(verbose);
-        break;
+        gattClientManager.setVerbose(verbose);
+        l2capManager.setVerbose(verbose);
+        wifiAdHocManager.setVerbose(verbose);
+        wifiAwareManager.setVerbose(verbose);
+        if (bleManager.peek() != null)
+          bleManager.peek().setVerbose(verbose);
+        if (bleScanner.peek() != null)
+          bleScanner.peek().setVerbose(verbose);
+        if (gattServerManager.peek() != null)
+          gattServerManager.peek().setVerbose(verbose);
+        if (gattClientManager.peek() != null)
+          gattClientManager.peek().setVerbose(verbose);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && l2capManager.peek() != null)
+          l2capManager.peek().setVerbose(verbose);
+        return;
+      case "setEventBatching":
+        batchMaxEvents = ((Number) call.argument("maxEvents")).intValue();
+        batchMaxDelayUs = ((Number) call.argument("maxDelayUs")).longValue();
+        if (gattServerManager.peek() != null)
+          gattServerManager.peek().setEventBatching(batchMaxEvents, batchMaxDelayUs);
+        if (wifiAdHocManager.peek() != null)
+          wifiAdHocManager.peek().setEventBatching(batchMaxEvents, batchMaxDelayUs);
+        if (wifiAwareManager.peek() != null)
+          wifiAwareManager.peek().setEventBatching(batchMaxEvents, batchMaxDelayUs);
+        result.success(null);
+        return;
+      case "getCapabilities":
+        result.success(getCapabilities());
+        return;
       case "isEnabled":
         result.success(BleUtils.isEnabled());
-        break;
+        return;
+      case "getCurrentName":
+        result.success(BleUtils.getCurrentName());
+        return;
+    }
+
+    // The remaining methods need the BLE transport
+    if (!bleManager.isSupported()) {
+      result.error("unavailable", "BLE is not available on this device", null);
+      return;
+    }
+
+    // Each transport is only created by the calls needing it
+    switch (call.method) {
       case "openGattServer":
-        gattServerManager.openGattServer(bluetoothManager, context);
+        final BluetoothManager bluetoothManager = 
+          (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        final Integer characteristics = call.argument("characteristics");
+        gattServerManager.get().openGattServer(
+          bluetoothManager, context, characteristics == null ? 1 : characteristics
+        );
+        // Advertise the L2CAP channel, the remote peers fall back to the 
+        // Gatt characteristics without it
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && l2capManager.isSupported())
+          bleManager.get().setL2capPsm(l2capManager.get().listen());
         break;
       case "closeGattServer":
-        gattServerManager.closeGattServer();
+        if (gattServerManager.peek() != null)
+          gattServerManager.peek().closeGattServer();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && l2capManager.peek() != null)
+          l2capManager.peek().stopListening();
+        if (bleManager.peek() != null)
+          bleManager.peek().setL2capPsm(0);
+        break;
+      case "sendMessage":
+        final String mac = call.argument("mac");
+        final String message = call.argument("message");
+        result.success(sendToClient(mac, message.getBytes(StandardCharsets.UTF_8)));
+        break;
+      case "sendBytes":
+        final String destination = call.argument("mac");
+        final byte[] bytes = call.argument("data");
+        result.success(sendToClient(destination, bytes));
+        break;
+      case "setReassemblyLimits":
+        final int peerQuota = ((Number) call.argument("peerQuota")).intValue();
+        final long globalCap = ((Number) call.argument("globalCap")).longValue();
+        final long staleTimeoutMs = ((Number) call.argument("staleTimeoutMs")).longValue();
+        gattServerManager.get().setReassemblyLimits(peerQuota, globalCap, staleTimeoutMs);
+        result.success(null);
+        break;
+      case "getReassemblyStats":
+        result.success(gattServerManager.get().getReassemblyStats());
+        break;
+      case "getPeerInfo":
+        final String peer = call.arguments();
+        result.success(gattServerManager.get().getPeerInfo(peer));
         break;
       case "cancelConnection":
         final String macAddress = call.arguments();
-        gattServerManager.cancelConnection(macAddress);
-      case "getCurrentName":
-        result.success(BleUtils.getCurrentName());
+        gattServerManager.get().cancelConnection(macAddress);
+        result.success(null);
+        break;
+      case "setAdmissionLimits":
+        final int maxPeers = ((Number) call.argument("maxPeers")).intValue();
+        final long idleTimeoutMs = ((Number) call.argument("idleTimeoutMs")).longValue();
+        gattServerManager.get().setAdmissionLimits(maxPeers, idleTimeoutMs);
+        result.success(null);
+        break;
+      case "pinPeer":
+        final String pinnedMac = call.argument("mac");
+        final boolean pinned = Boolean.TRUE.equals(call.argument("pinned"));
+        gattServerManager.get().pinPeer(pinnedMac, pinned);
+        result.success(null);
+        break;
+      case "getAdmissionStats":
+        result.success(gattServerManager.get().getAdmissionStats());
+        break;
+
+      case "clientConnect":
+        final String serverMac = call.arguments();
+        result.success(gattClientManager.get().connect(serverMac));
+        break;
+      case "clientDisconnect":
+        final String disconnectMac = call.arguments();
+        gattClientManager.get().disconnect(disconnectMac);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && l2capManager.peek() != null)
+          l2capManager.peek().disconnect(disconnectMac);
+        result.success(null);
+        break;
+      case "l2capConnect":
+        final String l2capMac = call.argument("mac");
+        final int psm = ((Number) call.argument("psm")).intValue();
+        result.success(Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q 
+          && l2capManager.isSupported() && l2capManager.get().connect(l2capMac, psm));
+        break;
+      case "writeMessage":
+        final String writeMac = call.argument("mac");
+        final byte[] data = call.argument("data");
+        final int messageId = ((Number) call.argument("id")).intValue();
+        // L2CAP channel if open, otherwise Gatt characteristics
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && l2capManager.peek() != null
+            && l2capManager.peek().sendMessage(writeMac, data)) {
+          result.success(true);
+        } else {
+          result.success(gattClientManager.get().sendMessage(writeMac, messageId, data));
+        }
+        break;
+      case "getLinkStats":
+        final String linkMac = call.arguments();
+        final HashMap<String, Object> linkStats = gattClientManager.get().getLinkStats(linkMac);
+        if (linkStats != null) {
+          linkStats.put("l2cap", Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q 
+            && l2capManager.peek() != null && l2capManager.peek().isConnected(linkMac));
+        }
+        result.success(linkStats);
+        break;
+
+      case "startScan":
+        final long scanDurationMs = ((Number) call.argument("durationMs")).longValue();
+        final long reportDelayMs = ((Number) call.argument("reportDelayMs")).longValue();
+        result.success(bleScanner.get().startScan(scanDurationMs, reportDelayMs));
+        break;
+      case "stopScan":
+        // Answered once the last results have been sent
+        final Result stopResult = result;
+        bleScanner.get().stopScan(new Runnable() {
+          @Override
+          public void run() {
+            stopResult.success(null);
+          }
+        });
+        break;
+      case "getScanStats":
+        result.success(bleScanner.get().getScanStats());
         break;
 
       case "disable":
-        result.success(bleManager.disable());
+        result.success(bleManager.get().disable());
         break;
       case "enable":
-        result.success(bleManager.enable());
+        result.success(bleManager.get().enable());
         break;
       case "startAdvertise":
-        bleManager.startAdvertise();
+        final Number durationMs = call.arguments();
+        bleManager.get().startAdvertise(durationMs == null ? 0 : durationMs.longValue());
         break;
       case "stopAdvertise":
-        bleManager.stopAdvertise();
+        bleManager.get().stopAdvertise();
+        break;
+      case "setAdvertisingProfile":
+        final Map<String, Object> profile = call.arguments();
+        bleManager.get().setAdvertisingProfile(profile);
+        result.success(null);
+        break;
+      case "getAdvertisingStats":
+        result.success(bleManager.get().getAdvertisingStats());
+        break;
+      case "setAdvertisedRouting":
+        final String label = call.argument("label");
+        final int seq = ((Number) call.argument("seq")).intValue();
+        final List<String> destinations = call.argument("destinations");
+        final boolean extended = Boolean.TRUE.equals(call.argument("extended"));
+        bleManager.get().setAdvertisedRouting(label, seq, destinations, extended);
+        result.success(null);
         break;
       case "updateDeviceName":
         final String name = call.arguments();
-        result.success(bleManager.updateDeviceName(name));
+        result.success(bleManager.get().updateDeviceName(name));
         break;
       case "resetDeviceName":
-        result.success(bleManager.resetDeviceName());
+        result.success(bleManager.get().resetDeviceName());
         break;
       case "getAdapterName":
-        result.success(bleManager.getAdapterName());
+        result.success(bleManager.get().getAdapterName());
         break;
       case "getPairedDevices":
-        result.success(gattServerManager.getConnectedDevices());
+        result.success(gattServerManager.get().getConnectedDevices());
         break;
       case "getBondState":
         final String address = call.arguments();
-        result.success(gattServerManager.getBondState(address));
+        result.success(gattServerManager.get().getBondState(address));
         break;
       case "createBond":
         final String remoteAddress = call.arguments();
-        result.success(gattServerManager.createBond(remoteAddress));
+        result.success(gattServerManager.get().createBond(remoteAddress));
         break;
 
       default:
@@ -121,9 +450,78 @@ public class AdhocPlugin implements FlutterPlugin, MethodCallHandler {
 
   @Override
   public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
-    bleManager.stopAdvertise();
-    gattServerManager.closeGattServer();
+    // Only the transports used have something to release
+    if (bleManager.peek() != null)
+      bleManager.peek().stopAdvertise();
+    if (bleScanner.peek() != null)
+      bleScanner.peek().close();
+    if (gattServerManager.peek() != null)
+      gattServerManager.peek().closeGattServer();
+    if (gattClientManager.peek() != null)
+      gattClientManager.peek().close();
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && l2capManager.peek() != null)
+      l2capManager.peek().close();
+    if (wifiAdHocManager.peek() != null)
+      wifiAdHocManager.peek().close();
+    if (wifiAwareManager.peek() != null)
+      wifiAwareManager.peek().close();
+
+    bleManager.close();
+    bleScanner.close();
+    gattServerManager.close();
+    gattClientManager.close();
+    l2capManager.close();
     wifiAdHocManager.close();
+    wifiAwareManager.close();
     methodChannel.setMethodCallHandler(null);
   }
+
+  /**
+   * Method allowing to send a message to a remote peer connected to the Gatt 
+   * server, through its L2CAP channel if open, otherwise by notifications.
+   * 
+   * @param mac     String value representing the MAC address of the remote 
+   *                peer.
+   * @param message Byte array representing the message to send.
+   * 
+   * @return true if the message has been queued, otherwise false.
+   */
+  private boolean sendToClient(String mac, byte[] message) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && l2capManager.peek() != null
+        && l2capManager.peek().sendMessage(mac, message))
+      return true;
+
+    return gattServerManager.get().sendMessage(mac, message);
+  }
+
+  /**
+   * Method allowing to get the transports supported by the device, and the 
+   * time spent creating them.
+   * 
+   * @return HashMap<String, Object> containing the 'ble', 'l2cap', 
+   *         'wifiDirect', 'wifiAware', 'attachUs', and 'creationUs' keys.
+   */
+  private HashMap<String, Object> getCapabilities() {
+    final PackageManager packageManager = context.getPackageManager();
+
+    HashMap<String, Object> mapCreationTime = new HashMap<>();
+    mapCreationTime.put("ble", bleManager.getCreationTimeUs());
+    mapCreationTime.put("scanner", bleScanner.getCreationTimeUs());
+    mapCreationTime.put("gatt", gattServerManager.getCreationTimeUs());
+    mapCreationTime.put("gattClient", gattClientManager.getCreationTimeUs());
+    mapCreationTime.put("l2cap", l2capManager.getCreationTimeUs());
+    mapCreationTime.put("wifiDirect", wifiAdHocManager.getCreationTimeUs());
+    mapCreationTime.put("wifiAware", wifiAwareManager.getCreationTimeUs());
+
+    HashMap<String, Object> mapCapabilities = new HashMap<>();
+    mapCapabilities.put("ble", bleManager.isSupported());
+    mapCapabilities.put("l2cap", l2capManager.isSupported());
+    mapCapabilities.put("wifiDirect", wifiAdHocManager.isSupported());
+    mapCapabilities.put("wifiAware", Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+      && packageManager.hasSystemFeature(PackageManager.FEATURE_WIFI_AWARE));
+    mapCapabilities.put("attachUs", attachTimeUs);
+    mapCapabilities.put("creationUs", mapCreationTime);
+
+    return mapCapabilities;
+  }
 }
@@ -0,0 +1,283 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Class representing the service data advertised by a node, which gives the
+ * remote peers its identity and routing hints before any connection.
+ *
+ * Format: PSM of the L2CAP channel (2 bytes, little-endian, 0 if none),
+ * version (1 byte), node id (4 bytes, big-endian), sequence number (2 bytes,
+ * big-endian), number of neighbours (1 byte), and a bloom filter of the
+ * destinations reachable by the node (digest, the remaining bytes).
+ *
+ * The node id is the 32-bit FNV-1a hash of the label of the node, and the
+ * bloom filter sets 3 bits per destination (double hashing of the same
+ * hash). The PSM stays in first position, so that the older peers still find
+ * it.
+ */
+public class AdvertisingPayload {
+    // Version of the format
+    public static final byte VERSION = 1;
+    // Size of the payload without the digest
+    public static final int HEADER_SIZE = 10;
+    // Size of the digest fitting in a legacy scan response (31 bytes)
+    public static final int LEGACY_DIGEST_SIZE = 16;
+    // Size of the digest in an extended advertisement
+    public static final int EXTENDED_DIGEST_SIZE = 64;
+
+    // Number of bits set per destination in the digest
+    private static final int HASHES = 3;
+    // FNV-1a 32-bit parameters
+    private static final int FNV_OFFSET = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final int psm;
+    private final int nodeId;
+    private final int seq;
+    private final int neighbours;
+    private final byte[] digest;
+
+    /**
+     * Constructor
+     *
+     * @param psm           Integer value representing the PSM of the L2CAP
+     *                      channel (0 if none).
+     * @param nodeId        Integer value representing the id of the node.
+     * @param seq           Integer value representing the sequence number of
+     *                      the node (16 bits kept).
+     * @param neighbours    Integer value representing the number of
+     *                      neighbours (at most 255).
+     * @param digest        Byte array representing the bloom filter of the
+     *                      reachable destinations.
+     */
+    public AdvertisingPayload(int psm, int nodeId, int seq, int neighbours, byte[] digest) {
+        this.psm = psm & 0xFFFF;
+        this.nodeId = nodeId;
+        this.seq = seq & 0xFFFF;
+        this.neighbours = Math.max(0, Math.min(0xFF, neighbours));
+        this.digest = digest;
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to get the service data to advertise.
+     *
+     * @return Byte array representing the service data.
+     */
+    public byte[] encode() {
+        byte[] data = new byte[HEADER_SIZE + digest.length];
+        data[0] = (byte) psm;
+        data[1] = (byte) (psm >> 8);
+        data[2] = VERSION;
+        data[3] = (byte) (nodeId >> 24);
+        data[4] = (byte) (nodeId >> 16);
+        data[5] = (byte) (nodeId >> 8);
+        data[6] = (byte) nodeId;
+        data[7] = (byte) (seq >> 8);
+        data[8] = (byte) seq;
+        data[9] = (byte) neighbours;
+        System.arraycopy(digest, 0, data, HEADER_SIZE, digest.length);
+        return data;
+    }
+
+    /**
+     * Method allowing to check whether a destination may be reached through
+     * the node. False positives are possible, false negatives are not.
+     *
+     * @param label String value representing the label of the destination.
+     *
+     * @return true if the node is the destination or if its digest may
+     *         contain it, otherwise false.
+     */
+    public boolean mightReach(String label) {
+        return nodeId == nodeId(label) || mightContain(digest, label);
+    }
+
+    /**
+     * Method allowing to get the PSM of the L2CAP channel.
+     *
+     * @return Integer value representing the PSM, or 0 if none.
+     */
+    public int getPsm() {
+        return psm;
+    }
+
+    /**
+     * Method allowing to get the id of the node.
+     *
+     * @return Integer value representing the id.
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Method allowing to get the sequence number of the node.
+     *
+     * @return Integer value representing the sequence number (16 bits).
+     */
+    public int getSeq() {
+        return seq;
+    }
+
+    /**
+     * Method allowing to get the number of neighbours of the node.
+     *
+     * @return Integer value representing the number of neighbours.
+     */
+    public int getNeighbours() {
+        return neighbours;
+    }
+
+    /**
+     * Method allowing to get the bloom filter of the reachable destinations.
+     *
+     * @return Byte array representing the filter.
+     */
+    public byte[] getDigest() {
+        return digest;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object)
+            return true;
+        if (!(object instanceof AdvertisingPayload))
+            return false;
+
+        AdvertisingPayload other = (AdvertisingPayload) object;
+        return psm == other.psm && nodeId == other.nodeId && seq == other.seq
+            && neighbours == other.neighbours && Arrays.equals(digest, other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * nodeId + seq) + Arrays.hashCode(digest);
+    }
+
+/*--------------------------------Static methods------------------------------*/
+
+    /**
+     * Static method allowing to parse the service data of a remote peer.
+     *
+     * @param data  Byte array representing the service data.
+     *
+     * @return AdvertisingPayload object, or null if the service data does not
+     *         hold any identity (older peer, or legacy advertisement only
+     *         holding the PSM).
+     */
+    public static AdvertisingPayload decode(byte[] data) {
+        if (data == null || data.length < HEADER_SIZE || data[2] != VERSION)
+            return null;
+
+        int nodeId = ((data[3] & 0xFF) << 24) | ((data[4] & 0xFF) << 16)
+            | ((data[5] & 0xFF) << 8) | (data[6] & 0xFF);
+        int seq = ((data[7] & 0xFF) << 8) | (data[8] & 0xFF);
+
+        return new AdvertisingPayload(
+            decodePsm(data), nodeId, seq, data[9] & 0xFF,
+            Arrays.copyOfRange(data, HEADER_SIZE, data.length)
+        );
+    }
+
+    /**
+     * Static method allowing to get the PSM of the L2CAP channel from the
+     * service data of a remote peer, whatever its version.
+     *
+     * @param data  Byte array representing the service data.
+     *
+     * @return Integer value representing the PSM, or 0 if none.
+     */
+    public static int decodePsm(byte[] data) {
+        if (data == null || data.length < 2)
+            return 0;
+        return (data[0] & 0xFF) | ((data[1] & 0xFF) << 8);
+    }
+
+    /**
+     * Static method allowing to get the id of a node.
+     *
+     * @param label String value representing the label of the node.
+     *
+     * @return Integer value representing the 32-bit FNV-1a hash of the label.
+     */
+    public static int nodeId(String label) {
+        int hash = FNV_OFFSET;
+        for (byte b : label.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xFF);
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Static method allowing to build the bloom filter of a set of
+     * destinations.
+     *
+     * @param labels    Collection<String> containing the labels of the
+     *                  destinations.
+     * @param size      Integer value representing the size of the filter in
+     *                  bytes.
+     *
+     * @return Byte array representing the filter.
+     */
+    public static byte[] digest(Collection<String> labels, int size) {
+        byte[] digest = new byte[size];
+        if (size == 0)
+            return digest;
+
+        for (String label : labels) {
+            for (int i = 0; i < HASHES; i++) {
+                int bit = bit(label, i, size * 8);
+                digest[bit >> 3] |= (byte) (1 << (bit & 7));
+            }
+        }
+
+        return digest;
+    }
+
+    /**
+     * Static method allowing to check whether a bloom filter may contain a
+     * destination.
+     *
+     * @param digest    Byte array representing the filter.
+     * @param label     String value representing the label of the
+     *                  destination.
+     *
+     * @return true if it may, otherwise false.
+     */
+    public static boolean mightContain(byte[] digest, String label) {
+        if (digest.length == 0)
+            return false;
+
+        for (int i = 0; i < HASHES; i++) {
+            int bit = bit(label, i, digest.length * 8);
+            if ((digest[bit >> 3] & (1 << (bit & 7))) == 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Static method allowing to get the i-th bit of a destination in a bloom
+     * filter (double hashing: h1 + i * h2).
+     *
+     * @param label String value representing the label of the destination.
+     * @param i     Integer value representing the index of the hash.
+     * @param bits  Integer value representing the size of the filter in bits.
+     *
+     * @return Integer value representing the index of the bit.
+     */
+    private static int bit(String label, int i, int bits) {
+        int hash = nodeId(label);
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = (Integer.rotateLeft(hash, 16) | 1) & 0xFFFFFFFFL;
+        return (int) ((h1 + i * h2) % bits);
+    }
+}
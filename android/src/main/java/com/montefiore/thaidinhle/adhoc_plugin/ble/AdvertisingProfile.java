@@ -0,0 +1,114 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import java.util.Map;
+
+/**
+ * Class representing the parameters of the advertising scheduler.
+ *
+ * The advertisement is sent in low latency bursts while the neighbourhood is
+ * empty or changing, then at balanced intervals, and finally at low power
+ * intervals once the neighbourhood is stable.
+ *
+ * The transmission power levels are the AdvertiseSettings.ADVERTISE_TX_POWER_*
+ * values (0 = ultra low, 1 = low, 2 = medium, 3 = high).
+ */
+public class AdvertisingProfile {
+    // Default parameters
+    public static final long DEFAULT_BURST_MS = 10_000;
+    public static final long DEFAULT_STABLE_AFTER_MS = 60_000;
+    public static final int DEFAULT_BURST_TX_POWER = 3;
+    public static final int DEFAULT_BALANCED_TX_POWER = 2;
+    public static final int DEFAULT_LOW_POWER_TX_POWER = 1;
+
+    // Duration of the low latency burst following a neighbourhood change
+    public final long burstMs;
+    // Duration without change after which the low power mode is used
+    public final long stableAfterMs;
+    // Transmission power level of each phase
+    public final int burstTxPower;
+    public final int balancedTxPower;
+    public final int lowPowerTxPower;
+
+    /**
+     * Default constructor
+     *
+     * @param burstMs           Long value representing the duration in
+     *                          milliseconds of the low latency burst.
+     * @param stableAfterMs     Long value representing the duration in
+     *                          milliseconds without neighbourhood change
+     *                          after which the low power mode is used.
+     * @param burstTxPower      Integer value representing the transmission
+     *                          power level of the burst phase.
+     * @param balancedTxPower   Integer value representing the transmission
+     *                          power level of the balanced phase.
+     * @param lowPowerTxPower   Integer value representing the transmission
+     *                          power level of the low power phase.
+     */
+    public AdvertisingProfile(
+        long burstMs, long stableAfterMs,
+        int burstTxPower, int balancedTxPower, int lowPowerTxPower
+    ) {
+        this.burstMs = Math.max(0, burstMs);
+        this.stableAfterMs = Math.max(this.burstMs, stableAfterMs);
+        this.burstTxPower = clampTxPower(burstTxPower);
+        this.balancedTxPower = clampTxPower(balancedTxPower);
+        this.lowPowerTxPower = clampTxPower(lowPowerTxPower);
+    }
+
+    /**
+     * Static method allowing to get the default profile.
+     *
+     * @return AdvertisingProfile object holding the default parameters.
+     */
+    public static AdvertisingProfile defaults() {
+        return new AdvertisingProfile(
+            DEFAULT_BURST_MS, DEFAULT_STABLE_AFTER_MS, DEFAULT_BURST_TX_POWER,
+            DEFAULT_BALANCED_TX_POWER, DEFAULT_LOW_POWER_TX_POWER
+        );
+    }
+
+    /**
+     * Static method allowing to build a profile from the arguments of a
+     * platform call. The missing parameters keep their default value.
+     *
+     * @param map   Map<String, Object> containing the 'burstMs',
+     *              'stableAfterMs', 'burstTxPower', 'balancedTxPower', and
+     *              'lowPowerTxPower' keys.
+     *
+     * @return AdvertisingProfile object holding the parameters.
+     */
+    public static AdvertisingProfile fromMap(Map<String, Object> map) {
+        return new AdvertisingProfile(
+            getLong(map, "burstMs", DEFAULT_BURST_MS),
+            getLong(map, "stableAfterMs", DEFAULT_STABLE_AFTER_MS),
+            (int) getLong(map, "burstTxPower", DEFAULT_BURST_TX_POWER),
+            (int) getLong(map, "balancedTxPower", DEFAULT_BALANCED_TX_POWER),
+            (int) getLong(map, "lowPowerTxPower", DEFAULT_LOW_POWER_TX_POWER)
+        );
+    }
+
+    /**
+     * Static method allowing to get a numeric value of a map.
+     *
+     * @param map           Map<String, Object> containing the value.
+     * @param key           String value representing the key of the value.
+     * @param defaultValue  Long value returned if the key is missing.
+     *
+     * @return Long value representing the value.
+     */
+    private static long getLong(Map<String, Object> map, String key, long defaultValue) {
+        Object value = (map == null) ? null : map.get(key);
+        return (value instanceof Number) ? ((Number) value).longValue() : defaultValue;
+    }
+
+    /**
+     * Static method allowing to bound a transmission power level.
+     *
+     * @param txPower   Integer value representing a transmission power level.
+     *
+     * @return Integer value representing a valid transmission power level.
+     */
+    private static int clampTxPower(int txPower) {
+        return Math.max(0, Math.min(3, txPower));
+    }
+}
@@ -0,0 +1,245 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import java.util.HashMap;
+
+/**
+ * Class deciding the advertising mode according to the state of the
+ * neighbourhood, and measuring the time needed to be discovered.
+ *
+ * While the neighbourhood is changing, the advertisement is sent in low
+ * latency for the burst duration, then in balanced mode, and finally in low
+ * power mode once nothing changed for the stable duration. While no neighbour
+ * is connected, a low latency burst is repeated every stable duration.
+ *
+ * The phases are the AdvertiseSettings.ADVERTISE_MODE_* values. All times are
+ * given by the caller, in milliseconds.
+ */
+public class AdvertisingScheduler {
+    // Advertising phases (AdvertiseSettings.ADVERTISE_MODE_*)
+    public static final int PHASE_LOW_POWER = 0;
+    public static final int PHASE_BALANCED  = 1;
+    public static final int PHASE_BURST     = 2;
+
+    private AdvertisingProfile profile;
+
+    private int neighbours;
+    private long lastChange;
+
+    private boolean advertising;
+    private int phase;
+    private long phaseSince;
+    private final long[] phaseTime;
+
+    private long waitingSince;
+    private long discoveries;
+    private long lastTimeToDiscovery;
+    private long totalTimeToDiscovery;
+
+    /**
+     * Default constructor
+     *
+     * @param profile   AdvertisingProfile object holding the parameters.
+     */
+    public AdvertisingScheduler(AdvertisingProfile profile) {
+        this.profile = profile;
+        this.neighbours = 0;
+        this.advertising = false;
+        this.phase = PHASE_BURST;
+        this.phaseTime = new long[3];
+        this.lastTimeToDiscovery = -1;
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to update the parameters of the scheduler.
+     *
+     * @param profile   AdvertisingProfile object holding the parameters.
+     */
+    public synchronized void setProfile(AdvertisingProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Method allowing to get the parameters of the scheduler.
+     *
+     * @return AdvertisingProfile object holding the parameters.
+     */
+    public synchronized AdvertisingProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Method allowing to notify the start of the advertisement. A new
+     * advertisement always starts with a low latency burst.
+     *
+     * @param now   Long value representing the current time.
+     */
+    public synchronized void start(long now) {
+        advertising = true;
+        lastChange = now;
+        waitingSince = now;
+        phase = compute(now);
+        phaseSince = now;
+    }
+
+    /**
+     * Method allowing to notify the end of the advertisement.
+     *
+     * @param now   Long value representing the current time.
+     */
+    public synchronized void stop(long now) {
+        if (!advertising)
+            return;
+
+        phaseTime[phase] += now - phaseSince;
+        advertising = false;
+    }
+
+    /**
+     * Method allowing to notify a change of the number of neighbours. A new
+     * neighbour while advertising counts as a discovery.
+     *
+     * @param count Integer value representing the number of neighbours.
+     * @param now   Long value representing the current time.
+     */
+    public synchronized void onNeighbours(int count, long now) {
+        if (count == neighbours)
+            return;
+
+        if (advertising && count > neighbours) {
+            lastTimeToDiscovery = now - waitingSince;
+            totalTimeToDiscovery += lastTimeToDiscovery;
+            discoveries++;
+            waitingSince = now;
+        }
+
+        neighbours = count;
+        lastChange = now;
+    }
+
+    /**
+     * Method allowing to move to the phase of the current time.
+     *
+     * @param now   Long value representing the current time.
+     *
+     * @return true if the phase has changed, otherwise false.
+     */
+    public synchronized boolean update(long now) {
+        int next = compute(now);
+        if (!advertising || next == phase)
+            return false;
+
+        phaseTime[phase] += now - phaseSince;
+        phase = next;
+        phaseSince = now;
+        return true;
+    }
+
+    /**
+     * Method allowing to get the current phase.
+     *
+     * @return Integer value representing the phase (PHASE_LOW_POWER,
+     *         PHASE_BALANCED, or PHASE_BURST).
+     */
+    public synchronized int getPhase() {
+        return phase;
+    }
+
+    /**
+     * Method allowing to get the transmission power level of the current
+     * phase.
+     *
+     * @return Integer value representing the transmission power level.
+     */
+    public synchronized int getTxPower() {
+        switch (phase) {
+            case PHASE_BURST:
+                return profile.burstTxPower;
+            case PHASE_BALANCED:
+                return profile.balancedTxPower;
+            default:
+                return profile.lowPowerTxPower;
+        }
+    }
+
+    /**
+     * Method allowing to get the delay before the next phase change, if
+     * nothing happens meanwhile.
+     *
+     * @param now   Long value representing the current time.
+     *
+     * @return Long value representing the delay in milliseconds, or -1 if
+     *         the current phase lasts until the next change.
+     */
+    public synchronized long delayUntilNextPhase(long now) {
+        long elapsed = now - lastChange;
+
+        if (neighbours == 0) {
+            long period = Math.max(1, profile.stableAfterMs);
+            elapsed %= period;
+            return (elapsed < profile.burstMs) ? profile.burstMs - elapsed : period - elapsed;
+        }
+
+        if (elapsed < profile.burstMs)
+            return profile.burstMs - elapsed;
+        if (elapsed < profile.stableAfterMs)
+            return profile.stableAfterMs - elapsed;
+        return -1;
+    }
+
+    /**
+     * Method allowing to get the metrics of the scheduler.
+     *
+     * @param now   Long value representing the current time.
+     *
+     * @return HashMap<String, Object> containing the 'advertising', 'phase',
+     *         'neighbours', 'discoveries', 'lastTimeToDiscoveryMs',
+     *         'meanTimeToDiscoveryMs', 'burstTimeMs', 'balancedTimeMs', and
+     *         'lowPowerTimeMs' keys.
+     */
+    public synchronized HashMap<String, Object> toMap(long now) {
+        long[] times = phaseTime.clone();
+        if (advertising)
+            times[phase] += now - phaseSince;
+
+        HashMap<String, Object> mapInfoValue = new HashMap<>();
+        mapInfoValue.put("advertising", advertising);
+        mapInfoValue.put("phase", phase);
+        mapInfoValue.put("neighbours", neighbours);
+        mapInfoValue.put("discoveries", discoveries);
+        mapInfoValue.put("lastTimeToDiscoveryMs", lastTimeToDiscovery);
+        mapInfoValue.put(
+            "meanTimeToDiscoveryMs", (discoveries == 0) ? -1 : totalTimeToDiscovery / discoveries
+        );
+        mapInfoValue.put("burstTimeMs", times[PHASE_BURST]);
+        mapInfoValue.put("balancedTimeMs", times[PHASE_BALANCED]);
+        mapInfoValue.put("lowPowerTimeMs", times[PHASE_LOW_POWER]);
+
+        return mapInfoValue;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to compute the phase of a given time.
+     *
+     * @param now   Long value representing the current time.
+     *
+     * @return Integer value representing the phase.
+     */
+    private int compute(long now) {
+        long elapsed = now - lastChange;
+
+        if (neighbours == 0) {
+            elapsed %= Math.max(1, profile.stableAfterMs);
+            return (elapsed < profile.burstMs) ? PHASE_BURST : PHASE_BALANCED;
+        }
+
+        if (elapsed < profile.burstMs)
+            return PHASE_BURST;
+        if (elapsed < profile.stableAfterMs)
+            return PHASE_BALANCED;
+        return PHASE_LOW_POWER;
+    }
+}
@@ -4,14 +4,40 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
+import androidx.annotation.RequiresApi;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
  * Class managing the peripheral role in Bluetooth Low Energy.
+ * 
+ * The advertising mode and transmission power are chosen by an 
+ * AdvertisingScheduler according to the neighbourhood, and the advertisement 
+ * is restarted whenever they change.
+ * 
+ * The PSM of the L2CAP channel, if any, is advertised in the service data of 
+ * the scan response (2 bytes, little-endian). Once the routing layer gives 
+ * the identity of the node and its reachable destinations, the service data 
+ * holds an AdvertisingPayload instead, whose PSM stays in first position.
+ * 
+ * On API 26+, an advertising set is used, so that the payload is updated 
+ * without restarting the advertisement. It is sent in extended advertisements 
+ * (larger digest, no scan response) if enabled and supported by the 
+ * controller, otherwise in legacy ones (scan response).
  */
 public class BleManager {
     private static final String TAG = "[AdHocPlugin][Ble]";
@@ -20,8 +46,22 @@ public class BleManager {
 
     private BluetoothLeAdvertiser bluetoothLeAdvertiser;
     private boolean verbose;
+    private boolean advertising;
+    private int l2capPsm;
     private final String initialName;
 
+    // Routing hints advertised (AdvertisingPayload)
+    private boolean routingAdvertised;
+    private boolean extendedEnabled;
+    private int nodeId;
+    private int seq;
+    private int neighbours;
+    private List<String> destinations;
+    private AdvertisingSet advertisingSet;
+
+    private final Handler handler;
+    private final AdvertisingScheduler scheduler;
+
     /**
      * Default constructor
      */
@@ -30,6 +70,13 @@ public class BleManager {
         this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
         this.bluetoothLeAdvertiser = bluetoothAdapter.getBluetoothLeAdvertiser();
         this.initialName = bluetoothAdapter.getName();
+        this.advertising = false;
+        this.l2capPsm = 0;
+        this.routingAdvertised = false;
+        this.extendedEnabled = false;
+        this.destinations = new ArrayList<>();
+        this.handler = new Handler(Looper.getMainLooper());
+        this.scheduler = new AdvertisingScheduler(AdvertisingProfile.defaults());
     }
 
     // Interface callback for notification about the discovery mode (advertisement)
@@ -49,32 +96,63 @@ public class BleManager {
         }
     };
 
+    // Interface callback for notification about the advertising set (API 26+)
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private final class SetCallback extends AdvertisingSetCallback {
+        @Override
+        public void onAdvertisingSetStarted(AdvertisingSet set, int txPower, int status) {
+            if (verbose) Log.d(TAG, "onAdvertisingSetStarted(): " + status);
+
+            if (status == ADVERTISE_SUCCESS)
+                advertisingSet = set;
+        }
+
+        @Override
+        public void onAdvertisingSetStopped(AdvertisingSet set) {
+            if (verbose) Log.d(TAG, "onAdvertisingSetStopped()");
+
+            if (advertisingSet == set)
+                advertisingSet = null;
+        }
+    }
+
+    // Created on first use, only on API 26+
+    private SetCallback advertisingSetCallback;
+
+    // Task moving the advertisement to the next phase of the scheduler
+    private final Runnable phaseTask = new Runnable() {
+        @Override
+        public void run() {
+            evaluate();
+        }
+    };
+
+    // Task ending the advertisement once its duration has elapsed
+    private final Runnable timeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            stopAdvertise();
+        }
+    };
+
     /**
      * Method allowing to start the advertisement process (discovery mode enable).
+     * 
+     * @param durationMs    Long value representing the duration of the 
+     *                      advertisement in milliseconds (0 = no time limit).
      */
-    public void startAdvertise() {
-        if (verbose) Log.d(TAG, "startAdvertise()");
+    public void startAdvertise(long durationMs) {
+        if (verbose) Log.d(TAG, "startAdvertise(): " + durationMs);
 
-        // Building the advertisement packet
-        AdvertiseData data = new AdvertiseData.Builder()
-            .addServiceUuid(new ParcelUuid(UUID.fromString(BleUtils.SERVICE_UUID)))
-            .setIncludeDeviceName(true)
-            .build();
+        handler.removeCallbacks(timeoutTask);
+        scheduler.start(SystemClock.elapsedRealtime());
+        advertising = true;
 
-        AdvertiseSettings settings = new AdvertiseSettings.Builder()
-            .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_BALANCED)
-            .setConnectable(true)
-            .setTimeout(0) // 0 = no time limit
-            .build();
+        restartAdvertising();
+        schedule();
 
-        if (bluetoothLeAdvertiser == null) {
-            bluetoothLeAdvertiser = bluetoothAdapter.getBluetoothLeAdvertiser();
-            if (bluetoothLeAdvertiser == null)
-                return;
-        }
-    
-        // Start advertisement
-        bluetoothLeAdvertiser.startAdvertising(settings, data, advertiseCallback);
+        if (durationMs > 0)
+            handler.postDelayed(timeoutTask, durationMs);
     }
 
     /**
@@ -83,8 +161,137 @@ public class BleManager {
     public void stopAdvertise() {
         if (verbose) Log.d(TAG, "stopAdvertise()");
 
-        if (bluetoothLeAdvertiser != null)
+        handler.removeCallbacks(phaseTask);
+        handler.removeCallbacks(timeoutTask);
+        scheduler.stop(SystemClock.elapsedRealtime());
+        advertising = false;
+
+        if (bluetoothLeAdvertiser == null)
+            return;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            stopAdvertisingSet();
+        } else {
             bluetoothLeAdvertiser.stopAdvertising(advertiseCallback);
+        }
+    }
+
+    /**
+     * Method allowing to notify the scheduler of a change of the number of 
+     * neighbours. It may be called from any thread.
+     * 
+     * @param count Integer value representing the number of neighbours.
+     */
+    public void onNeighboursChanged(final int count) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.onNeighbours(count, SystemClock.elapsedRealtime());
+                if (advertising)
+                    evaluate();
+
+                if (neighbours != count) {
+                    neighbours = count;
+                    if (routingAdvertised && advertising)
+                        updatePayload();
+                }
+            }
+        });
+    }
+
+    /**
+     * Method allowing to update the parameters of the advertising scheduler.
+     * 
+     * @param map   Map<String, Object> containing the parameters of the 
+     *              profile (see AdvertisingProfile.fromMap()).
+     */
+    public void setAdvertisingProfile(Map<String, Object> map) {
+        if (verbose) Log.d(TAG, "setAdvertisingProfile(): " + map);
+
+        scheduler.setProfile(AdvertisingProfile.fromMap(map));
+        if (advertising) {
+            // The power level may have changed without any phase change
+            scheduler.update(SystemClock.elapsedRealtime());
+            restartAdvertising();
+            schedule();
+        }
+    }
+
+    /**
+     * Method allowing to get the metrics of the advertising scheduler (phase, 
+     * time spent in each phase, and time needed to be discovered), and the 
+     * mode of the advertisement.
+     * 
+     * @return HashMap<String, Object> containing the metrics.
+     */
+    public HashMap<String, Object> getAdvertisingStats() {
+        HashMap<String, Object> mapStats = scheduler.toMap(SystemClock.elapsedRealtime());
+        mapStats.put("extended", isExtended());
+        mapStats.put("routingAdvertised", routingAdvertised);
+        return mapStats;
+    }
+
+    /**
+     * Method allowing to set the PSM of the L2CAP channel to advertise.
+     * 
+     * @param psm   Integer value representing the PSM (0 = no L2CAP channel, 
+     *              the remote peers use the Gatt characteristics).
+     */
+    public void setL2capPsm(final int psm) {
+        if (verbose) Log.d(TAG, "setL2capPsm(): " + psm);
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (l2capPsm == psm)
+                    return;
+
+                l2capPsm = psm;
+                if (advertising)
+                    updatePayload();
+            }
+        });
+    }
+
+    /**
+     * Method allowing to set the routing hints to advertise (identity of the 
+     * node and destinations reachable through it).
+     * 
+     * @param label         String value representing the label of the node.
+     * @param seq           Integer value representing the sequence number of 
+     *                      the node.
+     * @param destinations  List<String> containing the labels of the 
+     *                      destinations reachable.
+     * @param extended      Boolean value representing whether the extended 
+     *                      advertisements should be used (if supported).
+     */
+    public void setAdvertisedRouting(final String label, final int seq, 
+                                     final List<String> destinations, 
+                                     final boolean extended) {
+        if (verbose) Log.d(TAG, "setAdvertisedRouting(): " + seq + ", " + destinations.size());
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                boolean modeChanged = extendedEnabled != extended;
+
+                BleManager.this.routingAdvertised = true;
+                BleManager.this.extendedEnabled = extended;
+                BleManager.this.nodeId = AdvertisingPayload.nodeId(label);
+                BleManager.this.seq = seq;
+                BleManager.this.destinations = new ArrayList<>(destinations);
+
+                if (!advertising)
+                    return;
+
+                // The parameters of the advertising set depend on the mode
+                if (modeChanged) {
+                    restartAdvertising();
+                } else {
+                    updatePayload();
+                }
+            }
+        });
     }
 
     /** 
@@ -146,4 +353,228 @@ public class BleManager {
     public boolean disable() {
         return bluetoothAdapter.disable();
     }
+
+    /**
+     * Method allowing to apply the phase of the current time, and to wait 
+     * for the next one.
+     */
+    private void evaluate() {
+        if (scheduler.update(SystemClock.elapsedRealtime())) {
+            if (verbose) Log.d(TAG, "evaluate(): phase " + scheduler.getPhase());
+            restartAdvertising();
+        }
+
+        schedule();
+    }
+
+    /**
+     * Method allowing to schedule the next phase change of the scheduler.
+     */
+    private void schedule() {
+        handler.removeCallbacks(phaseTask);
+
+        long delay = scheduler.delayUntilNextPhase(SystemClock.elapsedRealtime());
+        if (delay >= 0)
+            handler.postDelayed(phaseTask, delay);
+    }
+
+    /**
+     * Method allowing to (re)start the advertisement with the mode and the 
+     * transmission power of the current phase.
+     */
+    private void restartAdvertising() {
+        if (bluetoothLeAdvertiser == null) {
+            bluetoothLeAdvertiser = bluetoothAdapter.getBluetoothLeAdvertiser();
+            if (bluetoothLeAdvertiser == null)
+                return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            restartAdvertisingSet();
+            return;
+        }
+
+        AdvertiseSettings settings = new AdvertiseSettings.Builder()
+            .setAdvertiseMode(scheduler.getPhase())
+            .setTxPowerLevel(scheduler.getTxPower())
+            .setConnectable(true)
+            .setTimeout(0) // 0 = no time limit
+            .build();
+
+        // Settings cannot be changed while advertising
+        bluetoothLeAdvertiser.stopAdvertising(advertiseCallback);
+        bluetoothLeAdvertiser.startAdvertising(
+            settings, buildAdvertiseData(false), buildScanResponse(), advertiseCallback
+        );
+    }
+
+    /**
+     * Method allowing to (re)start the advertising set with the interval and 
+     * the transmission power of the current phase (API 26+).
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private void restartAdvertisingSet() {
+        boolean extended = isExtended();
+
+        // A connectable extended advertisement cannot be scannable, the 
+        // payload is then in the advertisement itself
+        AdvertisingSetParameters parameters = new AdvertisingSetParameters.Builder()
+            .setLegacyMode(!extended)
+            .setConnectable(true)
+            .setScannable(!extended)
+            .setInterval(toInterval(scheduler.getPhase()))
+            .setTxPowerLevel(toTxPower(scheduler.getTxPower()))
+            .build();
+
+        // Parameters cannot be changed while advertising
+        stopAdvertisingSet();
+        bluetoothLeAdvertiser.startAdvertisingSet(
+            parameters, buildAdvertiseData(extended), 
+            extended ? null : buildScanResponse(), null, null, 
+            advertisingSetCallback
+        );
+    }
+
+    /**
+     * Method allowing to stop the advertising set (API 26+).
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private void stopAdvertisingSet() {
+        if (advertisingSetCallback == null)
+            advertisingSetCallback = new SetCallback();
+
+        bluetoothLeAdvertiser.stopAdvertisingSet(advertisingSetCallback);
+        advertisingSet = null;
+    }
+
+    /**
+     * Method allowing to update the service data advertised. The advertising 
+     * set is updated in place if started, otherwise the advertisement is 
+     * restarted.
+     */
+    private void updatePayload() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && advertisingSet != null) {
+            if (isExtended()) {
+                advertisingSet.setAdvertisingData(buildAdvertiseData(true));
+            } else {
+                advertisingSet.setScanResponseData(buildScanResponse());
+            }
+            return;
+        }
+
+        restartAdvertising();
+    }
+
+    /**
+     * Method allowing to build the advertisement packet.
+     * 
+     * @param extended  Boolean value representing whether the advertisement 
+     *                  is extended (the service data is then included).
+     * 
+     * @return AdvertiseData object representing the advertisement packet.
+     */
+    private AdvertiseData buildAdvertiseData(boolean extended) {
+        AdvertiseData.Builder data = new AdvertiseData.Builder()
+            .addServiceUuid(new ParcelUuid(UUID.fromString(BleUtils.SERVICE_UUID)))
+            .setIncludeDeviceName(true);
+
+        if (extended)
+            addServiceData(data, AdvertisingPayload.EXTENDED_DIGEST_SIZE);
+
+        return data.build();
+    }
+
+    /**
+     * Method allowing to build the scan response of a legacy advertisement.
+     * 
+     * @return AdvertiseData object representing the scan response.
+     */
+    private AdvertiseData buildScanResponse() {
+        // The service data does not fit next to the device name
+        AdvertiseData.Builder scanResponse = new AdvertiseData.Builder();
+        addServiceData(scanResponse, AdvertisingPayload.LEGACY_DIGEST_SIZE);
+        return scanResponse.build();
+    }
+
+    /**
+     * Method allowing to add the service data (PSM only, or AdvertisingPayload 
+     * once the routing hints are set) to an advertisement packet.
+     * 
+     * @param builder       AdvertiseData.Builder object of the packet.
+     * @param digestSize    Integer value representing the size of the digest 
+     *                      of the reachable destinations in bytes.
+     */
+    private void addServiceData(AdvertiseData.Builder builder, int digestSize) {
+        byte[] serviceData = null;
+        if (routingAdvertised) {
+            serviceData = new AdvertisingPayload(
+                l2capPsm, nodeId, seq, neighbours, 
+                AdvertisingPayload.digest(destinations, digestSize)
+            ).encode();
+        } else if (l2capPsm > 0) {
+            serviceData = new byte[] {(byte) l2capPsm, (byte) (l2capPsm >> 8)};
+        }
+
+        if (serviceData != null) {
+            builder.addServiceData(
+                new ParcelUuid(UUID.fromString(BleUtils.SERVICE_UUID)), serviceData
+            );
+        }
+    }
+
+    /**
+     * Method allowing to check whether the extended advertisements are used.
+     * 
+     * @return true if they are enabled and supported, otherwise false.
+     */
+    private boolean isExtended() {
+        return extendedEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+            && bluetoothAdapter.isLeExtendedAdvertisingSupported();
+    }
+
+    /**
+     * Method allowing to get the interval of an advertising set from an 
+     * advertising mode.
+     * 
+     * @param mode  Integer value representing the mode 
+     *              (AdvertiseSettings.ADVERTISE_MODE_*).
+     * 
+     * @return Integer value representing the interval 
+     *         (AdvertisingSetParameters.INTERVAL_*).
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private static int toInterval(int mode) {
+        switch (mode) {
+            case AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY:
+                return AdvertisingSetParameters.INTERVAL_LOW;
+            case AdvertiseSettings.ADVERTISE_MODE_BALANCED:
+                return AdvertisingSetParameters.INTERVAL_MEDIUM;
+            default:
+                return AdvertisingSetParameters.INTERVAL_HIGH;
+        }
+    }
+
+    /**
+     * Method allowing to get the transmission power of an advertising set 
+     * from a power level.
+     * 
+     * @param level Integer value representing the power level 
+     *              (AdvertiseSettings.ADVERTISE_TX_POWER_*).
+     * 
+     * @return Integer value representing the transmission power in dBm 
+     *         (AdvertisingSetParameters.TX_POWER_*).
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private static int toTxPower(int level) {
+        switch (level) {
+            case AdvertiseSettings.ADVERTISE_TX_POWER_HIGH:
+                return AdvertisingSetParameters.TX_POWER_HIGH;
+            case AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM:
+                return AdvertisingSetParameters.TX_POWER_MEDIUM;
+            case AdvertiseSettings.ADVERTISE_TX_POWER_LOW:
+                return AdvertisingSetParameters.TX_POWER_LOW;
+            default:
+                return AdvertisingSetParameters.TX_POWER_ULTRA_LOW;
+        }
+    }
 }
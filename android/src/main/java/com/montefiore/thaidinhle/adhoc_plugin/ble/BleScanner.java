@@ -0,0 +1,386 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.EventChannel.EventSink;
+import io.flutter.plugin.common.EventChannel.StreamHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Class managing the discovery of the remote peers in Bluetooth Low Energy.
+ *
+ * The results are filtered on the ad hoc service UUID by the controller, and
+ * batched by it for the report delay when offloaded batching is supported.
+ * The results are aggregated by a ScanAggregator, and a single delta of the
+ * devices in range is sent to the Flutter client per report delay.
+ *
+ * The extended advertisements are scanned too when the controller supports
+ * them, so that the routing hints of the remote peers advertising in extended
+ * mode (AdvertisingPayload) are received.
+ */
+public class BleScanner {
+    private static final String TAG = "[AdHocPlugin][Scan]";
+    public static final String EVENT_NAME = "ad.hoc.lib/ble.scan.channel";
+
+    // Default delay between two reports to the Flutter client
+    public static final long DEFAULT_REPORT_DELAY_MS = 1000;
+    // Maximum time waited for the results flushed when the scan is stopped
+    private static final long FLUSH_TIMEOUT_MS = 500;
+
+    // Constants for communication with the Flutter platform barrier
+    private static final byte ANDROID_DISCOVERY = 120;
+
+    private boolean verbose;
+    private boolean scanning;
+    // Whether the scan is stopping, waiting for the flushed results
+    private boolean flushing;
+    private boolean offloadedBatching;
+    private long reportDelayMs;
+    private final BluetoothAdapter bluetoothAdapter;
+    private final Handler handler;
+    private final ScanAggregator aggregator;
+    // Listeners waiting for the last report of the scan
+    private final ArrayList<Runnable> stopListeners;
+
+    private EventChannel eventChannel;
+    private volatile EventSink eventSink;
+
+    // Counters of the current scan
+    private long callbacks;
+    private long results;
+    private long reports;
+
+    /**
+     * Default constructor
+     */
+    public BleScanner() {
+        this.verbose = false;
+        this.scanning = false;
+        this.reportDelayMs = DEFAULT_REPORT_DELAY_MS;
+        this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        this.handler = new Handler(Looper.getMainLooper());
+        this.aggregator = new ScanAggregator();
+        this.stopListeners = new ArrayList<>();
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to update the verbose/debug mode.
+     *
+     * @param verbose   Boolean value representing the sate of the verbose/debug
+     *                  mode.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Method allowing to set up the platform event channel through which the
+     * discovery deltas are sent.
+     *
+     * @param messenger BinaryMessenger object, which sends binary data across
+     *                  the Flutter platform barrier.
+     */
+    public void setupEventChannel(BinaryMessenger messenger) {
+        if (verbose) Log.d(TAG, "setupEventChannel()");
+
+        eventChannel = new EventChannel(messenger, EVENT_NAME);
+        eventChannel.setStreamHandler(new StreamHandler() {
+            @Override
+            public void onListen(Object arguments, EventSink events) {
+                eventSink = events;
+            }
+
+            @Override
+            public void onCancel(Object arguments) {
+                eventSink = null;
+            }
+        });
+    }
+
+    /**
+     * Method allowing to start the discovery of the remote peers. It must be
+     * called on the main thread.
+     *
+     * @param durationMs    Long value representing the duration of the scan
+     *                      in milliseconds (0 = no time limit).
+     * @param reportDelayMs Long value representing the delay in milliseconds
+     *                      between two reports to the Flutter client.
+     *
+     * @return true if the scan has been started, otherwise false.
+     */
+    public boolean startScan(long durationMs, long reportDelayMs) {
+        if (verbose) Log.d(TAG, "startScan(): " + durationMs + ", " + reportDelayMs);
+
+        BluetoothLeScanner scanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (scanner == null)
+            return false;
+
+        if (scanning)
+            stopScan();
+        // The results of the previous scan are reported before it starts over
+        if (flushing)
+            flushTask.run();
+
+        this.reportDelayMs = Math.max(100, reportDelayMs);
+        this.offloadedBatching = bluetoothAdapter.isOffloadedScanBatchingSupported();
+        this.callbacks = 0;
+        this.results = 0;
+        this.reports = 0;
+        aggregator.clear();
+
+        // Filtering done by the controller
+        List<ScanFilter> filters = Collections.singletonList(
+            new ScanFilter.Builder()
+                .setServiceUuid(new ParcelUuid(UUID.fromString(BleUtils.SERVICE_UUID)))
+                .build()
+        );
+
+        // Without offloaded batching, the results are batched by the
+        // aggregator only
+        ScanSettings.Builder settings = new ScanSettings.Builder()
+            .setScanMode(ScanSettings.SCAN_MODE_BALANCED)
+            .setReportDelay(offloadedBatching ? this.reportDelayMs : 0);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                && bluetoothAdapter.isLeExtendedAdvertisingSupported()) {
+            settings.setLegacy(false);
+            settings.setPhy(ScanSettings.PHY_LE_ALL_SUPPORTED);
+        }
+
+        scanner.startScan(filters, settings.build(), scanCallback);
+        scanning = true;
+
+        handler.removeCallbacks(reportTask);
+        handler.removeCallbacks(timeoutTask);
+        handler.postDelayed(reportTask, this.reportDelayMs);
+        if (durationMs > 0)
+            handler.postDelayed(timeoutTask, durationMs);
+
+        return true;
+    }
+
+    /**
+     * Method allowing to stop the discovery. The results not reported yet are
+     * sent to the Flutter client.
+     */
+    public void stopScan() {
+        stopScan(null);
+    }
+
+    /**
+     * Method allowing to stop the discovery. The results not reported yet are
+     * sent to the Flutter client, once those still batched by the controller
+     * have been flushed.
+     *
+     * @param listener  Runnable object called on the main thread after the
+     *                  last report, or null.
+     */
+    public void stopScan(Runnable listener) {
+        if (verbose) Log.d(TAG, "stopScan()");
+
+        handler.removeCallbacks(reportTask);
+        handler.removeCallbacks(timeoutTask);
+        if (listener != null)
+            stopListeners.add(listener);
+
+        if (flushing)
+            return;
+
+        if (!scanning) {
+            endScan();
+            return;
+        }
+
+        scanning = false;
+        BluetoothLeScanner scanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (scanner != null && offloadedBatching) {
+            // The results batched by the controller are delivered later to the
+            // callback, which must stay registered until then
+            flushing = true;
+            scanner.flushPendingScanResults(scanCallback);
+            handler.postDelayed(flushTask, FLUSH_TIMEOUT_MS);
+            return;
+        }
+
+        if (scanner != null)
+            scanner.stopScan(scanCallback);
+        endScan();
+    }
+
+    /**
+     * Method allowing to get the counters of the current scan (callbacks
+     * received, results, reports sent, and devices in range).
+     *
+     * @return HashMap<String, Object> containing the counters.
+     */
+    public HashMap<String, Object> getScanStats() {
+        HashMap<String, Object> mapStats = new HashMap<>();
+        mapStats.put("scanning", scanning);
+        mapStats.put("offloadedBatching", offloadedBatching);
+        mapStats.put("reportDelayMs", reportDelayMs);
+        mapStats.put("callbacks", callbacks);
+        mapStats.put("results", results);
+        mapStats.put("reports", reports);
+        mapStats.put("devices", aggregator.size());
+        return mapStats;
+    }
+
+    /**
+     * Method allowing to stop the discovery and to release the event channel.
+     */
+    public void close() {
+        if (verbose) Log.d(TAG, "close()");
+
+        stopScan();
+        if (eventChannel != null)
+            eventChannel.setStreamHandler(null);
+        eventSink = null;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to add a scan result to the aggregator.
+     *
+     * @param result    ScanResult object reported by the controller.
+     */
+    private void onResult(ScanResult result) {
+        results++;
+
+        int psm = 0;
+        String name = null;
+        AdvertisingPayload payload = null;
+        ScanRecord record = result.getScanRecord();
+        if (record != null) {
+            name = record.getDeviceName();
+            byte[] data = record.getServiceData(new ParcelUuid(UUID.fromString(BleUtils.SERVICE_UUID)));
+            psm = AdvertisingPayload.decodePsm(data);
+            payload = AdvertisingPayload.decode(data);
+        }
+
+        aggregator.onResult(
+            result.getDevice().getAddress(), name, result.getRssi(), psm, payload,
+            SystemClock.elapsedRealtime()
+        );
+    }
+
+    /**
+     * Method allowing to send the last report of the scan and to notify the
+     * listeners waiting for it.
+     */
+    private void endScan() {
+        report();
+
+        List<Runnable> listeners = new ArrayList<>(stopListeners);
+        stopListeners.clear();
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Method allowing to send the changes since the previous report to the
+     * Flutter client.
+     */
+    private void report() {
+        HashMap<String, Object> mapInfoValue = aggregator.drainDelta(SystemClock.elapsedRealtime());
+        EventSink sink = eventSink;
+        if (mapInfoValue == null || sink == null)
+            return;
+
+        reports++;
+        mapInfoValue.put("type", ANDROID_DISCOVERY);
+        sink.success(mapInfoValue);
+    }
+
+    // Task sending a report at each report delay
+    private final Runnable reportTask = new Runnable() {
+        @Override
+        public void run() {
+            report();
+            handler.postDelayed(this, reportDelayMs);
+        }
+    };
+
+    // Task stopping the scan once the flushed results are received, or after
+    // FLUSH_TIMEOUT_MS without them
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            handler.removeCallbacks(this);
+            flushing = false;
+
+            BluetoothLeScanner scanner = bluetoothAdapter.getBluetoothLeScanner();
+            if (scanner != null)
+                scanner.stopScan(scanCallback);
+            endScan();
+        }
+    };
+
+    // Task ending the scan once its duration has elapsed
+    private final Runnable timeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            stopScan();
+        }
+    };
+
+    // Interface callback for the scan results (main thread)
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            callbacks++;
+            onResult(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> batch) {
+            callbacks++;
+            for (ScanResult result : batch) {
+                onResult(result);
+            }
+
+            // Results flushed as the scan is stopped
+            if (flushing)
+                flushTask.run();
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.e(TAG, "onScanFailed(): " + errorCode);
+            handler.removeCallbacks(reportTask);
+            handler.removeCallbacks(timeoutTask);
+            handler.removeCallbacks(flushTask);
+            scanning = false;
+            flushing = false;
+
+            // The listeners waiting for the end of the scan are released, and
+            // the Flutter client is told that the discovery is over
+            endScan();
+            EventSink sink = eventSink;
+            if (sink != null)
+                sink.error("scanFailed", "The scan has failed", errorCode);
+        }
+    };
+}
@@ -2,6 +2,8 @@ package com.montefiore.thaidinhle.adhoc_plugin.ble;
 
 import android.bluetooth.BluetoothAdapter;
 
+import java.nio.ByteBuffer;
+
 /**
  * Miscellaneous class for Bluetooth Low Energy.
  */
@@ -9,8 +11,18 @@ public class BleUtils {
     // Gatt service and characteristic UUID
     public static final String SERVICE_UUID = "00000001-0000-1000-8000-00805f9b34fb";
     public static final String CHARACTERISTIC_UUID = "00000002-0000-1000-8000-00805f9b34fb";
+    // Maximum number of data characteristics published by the Gatt server
+    public static final int MAX_DATA_CHARACTERISTICS = 8;
+    // Header of a data frame: type (1 byte), MAC (6 bytes), length (4 bytes)
+    public static final int FRAME_HEADER_SIZE = 11;
+    // Client characteristic configuration descriptor UUID (notifications)
+    public static final String CLIENT_CONFIG_UUID = "00002902-0000-1000-8000-00805f9b34fb";
     // Minimum Bluetooth Low Energy mtu
     public static final byte MIN_MTU = 20;
+    // Maximum Bluetooth Low Energy mtu requested by the Gatt client
+    public static final int MAX_MTU = 500;
+    // Bluetooth LE 1M PHY (BluetoothDevice.PHY_LE_1M, API 26)
+    public static final int PHY_LE_1M = 1;
     // TAG for data fragmentation
     public static final byte MESSAGE_END = 0;
     public static final byte MESSAGE_FRAG = 1;
@@ -18,6 +30,62 @@ public class BleUtils {
     public static final byte STATE_DISCONNECTED = 0;
     public static final byte STATE_CONNECTED = 1;
 
+    /**
+     * Static method allowing to get the UUID of a data characteristic. The 
+     * first one is the ad hoc characteristic, the next ones follow it.
+     * 
+     * @param index Integer value representing the index of the characteristic.
+     * 
+     * @return String value representing the UUID of the characteristic.
+     */
+    public static String characteristicUuid(int index) {
+        if (index == 0)
+            return CHARACTERISTIC_UUID;
+
+        return String.format("%08x", 2 + index) + CHARACTERISTIC_UUID.substring(8);
+    }
+
+    /**
+     * Static method allowing to write a MAC address as 6 bytes.
+     * 
+     * @param mac       String value representing the MAC address 
+     *                  (XX:XX:XX:XX:XX:XX).
+     * @param buffer    ByteBuffer object in which the address is written.
+     * @param index     Integer value representing the index of the first byte.
+     */
+    public static void putMac(String mac, ByteBuffer buffer, int index) {
+        for (int i = 0; i < 6; i++) {
+            buffer.put(index + i, (byte) Integer.parseInt(mac.substring(i * 3, i * 3 + 2), 16));
+        }
+    }
+
+    /**
+     * Static method allowing to write the header of a data frame in the 
+     * headroom of a message, and to prepare it for the binary messenger.
+     * 
+     * The binary messenger sends the bytes from 0 up to the position of the 
+     * buffer, so the position is moved to the end of the frame.
+     * 
+     * @param message   ByteBuffer object holding the message between its 
+     *                  position and its limit, after FRAME_HEADER_SIZE bytes 
+     *                  of headroom.
+     * @param type      Byte value representing the type of the frame.
+     * @param mac       String value representing the MAC address of the 
+     *                  remote peer.
+     * 
+     * @return Integer value representing the length of the message.
+     */
+    public static int putFrameHeader(ByteBuffer message, byte type, String mac) {
+        final int length = message.remaining();
+
+        message.put(0, type);
+        putMac(mac, message, 1);
+        message.putInt(7, length);
+        message.position(FRAME_HEADER_SIZE + length);
+
+        return length;
+    }
+
     /**
      * Static method allowing to get the current name of the Bluetooth adapter.
      * 
@@ -0,0 +1,128 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class managing a pool of reusable byte buffers, grouped by power-of-two
+ * capacities.
+ */
+public class BufferPool {
+    // Smallest and largest pooled capacities (as power of two)
+    private static final int MIN_SHIFT = 6;  // 64 bytes
+    private static final int MAX_SHIFT = 16; // 64 KiB
+
+    private final boolean direct;
+    private final int maxPerBucket;
+    private final List<ArrayDeque<ByteBuffer>> buckets;
+
+    /**
+     * Default constructor
+     *
+     * @param direct        Boolean value stating whether the buffers are
+     *                      allocated outside of the Java heap.
+     * @param maxPerBucket  Integer value representing the maximum number of
+     *                      idle buffers kept for each capacity.
+     */
+    public BufferPool(boolean direct, int maxPerBucket) {
+        this.direct = direct;
+        this.maxPerBucket = maxPerBucket;
+        this.buckets = new ArrayList<>(MAX_SHIFT - MIN_SHIFT + 1);
+        for (int i = MIN_SHIFT; i <= MAX_SHIFT; i++) {
+            buckets.add(new ArrayDeque<ByteBuffer>());
+        }
+    }
+
+    /**
+     * Method allowing to get a cleared buffer from the pool.
+     *
+     * @param minCapacity   Integer value representing the minimum number of
+     *                      bytes the buffer must be able to hold.
+     *
+     * @return ByteBuffer object of at least minCapacity bytes.
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        int index = bucketIndex(minCapacity);
+        if (index < 0)
+            return allocate(minCapacity);
+
+        ArrayDeque<ByteBuffer> bucket = buckets.get(index);
+        ByteBuffer buffer;
+        synchronized (bucket) {
+            buffer = bucket.pollFirst();
+        }
+
+        if (buffer == null)
+            return allocate(1 << (index + MIN_SHIFT));
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Method allowing to give a buffer back to the pool.
+     *
+     * @param buffer    ByteBuffer object previously obtained from acquire().
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() != direct)
+            return;
+
+        int capacity = buffer.capacity();
+        int index = bucketIndex(capacity);
+        // Only buffers whose capacity matches exactly a bucket are pooled
+        if (index < 0 || capacity != 1 << (index + MIN_SHIFT))
+            return;
+
+        ArrayDeque<ByteBuffer> bucket = buckets.get(index);
+        synchronized (bucket) {
+            if (bucket.size() < maxPerBucket)
+                bucket.offerFirst(buffer);
+        }
+    }
+
+    /**
+     * Method allowing to get the number of idle buffers held by the pool.
+     *
+     * @return Integer value representing the number of idle buffers.
+     */
+    public int idleCount() {
+        int count = 0;
+        for (ArrayDeque<ByteBuffer> bucket : buckets) {
+            synchronized (bucket) {
+                count += bucket.size();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Method allowing to get the bucket index of a given capacity.
+     *
+     * @param capacity  Integer value representing a capacity in bytes.
+     *
+     * @return Integer value representing the bucket index, or -1 if the
+     *         capacity exceeds the largest pooled capacity.
+     */
+    private int bucketIndex(int capacity) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+        if (shift > MAX_SHIFT)
+            return -1;
+
+        return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+    }
+
+    /**
+     * Method allowing to allocate a new buffer.
+     *
+     * @param capacity  Integer value representing the capacity in bytes.
+     *
+     * @return ByteBuffer object of the given capacity.
+     */
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
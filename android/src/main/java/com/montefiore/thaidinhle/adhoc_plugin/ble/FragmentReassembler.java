@@ -0,0 +1,429 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class managing the reassembly of fragmented messages written to the Gatt
+ * server characteristic.
+ *
+ * Each fragment starts with a message ID byte and a flag byte (MESSAGE_FRAG
+ * or MESSAGE_END), followed by the payload. The payload is copied once into a
+ * pooled buffer, which is handed out when the last fragment is received and
+ * must be given back with release().
+ *
+ * Each buffer reserves a headroom before the payload, so that a frame header
+ * can be written in place without copying the message.
+ *
+ * The memory held by incomplete messages is bounded: by a quota per remote
+ * peer, by a global cap, and by evicting the messages that did not receive
+ * any fragment for a while. The remaining fragments of a dropped message are
+ * discarded until its last fragment.
+ *
+ * Distinct remote peers may be processed concurrently.
+ */
+public class FragmentReassembler {
+    // Size of the fragment header (message ID + flag)
+    public static final int HEADER_SIZE = 2;
+    // Default limits of the memory held by incomplete messages
+    public static final int DEFAULT_PEER_QUOTA = 256 * 1024;
+    public static final long DEFAULT_GLOBAL_CAP = 4 * 1024 * 1024;
+    public static final long DEFAULT_STALE_TIMEOUT_MS = 10_000;
+    // Minimum stale timeout, which is also the period of the eviction
+    public static final long MIN_STALE_TIMEOUT_MS = 100;
+    // Initial buffer size when nothing is known about a remote peer
+    private static final int DEFAULT_SIZE_HINT = 512;
+
+    private final BufferPool pool;
+    private final int headroom;
+    private final ConcurrentHashMap<String, Peer> peers;
+
+    private volatile int peerQuota;
+    private volatile long globalCap;
+    private volatile long staleTimeoutMs;
+
+    private final AtomicLong pendingBytes;
+    private final AtomicLong evictions;
+    private final AtomicLong overflows;
+    private final AtomicLong discardedFragments;
+
+    /**
+     * Default constructor
+     *
+     * @param pool      BufferPool object providing the reassembly buffers.
+     * @param headroom  Integer value representing the number of bytes
+     *                  reserved before the payload of each message.
+     */
+    public FragmentReassembler(BufferPool pool, int headroom) {
+        this.pool = pool;
+        this.headroom = headroom;
+        this.peers = new ConcurrentHashMap<>();
+        this.peerQuota = DEFAULT_PEER_QUOTA;
+        this.globalCap = DEFAULT_GLOBAL_CAP;
+        this.staleTimeoutMs = DEFAULT_STALE_TIMEOUT_MS;
+        this.pendingBytes = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.overflows = new AtomicLong();
+        this.discardedFragments = new AtomicLong();
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to set the limits of the memory held by incomplete
+     * messages.
+     *
+     * @param peerQuota         Integer value representing the maximum number
+     *                          of bytes pending for a single remote peer (at
+     *                          least BleUtils.MAX_MTU).
+     * @param globalCap         Long value representing the maximum number of
+     *                          bytes pending for all remote peers (at least
+     *                          BleUtils.MAX_MTU).
+     * @param staleTimeoutMs    Long value representing the time in
+     *                          milliseconds after which an incomplete message
+     *                          without new fragment is evicted (at least
+     *                          MIN_STALE_TIMEOUT_MS).
+     */
+    public void setLimits(int peerQuota, long globalCap, long staleTimeoutMs) {
+        // Leave room for at least a fragment of the largest MTU
+        this.peerQuota = Math.max(BleUtils.MAX_MTU, peerQuota);
+        this.globalCap = Math.max(BleUtils.MAX_MTU, globalCap);
+        this.staleTimeoutMs = Math.max(MIN_STALE_TIMEOUT_MS, staleTimeoutMs);
+    }
+
+    /**
+     * Method allowing to get the stale timeout.
+     *
+     * @return Long value representing the time in milliseconds after which
+     *         an incomplete message without new fragment is evicted.
+     */
+    public long getStaleTimeoutMs() {
+        return staleTimeoutMs;
+    }
+
+    /**
+     * Method allowing to process a fragment received from a remote peer.
+     *
+     * @param mac       String value representing the MAC address of the
+     *                  remote peer.
+     * @param value     Byte array representing the fragment (header included).
+     *
+     * @return ByteBuffer object holding the whole message between its
+     *         position and its limit if the fragment was the last one
+     *         (the headroom lies before the position), otherwise null.
+     */
+    public ByteBuffer onFragment(String mac, byte[] value) {
+        if (value == null || value.length < HEADER_SIZE)
+            return null;
+
+        Peer peer = peers.get(mac);
+        if (peer == null) {
+            Peer created = new Peer();
+            peer = peers.putIfAbsent(mac, created);
+            if (peer == null)
+                peer = created;
+        }
+
+        synchronized (peer) {
+            return append(peer, value, now());
+        }
+    }
+
+    /**
+     * Method allowing to give back a buffer returned by onFragment().
+     *
+     * @param buffer    ByteBuffer object holding a reassembled message.
+     */
+    public void release(ByteBuffer buffer) {
+        pool.release(buffer);
+    }
+
+    /**
+     * Method allowing to drop every pending message of a remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     */
+    public void removePeer(String mac) {
+        Peer peer = peers.remove(mac);
+        if (peer == null)
+            return;
+
+        synchronized (peer) {
+            for (int id = 0; id < peer.pending.length; id++) {
+                drop(peer, id);
+                peer.discarding[id] = false;
+            }
+        }
+    }
+
+    /**
+     * Method allowing to drop every pending message.
+     */
+    public void clear() {
+        for (String mac : peers.keySet().toArray(new String[0])) {
+            removePeer(mac);
+        }
+    }
+
+    /**
+     * Method allowing to evict the incomplete messages that did not receive
+     * any fragment during the stale timeout.
+     *
+     * @return Integer value representing the number of evicted messages.
+     */
+    public int evictStale() {
+        long now = now();
+        int count = 0;
+
+        for (Peer peer : peers.values()) {
+            synchronized (peer) {
+                count += evictStale(peer, now);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Method allowing to get the number of messages being reassembled.
+     *
+     * @return Integer value representing the number of pending messages.
+     */
+    public int pendingCount() {
+        int count = 0;
+        for (Peer peer : peers.values()) {
+            synchronized (peer) {
+                for (ByteBuffer buffer : peer.pending) {
+                    if (buffer != null)
+                        count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Method allowing to get the number of payload bytes held by incomplete
+     * messages.
+     *
+     * @return Long value representing the number of pending bytes.
+     */
+    public long pendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * Method allowing to get the counters of the reassembly.
+     *
+     * @return HashMap<String, Object> containing the 'pendingBytes',
+     *         'pendingMessages', 'evictions', 'overflows' and
+     *         'discardedFragments' keys.
+     */
+    public HashMap<String, Object> getStats() {
+        HashMap<String, Object> mapStats = new HashMap<>();
+        mapStats.put("pendingBytes", pendingBytes.get());
+        mapStats.put("pendingMessages", pendingCount());
+        mapStats.put("evictions", evictions.get());
+        mapStats.put("overflows", overflows.get());
+        mapStats.put("discardedFragments", discardedFragments.get());
+
+        return mapStats;
+    }
+
+/*------------------------------Protected methods-----------------------------*/
+
+    /**
+     * Method allowing to get the current time.
+     *
+     * @return Long value representing a monotonic time in milliseconds.
+     */
+    protected long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to append a fragment to the pending message of a peer.
+     * It must be called while holding the lock of the peer.
+     *
+     * @param peer      Peer object representing the state of the remote peer.
+     * @param value     Byte array representing the fragment (header included).
+     * @param now       Long value representing the current time.
+     *
+     * @return ByteBuffer object holding the whole message if the fragment was
+     *         the last one, otherwise null.
+     */
+    private ByteBuffer append(Peer peer, byte[] value, long now) {
+        int id = value[0] & 0xFF;
+        byte flag = value[1];
+        int length = value.length - HEADER_SIZE;
+
+        // A message left incomplete for too long is not continued: its ID has
+        // most likely wrapped around
+        if (now - peer.lastUpdate[id] > staleTimeoutMs) {
+            if (peer.pending[id] != null) {
+                drop(peer, id);
+                evictions.incrementAndGet();
+            }
+            peer.discarding[id] = false;
+        }
+
+        peer.lastUpdate[id] = now;
+
+        // Skip the remaining fragments of a dropped message
+        if (peer.discarding[id]) {
+            discardedFragments.incrementAndGet();
+            if (flag == BleUtils.MESSAGE_END)
+                peer.discarding[id] = false;
+            return null;
+        }
+
+        ByteBuffer buffer = peer.pending[id];
+        if (buffer == null) {
+            // Starting a new message, reclaim the stale ones of this peer
+            evictStale(peer, now);
+        }
+
+        if (!reserve(peer, length)) {
+            overflows.incrementAndGet();
+            drop(peer, id);
+            peer.discarding[id] = (flag != BleUtils.MESSAGE_END);
+            return null;
+        }
+
+        if (buffer == null) {
+            buffer = pool.acquire(headroom + Math.max(peer.sizeHint, length));
+            buffer.position(headroom);
+        } else if (buffer.remaining() < length) {
+            buffer = grow(buffer, length);
+        }
+
+        // Copy the payload without the header straight into the buffer
+        buffer.put(value, HEADER_SIZE, length);
+
+        if (flag == BleUtils.MESSAGE_END) {
+            int size = buffer.position() - headroom;
+
+            peer.pending[id] = null;
+            peer.pendingBytes -= size;
+            pendingBytes.addAndGet(-size);
+            peer.sizeHint = Math.min(size, peerQuota);
+
+            buffer.flip();
+            buffer.position(headroom);
+            return buffer;
+        }
+
+        peer.pending[id] = buffer;
+        return null;
+    }
+
+    /**
+     * Method allowing to account for bytes about to be appended, if the
+     * limits allow it. It must be called while holding the lock of the peer.
+     *
+     * @param peer      Peer object representing the state of the remote peer.
+     * @param length    Integer value representing the number of bytes.
+     *
+     * @return true if the bytes have been accounted for, otherwise false.
+     */
+    private boolean reserve(Peer peer, int length) {
+        if (peer.pendingBytes + length > peerQuota)
+            return false;
+
+        if (pendingBytes.addAndGet(length) > globalCap) {
+            pendingBytes.addAndGet(-length);
+            return false;
+        }
+
+        peer.pendingBytes += length;
+        return true;
+    }
+
+    /**
+     * Method allowing to evict the stale messages of a peer. It must be
+     * called while holding the lock of the peer.
+     *
+     * @param peer  Peer object representing the state of the remote peer.
+     * @param now   Long value representing the current time.
+     *
+     * @return Integer value representing the number of evicted messages.
+     */
+    private int evictStale(Peer peer, long now) {
+        int count = 0;
+
+        for (int id = 0; id < peer.pending.length; id++) {
+            if (now - peer.lastUpdate[id] <= staleTimeoutMs)
+                continue;
+
+            if (peer.pending[id] != null) {
+                drop(peer, id);
+                count++;
+            }
+            peer.discarding[id] = false;
+        }
+
+        evictions.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Method allowing to drop the pending message of a given ID. It must be
+     * called while holding the lock of the peer.
+     *
+     * @param peer  Peer object representing the state of the remote peer.
+     * @param id    Integer value representing the message ID.
+     */
+    private void drop(Peer peer, int id) {
+        ByteBuffer buffer = peer.pending[id];
+        if (buffer == null)
+            return;
+
+        int size = buffer.position() - headroom;
+        peer.pending[id] = null;
+        peer.pendingBytes -= size;
+        pendingBytes.addAndGet(-size);
+        pool.release(buffer);
+    }
+
+    /**
+     * Method allowing to move the content of a buffer into a larger one.
+     *
+     * @param buffer    ByteBuffer object being filled.
+     * @param needed    Integer value representing the number of bytes that
+     *                  must fit after the current content.
+     *
+     * @return ByteBuffer object holding the previous content.
+     */
+    private ByteBuffer grow(ByteBuffer buffer, int needed) {
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + needed);
+        ByteBuffer larger = pool.acquire(capacity);
+
+        buffer.flip();
+        larger.put(buffer);
+        pool.release(buffer);
+
+        return larger;
+    }
+
+    /**
+     * Class holding the reassembly state of a remote peer.
+     */
+    private static class Peer {
+        // Messages being reassembled, indexed by their ID
+        private final ByteBuffer[] pending = new ByteBuffer[256];
+        // Time of the last fragment received for each ID
+        private final long[] lastUpdate = new long[256];
+        // IDs whose remaining fragments must be skipped
+        private final boolean[] discarding = new boolean[256];
+        // Payload bytes held by the incomplete messages
+        private long pendingBytes = 0;
+        // Size of the last message received, used to size new buffers
+        private int sizeHint = DEFAULT_SIZE_HINT;
+    }
+}
@@ -0,0 +1,88 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class allowing to split a message into fragments that fit into a single
+ * Bluetooth Low Energy packet.
+ *
+ * Each fragment starts with a message ID byte and a flag byte (MESSAGE_FRAG
+ * or MESSAGE_END), followed by the payload.
+ */
+public class Fragmenter {
+    // ATT opcode and attribute handle overhead of a notification/write
+    public static final int ATT_OVERHEAD = 3;
+
+    private int nextId;
+
+    /**
+     * Default constructor
+     */
+    public Fragmenter() {
+        this.nextId = 0;
+    }
+
+    /**
+     * Method allowing to get the payload size of a fragment for a given MTU.
+     *
+     * @param mtu   Integer value representing the negotiated MTU.
+     *
+     * @return Integer value representing the maximum number of payload bytes
+     *         of a single fragment.
+     */
+    public static int payloadSize(int mtu) {
+        int size = Math.max(mtu, BleUtils.MIN_MTU) - ATT_OVERHEAD;
+        return size - FragmentReassembler.HEADER_SIZE;
+    }
+
+    /**
+     * Method allowing to split a message into fragments.
+     *
+     * @param message   Byte array representing the message to split.
+     * @param mtu       Integer value representing the negotiated MTU.
+     *
+     * @return List of fragments ready to be sent.
+     */
+    public synchronized List<byte[]> fragment(byte[] message, int mtu) {
+        byte id = (byte) nextId;
+        nextId = (nextId + 1) & 0xFF;
+
+        return fragment(id, message, 0, message.length, payloadSize(mtu));
+    }
+
+    /**
+     * Method allowing to split a part of a message into fragments.
+     *
+     * @param id        Byte value representing the message ID.
+     * @param message   Byte array representing the message to split.
+     * @param offset    Integer value representing the start of the part.
+     * @param length    Integer value representing the length of the part.
+     * @param chunk     Integer value representing the maximum payload size of
+     *                  a fragment.
+     *
+     * @return List of fragments ready to be sent.
+     */
+    public static List<byte[]> fragment(
+        byte id, byte[] message, int offset, int length, int chunk
+    ) {
+        int count = Math.max(1, (length + chunk - 1) / chunk);
+        List<byte[]> fragments = new ArrayList<>(count);
+
+        int end = offset + length;
+        int i = offset;
+        do {
+            int size = Math.min(chunk, end - i);
+            byte[] value = new byte[size + FragmentReassembler.HEADER_SIZE];
+
+            value[0] = id;
+            value[1] = (i + size >= end) ? BleUtils.MESSAGE_END : BleUtils.MESSAGE_FRAG;
+            System.arraycopy(message, i, value, FragmentReassembler.HEADER_SIZE, size);
+
+            fragments.add(value);
+            i += size;
+        } while (i < end);
+
+        return fragments;
+    }
+}
@@ -0,0 +1,380 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class managing the Gatt client used to write messages to the Gatt servers
+ * of the remote peers.
+ *
+ * A single BluetoothGatt is kept per remote peer. A whole message is handed
+ * at once, and its fragments are written without response back to back: the
+ * next fragment is written as soon as the stack reports the previous one (see
+ * WritePipeline), and a write refused because the buffers of the controller
+ * are full is retried shortly after. Once connected, the link asks for a high
+ * connection priority, the largest MTU, and the 2M PHY where supported.
+ *
+ * The fragments have the same format and are spread over the data
+ * characteristics the same way as those written by the Flutter client.
+ */
+public class GattClientManager {
+    private static final String TAG = "[AdHocPlugin][GattClient]";
+
+    // Delay before writing again a fragment refused by the stack
+    private static final long RETRY_DELAY_MS = 2;
+
+    private boolean verbose;
+    private final Context context;
+    private final HandlerThread clientThread;
+    private final Handler handler;
+    private final WritePipeline pipeline;
+    private final ConcurrentHashMap<String, Link> links;
+
+    /**
+     * Default constructor
+     *
+     * @param context   Context object giving global information about the
+     *                  application environment.
+     */
+    public GattClientManager(Context context) {
+        this.verbose = false;
+        this.context = context;
+        this.clientThread = new HandlerThread("AdHocPlugin-GattClient");
+        this.clientThread.start();
+        this.handler = new Handler(clientThread.getLooper());
+        this.pipeline = new WritePipeline();
+        this.links = new ConcurrentHashMap<>();
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to update the verbose/debug mode.
+     *
+     * @param verbose   Boolean value representing the sate of the verbose/debug
+     *                  mode.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Method allowing to connect to the Gatt server of a remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     *
+     * @return true if the connection has been initiated (or already exists),
+     *         otherwise false.
+     */
+    public boolean connect(String mac) {
+        if (verbose) Log.d(TAG, "connect(): " + mac);
+
+        if (links.containsKey(mac))
+            return true;
+
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null || !BluetoothAdapter.checkBluetoothAddress(mac))
+            return false;
+
+        BluetoothDevice device = adapter.getRemoteDevice(mac);
+        BluetoothGatt gatt;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // Callbacks on the client thread, both PHYs accepted
+            gatt = device.connectGatt(
+                context, false, gattCallback, BluetoothDevice.TRANSPORT_LE,
+                BluetoothDevice.PHY_LE_1M_MASK | BluetoothDevice.PHY_LE_2M_MASK, handler
+            );
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            gatt = device.connectGatt(context, false, gattCallback, BluetoothDevice.TRANSPORT_LE);
+        } else {
+            gatt = device.connectGatt(context, false, gattCallback);
+        }
+
+        if (gatt == null)
+            return false;
+
+        links.put(mac, new Link(gatt));
+        return true;
+    }
+
+    /**
+     * Method allowing to disconnect from the Gatt server of a remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     */
+    public void disconnect(String mac) {
+        if (verbose) Log.d(TAG, "disconnect(): " + mac);
+
+        Link link = links.remove(mac);
+        pipeline.remove(mac);
+        if (link != null) {
+            link.gatt.disconnect();
+            link.gatt.close();
+        }
+    }
+
+    /**
+     * Method allowing to write a message to the Gatt server of a remote peer.
+     *
+     * The message is fragmented according to the MTU negotiated with the
+     * remote peer. A message fitting in a single fragment is written to the
+     * ad hoc characteristic, larger ones are striped over the other data
+     * characteristics by message ID.
+     *
+     * @param mac       String value representing the MAC address of a remote
+     *                  peer.
+     * @param id        Integer value representing the message ID, given by
+     *                  the Flutter client so that the messages it fragments
+     *                  itself share the same sequence.
+     * @param message   Byte array representing the message to send.
+     *
+     * @return true if the message has been queued, otherwise false (the link
+     *         is not ready yet).
+     */
+    public boolean sendMessage(String mac, int id, byte[] message) {
+        if (verbose) Log.d(TAG, "sendMessage(): " + mac + ", " + id + ", " + message.length);
+
+        Link link = links.get(mac);
+        if (link == null || link.characteristics == null)
+            return false;
+
+        id &= 0xFF;
+
+        int chunk = Fragmenter.payloadSize(link.mtu);
+        int count = link.characteristics.length;
+        int stream = (count > 1 && message.length > chunk) ? 1 + id % (count - 1) : 0;
+
+        List<byte[]> fragments =
+            Fragmenter.fragment((byte) id, message, 0, message.length, chunk);
+
+        write(mac, link, pipeline.offer(mac, stream, fragments));
+        return true;
+    }
+
+    /**
+     * Method allowing to get the link parameters and the write counters of a
+     * remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     *
+     * @return HashMap<String, Object> containing the MTU, the state of the
+     *         link, and the write counters, or null if the remote peer is not
+     *         connected.
+     */
+    public HashMap<String, Object> getLinkStats(String mac) {
+        if (verbose) Log.d(TAG, "getLinkStats(): " + mac);
+
+        Link link = links.get(mac);
+        if (link == null)
+            return null;
+
+        HashMap<String, Object> mapStats = pipeline.getStats(mac);
+        mapStats.put("mtu", link.mtu);
+        mapStats.put("ready", link.characteristics != null);
+        mapStats.put("characteristics",
+            (link.characteristics == null) ? 0 : link.characteristics.length);
+
+        return mapStats;
+    }
+
+    /**
+     * Method allowing to disconnect from every remote peer and to release the
+     * resources used.
+     */
+    public void close() {
+        if (verbose) Log.d(TAG, "close()");
+
+        for (String mac : new ArrayList<>(links.keySet())) {
+            disconnect(mac);
+        }
+
+        pipeline.clear();
+        clientThread.quitSafely();
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to write a fragment to a data characteristic of a
+     * remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     * @param link  Link object representing the connection to the remote peer.
+     * @param write Write object representing the fragment to write.
+     */
+    private void write(final String mac, final Link link, WritePipeline.Write write) {
+        if (write == null)
+            return;
+
+        BluetoothGattCharacteristic characteristic = link.characteristics[write.stream];
+
+        boolean written;
+        synchronized (characteristic) {
+            characteristic.setValue(write.value);
+            written = link.gatt.writeCharacteristic(characteristic);
+        }
+
+        if (written)
+            return;
+
+        // The stack is busy: onCharacteristicWrite() will not be called
+        final WritePipeline.Write retry = pipeline.onBusy(mac);
+        if (retry == null) {
+            if (verbose) Log.d(TAG, "write(): failure -> " + mac);
+            return;
+        }
+
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (links.get(mac) == link)
+                    write(mac, link, retry);
+            }
+        }, RETRY_DELAY_MS);
+    }
+
+    /**
+     * Method allowing to get the data characteristics published by the Gatt
+     * server of a remote peer.
+     *
+     * @param gatt  BluetoothGatt object whose services have been discovered.
+     *
+     * @return Array of the consecutive data characteristics found, or null if
+     *         the ad hoc service is not published.
+     */
+    private BluetoothGattCharacteristic[] findCharacteristics(BluetoothGatt gatt) {
+        BluetoothGattService service = gatt.getService(UUID.fromString(BleUtils.SERVICE_UUID));
+        if (service == null)
+            return null;
+
+        ArrayList<BluetoothGattCharacteristic> characteristics = new ArrayList<>();
+        for (int i = 0; i < BleUtils.MAX_DATA_CHARACTERISTICS; i++) {
+            BluetoothGattCharacteristic characteristic =
+                service.getCharacteristic(UUID.fromString(BleUtils.characteristicUuid(i)));
+            if (characteristic == null)
+                break;
+
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            characteristics.add(characteristic);
+        }
+
+        if (characteristics.isEmpty())
+            return null;
+
+        return characteristics.toArray(new BluetoothGattCharacteristic[0]);
+    }
+
+    // Interface callback for events related to the Gatt client
+    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            final String mac = gatt.getDevice().getAddress();
+            if (verbose) Log.d(TAG, "onConnectionStateChange(): " + mac + ", " + newState);
+
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                // Shorten the connection interval for the bulk transfers
+                gatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                        && BluetoothAdapter.getDefaultAdapter().isLe2MPhySupported()) {
+                    gatt.setPreferredPhy(
+                        BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_LE_2M_MASK,
+                        BluetoothDevice.PHY_OPTION_NO_PREFERRED
+                    );
+                }
+
+                // The services are discovered once the MTU is negotiated
+                if (!gatt.requestMtu(BleUtils.MAX_MTU))
+                    gatt.discoverServices();
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                Link link = links.get(mac);
+                if (link != null && link.gatt == gatt) {
+                    links.remove(mac);
+                    pipeline.remove(mac);
+                }
+                gatt.close();
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            final String mac = gatt.getDevice().getAddress();
+            if (verbose) Log.d(TAG, "onMtuChanged(): " + mac + ", " + mtu);
+
+            Link link = links.get(mac);
+            if (link != null && status == BluetoothGatt.GATT_SUCCESS)
+                link.mtu = mtu;
+
+            gatt.discoverServices();
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            final String mac = gatt.getDevice().getAddress();
+            if (verbose) Log.d(TAG, "onServicesDiscovered(): " + mac + ", " + status);
+
+            Link link = links.get(mac);
+            if (link != null && status == BluetoothGatt.GATT_SUCCESS)
+                link.characteristics = findCharacteristics(gatt);
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            if (verbose)
+                Log.d(TAG, "onPhyUpdate(): " + gatt.getDevice().getAddress() + ", " + txPhy + ", " + rxPhy);
+        }
+
+        @Override
+        public void onCharacteristicWrite(
+            BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status
+        ) {
+            final String mac = gatt.getDevice().getAddress();
+
+            Link link = links.get(mac);
+            if (link == null)
+                return;
+
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                if (verbose) Log.d(TAG, "onCharacteristicWrite(): failure -> " + status);
+                pipeline.remove(mac);
+                return;
+            }
+
+            // Pace the writes: write the next fragment once the previous one
+            // has been handed to the controller
+            write(mac, link, pipeline.onWritten(mac));
+        }
+    };
+
+    /**
+     * Class representing the connection to the Gatt server of a remote peer.
+     */
+    private static class Link {
+        private final BluetoothGatt gatt;
+        private volatile int mtu = BleUtils.MIN_MTU;
+        private volatile BluetoothGattCharacteristic[] characteristics;
+
+        private Link(BluetoothGatt gatt) {
+            this.gatt = gatt;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.montefiore.thaidinhle.adhoc_plugin.ble;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattServer;
 import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
@@ -13,28 +14,46 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.montefiore.thaidinhle.adhoc_plugin.utils.BatchingEventSink;
+import com.montefiore.thaidinhle.adhoc_plugin.utils.StripedExecutor;
+
 import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.EventChannel.EventSink;
 import io.flutter.plugin.common.EventChannel.StreamHandler;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Class managing the Gatt server used by Bluetooth Low Energy.
+ * 
+ * The remote peers connected are admitted within a maximum number of peers 
+ * (see PeerRegistry). Beyond it, the idle peer least recently used is 
+ * disconnected to make room for the new one, which is otherwise refused. While 
+ * every slot is taken, the idle peers are reclaimed periodically, so that a 
+ * new peer can still connect.
  */
 public class GattServerManager {
     private static final String TAG = "[AdHocPlugin][Gatt]";
-    private static final String EVENT_NAME = "ad.hoc.lib/ble.event.channel";
+    public static final String EVENT_NAME = "ad.hoc.lib/ble.event.channel";
+    public static final String DATA_NAME = "ad.hoc.lib/ble.data.channel";
+
+    // Number of threads reassembling the fragments of the remote peers
+    private static final int REASSEMBLY_THREADS = 
+        Math.min(4, Runtime.getRuntime().availableProcessors());
 
     // Constants for communication with the Flutter platform barrier
     private static final byte ANDROID_DISCOVERY  = 120;
@@ -48,14 +67,38 @@ public class GattServerManager {
     private boolean verbose;
     private final Context context;
 
-    private BluetoothGattServer gattServer;
+    private volatile BluetoothGattServer gattServer;
+    // Whether the server is open, the server object being kept after close 
+    // for the late Gatt callbacks
+    private volatile boolean open;
     private BluetoothManager bluetoothManager;
-
-    private final HashMap<String, HashMap<Integer, ByteArrayOutputStream>> data;
-    private final HashMap<String, BluetoothDevice> mapMacDevice;
-
+    private BluetoothGattCharacteristic characteristic;
+    private volatile BluetoothGattCharacteristic[] dataCharacteristics;
+
+    // Device state, shared by the Gatt callback, the reassembly threads and 
+    // the platform channel thread
+    private final FragmentReassembler reassembler;
+    // Created on open, as its threads are stopped on close
+    private volatile ReassemblyDispatcher dispatcher;
+    private final PreparedWriteQueue preparedWrites;
+    private final Fragmenter fragmenter;
+    private final NotificationQueue notificationQueue;
+    private final ConcurrentHashMap<String, BluetoothDevice> mapMacDevice;
+    private final PeerRegistry peerRegistry;
+    private final Set<String> subscribers;
+    // Peers refused by the admission control, not reported to Flutter
+    private final Set<String> rejectedPeers;
+
+    private final Handler handler;
+    // Thread on which the bond events are received, away from the UI thread,
+    // while the server is open
+    private HandlerThread receiverThread;
+    private volatile ConnectionListener connectionListener;
+    private volatile BinaryMessenger messenger;
     private EventChannel eventChannel;
-    private MainThreadEventSink eventSink;
+    private volatile BatchingEventSink eventSink;
+    private int batchMaxEvents;
+    private long batchMaxDelayUs;
 
     /**
      * Default constructor
@@ -66,9 +109,23 @@ public class GattServerManager {
     public GattServerManager(Context context) {
         this.verbose = false;
         this.context = context;
-        this.data = new HashMap<>();
-        this.mapMacDevice = new HashMap<>();
-        this.register();
+        this.handler = new Handler(Looper.getMainLooper());
+        // Direct buffers, as they are handed as is to the binary messenger
+        final BufferPool pool = new BufferPool(true, 16);
+        this.reassembler = new FragmentReassembler(pool, BleUtils.FRAME_HEADER_SIZE);
+        this.preparedWrites = new PreparedWriteQueue(
+            pool, BleUtils.FRAME_HEADER_SIZE, PreparedWriteQueue.DEFAULT_MAX_LENGTH
+        );
+        this.fragmenter = new Fragmenter();
+        this.notificationQueue = new NotificationQueue();
+        this.mapMacDevice = new ConcurrentHashMap<>();
+        this.peerRegistry = new PeerRegistry();
+        this.subscribers = 
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.rejectedPeers = 
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.batchMaxEvents = BatchingEventSink.DEFAULT_MAX_EVENTS;
+        this.batchMaxDelayUs = BatchingEventSink.DEFAULT_MAX_DELAY_US;
     }
 
 /*--------------------------------Public methods------------------------------*/
@@ -84,7 +141,11 @@ public class GattServerManager {
     }
 
     /**
-     * Method allowing to set up the platform event channel.
+     * Method allowing to set up the platform event channel and the data 
+     * channel.
+     * 
+     * Control events are sent through the event channel, whereas the messages
+     * received are sent as binary frames through the data channel.
      * 
      * @param messenger BinaryMessenger object, which sends binary data across 
      *                  the Flutter platform barrier.
@@ -92,12 +153,17 @@ public class GattServerManager {
     public void setupEventChannel(BinaryMessenger messenger) {
         if (verbose) Log.d(TAG, "setupEventChannel()");
 
+        this.messenger = messenger;
+
         eventChannel = new EventChannel(messenger, EVENT_NAME);
         eventChannel.setStreamHandler(new StreamHandler() {
             @Override
             public void onListen(Object arguments, EventSink events) {
                 if (verbose) Log.d(TAG, "Channel: onListen()");
-                eventSink = new MainThreadEventSink(events);
+                // Deliver events by batch on the main thread, only the latest
+                // MTU of a peer is relevant
+                eventSink = new BatchingEventSink(events, ANDROID_MTU);
+                eventSink.configure(batchMaxEvents, batchMaxDelayUs);
             }
 
             @Override
@@ -110,37 +176,102 @@ public class GattServerManager {
         });
     }
 
+    /**
+     * Method allowing to configure how events are batched before being sent 
+     * to the Flutter client.
+     * 
+     * @param maxEvents     Integer value representing the maximum number of 
+     *                      events of a batch (1 = no batching).
+     * @param maxDelayUs    Long value representing the maximum time in 
+     *                      microseconds an event waits before being delivered
+     *                      (0 = next frame).
+     */
+    public void setEventBatching(int maxEvents, long maxDelayUs) {
+        if (verbose) Log.d(TAG, "setEventBatching(): " + maxEvents + ", " + maxDelayUs);
+
+        this.batchMaxEvents = maxEvents;
+        this.batchMaxDelayUs = maxDelayUs;
+        if (eventSink != null)
+            eventSink.configure(maxEvents, maxDelayUs);
+    }
+
     /**
      * Method allowing to open a Gatt server.
      * 
+     * The first data characteristic is the ad hoc characteristic, which also 
+     * notifies the messages sent to the remote peers. The other ones only 
+     * accept writes, and are reassembled independently, e.g. to keep bulk 
+     * transfers from delaying the control messages.
+     * 
      * @param bluetoothManager  Manager for Bluetooth-related task Management.
      * @param context           Context object giving global information about 
      *                          the application environment.
+     * @param count             Integer value representing the number of data 
+     *                          characteristics to publish.
      */
-    public void openGattServer(BluetoothManager bluetoothManager, Context context) {
-        if (verbose) Log.d(TAG, "openGattServer()");
+    public void openGattServer(BluetoothManager bluetoothManager, Context context, int count) {
+        if (verbose) Log.d(TAG, "openGattServer(): " + count);
 
         this.bluetoothManager = bluetoothManager;
+        this.dispatcher = new ReassemblyDispatcher(
+            reassembler,
+            new StripedExecutor("AdHocPlugin-Gatt", REASSEMBLY_THREADS),
+            new ReassemblyDispatcher.Listener() {
+                @Override
+                public void onMessage(String mac, ByteBuffer message) {
+                    sendData(mac, message);
+                }
+            }
+        );
         this.gattServer = bluetoothManager.openGattServer(context, bluetoothGattServerCallback);
+        this.register();
 
         // Creating a characteristic
-        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(
+        characteristic = new BluetoothGattCharacteristic(
             UUID.fromString(BleUtils.CHARACTERISTIC_UUID),
             BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE | 
             BluetoothGattCharacteristic.PROPERTY_NOTIFY,
             BluetoothGattCharacteristic.PERMISSION_READ | BluetoothGattCharacteristic.PERMISSION_WRITE
         );
 
+        // Client configuration descriptor allowing peers to enable notifications
+        characteristic.addDescriptor(new BluetoothGattDescriptor(
+            UUID.fromString(BleUtils.CLIENT_CONFIG_UUID),
+            BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE
+        ));
+
         // Creating a service
         BluetoothGattService service = new BluetoothGattService(
             UUID.fromString(BleUtils.SERVICE_UUID),
             BluetoothGattService.SERVICE_TYPE_PRIMARY
         );
 
-        // Add characteristic to service
-        service.addCharacteristic(characteristic);
+        count = Math.max(1, Math.min(count, BleUtils.MAX_DATA_CHARACTERISTICS));
+        dataCharacteristics = new BluetoothGattCharacteristic[count];
+        dataCharacteristics[0] = characteristic;
+        for (int i = 1; i < count; i++) {
+            dataCharacteristics[i] = new BluetoothGattCharacteristic(
+                UUID.fromString(BleUtils.characteristicUuid(i)),
+                BluetoothGattCharacteristic.PROPERTY_WRITE | 
+                BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE,
+                BluetoothGattCharacteristic.PERMISSION_WRITE
+            );
+        }
+
+        // Add characteristics to service
+        for (BluetoothGattCharacteristic dataCharacteristic : dataCharacteristics) {
+            service.addCharacteristic(dataCharacteristic);
+        }
         // Add service to gatt server
         gattServer.addService(service);
+        open = true;
+
+        // Periodically reclaim the messages left incomplete by the peers
+        handler.removeCallbacks(evictionTask);
+        handler.postDelayed(evictionTask, reassembler.getStaleTimeoutMs());
+        // Periodically reclaim the idle peers while every slot is taken
+        handler.removeCallbacks(reaperTask);
+        handler.postDelayed(reaperTask, reaperPeriodMs());
     }
 
     /**
@@ -149,11 +280,26 @@ public class GattServerManager {
     public void closeGattServer() {
         if (verbose) Log.d(TAG, "closeGattServer()");
 
-        context.unregisterReceiver(receiver);
+        // Nothing to release if the server is not open
+        if (!open)
+            return;
+
+        open = false;
+        this.unregister();
         gattServer.close();
+        handler.removeCallbacks(evictionTask);
+        handler.removeCallbacks(reaperTask);
+        if (!dispatcher.shutdown() && verbose)
+            Log.d(TAG, "closeGattServer(): fragments left unprocessed");
+        preparedWrites.clear();
+        notificationQueue.clear();
+        peerRegistry.clear();
+        rejectedPeers.clear();
         eventSink = null;
-        eventChannel.setStreamHandler(null);
-        eventChannel = null;
+        if (eventChannel != null) {
+            eventChannel.setStreamHandler(null);
+            eventChannel = null;
+        }
     }
 
     /**
@@ -227,17 +373,389 @@ public class GattServerManager {
         gattServer.cancelConnection(device);
     }
 
+    /**
+     * Method allowing to set the limits of the memory used to reassemble the
+     * messages written by the remote peers.
+     * 
+     * Invalid values are clamped (see FragmentReassembler.setLimits()).
+     * 
+     * @param peerQuota         Integer value representing the maximum number
+     *                          of bytes pending for a single remote peer.
+     * @param globalCap         Long value representing the maximum number of
+     *                          bytes pending for all remote peers.
+     * @param staleTimeoutMs    Long value representing the time in 
+     *                          milliseconds after which an incomplete message
+     *                          without new fragment is evicted.
+     */
+    public void setReassemblyLimits(int peerQuota, long globalCap, long staleTimeoutMs) {
+        if (verbose) 
+            Log.d(TAG, "setReassemblyLimits(): " + peerQuota + ", " + globalCap + ", " + staleTimeoutMs);
+
+        reassembler.setLimits(peerQuota, globalCap, staleTimeoutMs);
+    }
+
+    /**
+     * Method allowing to get the counters of the reassembly (pending bytes 
+     * and messages, evictions, overflows, and discarded fragments).
+     * 
+     * @return HashMap<String, Object> containing the reassembly counters.
+     */
+    public HashMap<String, Object> getReassemblyStats() {
+        if (verbose) Log.d(TAG, "getReassemblyStats()");
+
+        return reassembler.getStats();
+    }
+
+    /**
+     * Method allowing to set the listener notified of the number of remote 
+     * peers connected to the Gatt server.
+     * 
+     * @param listener  ConnectionListener object notified on the Gatt 
+     *                  callback thread.
+     */
+    public void setConnectionListener(ConnectionListener listener) {
+        this.connectionListener = listener;
+    }
+
+    /**
+     * Method allowing to get the link parameters and the activity of a remote 
+     * peer.
+     * 
+     * @param mac   String value representing the MAC address of a remote peer.
+     * 
+     * @return HashMap<String, Object> containing the MTU and PHY of the 
+     *         connection, and the bytes and messages received and sent, or 
+     *         null if the remote peer is not connected.
+     */
+    public HashMap<String, Object> getPeerInfo(String mac) {
+        if (verbose) Log.d(TAG, "getPeerInfo(): " + mac);
+
+        return peerRegistry.toMap(mac, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Method allowing to set the limits of the admission control.
+     * 
+     * @param maxPeers      Integer value representing the maximum number of 
+     *                      remote peers connected to the Gatt server.
+     * @param idleTimeoutMs Long value representing the time in milliseconds 
+     *                      without activity after which a remote peer may be 
+     *                      reclaimed (0 = never).
+     */
+    public void setAdmissionLimits(int maxPeers, long idleTimeoutMs) {
+        if (verbose) Log.d(TAG, "setAdmissionLimits(): " + maxPeers + ", " + idleTimeoutMs);
+
+        peerRegistry.setLimits(maxPeers, idleTimeoutMs);
+        if (open) {
+            handler.removeCallbacks(reaperTask);
+            handler.post(reaperTask);
+        }
+    }
+
+    /**
+     * Method allowing to pin or unpin a remote peer, which is never reclaimed 
+     * by the admission control while pinned.
+     * 
+     * @param mac       String value representing the MAC address of a remote 
+     *                  peer.
+     * @param pinned    Boolean value representing whether the remote peer is 
+     *                  pinned.
+     */
+    public void pinPeer(String mac, boolean pinned) {
+        if (verbose) Log.d(TAG, "pinPeer(): " + mac + ", " + pinned);
+
+        peerRegistry.pin(mac, pinned);
+    }
+
+    /**
+     * Method allowing to set the policy deciding which remote peers are 
+     * pinned, in addition to the ones pinned by pinPeer().
+     * 
+     * @param policy    PeerRegistry.PinPolicy object, called from the Gatt 
+     *                  callback and main threads.
+     */
+    public void setPinPolicy(PeerRegistry.PinPolicy policy) {
+        peerRegistry.setPinPolicy(policy);
+    }
+
+    /**
+     * Method allowing to get the state and the counters of the admission 
+     * control (maximum number of peers, idle timeout, peers connected and 
+     * pinned, peers refused and reclaimed).
+     * 
+     * @return HashMap<String, Object> containing the admission counters.
+     */
+    public HashMap<String, Object> getAdmissionStats() {
+        if (verbose) Log.d(TAG, "getAdmissionStats()");
+
+        return peerRegistry.getAdmissionStats();
+    }
+
+    /**
+     * Method allowing to send a message to a remote peer through notifications.
+     * 
+     * The message is fragmented according to the MTU negotiated with the 
+     * remote peer. The fragments are queued and notified one at a time.
+     * 
+     * @param mac       String value representing the MAC address of a remote 
+     *                  peer.
+     * @param message   Byte array representing the message to send.
+     * 
+     * @return true if the message has been queued, otherwise false (the 
+     *         queue of the remote peer is full, or the first notification has 
+     *         been rejected, and the fragments queued for the remote peer are 
+     *         dropped).
+     */
+    public boolean sendMessage(String mac, byte[] message) {
+        if (verbose) Log.d(TAG, "sendMessage(): " + mac + ", " + message.length);
+
+        BluetoothDevice device = mapMacDevice.get(mac);
+        if (device == null || !open)
+            return false;
+
+        if (!subscribers.contains(mac))
+            return false;
+
+        List<byte[]> fragments = 
+            fragmenter.fragment(message, peerRegistry.getMtu(mac));
+
+        if (!notificationQueue.offer(mac, fragments)) {
+            if (verbose) Log.d(TAG, "sendMessage(): queue full -> " + mac);
+            return false;
+        }
+
+        // The first fragment is only returned if nothing is in flight
+        if (!notify(device, notificationQueue.poll(mac)))
+            return false;
+
+        peerRegistry.onMessageOut(mac, message.length, SystemClock.elapsedRealtime());
+        return true;
+    }
+
 /*-------------------------------Private methods------------------------------*/
 
+    /**
+     * Method allowing to notify a fragment to a remote peer.
+     * 
+     * @param device    BluetoothDevice object representing the remote peer.
+     * @param fragment  Byte array representing the fragment to notify.
+     * 
+     * @return true if the notification has been accepted (or there is no 
+     *         fragment to notify), otherwise false.
+     */
+    private boolean notify(BluetoothDevice device, byte[] fragment) {
+        if (fragment == null)
+            return true;
+
+        boolean sent;
+        synchronized (characteristic) {
+            characteristic.setValue(fragment);
+            sent = gattServer.notifyCharacteristicChanged(device, characteristic, false);
+        }
+
+        // onNotificationSent() will not be called, drop the remaining fragments
+        if (!sent) {
+            if (verbose) Log.d(TAG, "notify(): failure -> " + device.getAddress());
+            notificationQueue.remove(device.getAddress());
+        }
+
+        return sent;
+    }
+
+    /**
+     * Method allowing to send a message received to the Flutter client 
+     * through the data channel.
+     * 
+     * The frame header is written in the headroom of the reassembly buffer,
+     * which is handed as is to the binary messenger.
+     * 
+     * @param mac       String value representing the MAC address of the 
+     *                  remote peer.
+     * @param message   ByteBuffer object holding the message after its 
+     *                  frame header headroom.
+     */
+    private void sendData(String mac, final ByteBuffer message) {
+        final int length = BleUtils.putFrameHeader(message, ANDROID_DATA, mac);
+        peerRegistry.onMessageIn(mac, length, SystemClock.elapsedRealtime());
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                // The message is copied by the engine, the buffer can be reused
+                if (messenger != null)
+                    messenger.send(DATA_NAME, message);
+                reassembler.release(message);
+            }
+        });
+    }
+
+    /**
+     * Method allowing to get the number of data characteristics published.
+     * 
+     * @return Integer value representing the number of data characteristics.
+     */
+    private int streamCount() {
+        BluetoothGattCharacteristic[] current = dataCharacteristics;
+        return (current == null) ? 1 : current.length;
+    }
+
+    /**
+     * Method allowing to get the stream index of a data characteristic.
+     * 
+     * @param characteristic    BluetoothGattCharacteristic object written by 
+     *                          a remote peer.
+     * 
+     * @return Integer value representing the index of the characteristic, or 
+     *         0 if it is not a data characteristic.
+     */
+    private int streamOf(BluetoothGattCharacteristic characteristic) {
+        BluetoothGattCharacteristic[] current = dataCharacteristics;
+        if (current == null)
+            return 0;
+
+        UUID uuid = characteristic.getUuid();
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].getUuid().equals(uuid))
+                return i;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Method allowing to admit a newly connected remote peer, possibly in
+     * place of the idle peer least recently used.
+     * 
+     * @param mac       String value representing the MAC address of the 
+     *                  remote peer.
+     * @param device    BluetoothDevice object representing the remote 
+     *                  peer.
+     * 
+     * @return true if it is admitted, otherwise false (disconnecting).
+     */
+    private boolean admit(String mac, BluetoothDevice device) {
+        long now = SystemClock.elapsedRealtime();
+        peerRegistry.onConnected(mac, now);
+        if (!peerRegistry.isOverloaded())
+            return true;
+
+        String victim = peerRegistry.reclaimIdle(now, mac);
+        if (victim != null) {
+            reclaim(victim);
+            return true;
+        }
+
+        // Every other peer is active or pinned
+        if (peerRegistry.isPinned(mac))
+            return true;
+
+        if (verbose) Log.d(TAG, "admit(): refused -> " + mac);
+        peerRegistry.reject(mac);
+        rejectedPeers.add(mac);
+        gattServer.cancelConnection(device);
+        return false;
+    }
+
+    /**
+     * Method allowing to disconnect a remote peer reclaimed by the admission 
+     * control.
+     * 
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     */
+    private void reclaim(String mac) {
+        if (verbose) Log.d(TAG, "reclaim(): " + mac);
+
+        BluetoothDevice device = mapMacDevice.get(mac);
+        if (device != null && open)
+            gattServer.cancelConnection(device);
+
+        // The link is only closed once no other connection uses it
+        ConnectionListener listener = connectionListener;
+        if (listener != null)
+            listener.onReclaimed(mac);
+    }
+
+    /**
+     * Method allowing to get the period of the reclamation of the idle peers.
+     * 
+     * @return Long value representing the period in milliseconds.
+     */
+    private long reaperPeriodMs() {
+        long idleTimeoutMs = peerRegistry.getIdleTimeoutMs();
+        if (idleTimeoutMs == 0)
+            idleTimeoutMs = PeerRegistry.DEFAULT_IDLE_TIMEOUT_MS;
+        return Math.max(1000, idleTimeoutMs / 2);
+    }
+
+    // Task reclaiming the idle peers, in LRU order, while every slot is taken
+    private final Runnable reaperTask = new Runnable() {
+        @Override
+        public void run() {
+            // Stop once the server is closed
+            if (!open)
+                return;
+
+            long now = SystemClock.elapsedRealtime();
+            while (peerRegistry.isFull()) {
+                String mac = peerRegistry.reclaimIdle(now, null);
+                if (mac == null)
+                    break;
+                reclaim(mac);
+            }
+
+            handler.postDelayed(this, reaperPeriodMs());
+        }
+    };
+
+    // Task evicting the stale incomplete messages while the server is open
+    private final Runnable evictionTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!open)
+                return;
+
+            int evicted = reassembler.evictStale();
+            if (verbose && evicted > 0) 
+                Log.d(TAG, "evictStale(): " + evicted);
+
+            handler.postDelayed(this, reassembler.getStaleTimeoutMs());
+        }
+    };
+
     /** 
-     * Method allowing to register the broadcast receiver.
+     * Method allowing to register the broadcast receiver, on a new thread as 
+     * the previous one is stopped on close.
      */
     private void register() {
         if (verbose) Log.d(TAG, "register()");
 
+        if (receiverThread != null)
+            return;
+
+        receiverThread = new HandlerThread("AdHocPlugin-GattReceiver");
+        receiverThread.start();
+
         final IntentFilter filter = 
             new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
-        context.registerReceiver(receiver, filter);
+        context.registerReceiver(
+            receiver, filter, null, new Handler(receiverThread.getLooper())
+        );
+    }
+
+    /** 
+     * Method allowing to unregister the broadcast receiver and to stop its 
+     * thread.
+     */
+    private void unregister() {
+        if (verbose) Log.d(TAG, "unregister()");
+
+        if (receiverThread == null)
+            return;
+
+        context.unregisterReceiver(receiver);
+        receiverThread.quitSafely();
+        receiverThread = null;
     }
 
     // BroadcastReceiver that notifies of Bluetooth bond events.
@@ -267,8 +785,10 @@ public class GattServerManager {
                     mapInfoValue.put("state", false);
                 }
 
-                // Notify Flutter client of bond state
-                eventSink.success(mapInfoValue);
+                // Notify Flutter client of bond state (batched on the main thread)
+                BatchingEventSink sink = eventSink;
+                if (sink != null)
+                    sink.success(mapInfoValue);
             }
         }
     };
@@ -280,45 +800,59 @@ public class GattServerManager {
             BluetoothDevice device, int requestId, BluetoothGattCharacteristic characteristic,
             boolean preparedWrite, boolean responseNeeded, int offset, byte[] value
         ) {
-            if (responseNeeded) {
-                gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, new byte[0]);
-            }
-
-            String mac = device.getAddress();
-            Integer id = (int) value[0];
-            byte flag = value[1];
+            final String mac = device.getAddress();
+            final int stream = streamOf(characteristic);
+            peerRegistry.touch(mac, SystemClock.elapsedRealtime());
+
+            if (preparedWrite) {
+                // Long write: the value is queued until onExecuteWrite()
+                int status;
+                String key = ReassemblyDispatcher.streamKey(mac, stream);
+                switch (preparedWrites.prepare(key, offset, value)) {
+                    case PreparedWriteQueue.PREPARED:
+                        status = BluetoothGatt.GATT_SUCCESS;
+                        break;
+                    case PreparedWriteQueue.INVALID_OFFSET:
+                        status = BluetoothGatt.GATT_INVALID_OFFSET;
+                        break;
+                    default:
+                        status = BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH;
+                }
 
-            HashMap<Integer, ByteArrayOutputStream> buffer = data.get(mac);
-            ByteArrayOutputStream byteBuffer = buffer.get(id);
-            if (byteBuffer == null) {
-                byteBuffer = new ByteArrayOutputStream();
+                // The remote peer checks that the offset and value are echoed
+                if (responseNeeded) {
+                    gattServer.sendResponse(device, requestId, status, offset, value);
+                }
+                return;
             }
 
-            // Process the fragmented data by removing the flags from data
-            try {
-                byteBuffer.write(Arrays.copyOfRange(value, 2, value.length));
-            } catch (IOException ignored) {
-
+            if (responseNeeded) {
+                gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, new byte[0]);
             }
 
-            // If it is the end of fragmentation, then send data to Flutter client
-            if (flag == BleUtils.MESSAGE_END) {
-                HashMap<String, Object> mapInfoValue = new HashMap<>();
+            // Reassemble the fragments on the thread of the stream, messages 
+            // are then sent to the Flutter client by sendData()
+            dispatcher.onWrite(mac, stream, value);
+        }
+
+        @Override
+        public void onExecuteWrite(BluetoothDevice device, int requestId, boolean execute) {
+            if (verbose) 
+                Log.d(TAG, "onExecuteWrite(): " + device.getAddress() + ", " + execute);
 
-                mapInfoValue.put("type", ANDROID_DATA);
-                mapInfoValue.put("mac", mac);
-                mapInfoValue.put("data", byteBuffer.toByteArray());
+            final String mac = device.getAddress();
 
-                // Send data to Flutter client
-                eventSink.success(mapInfoValue);
+            // A long write holds a whole message, without fragment header
+            for (int stream = 0; stream < streamCount(); stream++) {
+                ByteBuffer message = preparedWrites.execute(
+                    ReassemblyDispatcher.streamKey(mac, stream), execute
+                );
 
-                buffer.put(id, null);
-            } else {
-                // If not the end of fragmentation, then store the data in the buffer
-                buffer.put(id, byteBuffer);
+                if (message != null)
+                    dispatcher.deliver(mac, stream, message);
             }
 
-            data.put(mac, buffer);
+            gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, null);
         }
 
         @Override
@@ -338,16 +872,30 @@ public class GattServerManager {
             if (newState == BluetoothProfile.STATE_CONNECTED) {
                 mapInfoValue.put("state", true);
 
-                HashMap<Integer, ByteArrayOutputStream> map = new HashMap<>();
-                data.put(mac, map);
                 mapMacDevice.put(mac, device);
+                if (!admit(mac, device))
+                    return;
             } else { // A peer has aborted a connection to the Gatt server
                 mapInfoValue.put("state", false);
 
-                data.remove(mac);
+                dispatcher.onDisconnected(mac, streamCount());
+                for (int stream = 0; stream < streamCount(); stream++) {
+                    preparedWrites.remove(ReassemblyDispatcher.streamKey(mac, stream));
+                }
+                notificationQueue.remove(mac);
                 mapMacDevice.remove(mac);
+                peerRegistry.onDisconnected(mac);
+                subscribers.remove(mac);
+
+                // Its connection has never been reported
+                if (rejectedPeers.remove(mac))
+                    return;
             }
 
+            ConnectionListener listener = connectionListener;
+            if (listener != null)
+                listener.onConnectionsChanged(peerRegistry.size());
+
             // Send the event to the Flutter client
             eventSink.success(mapInfoValue);
         }
@@ -357,6 +905,8 @@ public class GattServerManager {
             if (verbose) 
                 Log.d(TAG, "onMtuChanged(): " + device.getAddress() + ", " + mtu);
 
+            peerRegistry.updateMtu(device.getAddress(), mtu);
+
             HashMap<String, Object> mapInfoValue = new HashMap<>();
 
             mapInfoValue.put("type", ANDROID_MTU);
@@ -366,55 +916,61 @@ public class GattServerManager {
             // Send the event to the Flutter client
             eventSink.success(mapInfoValue);
         }
-    };
-
-    /**
-     * Wrapper class that is needed to avoid the problem of
-     * "Methods marked with @UiThread must be executed on the main thread"
-     * 
-     * NOTE: The solution has been borrowed from:
-     * https://github.com/flutter/flutter/issues/34993
-     */
-    private static class MainThreadEventSink implements EventSink {
-        private final EventSink eventSink;
-        private final Handler handler;
-
-        /**
-         * Default constructor
-         * 
-         * @param eventSink  Event callback for sending event to the Flutter 
-         *                   client.
-         */
-        public MainThreadEventSink(EventSink eventSink) {
-            this.eventSink = eventSink;
-            handler = new Handler(Looper.getMainLooper());
-        }
 
         @Override
-        public void success(final Object event) {
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    eventSink.success(event);
-                }
-            });
+        public void onPhyUpdate(BluetoothDevice device, int txPhy, int rxPhy, int status) {
+            if (verbose) 
+                Log.d(TAG, "onPhyUpdate(): " + device.getAddress() + ", " + txPhy + ", " + rxPhy);
+
+            if (status == BluetoothGatt.GATT_SUCCESS)
+                peerRegistry.updatePhy(device.getAddress(), txPhy, rxPhy);
         }
 
         @Override
-        public void error(
-            final String errorCode, final String errorMessage, final Object errorDetails
+        public void onDescriptorWriteRequest(
+            BluetoothDevice device, int requestId, BluetoothGattDescriptor descriptor,
+            boolean preparedWrite, boolean responseNeeded, int offset, byte[] value
         ) {
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    eventSink.error(errorCode, errorMessage, errorDetails);
+            if (verbose) Log.d(TAG, "onDescriptorWriteRequest(): " + device.getAddress());
+
+            // A peer has enabled or disabled the notifications
+            if (UUID.fromString(BleUtils.CLIENT_CONFIG_UUID).equals(descriptor.getUuid())) {
+                if (Arrays.equals(value, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)) {
+                    subscribers.add(device.getAddress());
+                } else {
+                    subscribers.remove(device.getAddress());
                 }
-            });
+            }
+
+            if (responseNeeded) {
+                gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, null);
+            }
         }
 
         @Override
-        public void endOfStream() {
-            eventSink.endOfStream();
+        public void onNotificationSent(BluetoothDevice device, int status) {
+            String mac = device.getAddress();
+
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                if (verbose) Log.d(TAG, "onNotificationSent(): failure -> " + status);
+                notificationQueue.remove(mac);
+                return;
+            }
+
+            // Pace the notifications: send the next fragment once the previous 
+            // one has been handed to the controller
+            peerRegistry.touch(mac, SystemClock.elapsedRealtime());
+            notify(device, notificationQueue.onSent(mac));
         }
+    };
+
+    /**
+     * Interface notified when a remote peer connects to or disconnects from 
+     * the Gatt server, or is reclaimed by the admission control.
+     */
+    public interface ConnectionListener {
+        void onConnectionsChanged(int count);
+
+        void onReclaimed(String mac);
     }
 }
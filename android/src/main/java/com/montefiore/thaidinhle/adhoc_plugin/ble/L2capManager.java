@@ -0,0 +1,420 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.RequiresApi;
+
+import com.montefiore.thaidinhle.adhoc_plugin.utils.StripedExecutor;
+
+import io.flutter.plugin.common.BinaryMessenger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class managing the Bluetooth Low Energy L2CAP connection-oriented channels
+ * (API 29+), used as a data path next to the Gatt server and client.
+ *
+ * Unlike the Gatt writes and notifications, a channel is a stream with a
+ * credit-based flow control, so the messages are neither fragmented nor
+ * reassembled: each one is written as a frame (length on 4 bytes, big-endian,
+ * followed by the payload). The PSM of the listening channel is advertised by
+ * BleManager in the service data, and the remote peers which do not find it
+ * keep using the Gatt characteristics.
+ *
+ * The messages received are sent to the Flutter client through the data
+ * channel of the Gatt server, with the same frame header.
+ */
+@RequiresApi(api = Build.VERSION_CODES.Q)
+public class L2capManager {
+    private static final String TAG = "[AdHocPlugin][L2cap]";
+
+    // Size of the message length prefix
+    private static final int LENGTH_SIZE = 4;
+    // Maximum size of a message
+    private static final int MAX_MESSAGE_SIZE = 4 * 1024 * 1024;
+    // Number of threads writing to the remote peers
+    private static final int WRITER_THREADS = 2;
+    // Number of threads connecting to the remote peers, apart from the
+    // writers as a connection blocks until it succeeds or times out
+    private static final int CONNECTOR_THREADS = 4;
+
+    // Constants for communication with the Flutter platform barrier
+    private static final byte ANDROID_DATA = 125;
+
+    private boolean verbose;
+    private final BluetoothAdapter bluetoothAdapter;
+    private final Handler handler;
+    private final StripedExecutor writers;
+    private final StripedExecutor connectors;
+    private final ConcurrentHashMap<String, BluetoothSocket> mapMacSocket;
+
+    private volatile BinaryMessenger messenger;
+    private BluetoothServerSocket serverSocket;
+
+    /**
+     * Default constructor
+     */
+    public L2capManager() {
+        this.verbose = false;
+        this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        this.handler = new Handler(Looper.getMainLooper());
+        this.writers = new StripedExecutor("AdHocPlugin-L2cap", WRITER_THREADS);
+        this.connectors = new StripedExecutor("AdHocPlugin-L2capConnect", CONNECTOR_THREADS);
+        this.mapMacSocket = new ConcurrentHashMap<>();
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to update the verbose/debug mode.
+     *
+     * @param verbose   Boolean value representing the sate of the verbose/debug
+     *                  mode.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Method allowing to set the messenger through which the messages
+     * received are sent to the Flutter client.
+     *
+     * @param messenger BinaryMessenger object, which sends binary data across
+     *                  the Flutter platform barrier.
+     */
+    public void setMessenger(BinaryMessenger messenger) {
+        this.messenger = messenger;
+    }
+
+    /**
+     * Method allowing to listen for the channels opened by the remote peers.
+     *
+     * @return Integer value representing the PSM to advertise, or 0 if the
+     *         channel cannot be opened.
+     */
+    public synchronized int listen() {
+        if (serverSocket != null)
+            return serverSocket.getPsm();
+
+        try {
+            serverSocket = bluetoothAdapter.listenUsingInsecureL2capChannel();
+        } catch (IOException exception) {
+            Log.e(TAG, "listen(): " + exception.getMessage());
+            return 0;
+        }
+
+        final BluetoothServerSocket socket = serverSocket;
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept(socket);
+            }
+        }, "AdHocPlugin-L2capAccept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        if (verbose) Log.d(TAG, "listen(): " + socket.getPsm());
+
+        return socket.getPsm();
+    }
+
+    /**
+     * Method allowing to stop listening and to close the channels.
+     */
+    public synchronized void stopListening() {
+        if (verbose) Log.d(TAG, "stopListening()");
+
+        if (serverSocket != null) {
+            closeQuietly(serverSocket);
+            serverSocket = null;
+        }
+
+        for (String mac : new ArrayList<>(mapMacSocket.keySet())) {
+            disconnect(mac);
+        }
+    }
+
+    /**
+     * Method allowing to open a channel with a remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     * @param psm   Integer value representing the PSM advertised by the remote
+     *              peer.
+     *
+     * @return true if the connection has been initiated (or already exists),
+     *         otherwise false.
+     */
+    public boolean connect(final String mac, final int psm) {
+        if (verbose) Log.d(TAG, "connect(): " + mac + ", " + psm);
+
+        if (mapMacSocket.containsKey(mac))
+            return true;
+
+        if (psm <= 0 || !BluetoothAdapter.checkBluetoothAddress(mac))
+            return false;
+
+        connectors.execute(mac, new Runnable() {
+            @Override
+            public void run() {
+                if (mapMacSocket.containsKey(mac))
+                    return;
+
+                BluetoothDevice device = bluetoothAdapter.getRemoteDevice(mac);
+                BluetoothSocket socket = null;
+                try {
+                    socket = device.createInsecureL2capChannel(psm);
+                    socket.connect();
+                } catch (IOException exception) {
+                    if (verbose) Log.d(TAG, "connect(): failure -> " + exception.getMessage());
+                    closeQuietly(socket);
+                    return;
+                }
+
+                register(mac, socket);
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Method allowing to close the channel with a remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     */
+    public void disconnect(String mac) {
+        if (verbose) Log.d(TAG, "disconnect(): " + mac);
+
+        BluetoothSocket socket = mapMacSocket.remove(mac);
+        closeQuietly(socket);
+    }
+
+    /**
+     * Method allowing to check whether a channel is open with a remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     *
+     * @return true if it is, otherwise false.
+     */
+    public boolean isConnected(String mac) {
+        return mapMacSocket.containsKey(mac);
+    }
+
+    /**
+     * Method allowing to send a message to a remote peer through its channel.
+     *
+     * @param mac       String value representing the MAC address of the
+     *                  remote peer.
+     * @param message   Byte array representing the message to send.
+     *
+     * @return true if the message has been queued, otherwise false (no
+     *         channel is open with the remote peer).
+     */
+    public boolean sendMessage(final String mac, byte[] message) {
+        if (verbose) Log.d(TAG, "sendMessage(): " + mac + ", " + message.length);
+
+        final BluetoothSocket socket = mapMacSocket.get(mac);
+        if (socket == null || message.length > MAX_MESSAGE_SIZE)
+            return false;
+
+        // Length prefix and payload written at once, the write blocks until
+        // the remote peer gives credits
+        final byte[] frame = new byte[LENGTH_SIZE + message.length];
+        ByteBuffer.wrap(frame).putInt(message.length);
+        System.arraycopy(message, 0, frame, LENGTH_SIZE, message.length);
+
+        writers.execute(mac, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream output = socket.getOutputStream();
+                    output.write(frame);
+                    output.flush();
+                } catch (IOException exception) {
+                    if (verbose) Log.d(TAG, "sendMessage(): failure -> " + exception.getMessage());
+                    unregister(mac, socket);
+                }
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Method allowing to close the channels and to release the threads.
+     */
+    public void close() {
+        if (verbose) Log.d(TAG, "close()");
+
+        stopListening();
+        connectors.shutdown(0);
+        writers.shutdown(0);
+        messenger = null;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to accept the channels opened by the remote peers until
+     * the server socket is closed.
+     *
+     * @param serverSocket  BluetoothServerSocket object listening.
+     */
+    private void accept(BluetoothServerSocket serverSocket) {
+        while (true) {
+            BluetoothSocket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException exception) {
+                if (verbose) Log.d(TAG, "accept(): closed");
+                return;
+            }
+
+            register(socket.getRemoteDevice().getAddress(), socket);
+        }
+    }
+
+    /**
+     * Method allowing to register an open channel and to start reading it.
+     *
+     * @param mac       String value representing the MAC address of the
+     *                  remote peer.
+     * @param socket    BluetoothSocket object representing the channel.
+     */
+    private void register(final String mac, final BluetoothSocket socket) {
+        if (verbose) Log.d(TAG, "register(): " + mac);
+
+        // Both peers may have opened a channel, only the latest one is kept
+        BluetoothSocket previous = mapMacSocket.put(mac, socket);
+        if (previous != null && previous != socket)
+            closeQuietly(previous);
+
+        Thread readThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read(mac, socket);
+            }
+        }, "AdHocPlugin-L2capRead");
+        readThread.setDaemon(true);
+        readThread.start();
+    }
+
+    /**
+     * Method allowing to forget a channel which has been closed.
+     *
+     * @param mac       String value representing the MAC address of the
+     *                  remote peer.
+     * @param socket    BluetoothSocket object representing the channel.
+     */
+    private void unregister(String mac, BluetoothSocket socket) {
+        mapMacSocket.remove(mac, socket);
+        closeQuietly(socket);
+    }
+
+    /**
+     * Method allowing to read the messages of a channel until it is closed.
+     *
+     * @param mac       String value representing the MAC address of the
+     *                  remote peer.
+     * @param socket    BluetoothSocket object representing the channel.
+     */
+    private void read(String mac, BluetoothSocket socket) {
+        try {
+            InputStream input = socket.getInputStream();
+            ReadableByteChannel channel = Channels.newChannel(input);
+            ByteBuffer prefix = ByteBuffer.allocate(LENGTH_SIZE);
+
+            while (true) {
+                prefix.clear();
+                readFully(channel, prefix);
+
+                int length = prefix.getInt(0);
+                if (length < 0 || length > MAX_MESSAGE_SIZE)
+                    throw new IOException("Invalid frame length: " + length);
+
+                // Direct buffer with the frame header headroom, handed as is
+                // to the binary messenger
+                ByteBuffer message = ByteBuffer.allocateDirect(BleUtils.FRAME_HEADER_SIZE + length);
+                message.position(BleUtils.FRAME_HEADER_SIZE);
+                readFully(channel, message);
+
+                sendData(mac, message);
+            }
+        } catch (IOException exception) {
+            if (verbose) Log.d(TAG, "read(): closed -> " + mac);
+        }
+
+        unregister(mac, socket);
+    }
+
+    /**
+     * Method allowing to fill a buffer from a channel.
+     *
+     * @param channel   ReadableByteChannel object to read.
+     * @param buffer    ByteBuffer object to fill up to its limit.
+     *
+     * @throws IOException if the channel is closed before the buffer is full.
+     */
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                throw new IOException("End of stream");
+        }
+    }
+
+    /**
+     * Method allowing to send a message received to the Flutter client
+     * through the data channel.
+     *
+     * @param mac       String value representing the MAC address of the
+     *                  remote peer.
+     * @param message   ByteBuffer object holding the message after its frame
+     *                  header headroom.
+     */
+    private void sendData(String mac, final ByteBuffer message) {
+        // The binary messenger sends the bytes up to the position
+        message.position(BleUtils.FRAME_HEADER_SIZE);
+        BleUtils.putFrameHeader(message, ANDROID_DATA, mac);
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (messenger != null)
+                    messenger.send(GattServerManager.DATA_NAME, message);
+            }
+        });
+    }
+
+    /**
+     * Method allowing to close a socket, ignoring the errors.
+     *
+     * @param closeable Closeable object representing the socket.
+     */
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+
+        try {
+            closeable.close();
+        } catch (IOException exception) {
+            // Already closed
+        }
+    }
+}
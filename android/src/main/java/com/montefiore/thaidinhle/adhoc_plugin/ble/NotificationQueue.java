@@ -0,0 +1,161 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Class managing the fragments waiting to be notified to the remote peers.
+ *
+ * A remote peer has at most one notification in flight: the next fragment is
+ * only released once the previous one has been reported as sent.
+ *
+ * The bytes queued for a remote peer are bounded, so that a peer that stops
+ * acknowledging its notifications does not hold an unbounded backlog. A
+ * message is queued as a whole or rejected.
+ */
+public class NotificationQueue {
+    // Default maximum number of bytes queued for a remote peer
+    public static final int DEFAULT_MAX_LENGTH = 256 * 1024;
+
+    private final int maxLength;
+    private final HashMap<String, Pending> queues;
+
+    /**
+     * Default constructor
+     */
+    public NotificationQueue() {
+        this(DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxLength Integer value representing the maximum number of
+     *                  bytes queued for a remote peer.
+     */
+    public NotificationQueue(int maxLength) {
+        this.maxLength = maxLength;
+        this.queues = new HashMap<>();
+    }
+
+    /**
+     * Method allowing to queue the fragments of a message for a remote peer.
+     *
+     * @param mac       String value representing the MAC address of the
+     *                  remote peer.
+     * @param fragments List of fragments to notify.
+     *
+     * @return true if the fragments have been queued, otherwise false (the
+     *         queue of the remote peer is full).
+     */
+    public synchronized boolean offer(String mac, List<byte[]> fragments) {
+        int length = 0;
+        for (byte[] fragment : fragments) {
+            length += fragment.length;
+        }
+
+        Pending pending = queues.get(mac);
+        int queued = (pending == null) ? 0 : pending.length;
+        if (queued + length > maxLength)
+            return false;
+
+        if (pending == null) {
+            pending = new Pending();
+            queues.put(mac, pending);
+        }
+
+        pending.fragments.addAll(fragments);
+        pending.length += length;
+        return true;
+    }
+
+    /**
+     * Method allowing to get the fragment to send right away.
+     *
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     *
+     * @return Byte array representing the next fragment to send, or null if 
+     *         a notification is already in flight or the queue is empty.
+     */
+    public synchronized byte[] poll(String mac) {
+        Pending pending = queues.get(mac);
+        if (pending == null || pending.inFlight)
+            return null;
+
+        return poll(pending);
+    }
+
+    /**
+     * Method allowing to acknowledge the notification in flight.
+     *
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     *
+     * @return Byte array representing the next fragment to send, or null if 
+     *         the queue is empty.
+     */
+    public synchronized byte[] onSent(String mac) {
+        Pending pending = queues.get(mac);
+        if (pending == null)
+            return null;
+
+        pending.inFlight = false;
+        return poll(pending);
+    }
+
+    /**
+     * Method allowing to drop the queued fragments of a remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     */
+    public synchronized void remove(String mac) {
+        queues.remove(mac);
+    }
+
+    /**
+     * Method allowing to drop every queued fragment.
+     */
+    public synchronized void clear() {
+        queues.clear();
+    }
+
+    /**
+     * Method allowing to get the number of fragments waiting for a remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     *
+     * @return Integer value representing the number of queued fragments.
+     */
+    public synchronized int size(String mac) {
+        Pending pending = queues.get(mac);
+        return (pending == null) ? 0 : pending.fragments.size();
+    }
+
+    /**
+     * Method allowing to take the next fragment of a queue.
+     *
+     * @param pending   Pending object representing the queue of a peer.
+     *
+     * @return Byte array representing the next fragment, or null if empty.
+     */
+    private byte[] poll(Pending pending) {
+        byte[] next = pending.fragments.pollFirst();
+        pending.inFlight = (next != null);
+        if (next != null)
+            pending.length -= next.length;
+        return next;
+    }
+
+    /**
+     * Class holding the fragments waiting for a remote peer.
+     */
+    private static class Pending {
+        private final ArrayDeque<byte[]> fragments = new ArrayDeque<>();
+        private int length = 0;
+        private boolean inFlight = false;
+    }
+}
@@ -0,0 +1,465 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class keeping track of the link parameters (MTU and PHY) negotiated with 
+ * each remote peer connected to the Gatt server, and of its activity (bytes 
+ * and messages received and sent, time of the last activity).
+ * 
+ * The activity drives the admission control: the controllers only handle a 
+ * few concurrent links, so beyond a maximum number of peers, the peer idle 
+ * for the longest time (least recently used) is reclaimed. A peer is idle 
+ * once it has been inactive for a given timeout, and a pinned peer is never 
+ * reclaimed.
+ */
+public class PeerRegistry {
+    // Default maximum number of peers connected to the Gatt server
+    public static final int DEFAULT_MAX_PEERS = 7;
+    // Default time without activity after which a peer is idle
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30_000;
+
+    private final ConcurrentHashMap<String, Peer> peers;
+    private final Set<String> pinned;
+
+    private volatile int maxPeers;
+    private volatile long idleTimeoutMs;
+    private volatile PinPolicy pinPolicy;
+
+    // Counters of the admission control
+    private long rejected;
+    private long reclaimed;
+
+    /**
+     * Default constructor
+     */
+    public PeerRegistry() {
+        this.peers = new ConcurrentHashMap<>();
+        this.pinned = 
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.maxPeers = DEFAULT_MAX_PEERS;
+        this.idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    }
+
+    /**
+     * Method allowing to register a newly connected remote peer.
+     * 
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     * @param nowMs Long value representing the current time in milliseconds.
+     */
+    public void onConnected(String mac, long nowMs) {
+        Peer peer = get(mac);
+        peer.connectedMs = nowMs;
+        peer.lastActivityMs = nowMs;
+    }
+
+    /**
+     * Method allowing to forget a disconnected remote peer.
+     * 
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     */
+    public void onDisconnected(String mac) {
+        peers.remove(mac);
+    }
+
+    /**
+     * Method allowing to get the number of connected remote peers.
+     * 
+     * @return Integer value representing the number of remote peers.
+     */
+    public int size() {
+        return peers.size();
+    }
+
+    /**
+     * Method allowing to forget every remote peer. The pinned peers remain 
+     * pinned.
+     */
+    public void clear() {
+        peers.clear();
+    }
+
+    /**
+     * Method allowing to set the limits of the admission control.
+     * 
+     * @param maxPeers      Integer value representing the maximum number of 
+     *                      peers connected to the Gatt server.
+     * @param idleTimeoutMs Long value representing the time in milliseconds 
+     *                      without activity after which a peer is idle, and 
+     *                      may be reclaimed (0 = never).
+     */
+    public void setLimits(int maxPeers, long idleTimeoutMs) {
+        this.maxPeers = Math.max(1, maxPeers);
+        this.idleTimeoutMs = Math.max(0, idleTimeoutMs);
+    }
+
+    /**
+     * Method allowing to get the time without activity after which a peer is 
+     * idle.
+     * 
+     * @return Long value representing the timeout in milliseconds (0 = never).
+     */
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    /**
+     * Method allowing to set the policy deciding which peers are pinned, in 
+     * addition to the ones pinned by pin().
+     * 
+     * @param policy    PinPolicy object, or null for none.
+     */
+    public void setPinPolicy(PinPolicy policy) {
+        this.pinPolicy = policy;
+    }
+
+    /**
+     * Method allowing to pin or unpin a remote peer, which is never reclaimed 
+     * while pinned. It may be pinned before being connected.
+     * 
+     * @param mac       String value representing the MAC address of the 
+     *                  remote peer.
+     * @param pinned    Boolean value representing whether the peer is pinned.
+     */
+    public void pin(String mac, boolean pinned) {
+        if (pinned) {
+            this.pinned.add(mac);
+        } else {
+            this.pinned.remove(mac);
+        }
+    }
+
+    /**
+     * Method allowing to check whether a remote peer is pinned.
+     * 
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     * 
+     * @return true if it is pinned by pin() or by the policy, otherwise false.
+     */
+    public boolean isPinned(String mac) {
+        if (pinned.contains(mac))
+            return true;
+
+        PinPolicy policy = pinPolicy;
+        return policy != null && policy.isPinned(mac);
+    }
+
+    /**
+     * Method allowing to record an activity of a remote peer without message, 
+     * e.g. a fragment written or notified.
+     * 
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     * @param nowMs Long value representing the current time in milliseconds.
+     */
+    public void touch(String mac, long nowMs) {
+        Peer peer = peers.get(mac);
+        if (peer != null)
+            peer.lastActivityMs = nowMs;
+    }
+
+    /**
+     * Method allowing to record a message received from a remote peer.
+     * 
+     * @param mac       String value representing the MAC address of the 
+     *                  remote peer.
+     * @param length    Integer value representing the length of the message.
+     * @param nowMs     Long value representing the current time in 
+     *                  milliseconds.
+     */
+    public void onMessageIn(String mac, int length, long nowMs) {
+        Peer peer = peers.get(mac);
+        if (peer == null)
+            return;
+
+        synchronized (peer) {
+            peer.messagesIn++;
+            peer.bytesIn += length;
+        }
+        peer.lastActivityMs = nowMs;
+    }
+
+    /**
+     * Method allowing to record a message sent to a remote peer.
+     * 
+     * @param mac       String value representing the MAC address of the 
+     *                  remote peer.
+     * @param length    Integer value representing the length of the message.
+     * @param nowMs     Long value representing the current time in 
+     *                  milliseconds.
+     */
+    public void onMessageOut(String mac, int length, long nowMs) {
+        Peer peer = peers.get(mac);
+        if (peer == null)
+            return;
+
+        synchronized (peer) {
+            peer.messagesOut++;
+            peer.bytesOut += length;
+        }
+        peer.lastActivityMs = nowMs;
+    }
+
+    /**
+     * Method allowing to get the number of remote peers holding a slot, i.e.
+     * connected and not being reclaimed.
+     * 
+     * @return Integer value representing the number of remote peers.
+     */
+    public synchronized int activeSize() {
+        int count = 0;
+        for (Peer peer : peers.values()) {
+            if (!peer.reclaiming)
+                count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Method allowing to check whether the maximum number of peers is 
+     * exceeded.
+     * 
+     * @return true if it is, otherwise false.
+     */
+    public boolean isOverloaded() {
+        return activeSize() > maxPeers;
+    }
+
+    /**
+     * Method allowing to check whether every slot is taken.
+     * 
+     * @return true if it is, otherwise false.
+     */
+    public boolean isFull() {
+        return activeSize() >= maxPeers;
+    }
+
+    /**
+     * Method allowing to select the idle remote peer to reclaim, i.e. the one 
+     * not pinned and inactive for the longest time. The peer selected is 
+     * marked as being reclaimed, and no longer holds a slot.
+     * 
+     * @param nowMs     Long value representing the current time in 
+     *                  milliseconds.
+     * @param excluded  String value representing the MAC address of a remote 
+     *                  peer which cannot be selected, or null.
+     * 
+     * @return String value representing the MAC address of the remote peer 
+     *         to disconnect, or null if no peer is idle.
+     */
+    public synchronized String reclaimIdle(long nowMs, String excluded) {
+        long timeout = idleTimeoutMs;
+        if (timeout == 0)
+            return null;
+
+        String victim = null;
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<String, Peer> entry : peers.entrySet()) {
+            String mac = entry.getKey();
+            Peer peer = entry.getValue();
+            if (peer.reclaiming || mac.equals(excluded) || isPinned(mac))
+                continue;
+
+            long lastActivityMs = peer.lastActivityMs;
+            if (nowMs - lastActivityMs >= timeout && lastActivityMs < oldest) {
+                oldest = lastActivityMs;
+                victim = mac;
+            }
+        }
+
+        if (victim != null) {
+            peers.get(victim).reclaiming = true;
+            reclaimed++;
+        }
+
+        return victim;
+    }
+
+    /**
+     * Method allowing to refuse a remote peer which cannot be admitted. It no 
+     * longer holds a slot.
+     * 
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     */
+    public synchronized void reject(String mac) {
+        Peer peer = peers.get(mac);
+        if (peer != null && !peer.reclaiming) {
+            peer.reclaiming = true;
+            rejected++;
+        }
+    }
+
+    /**
+     * Method allowing to get the state and the counters of the admission 
+     * control.
+     * 
+     * @return HashMap<String, Object> containing the 'maxPeers', 
+     *         'idleTimeoutMs', 'peers', 'pinned', 'rejected', and 'reclaimed' 
+     *         keys.
+     */
+    public synchronized HashMap<String, Object> getAdmissionStats() {
+        int pinnedPeers = 0;
+        for (String mac : peers.keySet()) {
+            if (isPinned(mac))
+                pinnedPeers++;
+        }
+
+        HashMap<String, Object> mapStats = new HashMap<>();
+        mapStats.put("maxPeers", maxPeers);
+        mapStats.put("idleTimeoutMs", idleTimeoutMs);
+        mapStats.put("peers", activeSize());
+        mapStats.put("pinned", pinnedPeers);
+        mapStats.put("rejected", rejected);
+        mapStats.put("reclaimed", reclaimed);
+        return mapStats;
+    }
+
+    /**
+     * Method allowing to update the MTU negotiated with a remote peer. A late 
+     * update of a disconnected remote peer is ignored.
+     * 
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     * @param mtu   Integer value representing the negotiated MTU.
+     */
+    public void updateMtu(String mac, int mtu) {
+        Peer peer = peers.get(mac);
+        if (peer != null)
+            peer.mtu = mtu;
+    }
+
+    /**
+     * Method allowing to update the PHY used with a remote peer. A late 
+     * update of a disconnected remote peer is ignored.
+     * 
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     * @param txPhy Integer value representing the transmitter PHY in use.
+     * @param rxPhy Integer value representing the receiver PHY in use.
+     */
+    public void updatePhy(String mac, int txPhy, int rxPhy) {
+        Peer peer = peers.get(mac);
+        if (peer == null)
+            return;
+
+        peer.txPhy = txPhy;
+        peer.rxPhy = rxPhy;
+    }
+
+    /**
+     * Method allowing to get the MTU negotiated with a remote peer.
+     * 
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     * 
+     * @return Integer value representing the MTU, or the minimum MTU if the 
+     *         remote peer is unknown.
+     */
+    public int getMtu(String mac) {
+        Peer peer = peers.get(mac);
+        return (peer == null) ? BleUtils.MIN_MTU : peer.mtu;
+    }
+
+    /**
+     * Method allowing to check whether a remote peer is connected.
+     * 
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     * 
+     * @return true if it is, otherwise false.
+     */
+    public boolean contains(String mac) {
+        return peers.containsKey(mac);
+    }
+
+    /**
+     * Method allowing to get the link parameters and the activity of a remote 
+     * peer.
+     * 
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     * @param nowMs Long value representing the current time in milliseconds.
+     * 
+     * @return HashMap<String, Object> containing the 'mac', 'mtu', 'txPhy', 
+     *         'rxPhy', 'bytesIn', 'bytesOut', 'messagesIn', 'messagesOut', 
+     *         'connectedMs', 'idleMs', and 'pinned' keys, or null if the 
+     *         remote peer is unknown.
+     */
+    public HashMap<String, Object> toMap(String mac, long nowMs) {
+        Peer peer = peers.get(mac);
+        if (peer == null)
+            return null;
+
+        HashMap<String, Object> mapInfoValue = new HashMap<>();
+        mapInfoValue.put("mac", mac);
+        mapInfoValue.put("mtu", peer.mtu);
+        mapInfoValue.put("txPhy", peer.txPhy);
+        mapInfoValue.put("rxPhy", peer.rxPhy);
+        synchronized (peer) {
+            mapInfoValue.put("bytesIn", peer.bytesIn);
+            mapInfoValue.put("bytesOut", peer.bytesOut);
+            mapInfoValue.put("messagesIn", peer.messagesIn);
+            mapInfoValue.put("messagesOut", peer.messagesOut);
+        }
+        mapInfoValue.put("connectedMs", nowMs - peer.connectedMs);
+        mapInfoValue.put("idleMs", nowMs - peer.lastActivityMs);
+        mapInfoValue.put("pinned", isPinned(mac));
+
+        return mapInfoValue;
+    }
+
+    /**
+     * Method allowing to get (or create) the entry of a remote peer.
+     * 
+     * @param mac   String value representing the MAC address of the remote 
+     *              peer.
+     * 
+     * @return Peer object holding the link parameters.
+     */
+    private Peer get(String mac) {
+        Peer peer = peers.get(mac);
+        if (peer == null) {
+            Peer created = new Peer();
+            peer = peers.putIfAbsent(mac, created);
+            if (peer == null)
+                peer = created;
+        }
+
+        return peer;
+    }
+
+    /**
+     * Class holding the link parameters and the activity of a remote peer.
+     */
+    private static class Peer {
+        private volatile int mtu = BleUtils.MIN_MTU;
+        private volatile int txPhy = BleUtils.PHY_LE_1M;
+        private volatile int rxPhy = BleUtils.PHY_LE_1M;
+        private volatile long connectedMs;
+        private volatile long lastActivityMs;
+        // Disconnection requested by the admission control
+        private volatile boolean reclaiming;
+        // Guarded by the peer
+        private long bytesIn;
+        private long bytesOut;
+        private long messagesIn;
+        private long messagesOut;
+    }
+
+    /**
+     * Interface deciding whether a remote peer is pinned, i.e. never 
+     * reclaimed by the admission control (e.g. a relay of active routes).
+     */
+    public interface PinPolicy {
+        boolean isPinned(String mac);
+    }
+}
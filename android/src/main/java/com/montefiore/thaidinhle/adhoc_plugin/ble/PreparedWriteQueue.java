@@ -0,0 +1,178 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class managing the prepared writes (long writes) of the remote peers on the
+ * Gatt server characteristic.
+ *
+ * The values of the prepared writes are placed at their offset in a pooled
+ * buffer, which is handed out as a whole message when the remote peer
+ * executes its queue. Contrary to the fragment protocol, the value carries no
+ * header.
+ *
+ * Each buffer reserves a headroom before the message, so that a frame header
+ * can be written in place without copying the message.
+ */
+public class PreparedWriteQueue {
+    // Results of a prepared write
+    public static final int PREPARED        = 0;
+    public static final int INVALID_OFFSET  = 1;
+    public static final int INVALID_LENGTH  = 2;
+
+    // Default maximum length of a long write
+    public static final int DEFAULT_MAX_LENGTH = 256 * 1024;
+    // Initial buffer size of a long write
+    private static final int INITIAL_SIZE = 512;
+
+    private final BufferPool pool;
+    private final int headroom;
+    private final int maxLength;
+    private final ConcurrentHashMap<String, ByteBuffer> queues;
+
+    /**
+     * Default constructor
+     *
+     * @param pool      BufferPool object providing the buffers.
+     * @param headroom  Integer value representing the number of bytes
+     *                  reserved before each message.
+     * @param maxLength Integer value representing the maximum length of a
+     *                  long write.
+     */
+    public PreparedWriteQueue(BufferPool pool, int headroom, int maxLength) {
+        this.pool = pool;
+        this.headroom = headroom;
+        this.maxLength = maxLength;
+        this.queues = new ConcurrentHashMap<>();
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to queue a prepared write of a remote peer.
+     *
+     * The offset of a prepared write must not go past the end of the bytes
+     * already written, so that the long write does not contain any gap. A
+     * prepared write may overwrite previously written bytes.
+     *
+     * @param mac       String value representing the MAC address of the
+     *                  remote peer.
+     * @param offset    Integer value representing the offset of the value.
+     * @param value     Byte array representing the value to write.
+     *
+     * @return Integer value representing the result of the prepared write
+     *         (PREPARED, INVALID_OFFSET, or INVALID_LENGTH).
+     */
+    public int prepare(String mac, int offset, byte[] value) {
+        int length = (value == null) ? 0 : value.length;
+
+        ByteBuffer buffer = queues.get(mac);
+        int written = (buffer == null) ? 0 : buffer.position() - headroom;
+
+        if (offset < 0 || offset > written)
+            return INVALID_OFFSET;
+
+        int end = offset + length;
+        if (end > maxLength)
+            return INVALID_LENGTH;
+
+        if (buffer == null) {
+            buffer = pool.acquire(headroom + Math.max(INITIAL_SIZE, end));
+            buffer.position(headroom);
+        } else if (buffer.capacity() < headroom + end) {
+            buffer = grow(buffer, headroom + end);
+        }
+
+        // Place the value at its offset, the end of the long write is the
+        // furthest byte written so far
+        for (int i = 0; i < length; i++) {
+            buffer.put(headroom + offset + i, value[i]);
+        }
+        buffer.position(headroom + Math.max(written, end));
+
+        queues.put(mac, buffer);
+        return PREPARED;
+    }
+
+    /**
+     * Method allowing to execute or cancel the prepared writes of a remote
+     * peer.
+     *
+     * @param mac       String value representing the MAC address of the
+     *                  remote peer.
+     * @param execute   Boolean value stating whether the prepared writes are
+     *                  committed (true) or cancelled (false).
+     *
+     * @return ByteBuffer object holding the whole long write between its
+     *         position and its limit if the prepared writes are committed
+     *         (the headroom lies before the position), otherwise null.
+     */
+    public ByteBuffer execute(String mac, boolean execute) {
+        ByteBuffer buffer = queues.remove(mac);
+        if (buffer == null)
+            return null;
+
+        if (!execute || buffer.position() == headroom) {
+            pool.release(buffer);
+            return null;
+        }
+
+        buffer.flip();
+        buffer.position(headroom);
+        return buffer;
+    }
+
+    /**
+     * Method allowing to drop the prepared writes of a remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     */
+    public void remove(String mac) {
+        pool.release(queues.remove(mac));
+    }
+
+    /**
+     * Method allowing to drop the prepared writes of every remote peer.
+     */
+    public void clear() {
+        for (String mac : queues.keySet().toArray(new String[0])) {
+            remove(mac);
+        }
+    }
+
+    /**
+     * Method allowing to get the number of bytes prepared by a remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     *
+     * @return Integer value representing the length of the pending long
+     *         write.
+     */
+    public int pendingLength(String mac) {
+        ByteBuffer buffer = queues.get(mac);
+        return (buffer == null) ? 0 : buffer.position() - headroom;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to move the content of a buffer into a larger one.
+     *
+     * @param buffer    ByteBuffer object being filled.
+     * @param needed    Integer value representing the minimum capacity.
+     *
+     * @return ByteBuffer object holding the previous content.
+     */
+    private ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer larger = pool.acquire(Math.max(buffer.capacity() * 2, needed));
+
+        buffer.flip();
+        larger.put(buffer);
+        pool.release(buffer);
+
+        return larger;
+    }
+}
@@ -0,0 +1,201 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import com.montefiore.thaidinhle.adhoc_plugin.utils.StripedExecutor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Class moving the reassembly of the fragments written by remote peers off 
+ * the Gatt callback thread.
+ * 
+ * The fragments of a given peer are processed in order on the thread 
+ * associated to its MAC address, so that several peers are processed in 
+ * parallel without any race on the state of a peer.
+ * 
+ * A peer may write on several streams (one per data characteristic). Each 
+ * stream is reassembled independently and on its own thread, so that a large 
+ * message on one stream does not delay the messages of the other ones.
+ * 
+ * The reassembler may outlive the dispatcher, so once it is shut down, the 
+ * tasks still running or late no longer touch the reassembler.
+ */
+public class ReassemblyDispatcher {
+    // Maximum time waited on shutdown for the fragments already submitted
+    private static final long SHUTDOWN_TIMEOUT_MS = 200;
+
+    private final FragmentReassembler reassembler;
+    private final StripedExecutor executor;
+    private final Listener listener;
+    // Held by the tasks (read) and by the shutdown (write)
+    private final ReentrantReadWriteLock lock;
+    private boolean closed;
+
+    /**
+     * Default constructor
+     * 
+     * @param reassembler   FragmentReassembler object reassembling fragments.
+     * @param executor      StripedExecutor object running the reassembly.
+     * @param listener      Listener object notified of the messages received.
+     */
+    public ReassemblyDispatcher(
+        FragmentReassembler reassembler, StripedExecutor executor, Listener listener
+    ) {
+        this.reassembler = reassembler;
+        this.executor = executor;
+        this.listener = listener;
+        this.lock = new ReentrantReadWriteLock();
+        this.closed = false;
+    }
+
+    /**
+     * Static method allowing to get the key identifying a stream of a remote 
+     * peer.
+     * 
+     * @param mac       String value representing the MAC address of the 
+     *                  remote peer.
+     * @param stream    Integer value representing the index of the stream.
+     * 
+     * @return String value representing the key of the stream.
+     */
+    public static String streamKey(String mac, int stream) {
+        return (stream == 0) ? mac : mac + "#" + stream;
+    }
+
+    /**
+     * Method allowing to process a fragment written by a remote peer.
+     * 
+     * @param mac       String value representing the MAC address of the 
+     *                  remote peer.
+     * @param stream    Integer value representing the index of the stream.
+     * @param value     Byte array representing the fragment, which must not 
+     *                  be modified afterwards.
+     */
+    public void onWrite(final String mac, int stream, final byte[] value) {
+        final String key = streamKey(mac, stream);
+
+        executor.execute(key, new Runnable() {
+            @Override
+            public void run() {
+                lock.readLock().lock();
+                try {
+                    if (closed)
+                        return;
+
+                    ByteBuffer message = reassembler.onFragment(key, value);
+                    if (message != null)
+                        listener.onMessage(mac, message);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Method allowing to hand a whole message received from a remote peer to 
+     * the listener, after the previous fragments of its stream have been 
+     * processed.
+     * 
+     * @param mac       String value representing the MAC address of the 
+     *                  remote peer.
+     * @param stream    Integer value representing the index of the stream.
+     * @param message   ByteBuffer object holding the message, obtained from 
+     *                  the same buffer pool as the reassembler.
+     */
+    public void deliver(final String mac, int stream, final ByteBuffer message) {
+        executor.execute(streamKey(mac, stream), new Runnable() {
+            @Override
+            public void run() {
+                lock.readLock().lock();
+                try {
+                    if (closed) {
+                        reassembler.release(message);
+                        return;
+                    }
+
+                    listener.onMessage(mac, message);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Method allowing to drop the pending messages of a disconnected peer, 
+     * once its previous fragments have been processed.
+     * 
+     * @param mac       String value representing the MAC address of the 
+     *                  remote peer.
+     * @param streams   Integer value representing the number of streams.
+     */
+    public void onDisconnected(String mac, int streams) {
+        for (int stream = 0; stream < streams; stream++) {
+            final String key = streamKey(mac, stream);
+
+            executor.execute(key, new Runnable() {
+                @Override
+                public void run() {
+                    lock.readLock().lock();
+                    try {
+                        if (!closed)
+                            reassembler.removePeer(key);
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Method allowing to drop the pending messages of every peer.
+     */
+    public void clear() {
+        reassembler.clear();
+    }
+
+    /**
+     * Method allowing to drop the pending messages of every peer and to stop
+     * the threads, once the fragments already submitted are processed (for 
+     * SHUTDOWN_TIMEOUT_MS at most, the remaining ones being ignored). The 
+     * fragments written afterwards are ignored.
+     * 
+     * @return true if every fragment submitted has been processed, otherwise 
+     *         false.
+     */
+    public boolean shutdown() {
+        boolean done = executor.shutdown(SHUTDOWN_TIMEOUT_MS);
+
+        // Waits for the tasks still running, the later ones leave the 
+        // reassembler untouched
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            reassembler.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return done;
+    }
+
+    /**
+     * Method allowing to give back a buffer handed to the listener.
+     * 
+     * @param message   ByteBuffer object holding a reassembled message.
+     */
+    public void release(ByteBuffer message) {
+        reassembler.release(message);
+    }
+
+    /**
+     * Interface notified when a message has been reassembled. It is called on
+     * the thread of the remote peer, and the buffer must be given back with
+     * release() once consumed.
+     */
+    public interface Listener {
+        void onMessage(String mac, ByteBuffer message);
+    }
+}
@@ -0,0 +1,214 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Class aggregating the scan results between two reports to the Flutter
+ * client.
+ *
+ * The results are de-duplicated per MAC address, and the RSSI of each device
+ * is smoothed with an exponential moving average. A report (delta) only
+ * holds the devices found since the previous one, those whose name, PSM or
+ * advertised routing hints (AdvertisingPayload) changed, or whose smoothed
+ * RSSI moved by at least a given threshold, and the devices not seen for a
+ * while (lost).
+ */
+public class ScanAggregator {
+    // Default weight of a new RSSI sample in the moving average
+    public static final double DEFAULT_RSSI_WEIGHT = 0.25;
+    // Default variation of the smoothed RSSI worth reporting (dBm)
+    public static final int DEFAULT_RSSI_THRESHOLD = 6;
+    // Default time without result after which a device is lost
+    public static final long DEFAULT_LOST_AFTER_MS = 30_000;
+
+    private final double rssiWeight;
+    private final int rssiThreshold;
+    private final long lostAfterMs;
+    private final HashMap<String, Device> devices;
+
+    /**
+     * Default constructor
+     */
+    public ScanAggregator() {
+        this(DEFAULT_RSSI_WEIGHT, DEFAULT_RSSI_THRESHOLD, DEFAULT_LOST_AFTER_MS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param rssiWeight    Double value representing the weight of a new RSSI
+     *                      sample in the moving average (0 to 1).
+     * @param rssiThreshold Integer value representing the variation of the
+     *                      smoothed RSSI worth reporting.
+     * @param lostAfterMs   Long value representing the time in milliseconds
+     *                      without result after which a device is lost.
+     */
+    public ScanAggregator(double rssiWeight, int rssiThreshold, long lostAfterMs) {
+        this.rssiWeight = Math.max(0, Math.min(1, rssiWeight));
+        this.rssiThreshold = Math.max(0, rssiThreshold);
+        this.lostAfterMs = lostAfterMs;
+        this.devices = new HashMap<>();
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to add a scan result.
+     *
+     * @param mac       String value representing the MAC address of the
+     *                  remote device.
+     * @param name      String value representing the name of the remote
+     *                  device, or null if not advertised.
+     * @param rssi      Integer value representing the RSSI of the result.
+     * @param psm       Integer value representing the PSM of the L2CAP
+     *                  channel advertised, or 0 if none.
+     * @param nowMs     Long value representing the current time in
+     *                  milliseconds.
+     */
+    public void onResult(String mac, String name, int rssi, int psm, long nowMs) {
+        onResult(mac, name, rssi, psm, null, nowMs);
+    }
+
+    /**
+     * Method allowing to add a scan result holding the routing hints of the
+     * remote device.
+     *
+     * @param mac       String value representing the MAC address of the
+     *                  remote device.
+     * @param name      String value representing the name of the remote
+     *                  device, or null if not advertised.
+     * @param rssi      Integer value representing the RSSI of the result.
+     * @param psm       Integer value representing the PSM of the L2CAP
+     *                  channel advertised, or 0 if none.
+     * @param payload   AdvertisingPayload object advertised, or null if none.
+     * @param nowMs     Long value representing the current time in
+     *                  milliseconds.
+     */
+    public synchronized void onResult(String mac, String name, int rssi, int psm,
+                                      AdvertisingPayload payload, long nowMs) {
+        Device device = devices.get(mac);
+        if (device == null) {
+            device = new Device(mac, rssi);
+            devices.put(mac, device);
+        } else {
+            device.rssi += rssiWeight * (rssi - device.rssi);
+        }
+
+        // The name is only in some advertisements (scan response)
+        if (name != null && !name.equals(device.name)) {
+            device.name = name;
+            device.changed = true;
+        }
+
+        // The PSM and the routing hints are those of the latest result, so
+        // that a channel closed or hints withdrawn are not reported stale
+        if (psm != device.psm) {
+            device.psm = psm;
+            device.changed = true;
+        }
+
+        if ((payload == null) ? device.payload != null : !payload.equals(device.payload)) {
+            device.payload = payload;
+            device.changed = true;
+        }
+
+        device.lastSeenMs = nowMs;
+    }
+
+    /**
+     * Method allowing to get the changes since the previous call.
+     *
+     * @param nowMs Long value representing the current time in milliseconds.
+     *
+     * @return HashMap<String, Object> containing the devices found or updated
+     *         ('changed', each with the 'mac', 'name', 'rssi', and 'psm'
+     *         keys, and 'nodeId', 'seq', 'neighbours', and 'digest' if the
+     *         device advertises its routing hints) and the MAC addresses of the devices lost ('removed'),
+     *         or null if nothing changed.
+     */
+    public synchronized HashMap<String, Object> drainDelta(long nowMs) {
+        List<HashMap<String, Object>> updated = new ArrayList<>();
+        List<String> lost = new ArrayList<>();
+
+        Iterator<Device> iterator = devices.values().iterator();
+        while (iterator.hasNext()) {
+            Device device = iterator.next();
+            if (nowMs - device.lastSeenMs >= lostAfterMs) {
+                iterator.remove();
+                if (device.reportedRssi != null)
+                    lost.add(device.mac);
+                continue;
+            }
+
+            int rssi = (int) Math.round(device.rssi);
+            if (device.changed || device.reportedRssi == null
+                    || Math.abs(rssi - device.reportedRssi) >= rssiThreshold) {
+                device.changed = false;
+                device.reportedRssi = rssi;
+                updated.add(device.toMap(rssi));
+            }
+        }
+
+        if (updated.isEmpty() && lost.isEmpty())
+            return null;
+
+        HashMap<String, Object> mapDelta = new HashMap<>();
+        mapDelta.put("changed", updated);
+        mapDelta.put("removed", lost);
+        return mapDelta;
+    }
+
+    /**
+     * Method allowing to forget every device, e.g. when a new scan starts.
+     */
+    public synchronized void clear() {
+        devices.clear();
+    }
+
+    /**
+     * Method allowing to get the number of devices in range.
+     *
+     * @return Integer value representing the number of devices.
+     */
+    public synchronized int size() {
+        return devices.size();
+    }
+
+    /**
+     * Class holding the state of a remote device.
+     */
+    private static class Device {
+        private final String mac;
+        private String name;
+        private int psm;
+        private AdvertisingPayload payload;
+        private double rssi;
+        private long lastSeenMs;
+        // Smoothed RSSI of the last report, null if never reported
+        private Integer reportedRssi;
+        private boolean changed;
+
+        private Device(String mac, int rssi) {
+            this.mac = mac;
+            this.rssi = rssi;
+        }
+
+        private HashMap<String, Object> toMap(int rssi) {
+            HashMap<String, Object> mapInfoValue = new HashMap<>();
+            mapInfoValue.put("mac", mac);
+            mapInfoValue.put("name", (name == null) ? "" : name);
+            mapInfoValue.put("rssi", rssi);
+            mapInfoValue.put("psm", psm);
+            if (payload != null) {
+                mapInfoValue.put("nodeId", payload.getNodeId());
+                mapInfoValue.put("seq", payload.getSeq());
+                mapInfoValue.put("neighbours", payload.getNeighbours());
+                mapInfoValue.put("digest", payload.getDigest());
+            }
+            return mapInfoValue;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Class managing the fragments waiting to be written to the Gatt servers of
+ * the remote peers.
+ *
+ * A remote peer has at most one write in flight, as the Gatt client accepts a
+ * single operation at a time. The next fragment is released as soon as the
+ * stack reports the previous one as written, without going back to the
+ * Flutter client. A write refused because the buffers of the controller are
+ * full stays in flight and is retried, until too many attempts failed: the
+ * rest of its message is then dropped, and the next message is written.
+ *
+ * The time spent with fragments in flight is accounted, so that the
+ * throughput of a link can be measured.
+ */
+public class WritePipeline {
+    // Default number of consecutive refused attempts before dropping a message
+    public static final int DEFAULT_MAX_RETRIES = 50;
+
+    private final HashMap<String, Pending> queues;
+    private final int maxRetries;
+
+    /**
+     * Default constructor
+     */
+    public WritePipeline() {
+        this(DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxRetries    Integer value representing the number of
+     *                      consecutive refused attempts after which the
+     *                      fragments left of a message are dropped.
+     */
+    public WritePipeline(int maxRetries) {
+        this.queues = new HashMap<>();
+        this.maxRetries = maxRetries;
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to queue the fragments of a message for a remote peer.
+     *
+     * @param mac       String value representing the MAC address of the
+     *                  remote peer.
+     * @param stream    Integer value representing the index of the data
+     *                  characteristic to write.
+     * @param fragments List of fragments of the message to write.
+     *
+     * @return Write object representing the fragment to write right away, or
+     *         null if a write is already in flight.
+     */
+    public synchronized Write offer(String mac, int stream, List<byte[]> fragments) {
+        Pending pending = queues.get(mac);
+        if (pending == null) {
+            pending = new Pending();
+            queues.put(mac, pending);
+        }
+
+        long message = pending.messages++;
+        for (byte[] fragment : fragments) {
+            pending.writes.add(new Write(stream, fragment, message));
+        }
+
+        if (pending.inFlight != null)
+            return null;
+
+        pending.activeSinceNs = System.nanoTime();
+        return poll(pending);
+    }
+
+    /**
+     * Method allowing to acknowledge the write in flight.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     *
+     * @return Write object representing the next fragment to write, or null
+     *         if the queue is empty.
+     */
+    public synchronized Write onWritten(String mac) {
+        Pending pending = queues.get(mac);
+        if (pending == null || pending.inFlight == null)
+            return null;
+
+        pending.bytes += pending.inFlight.value.length;
+        pending.fragments++;
+        return poll(pending);
+    }
+
+    /**
+     * Method allowing to report that the write in flight has been refused,
+     * e.g. because the buffers of the controller are full.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     *
+     * @return Write object representing the fragment to write again, or if
+     *         too many attempts failed, the first fragment of the next message
+     *         (the rest of the message is dropped), or null if the queue is
+     *         then empty.
+     */
+    public synchronized Write onBusy(String mac) {
+        Pending pending = queues.get(mac);
+        if (pending == null || pending.inFlight == null)
+            return null;
+
+        pending.retries++;
+        if (++pending.attempts > maxRetries) {
+            // Only the message in flight is given up, as the remote peer
+            // cannot reassemble it anymore
+            long message = pending.inFlight.message;
+            pending.dropped++;
+            while (!pending.writes.isEmpty() && pending.writes.peekFirst().message == message) {
+                pending.writes.pollFirst();
+                pending.dropped++;
+            }
+            return poll(pending);
+        }
+
+        return pending.inFlight;
+    }
+
+    /**
+     * Method allowing to drop the queued fragments of a remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     */
+    public synchronized void remove(String mac) {
+        queues.remove(mac);
+    }
+
+    /**
+     * Method allowing to drop every queued fragment.
+     */
+    public synchronized void clear() {
+        queues.clear();
+    }
+
+    /**
+     * Method allowing to get the number of fragments waiting for a remote
+     * peer, the one in flight included.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     *
+     * @return Integer value representing the number of queued fragments.
+     */
+    public synchronized int size(String mac) {
+        Pending pending = queues.get(mac);
+        if (pending == null)
+            return 0;
+
+        return pending.writes.size() + ((pending.inFlight == null) ? 0 : 1);
+    }
+
+    /**
+     * Method allowing to get the counters of the writes to a remote peer
+     * (bytes and fragments written, retries, dropped fragments, and
+     * throughput while fragments were in flight).
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     *
+     * @return HashMap<String, Object> containing the counters.
+     */
+    public synchronized HashMap<String, Object> getStats(String mac) {
+        Pending pending = queues.get(mac);
+        if (pending == null)
+            pending = new Pending();
+
+        long activeNs = pending.activeNs;
+        if (pending.inFlight != null)
+            activeNs += System.nanoTime() - pending.activeSinceNs;
+
+        HashMap<String, Object> mapStats = new HashMap<>();
+        mapStats.put("bytes", pending.bytes);
+        mapStats.put("fragments", pending.fragments);
+        mapStats.put("retries", pending.retries);
+        mapStats.put("dropped", pending.dropped);
+        mapStats.put("pending", size(mac));
+        mapStats.put("activeUs", activeNs / 1000);
+        mapStats.put("bytesPerSecond",
+            (activeNs == 0) ? 0L : pending.bytes * 1000000000L / activeNs);
+
+        return mapStats;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to take the next fragment of a queue.
+     *
+     * @param pending   Pending object representing the queue of a peer.
+     *
+     * @return Write object representing the next fragment, or null if empty.
+     */
+    private Write poll(Pending pending) {
+        Write next = pending.writes.pollFirst();
+        if (next == null && pending.inFlight != null)
+            pending.activeNs += System.nanoTime() - pending.activeSinceNs;
+
+        pending.inFlight = next;
+        pending.attempts = 0;
+        return next;
+    }
+
+    /**
+     * Class representing a fragment to write to a data characteristic.
+     */
+    public static class Write {
+        public final int stream;
+        public final byte[] value;
+        private final long message;
+
+        private Write(int stream, byte[] value, long message) {
+            this.stream = stream;
+            this.value = value;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Class holding the fragments waiting for a remote peer.
+     */
+    private static class Pending {
+        private final ArrayDeque<Write> writes = new ArrayDeque<>();
+        private Write inFlight = null;
+        private int attempts = 0;
+        // Sequence number of the next message queued
+        private long messages = 0;
+        // Counters
+        private long bytes = 0;
+        private long fragments = 0;
+        private long retries = 0;
+        private long dropped = 0;
+        private long activeNs = 0;
+        private long activeSinceNs = 0;
+    }
+}
@@ -0,0 +1,216 @@
+package com.montefiore.thaidinhle.adhoc_plugin.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import io.flutter.plugin.common.EventChannel.EventSink;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class wrapping an event sink so that events are accumulated and delivered 
+ * to the Flutter client as a single list, on the main thread.
+ * 
+ * A batch is flushed at the next frame (or after a configurable delay), or 
+ * as soon as it reaches a configurable number of events. As no frame is 
+ * drawn while the screen is off or the engine is headless, a batch waiting 
+ * for the next frame is flushed after FRAME_TIMEOUT_MS at the latest. Events of the 
+ * coalescing types supersede the pending event of the same type and MAC 
+ * address (or ID if the event has no MAC address), if any.
+ */
+public class BatchingEventSink implements EventSink {
+    // Default maximum number of events per batch
+    public static final int DEFAULT_MAX_EVENTS = 64;
+    // Default delay before flushing a batch (0 = next frame)
+    public static final long DEFAULT_MAX_DELAY_US = 0;
+    // Time after which a batch waiting for the next frame is flushed anyway
+    private static final long FRAME_TIMEOUT_MS = 16;
+
+    private final EventSink eventSink;
+    private final Handler handler;
+    private final byte[] coalescingTypes;
+
+    private ArrayList<Object> pending;
+    private final HashMap<String, Integer> mapKeyIndex;
+    private int maxEvents;
+    private long maxDelayUs;
+    private boolean scheduled;
+    private boolean urgent;
+
+    /**
+     * Default constructor
+     * 
+     * @param eventSink         Event callback for sending event to the Flutter 
+     *                          client.
+     * @param coalescingTypes   Byte array representing the event types for 
+     *                          which only the latest event is delivered.
+     */
+    public BatchingEventSink(EventSink eventSink, byte... coalescingTypes) {
+        this.eventSink = eventSink;
+        this.handler = new Handler(Looper.getMainLooper());
+        this.coalescingTypes = coalescingTypes;
+        this.pending = new ArrayList<>();
+        this.mapKeyIndex = new HashMap<>();
+        this.maxEvents = DEFAULT_MAX_EVENTS;
+        this.maxDelayUs = DEFAULT_MAX_DELAY_US;
+        this.scheduled = false;
+        this.urgent = false;
+    }
+
+/*------------------------------Override methods------------------------------*/
+
+    @Override
+    public void success(final Object event) {
+        synchronized (this) {
+            String key = coalescingKey(event);
+            Integer index = (key == null) ? null : mapKeyIndex.get(key);
+
+            if (index != null) {
+                // Supersede the pending event
+                pending.set(index, event);
+            } else {
+                if (key != null)
+                    mapKeyIndex.put(key, pending.size());
+                pending.add(event);
+            }
+
+            schedule();
+        }
+    }
+
+    @Override
+    public void error(
+        final String errorCode, final String errorMessage, final Object errorDetails
+    ) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Deliver the pending events first to preserve ordering
+                flush();
+                eventSink.error(errorCode, errorMessage, errorDetails);
+            }
+        });
+    }
+
+    @Override
+    public void endOfStream() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                eventSink.endOfStream();
+            }
+        });
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to configure the batching policy.
+     * 
+     * @param maxEvents     Integer value representing the maximum number of 
+     *                      events of a batch (1 = no batching).
+     * @param maxDelayUs    Long value representing the maximum time in 
+     *                      microseconds an event waits before being delivered
+     *                      (0 = next frame).
+     */
+    public synchronized void configure(int maxEvents, long maxDelayUs) {
+        this.maxEvents = Math.max(1, maxEvents);
+        this.maxDelayUs = Math.max(0, maxDelayUs);
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to schedule the delivery of the pending batch. It must 
+     * be called while holding the lock.
+     */
+    private void schedule() {
+        if (pending.size() >= maxEvents) {
+            if (!urgent) {
+                urgent = true;
+                handler.post(flushTask);
+            }
+        } else if (!scheduled) {
+            scheduled = true;
+            if (maxDelayUs == 0) {
+                handler.post(frameTask);
+                handler.postDelayed(flushTask, FRAME_TIMEOUT_MS);
+            } else {
+                handler.postDelayed(flushTask, Math.max(1, maxDelayUs / 1000));
+            }
+        }
+    }
+
+    /**
+     * Method allowing to deliver the pending batch. It must be called on the
+     * main thread.
+     */
+    private void flush() {
+        // Cancel the other scheduled deliveries before taking the batch, so 
+        // that the events added meanwhile are either in it or scheduled again
+        handler.removeCallbacks(flushTask);
+        handler.removeCallbacks(frameTask);
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+
+        ArrayList<Object> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new ArrayList<>();
+            mapKeyIndex.clear();
+            scheduled = false;
+            urgent = false;
+        }
+
+        if (!batch.isEmpty())
+            eventSink.success(batch);
+    }
+
+    /**
+     * Method allowing to compute the coalescing key of an event.
+     * 
+     * @param event Object representing the event.
+     * 
+     * @return String value representing the key, or null if the event must 
+     *         not be coalesced.
+     */
+    private String coalescingKey(Object event) {
+        if (coalescingTypes.length == 0 || !(event instanceof Map))
+            return null;
+
+        Map<?, ?> map = (Map<?, ?>) event;
+        Object type = map.get("type");
+        for (byte coalescingType : coalescingTypes) {
+            if (type instanceof Byte && (Byte) type == coalescingType)
+                return type + "/" + (map.containsKey("mac") ? map.get("mac") : map.get("id"));
+        }
+
+        return null;
+    }
+
+    // Task delivering the pending batch
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // Task delivering the pending batch at the next frame
+    private final Runnable frameTask = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    };
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flush();
+        }
+    };
+}
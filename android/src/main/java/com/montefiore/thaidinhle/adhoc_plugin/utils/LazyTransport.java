@@ -0,0 +1,296 @@
+package com.montefiore.thaidinhle.adhoc_plugin.utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.StandardMethodCodec;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Class creating a transport manager on first use.
+ *
+ * Until then, a lightweight handler is registered on each channel of the
+ * transport. The first message received on any of them (platform call, or
+ * listener of an event channel) creates the manager, which registers its own
+ * handlers, and the message is then handed to the handler of the manager.
+ *
+ * If the transport is not supported by the device, the manager is never
+ * created and the messages are answered with an "unavailable" error.
+ *
+ * The platform calls that only carry a setting (see isDeferred()) do not
+ * create the manager: they are answered at once, and handed to the manager
+ * once created.
+ */
+public abstract class LazyTransport<T> {
+    private static final String TAG = "[AdHocPlugin][Lazy]";
+
+    private final String name;
+    private final boolean supported;
+    private final BinaryMessenger messenger;
+    private final String[] channels;
+    private final HashMap<String, BinaryMessenger.BinaryMessageHandler> handlers;
+    // Deferred calls (latest per channel and method), in order of arrival
+    private final LinkedHashMap<String, DeferredCall> deferredCalls;
+
+    private T transport;
+    private long creationTimeUs;
+    private volatile boolean verbose;
+
+    /**
+     * Default constructor
+     *
+     * @param name      String value representing the name of the transport.
+     * @param supported Boolean value stating whether the device supports the
+     *                  transport.
+     * @param messenger BinaryMessenger object, which sends binary data across
+     *                  the Flutter platform barrier.
+     * @param channels  String array representing the names of the channels on
+     *                  which the Flutter client may reach the transport.
+     */
+    public LazyTransport(
+        String name, boolean supported, BinaryMessenger messenger, String... channels
+    ) {
+        this.name = name;
+        this.supported = supported;
+        this.messenger = messenger;
+        this.channels = channels;
+        this.handlers = new HashMap<>();
+        this.deferredCalls = new LinkedHashMap<>();
+        this.creationTimeUs = -1;
+
+        for (String channel : channels) {
+            messenger.setMessageHandler(channel, proxy(channel));
+        }
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to update the verbose/debug mode.
+     *
+     * @param verbose   Boolean value representing the sate of the verbose/debug
+     *                  mode.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Method allowing to get the manager, and to create it if needed.
+     *
+     * @return Manager of the transport, or null if the transport is not
+     *         supported.
+     */
+    public synchronized T get() {
+        if (transport == null && supported) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            transport = create(capturingMessenger);
+            creationTimeUs = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+
+            if (verbose) Log.d(TAG, name + " created in " + creationTimeUs + " us");
+
+            replayDeferredCalls();
+        }
+
+        return transport;
+    }
+
+    /**
+     * Method allowing to get the manager without creating it.
+     *
+     * @return Manager of the transport, or null if it has not been created.
+     */
+    public synchronized T peek() {
+        return transport;
+    }
+
+    /**
+     * Method allowing to check whether the device supports the transport.
+     *
+     * @return true if it is supported, otherwise false.
+     */
+    public boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * Method allowing to get the time spent creating the manager.
+     *
+     * @return Long value representing the time in microseconds, or -1 if the
+     *         manager has not been created.
+     */
+    public synchronized long getCreationTimeUs() {
+        return creationTimeUs;
+    }
+
+    /**
+     * Method allowing to unregister the handlers of the channels. The manager
+     * must be closed separately.
+     */
+    public synchronized void close() {
+        for (String channel : channels) {
+            messenger.setMessageHandler(channel, null);
+        }
+        handlers.clear();
+        deferredCalls.clear();
+    }
+
+/*------------------------------Protected methods-----------------------------*/
+
+    /**
+     * Method creating the manager and registering its channels.
+     *
+     * @param messenger BinaryMessenger object on which the manager must
+     *                  register its channels.
+     *
+     * @return Manager of the transport.
+     */
+    protected abstract T create(BinaryMessenger messenger);
+
+    /**
+     * Method allowing to state whether a platform call received before the
+     * manager is created may be deferred until its creation.
+     *
+     * @param channel   String value representing the name of the channel.
+     * @param method    String value representing the name of the method.
+     *
+     * @return true if the call may be deferred, otherwise false.
+     */
+    protected boolean isDeferred(String channel, String method) {
+        return false;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to get the handler standing for the manager on a channel
+     * until it is created.
+     *
+     * @param channel   String value representing the name of the channel.
+     *
+     * @return BinaryMessageHandler object creating the manager.
+     */
+    private BinaryMessenger.BinaryMessageHandler proxy(final String channel) {
+        return new BinaryMessenger.BinaryMessageHandler() {
+            @Override
+            public void onMessage(ByteBuffer message, BinaryMessenger.BinaryReply reply) {
+                if (defer(channel, message)) {
+                    reply.reply(StandardMethodCodec.INSTANCE.encodeSuccessEnvelope(null));
+                    return;
+                }
+
+                BinaryMessenger.BinaryMessageHandler handler = null;
+                if (get() != null) {
+                    synchronized (LazyTransport.this) {
+                        handler = handlers.get(channel);
+                    }
+                }
+
+                if (handler != null) {
+                    handler.onMessage(message, reply);
+                } else {
+                    reply.reply(StandardMethodCodec.INSTANCE.encodeErrorEnvelope(
+                        "unavailable", name + " is not available on this device", null
+                    ));
+                }
+            }
+        };
+    }
+
+    /**
+     * Method allowing to keep a platform call until the manager is created,
+     * if it has not been created yet and the call may be deferred.
+     *
+     * @param channel   String value representing the name of the channel.
+     * @param message   ByteBuffer object holding the encoded message.
+     *
+     * @return true if the call has been deferred, otherwise false.
+     */
+    private synchronized boolean defer(String channel, ByteBuffer message) {
+        if (transport != null || !supported || message == null)
+            return false;
+
+        MethodCall call;
+        try {
+            // The message is left untouched for the handler of the manager
+            call = StandardMethodCodec.INSTANCE.decodeMethodCall(message.duplicate());
+        } catch (RuntimeException exception) {
+            return false;
+        }
+
+        if (!isDeferred(channel, call.method))
+            return false;
+
+        String key = channel + "/" + call.method;
+        deferredCalls.remove(key);
+        deferredCalls.put(key, new DeferredCall(channel, call));
+        return true;
+    }
+
+    /**
+     * Method allowing to hand the deferred calls to the manager just created.
+     */
+    private void replayDeferredCalls() {
+        for (DeferredCall deferred : deferredCalls.values()) {
+            BinaryMessenger.BinaryMessageHandler handler = handlers.get(deferred.channel);
+            if (handler == null)
+                continue;
+
+            ByteBuffer message = StandardMethodCodec.INSTANCE.encodeMethodCall(deferred.call);
+            message.flip();
+            // The call has already been answered
+            handler.onMessage(message, new BinaryMessenger.BinaryReply() {
+                @Override
+                public void reply(ByteBuffer reply) {
+                    // Nothing to do
+                }
+            });
+        }
+
+        deferredCalls.clear();
+    }
+
+    /**
+     * Class holding a platform call received before the manager is created.
+     */
+    private static class DeferredCall {
+        private final String channel;
+        private final MethodCall call;
+
+        private DeferredCall(String channel, MethodCall call) {
+            this.channel = channel;
+            this.call = call;
+        }
+    }
+
+    // Messenger recording the handlers registered by the manager
+    private final BinaryMessenger capturingMessenger = new BinaryMessenger() {
+        @Override
+        public void send(String channel, ByteBuffer message) {
+            messenger.send(channel, message);
+        }
+
+        @Override
+        public void send(String channel, ByteBuffer message, BinaryReply callback) {
+            messenger.send(channel, message, callback);
+        }
+
+        @Override
+        public void setMessageHandler(String channel, BinaryMessageHandler handler) {
+            synchronized (LazyTransport.this) {
+                if (handler == null) {
+                    handlers.remove(channel);
+                } else {
+                    handlers.put(channel, handler);
+                }
+            }
+
+            messenger.setMessageHandler(channel, handler);
+        }
+    };
+}
@@ -0,0 +1,83 @@
+package com.montefiore.thaidinhle.adhoc_plugin.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class managing a small pool of single-threaded executors.
+ * 
+ * Tasks submitted with the same key always run on the same thread, in 
+ * submission order, while tasks of different keys may run in parallel.
+ */
+public class StripedExecutor {
+    private final ExecutorService[] stripes;
+
+    /**
+     * Default constructor
+     * 
+     * @param name  String value representing the prefix of the thread names.
+     * @param size  Integer value representing the number of threads.
+     */
+    public StripedExecutor(final String name, int size) {
+        this.stripes = new ExecutorService[Math.max(1, size)];
+        for (int i = 0; i < stripes.length; i++) {
+            final String threadName = name + "-" + i;
+            stripes[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Method allowing to run a task on the thread associated to a key. The 
+     * task is dropped once the threads are stopped.
+     * 
+     * @param key   Object representing the key (e.g. a MAC address).
+     * @param task  Runnable object representing the task to run.
+     * 
+     * @return true if the task has been submitted, otherwise false.
+     */
+    public boolean execute(Object key, Runnable task) {
+        try {
+            stripes[(key.hashCode() & 0x7FFFFFFF) % stripes.length].execute(task);
+            return true;
+        } catch (RejectedExecutionException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Method allowing to stop the threads once the submitted tasks are done.
+     * 
+     * @param timeoutMs Long value representing the maximum time to wait for 
+     *                  the submitted tasks in milliseconds.
+     * 
+     * @return true if every task has completed, otherwise false.
+     */
+    public boolean shutdown(long timeoutMs) {
+        for (ExecutorService stripe : stripes)
+            stripe.shutdown();
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            for (ExecutorService stripe : stripes) {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                if (!stripe.awaitTermination(remaining, TimeUnit.MILLISECONDS))
+                    return false;
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,375 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Class implementing the ad hoc logic on top of Wi-Fi Aware (NAN).
+ *
+ * Each node publishes and subscribes to the ad hoc service, the service
+ * specific information carrying the label of the node. The remote peers are
+ * given IDs ("aware-<n>") that remain valid for the whole session. A data
+ * path is set up on request: the initiator sends a connection message to the
+ * remote peer, then both request the data path. Unlike a Wi-Fi Direct group,
+ * each data path is independent, so a node can hold several at once without
+ * going through a group owner.
+ *
+ * When the layer cannot tell the address of the remote peer (before API 29),
+ * each side sends its own IPv6 link-local address by message once the data
+ * path is set up, and the data path is reported once both the address of the
+ * remote peer and the local interface are known.
+ *
+ * The events are built with the same types and keys as the Wi-Fi Direct
+ * events (ANDROID_STATE, ANDROID_SERVICE, and ANDROID_CONNECTION).
+ */
+public class AwareController {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Constants for communication with the Flutter platform barrier
+    private static final byte ANDROID_STATE      = 121;
+    private static final byte ANDROID_CONNECTION = 122;
+    private static final byte ANDROID_SERVICE    = 127;
+
+    // Wi-Fi Aware service of the ad hoc nodes
+    public static final String SERVICE_NAME = "adhoc";
+    // Prefix of the IDs given to the remote peers
+    private static final String PEER_PREFIX = "aware-";
+    // Message asking a remote peer to set up a data path
+    private static final byte[] MESSAGE_CONNECT = {'C'};
+    // Message carrying the data path address of the sender
+    private static final byte MESSAGE_ADDRESS = 'A';
+
+    private final AwareSessionLayer layer;
+    private final Listener listener;
+
+    private final HashMap<Object, String> mapHandleId;
+    private final HashMap<String, Object> mapIdHandle;
+    private final HashMap<String, String> mapIdLabel;
+    // Data paths of which the address is exchanged by message
+    private final HashMap<String, String> mapIdInterface;
+    private final HashMap<String, String> mapIdAddress;
+    private int peerCounter;
+    private String label;
+    private boolean started;
+    private boolean attached;
+
+    /**
+     * Default constructor
+     *
+     * @param layer     AwareSessionLayer object giving access to Wi-Fi Aware.
+     * @param listener  Listener object notified of the events to send to the
+     *                  Flutter client.
+     */
+    public AwareController(AwareSessionLayer layer, Listener listener) {
+        this.layer = layer;
+        this.listener = listener;
+        this.mapHandleId = new HashMap<>();
+        this.mapIdHandle = new HashMap<>();
+        this.mapIdLabel = new HashMap<>();
+        this.mapIdInterface = new HashMap<>();
+        this.mapIdAddress = new HashMap<>();
+        this.peerCounter = 0;
+        this.started = false;
+        this.attached = false;
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to check whether Wi-Fi Aware can be used.
+     *
+     * @return true if it is available, otherwise false (Wi-Fi Direct must be
+     *         used instead).
+     */
+    public boolean isAvailable() {
+        return layer.isAvailable();
+    }
+
+    /**
+     * Method allowing to start advertising this node and discovering the
+     * other ad hoc nodes.
+     *
+     * @param label String value representing the label of this node.
+     *
+     * @return true if Wi-Fi Aware is available, otherwise false.
+     */
+    public synchronized boolean start(String label) {
+        if (!layer.isAvailable())
+            return false;
+
+        this.label = label;
+        if (!started) {
+            started = true;
+            layer.attach(callback);
+        } else if (attached) {
+            // Advertise the new label
+            layer.publish(SERVICE_NAME, label.getBytes(UTF_8));
+        }
+
+        return true;
+    }
+
+    /**
+     * Method allowing to stop Wi-Fi Aware and to forget the remote peers.
+     */
+    public synchronized void stop() {
+        if (!started)
+            return;
+
+        started = false;
+        attached = false;
+        layer.close();
+        clearPeers();
+    }
+
+    /**
+     * Method allowing to set up a data path with a remote peer.
+     *
+     * @param peerId    String value representing the ID of the remote peer.
+     *
+     * @return true if the remote peer is known, otherwise false.
+     */
+    public synchronized boolean connect(String peerId) {
+        Object peer = mapIdHandle.get(peerId);
+        if (!started || peer == null)
+            return false;
+
+        layer.sendMessage(peer, MESSAGE_CONNECT);
+        layer.requestDataPath(peer);
+        return true;
+    }
+
+    /**
+     * Method allowing to release the data path with a remote peer.
+     *
+     * @param peerId    String value representing the ID of the remote peer.
+     */
+    public synchronized void disconnect(String peerId) {
+        Object peer = mapIdHandle.get(peerId);
+        if (peer != null)
+            layer.releaseDataPath(peer);
+    }
+
+    /**
+     * Method allowing to get the number of remote peers known.
+     *
+     * @return Integer value representing the number of remote peers.
+     */
+    public synchronized int peerCount() {
+        return mapIdHandle.size();
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to get the ID of a remote peer, and to give it one if it
+     * is unknown.
+     *
+     * @param peer  Object representing the handle of the remote peer.
+     *
+     * @return String value representing the ID of the remote peer.
+     */
+    private String peerId(Object peer) {
+        String peerId = mapHandleId.get(peer);
+        if (peerId == null) {
+            peerId = PEER_PREFIX + (++peerCounter);
+            mapHandleId.put(peer, peerId);
+            mapIdHandle.put(peerId, peer);
+        }
+
+        return peerId;
+    }
+
+    private void clearPeers() {
+        mapHandleId.clear();
+        mapIdHandle.clear();
+        mapIdLabel.clear();
+        mapIdInterface.clear();
+        mapIdAddress.clear();
+    }
+
+    private void sendState(boolean state) {
+        HashMap<String, Object> mapInfoValue = new HashMap<>();
+        mapInfoValue.put("type", ANDROID_STATE);
+        mapInfoValue.put("state", state);
+        listener.onEvent(mapInfoValue);
+    }
+
+    private void sendConnection(String peerId, boolean connected, String address) {
+        HashMap<String, Object> mapConnectionInfoValue = new HashMap<>();
+        mapConnectionInfoValue.put("peer", peerId);
+        mapConnectionInfoValue.put("connected", connected);
+        mapConnectionInfoValue.put("address", (address == null) ? "" : address);
+
+        HashMap<String, Object> mapInfoValue = new HashMap<>();
+        mapInfoValue.put("type", ANDROID_CONNECTION);
+        mapInfoValue.put("info", mapConnectionInfoValue);
+        listener.onEvent(mapInfoValue);
+    }
+
+    // Callback of the Wi-Fi Aware layer
+    private final AwareSessionLayer.Callback callback = new AwareSessionLayer.Callback() {
+        @Override
+        public void onAttached() {
+            synchronized (AwareController.this) {
+                if (!started)
+                    return;
+
+                attached = true;
+                layer.publish(SERVICE_NAME, label.getBytes(UTF_8));
+                layer.subscribe(SERVICE_NAME);
+            }
+
+            sendState(true);
+        }
+
+        @Override
+        public void onAttachFailed() {
+            synchronized (AwareController.this) {
+                started = false;
+            }
+
+            sendState(false);
+        }
+
+        @Override
+        public void onAvailabilityChanged(boolean available) {
+            if (available)
+                return;
+
+            // The sessions are terminated by the framework
+            synchronized (AwareController.this) {
+                if (!started)
+                    return;
+
+                started = false;
+                attached = false;
+                layer.close();
+                clearPeers();
+            }
+
+            sendState(false);
+        }
+
+        @Override
+        public void onServiceDiscovered(Object peer, byte[] info) {
+            String peerId;
+            String peerLabel = (info == null) ? "" : new String(info, UTF_8);
+            synchronized (AwareController.this) {
+                if (!started)
+                    return;
+
+                peerId = peerId(peer);
+                // The framework reports a peer again at each discovery round
+                if (peerLabel.equals(mapIdLabel.put(peerId, peerLabel)))
+                    return;
+            }
+
+            HashMap<String, Object> mapInfoValue = new HashMap<>();
+            mapInfoValue.put("type", ANDROID_SERVICE);
+            mapInfoValue.put("name", peerLabel);
+            mapInfoValue.put("mac", peerId);
+            mapInfoValue.put("label", peerLabel);
+            mapInfoValue.put("neighbours", -1);
+            mapInfoValue.put("digest", "");
+            listener.onEvent(mapInfoValue);
+        }
+
+        @Override
+        public void onMessageReceived(Object peer, byte[] message) {
+            if (message.length > 1 && message[0] == MESSAGE_ADDRESS) {
+                onAddressReceived(peer, new String(message, 1, message.length - 1, UTF_8));
+                return;
+            }
+
+            synchronized (AwareController.this) {
+                if (!started || !Arrays.equals(MESSAGE_CONNECT, message))
+                    return;
+
+                // Answer the data path request of the remote peer
+                peerId(peer);
+                layer.requestDataPath(peer);
+            }
+        }
+
+        @Override
+        public void onDataPathAvailable(Object peer, String address) {
+            String peerId;
+            synchronized (AwareController.this) {
+                peerId = mapHandleId.get(peer);
+            }
+
+            if (peerId != null)
+                sendConnection(peerId, true, address);
+        }
+
+        @Override
+        public void onDataPathInterface(Object peer, String interfaceName, String localAddress) {
+            String peerId;
+            String address;
+            synchronized (AwareController.this) {
+                peerId = mapHandleId.get(peer);
+                // The link properties are reported again at each change
+                if (peerId == null || interfaceName.equals(mapIdInterface.put(peerId, interfaceName)))
+                    return;
+
+                byte[] bytes = localAddress.getBytes(UTF_8);
+                byte[] message = new byte[1 + bytes.length];
+                message[0] = MESSAGE_ADDRESS;
+                System.arraycopy(bytes, 0, message, 1, bytes.length);
+                layer.sendMessage(peer, message);
+
+                address = mapIdAddress.get(peerId);
+            }
+
+            if (address != null)
+                sendConnection(peerId, true, address + "%" + interfaceName);
+        }
+
+        @Override
+        public void onDataPathLost(Object peer) {
+            String peerId;
+            synchronized (AwareController.this) {
+                peerId = mapHandleId.get(peer);
+                if (peerId != null) {
+                    mapIdInterface.remove(peerId);
+                    mapIdAddress.remove(peerId);
+                }
+            }
+
+            if (peerId != null)
+                sendConnection(peerId, false, null);
+        }
+    };
+
+    /**
+     * Method allowing to handle the data path address sent by a remote peer.
+     *
+     * @param peer      Object representing the handle of the remote peer.
+     * @param address   String value representing the IPv6 link-local address
+     *                  of the remote peer, without scope.
+     */
+    private void onAddressReceived(Object peer, String address) {
+        String peerId;
+        String interfaceName;
+        synchronized (AwareController.this) {
+            peerId = mapHandleId.get(peer);
+            if (!started || peerId == null)
+                return;
+
+            mapIdAddress.put(peerId, address);
+            interfaceName = mapIdInterface.get(peerId);
+        }
+
+        if (interfaceName != null)
+            sendConnection(peerId, true, address + "%" + interfaceName);
+    }
+
+    /**
+     * Interface notified of the events to send to the Flutter client.
+     */
+    public interface Listener {
+        void onEvent(HashMap<String, Object> event);
+    }
+}
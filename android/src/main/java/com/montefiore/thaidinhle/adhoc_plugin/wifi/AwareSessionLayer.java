@@ -0,0 +1,93 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+/**
+ * Interface abstracting the Wi-Fi Aware (NAN) framework, so that the logic of
+ * AwareController does not depend on the platform.
+ *
+ * The remote peers are designated by opaque handles given by the layer (a
+ * PeerHandle on Android). The callbacks may be invoked on any thread.
+ */
+public interface AwareSessionLayer {
+    /**
+     * Method allowing to check whether Wi-Fi Aware can be used.
+     *
+     * @return true if it is supported and available, otherwise false.
+     */
+    boolean isAvailable();
+
+    /**
+     * Method allowing to attach to the Wi-Fi Aware framework.
+     *
+     * @param callback  Callback object notified of the events of the layer.
+     */
+    void attach(Callback callback);
+
+    /**
+     * Method allowing to advertise a service.
+     *
+     * @param serviceName   String value representing the service name.
+     * @param info          Byte array representing the service specific
+     *                      information.
+     */
+    void publish(String serviceName, byte[] info);
+
+    /**
+     * Method allowing to look for a service.
+     *
+     * @param serviceName   String value representing the service name.
+     */
+    void subscribe(String serviceName);
+
+    /**
+     * Method allowing to send a short message to a remote peer.
+     *
+     * @param peer      Object representing the handle of the remote peer.
+     * @param message   Byte array representing the message.
+     */
+    void sendMessage(Object peer, byte[] message);
+
+    /**
+     * Method allowing to request a data path with a remote peer. Both peers
+     * must request it for the data path to be set up.
+     *
+     * @param peer  Object representing the handle of the remote peer.
+     */
+    void requestDataPath(Object peer);
+
+    /**
+     * Method allowing to release the data path with a remote peer.
+     *
+     * @param peer  Object representing the handle of the remote peer.
+     */
+    void releaseDataPath(Object peer);
+
+    /**
+     * Method allowing to detach from the Wi-Fi Aware framework and to release
+     * every session and data path.
+     */
+    void close();
+
+    /**
+     * Interface notified of the events of the layer.
+     */
+    interface Callback {
+        void onAttached();
+
+        void onAttachFailed();
+
+        void onAvailabilityChanged(boolean available);
+
+        void onServiceDiscovered(Object peer, byte[] info);
+
+        void onMessageReceived(Object peer, byte[] message);
+
+        // Data path set up, with the address of the remote peer
+        void onDataPathAvailable(Object peer, String address);
+
+        // Data path set up, when the layer only knows its local side (the
+        // address of the remote peer must then be exchanged by message)
+        void onDataPathInterface(Object peer, String interfaceName, String localAddress);
+
+        void onDataPathLost(Object peer);
+    }
+}
@@ -0,0 +1,327 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Class implementing the transfer of a file over a blocking socket.
+ *
+ * The file is sent by chunks with FileChannel.transferTo() and written with
+ * FileChannel.transferFrom(), so the payload is not copied through the Java
+ * heap on its way. Each chunk is followed by its CRC32, which the receiver
+ * checks before accepting the chunk. The checksums are computed on both sides
+ * by reading the chunk from the file into a small heap buffer, as
+ * CRC32.update(ByteBuffer) is not available before API 26.
+ *
+ * The receiver writes into a partial file named after the transfer ID, which
+ * only holds verified chunks. A transfer sent again with the same ID resumes
+ * after the last verified chunk.
+ *
+ * Protocol (big-endian):
+ * - sender: magic (4 bytes), version (1 byte), ID and name (2-byte length
+ *   followed by at most 400 UTF-8 bytes), size (8 bytes), chunk size
+ *   (4 bytes);
+ * - receiver: offset from which the file is sent (8 bytes);
+ * - sender: for each chunk, the payload followed by its CRC32 (8 bytes);
+ * - receiver: status (1 byte) once the file is complete.
+ */
+public class FileTransfer {
+    private static final int MAGIC = 0x41484654;
+    private static final byte VERSION = 1;
+    private static final byte STATUS_OK = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Default size of a chunk
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    // Size of the buffer used to compute the checksums
+    private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+    // Suffix of the partial files
+    private static final String PARTIAL_SUFFIX = ".part";
+    // Maximum size of the ID and of the name, so that the header fits
+    private static final int MAX_STRING_SIZE = 400;
+    private static final int HEADER_SIZE = 21 + 2 * MAX_STRING_SIZE;
+
+    private final ByteBuffer checksumBuffer;
+    private final ByteBuffer header;
+    // ID of the transfer received, once its header has been read
+    private String receivedId;
+
+    /**
+     * Default constructor
+     */
+    public FileTransfer() {
+        this.checksumBuffer = ByteBuffer.allocate(CHECKSUM_BUFFER_SIZE);
+        this.header = ByteBuffer.allocate(HEADER_SIZE);
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to send a file.
+     *
+     * @param channel   SocketChannel object connected to the receiver, in
+     *                  blocking mode.
+     * @param file      File object representing the file to send.
+     * @param id        String value representing the transfer ID.
+     * @param chunkSize Integer value representing the size of a chunk.
+     * @param listener  Listener object notified of the progress.
+     *
+     * @throws IOException if the transfer fails, it can be resumed later (but
+     *                     for an ID or a name too long).
+     */
+    public void send(
+        SocketChannel channel, File file, String id, int chunkSize, Listener listener
+    ) throws IOException {
+        byte[] idBytes = encode(id);
+        byte[] nameBytes = encode(file.getName());
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            long size = fileChannel.size();
+
+            header.clear();
+            header.putInt(MAGIC);
+            header.put(VERSION);
+            putString(header, idBytes);
+            putString(header, nameBytes);
+            header.putLong(size);
+            header.putInt(chunkSize);
+            header.flip();
+            writeFully(channel, header);
+
+            long offset = readLong(channel);
+            if (offset < 0 || offset > size)
+                throw new IOException("Invalid offset: " + offset);
+            listener.onProgress(id, offset, size);
+
+            ByteBuffer trailer = ByteBuffer.allocate(8);
+            CRC32 crc = new CRC32();
+            while (offset < size) {
+                long length = Math.min(chunkSize, size - offset);
+
+                crc.reset();
+                checksum(fileChannel, offset, length, crc);
+
+                long sent = 0;
+                while (sent < length) {
+                    sent += fileChannel.transferTo(offset + sent, length - sent, channel);
+                }
+
+                trailer.clear();
+                trailer.putLong(crc.getValue());
+                trailer.flip();
+                writeFully(channel, trailer);
+
+                offset += length;
+                listener.onProgress(id, offset, size);
+            }
+
+            header.clear();
+            header.limit(1);
+            readFully(channel, header);
+            if (header.get(0) != STATUS_OK)
+                throw new IOException("Transfer rejected");
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Method allowing to receive a file.
+     *
+     * @param channel   SocketChannel object connected to the sender, in
+     *                  blocking mode.
+     * @param directory File object representing the directory in which the
+     *                  file is written.
+     * @param listener  Listener object notified of the progress.
+     *
+     * @return File object representing the file received.
+     *
+     * @throws IOException if the transfer fails, it can be resumed later.
+     */
+    public File receive(SocketChannel channel, File directory, Listener listener)
+            throws IOException {
+        header.clear();
+        header.limit(5);
+        readFully(channel, header);
+        if (header.getInt(0) != MAGIC || header.get(4) != VERSION)
+            throw new IOException("Unknown protocol");
+
+        String id = readString(channel);
+        receivedId = id;
+        // Keep the name only, the sender cannot choose the directory
+        String name = new File(readString(channel)).getName();
+        long size = readLong(channel);
+
+        header.clear();
+        header.limit(4);
+        readFully(channel, header);
+        int chunkSize = header.getInt(0);
+        if (size < 0 || chunkSize <= 0)
+            throw new IOException("Invalid header");
+
+        File partial = new File(directory, sanitize(id) + PARTIAL_SUFFIX);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(partial, "rw");
+        try {
+            FileChannel fileChannel = randomAccessFile.getChannel();
+
+            // Resume after the last complete chunk
+            long offset = Math.min(size, fileChannel.size() / chunkSize * chunkSize);
+            fileChannel.truncate(offset);
+
+            header.clear();
+            header.putLong(offset);
+            header.flip();
+            writeFully(channel, header);
+            listener.onProgress(id, offset, size);
+
+            CRC32 crc = new CRC32();
+            try {
+                while (offset < size) {
+                    long length = Math.min(chunkSize, size - offset);
+
+                    long received = 0;
+                    while (received < length) {
+                        long count = fileChannel.transferFrom(
+                            channel, offset + received, length - received
+                        );
+                        // A blocking socket only transfers nothing at the end of stream
+                        if (count <= 0)
+                            throw new IOException("Connection closed");
+                        received += count;
+                    }
+
+                    crc.reset();
+                    checksum(fileChannel, offset, length, crc);
+                    if (crc.getValue() != readLong(channel))
+                        throw new IOException("Checksum mismatch at " + offset);
+
+                    offset += length;
+                    listener.onProgress(id, offset, size);
+                }
+            } catch (IOException exception) {
+                // Only keep the verified chunks for the next attempt
+                fileChannel.truncate(offset);
+                throw exception;
+            }
+
+            fileChannel.force(false);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        File complete = new File(directory, sanitize(id) + "_" + name);
+        if (!partial.renameTo(complete))
+            throw new IOException("Cannot rename " + partial);
+
+        header.clear();
+        header.put(STATUS_OK);
+        header.flip();
+        writeFully(channel, header);
+
+        return complete;
+    }
+
+    /**
+     * Method allowing to get the ID of the transfer being received.
+     *
+     * @return String value representing the transfer ID, or null if the
+     *         header has not been received.
+     */
+    public String getReceivedId() {
+        return receivedId;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to compute the checksum of a part of a file.
+     *
+     * @param fileChannel   FileChannel object of the file.
+     * @param offset        Long value representing the start of the part.
+     * @param length        Long value representing the length of the part.
+     * @param crc           CRC32 object updated with the part.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    private void checksum(FileChannel fileChannel, long offset, long length, CRC32 crc)
+            throws IOException {
+        long end = offset + length;
+        while (offset < end) {
+            checksumBuffer.clear();
+            checksumBuffer.limit((int) Math.min(checksumBuffer.capacity(), end - offset));
+
+            int count = fileChannel.read(checksumBuffer, offset);
+            if (count < 0)
+                throw new IOException("Unexpected end of file");
+
+            crc.update(checksumBuffer.array(), 0, count);
+            offset += count;
+        }
+    }
+
+    private static String sanitize(String id) {
+        return id.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private static byte[] encode(String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        if (bytes.length > MAX_STRING_SIZE)
+            throw new IOException("String too long: " + bytes.length + " bytes");
+        return bytes;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private String readString(SocketChannel channel) throws IOException {
+        header.clear();
+        header.limit(2);
+        readFully(channel, header);
+
+        int length = header.getShort(0) & 0xFFFF;
+        if (length > MAX_STRING_SIZE)
+            throw new IOException("Invalid string length: " + length);
+
+        header.clear();
+        header.limit(length);
+        readFully(channel, header);
+        return new String(header.array(), 0, length, UTF_8);
+    }
+
+    private long readLong(SocketChannel channel) throws IOException {
+        header.clear();
+        header.limit(8);
+        readFully(channel, header);
+        return header.getLong(0);
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                throw new IOException("Connection closed");
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Interface notified of the progress of a transfer.
+     */
+    public interface Listener {
+        void onProgress(String id, long transferred, long size);
+    }
+}
@@ -0,0 +1,127 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class splitting a stream of bytes into length-prefixed frames.
+ *
+ * Each frame starts with its length (4 bytes, big-endian) followed by the
+ * payload. The bytes read from a socket are accumulated in a direct buffer,
+ * and each complete frame is handed to the listener as a view on that
+ * buffer, without any copy.
+ */
+public class FrameDecoder {
+    // Size of the frame length prefix
+    public static final int LENGTH_SIZE = 4;
+    // Initial capacity of the read buffer
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final int maxFrameSize;
+    private ByteBuffer buffer;
+
+    /**
+     * Default constructor
+     *
+     * @param maxFrameSize  Integer value representing the maximum size of a
+     *                      frame payload.
+     */
+    public FrameDecoder(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+        this.buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to get the buffer in which the next bytes are read.
+     *
+     * @return ByteBuffer object with some room left.
+     */
+    public ByteBuffer buffer() {
+        if (!buffer.hasRemaining())
+            grow(buffer.capacity() * 2);
+
+        return buffer;
+    }
+
+    /**
+     * Method allowing to hand the complete frames read so far to a listener.
+     * The remaining bytes are kept for the next call.
+     *
+     * @param listener  Listener object notified of each complete frame.
+     *
+     * @throws IOException if a frame exceeds the maximum size.
+     */
+    public void decode(Listener listener) throws IOException {
+        buffer.flip();
+
+        while (buffer.remaining() >= LENGTH_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length < 0 || length > maxFrameSize)
+                throw new IOException("Invalid frame length: " + length);
+
+            int end = start + LENGTH_SIZE + length;
+            if (end > buffer.limit()) {
+                // Make room for the whole frame before reading the rest of it
+                if (LENGTH_SIZE + length > buffer.capacity()) {
+                    buffer.compact();
+                    grow(LENGTH_SIZE + length);
+                    return;
+                }
+                break;
+            }
+
+            ByteBuffer frame = buffer.duplicate();
+            frame.position(start + LENGTH_SIZE);
+            frame.limit(end);
+            buffer.position(end);
+
+            listener.onFrame(frame);
+        }
+
+        buffer.compact();
+    }
+
+    /**
+     * Static method allowing to wrap a payload into a frame.
+     *
+     * @param data  Byte array representing the payload.
+     *
+     * @return ByteBuffer object holding the frame, ready to be written.
+     */
+    public static ByteBuffer encode(byte[] data) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(LENGTH_SIZE + data.length);
+        frame.putInt(data.length);
+        frame.put(data);
+        frame.flip();
+
+        return frame;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to move the bytes read into a larger buffer.
+     *
+     * @param capacity  Integer value representing the minimum capacity.
+     */
+    private void grow(int capacity) {
+        ByteBuffer larger = ByteBuffer.allocateDirect(
+            Math.max(capacity, buffer.capacity() * 2)
+        );
+
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    /**
+     * Interface notified of each complete frame. The frame is only valid
+     * during the call.
+     */
+    public interface Listener {
+        void onFrame(ByteBuffer frame);
+    }
+}
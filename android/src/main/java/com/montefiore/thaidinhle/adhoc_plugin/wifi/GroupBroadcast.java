@@ -0,0 +1,164 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Class encoding the datagrams broadcast to the members of a Wi-Fi Direct
+ * group, and filtering the duplicates.
+ *
+ * A datagram is made of a header followed by the payload. The header holds a
+ * magic number (2 bytes), a version (1 byte), a TTL (1 byte), the IPv4
+ * address of the originator (4 bytes), and a sequence number (4 bytes,
+ * big-endian). The originator and the sequence number identify a datagram,
+ * so that a datagram relayed by the group owner is only delivered once.
+ */
+public class GroupBroadcast {
+    private static final short MAGIC = (short) 0xAD0C;
+    private static final byte VERSION = 1;
+
+    public static final int HEADER_SIZE = 12;
+    // Largest payload fitting in an unfragmented datagram over Wi-Fi
+    public static final int MAX_PAYLOAD_SIZE = 1472 - HEADER_SIZE;
+    // Default number of hops of a datagram
+    public static final int DEFAULT_TTL = 2;
+    // Number of datagrams remembered to filter the duplicates
+    private static final int MAX_SEEN = 1024;
+
+    private final LinkedHashMap<Long, Boolean> seen;
+    private int sequenceNumber;
+
+    /**
+     * Default constructor
+     */
+    public GroupBroadcast() {
+        this.seen = new LinkedHashMap<Long, Boolean>(MAX_SEEN, 0.75f) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > MAX_SEEN;
+            }
+        };
+        // Random start, so that the datagrams sent after a restart are not
+        // taken for duplicates
+        this.sequenceNumber = new Random().nextInt();
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to encode a datagram originated by this device. The
+     * datagram is marked as seen, so that its echo is ignored.
+     *
+     * @param origin    Byte array representing the IPv4 address of this
+     *                  device.
+     * @param ttl       Integer value representing the number of hops.
+     * @param payload   Byte array representing the payload.
+     *
+     * @return ByteBuffer object holding the datagram, ready to be sent.
+     */
+    public ByteBuffer encode(byte[] origin, int ttl, byte[] payload) {
+        int seq = ++sequenceNumber;
+        markSeen(origin, seq);
+
+        ByteBuffer datagram = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        datagram.putShort(MAGIC)
+            .put(VERSION)
+            .put((byte) Math.max(1, Math.min(ttl, 255)))
+            .put(origin, 0, 4)
+            .putInt(seq)
+            .put(payload);
+        datagram.flip();
+
+        return datagram;
+    }
+
+    /**
+     * Method allowing to decode a datagram received.
+     *
+     * @param datagram  ByteBuffer object holding the datagram.
+     *
+     * @return Packet object, or null if the datagram is invalid or has
+     *         already been received.
+     */
+    public Packet decode(ByteBuffer datagram) {
+        if (datagram.remaining() < HEADER_SIZE)
+            return null;
+
+        int start = datagram.position();
+        if (datagram.getShort(start) != MAGIC || datagram.get(start + 2) != VERSION)
+            return null;
+
+        int ttl = datagram.get(start + 3) & 0xFF;
+        byte[] origin = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            origin[i] = datagram.get(start + 4 + i);
+        }
+        int seq = datagram.getInt(start + 8);
+
+        if (!markSeen(origin, seq))
+            return null;
+
+        datagram.position(start + HEADER_SIZE);
+        return new Packet(origin, ttl, seq, datagram.slice());
+    }
+
+    /**
+     * Method allowing to encode a received datagram to relay it.
+     *
+     * @param packet    Packet object received.
+     *
+     * @return ByteBuffer object holding the datagram with a decremented TTL,
+     *         or null if the datagram must not be relayed.
+     */
+    public static ByteBuffer relay(Packet packet) {
+        if (packet.ttl <= 1)
+            return null;
+
+        ByteBuffer payload = packet.payload.duplicate();
+        ByteBuffer datagram = ByteBuffer.allocate(HEADER_SIZE + payload.remaining());
+        datagram.putShort(MAGIC)
+            .put(VERSION)
+            .put((byte) (packet.ttl - 1))
+            .put(packet.origin)
+            .putInt(packet.seq)
+            .put(payload);
+        datagram.flip();
+
+        return datagram;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to remember a datagram.
+     *
+     * @param origin    Byte array representing the IPv4 address of the
+     *                  originator.
+     * @param seq       Integer value representing the sequence number.
+     *
+     * @return true if the datagram was not seen before, otherwise false.
+     */
+    private boolean markSeen(byte[] origin, int seq) {
+        long address = ByteBuffer.wrap(origin, 0, 4).getInt() & 0xFFFFFFFFL;
+        return seen.put((address << 32) | (seq & 0xFFFFFFFFL), Boolean.TRUE) == null;
+    }
+
+    /**
+     * Class representing a datagram received.
+     */
+    public static class Packet {
+        public final byte[] origin;
+        public final int ttl;
+        public final ByteBuffer payload;
+        private final int seq;
+
+        private Packet(byte[] origin, int ttl, int seq, ByteBuffer payload) {
+            this.origin = origin;
+            this.ttl = ttl;
+            this.seq = seq;
+            this.payload = payload;
+        }
+    }
+}
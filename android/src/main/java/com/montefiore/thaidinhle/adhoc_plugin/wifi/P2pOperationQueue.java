@@ -0,0 +1,400 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import android.net.wifi.p2p.WifiP2pManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static android.net.wifi.p2p.WifiP2pManager.BUSY;
+import static android.net.wifi.p2p.WifiP2pManager.ERROR;
+import static android.net.wifi.p2p.WifiP2pManager.P2P_UNSUPPORTED;
+
+/**
+ * Class serializing the operations performed on the Wi-Fi Direct framework.
+ *
+ * The framework rejects an operation with BUSY while another one is ongoing,
+ * so only one operation runs at a time. The operations failing with BUSY or
+ * ERROR are retried after a jittered exponential backoff. An operation
+ * submitted while an identical one is ongoing or waiting is merged with it.
+ *
+ * The outcome of each operation is sent back to the Flutter client through
+ * the Result of the platform call, on the main thread. The operations still
+ * ongoing or waiting when the queue is closed fail with an error.
+ */
+public class P2pOperationQueue {
+    private static final String TAG = "[AdHocPlugin][P2pQueue]";
+
+    // Pseudo reason code of an operation without answer from the framework
+    public static final int TIMEOUT = -1;
+
+    // Retry policy
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_DELAY_MS = 250;
+    private static final long MAX_DELAY_MS = 8_000;
+    // Time after which an attempt without answer is considered as failed
+    private static final long ATTEMPT_TIMEOUT_MS = 10_000;
+
+    private boolean verbose;
+    private final Handler handler;
+    private final Handler mainHandler;
+    private final ArrayDeque<Operation> pending;
+    private final Random random;
+    private Operation current;
+    private boolean closed;
+
+    /**
+     * Default constructor
+     *
+     * @param looper    Looper object of the Wi-Fi Direct channel, on which
+     *                  the operations are performed.
+     */
+    public P2pOperationQueue(Looper looper) {
+        this.verbose = false;
+        this.handler = new Handler(looper);
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.pending = new ArrayDeque<>();
+        this.random = new Random();
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to update the verbose/debug mode.
+     *
+     * @param verbose   Boolean value representing the sate of the verbose/debug
+     *                  mode.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Method allowing to queue an operation.
+     *
+     * @param operation Operation object to perform.
+     */
+    public void submit(final Operation operation) {
+        boolean posted = handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (closed) {
+                    fail(operation);
+                    return;
+                }
+
+                // Merge with an identical operation ongoing or waiting
+                if (operation.key != null) {
+                    if (current != null && operation.key.equals(current.key)) {
+                        if (verbose) Log.d(TAG, "submit(): merged " + operation.key);
+                        current.results.addAll(operation.results);
+                        return;
+                    }
+
+                    for (Operation waiting : pending) {
+                        if (operation.key.equals(waiting.key)) {
+                            if (verbose) Log.d(TAG, "submit(): merged " + operation.key);
+                            waiting.results.addAll(operation.results);
+                            return;
+                        }
+                    }
+                }
+
+                pending.add(operation);
+                next();
+            }
+        });
+
+        // The looper of the Wi-Fi Direct channel has been stopped
+        if (!posted)
+            fail(operation);
+    }
+
+    /**
+     * Method allowing to close the queue. The ongoing operation and the ones
+     * waiting are given up, and the operations submitted afterwards are
+     * refused, failing their platform call with an error.
+     *
+     * It must be called before the looper is stopped.
+     */
+    public void close() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                closed = true;
+                // Drop the timeouts and retries of the ongoing operation
+                handler.removeCallbacksAndMessages(null);
+
+                if (current != null) {
+                    fail(current);
+                    current = null;
+                }
+
+                Operation operation;
+                while ((operation = pending.poll()) != null) {
+                    fail(operation);
+                }
+            }
+        });
+    }
+
+    /**
+     * Static method allowing to get the error message as a String according
+     * to the error code integer value.
+     *
+     * @param reasonCode    Integer value representing the reason of failure.
+     *
+     * @return String value representing the reason for failure.
+     */
+    public static String errorCode(int reasonCode) {
+        switch (reasonCode) {
+            case ERROR:
+                return "P2P internal error";
+            case P2P_UNSUPPORTED:
+                return "P2P is not supported";
+            case BUSY:
+                return "P2P is busy";
+            case TIMEOUT:
+                return "P2P did not answer";
+        }
+
+        return "Unknown error";
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to start the next operation, if none is ongoing.
+     */
+    private void next() {
+        if (current != null)
+            return;
+
+        current = pending.poll();
+        if (current == null)
+            return;
+
+        current.startTime = SystemClock.elapsedRealtime();
+        attempt(current);
+    }
+
+    /**
+     * Method allowing to perform an attempt of the ongoing operation.
+     *
+     * @param operation Operation object being performed.
+     */
+    private void attempt(final Operation operation) {
+        final int attempt = ++operation.attempts;
+        if (verbose) Log.d(TAG, "attempt(): " + operation.name + " #" + attempt);
+
+        final Runnable timeoutTask = new Runnable() {
+            @Override
+            public void run() {
+                onFailure(operation, attempt, TIMEOUT);
+            }
+        };
+        handler.postDelayed(timeoutTask, ATTEMPT_TIMEOUT_MS);
+
+        try {
+            operation.execute(new WifiP2pManager.ActionListener() {
+                @Override
+                public void onSuccess() {
+                    handler.removeCallbacks(timeoutTask);
+                    if (isCurrent(operation, attempt))
+                        finish(operation, true, null);
+                }
+
+                @Override
+                public void onFailure(int reasonCode) {
+                    handler.removeCallbacks(timeoutTask);
+                    P2pOperationQueue.this.onFailure(operation, attempt, reasonCode);
+                }
+            });
+        } catch (RuntimeException exception) {
+            // E.g. SecurityException if a permission is missing
+            handler.removeCallbacks(timeoutTask);
+            Log.e(TAG, "attempt(): " + operation.name + " -> " + exception);
+            finish(operation, false, exception.getMessage());
+        }
+    }
+
+    /**
+     * Method allowing to retry or to give up a failed attempt.
+     *
+     * @param operation     Operation object being performed.
+     * @param attempt       Integer value representing the attempt number.
+     * @param reasonCode    Integer value representing the reason of failure.
+     */
+    private void onFailure(final Operation operation, int attempt, int reasonCode) {
+        if (!isCurrent(operation, attempt))
+            return;
+
+        if (verbose)
+            Log.d(TAG, "onFailure(): " + operation.name + " -> " + errorCode(reasonCode));
+
+        boolean retryable = (reasonCode == BUSY || reasonCode == ERROR || reasonCode == TIMEOUT);
+        if (!retryable || attempt >= MAX_ATTEMPTS) {
+            finish(operation, false, errorCode(reasonCode));
+            return;
+        }
+
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (operation == current)
+                    attempt(operation);
+            }
+        }, backoff(attempt));
+    }
+
+    /**
+     * Method allowing to end the ongoing operation and to start the next one.
+     *
+     * @param operation Operation object being performed.
+     * @param success   Boolean value stating whether the operation succeeded.
+     * @param reason    String value representing the reason of failure, or
+     *                  null.
+     */
+    private void finish(Operation operation, boolean success, String reason) {
+        current = null;
+        complete(operation, success, reason);
+        next();
+    }
+
+    /**
+     * Method allowing to send the outcome of an operation to the Flutter
+     * client.
+     *
+     * @param operation Operation object performed.
+     * @param success   Boolean value stating whether the operation succeeded.
+     * @param reason    String value representing the reason of failure, or
+     *                  null.
+     */
+    private void complete(Operation operation, boolean success, String reason) {
+        long elapsed = (operation.startTime == 0) ? 0
+            : SystemClock.elapsedRealtime() - operation.startTime;
+
+        if (verbose)
+            Log.d(TAG, "complete(): " + operation.name + " -> " + success + " (" + elapsed + " ms)");
+
+        final HashMap<String, Object> mapInfoValue = new HashMap<>();
+        mapInfoValue.put("success", success);
+        mapInfoValue.put("reason", reason);
+        mapInfoValue.put("attempts", operation.attempts);
+        mapInfoValue.put("elapsedMs", elapsed);
+
+        operation.onFinished(success);
+
+        final List<Result> results = operation.results;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Result result : results) {
+                    result.success(mapInfoValue);
+                }
+            }
+        });
+    }
+
+    /**
+     * Method allowing to fail the platform calls of an operation given up as
+     * the queue is closed.
+     *
+     * @param operation Operation object given up.
+     */
+    private void fail(Operation operation) {
+        if (verbose) Log.d(TAG, "fail(): " + operation.name);
+
+        operation.onFinished(false);
+
+        final List<Result> results = operation.results;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Result result : results) {
+                    result.error("closed", "Wi-Fi Direct is closed", null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Method allowing to check whether an answer of the framework concerns
+     * the ongoing attempt.
+     *
+     * @param operation Operation object being performed.
+     * @param attempt   Integer value representing the attempt number.
+     *
+     * @return true if it is the ongoing attempt, otherwise false.
+     */
+    private boolean isCurrent(Operation operation, int attempt) {
+        return operation == current && operation.attempts == attempt;
+    }
+
+    /**
+     * Method allowing to compute the delay before the next attempt.
+     *
+     * @param attempt   Integer value representing the number of attempts.
+     *
+     * @return Long value representing the delay in milliseconds, between the
+     *         half and the whole of the exponential backoff.
+     */
+    private long backoff(int attempt) {
+        long delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << (attempt - 1));
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    /**
+     * Class representing an operation performed on the Wi-Fi Direct
+     * framework.
+     */
+    public abstract static class Operation {
+        private final String name;
+        private final String key;
+        private final List<Result> results;
+        private int attempts;
+        private long startTime;
+
+        /**
+         * Default constructor
+         *
+         * @param name      String value representing the name of the
+         *                  operation.
+         * @param key       String value identifying the identical operations,
+         *                  or null if the operation cannot be merged.
+         * @param result    Result object of the platform call, or null.
+         */
+        public Operation(String name, String key, Result result) {
+            this.name = name;
+            this.key = key;
+            this.results = new ArrayList<>();
+            if (result != null)
+                this.results.add(result);
+        }
+
+        /**
+         * Method performing an attempt of the operation.
+         *
+         * @param listener  ActionListener object to notify of the outcome.
+         */
+        protected abstract void execute(WifiP2pManager.ActionListener listener);
+
+        /**
+         * Method called once the operation succeeded or was given up.
+         *
+         * @param success   Boolean value stating whether the operation
+         *                  succeeded.
+         */
+        protected void onFinished(boolean success) {
+            // Nothing by default
+        }
+    }
+}
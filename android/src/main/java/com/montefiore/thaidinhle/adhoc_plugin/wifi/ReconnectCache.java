@@ -0,0 +1,183 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class remembering the role of this device in the Wi-Fi Direct groups formed
+ * with the remote peers, so that a reconnection keeps the same group owner.
+ *
+ * The group owner negotiation and the WPS provisioning still take place, the
+ * extreme group owner intents only settle the roles. The least recently used
+ * entries are dropped beyond a maximum number of entries, and the entries
+ * expire after a maximum age.
+ */
+public class ReconnectCache {
+    // Default bounds of the cache
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+    public static final long DEFAULT_MAX_AGE_MS = 30 * 60 * 1000;
+
+    // Group owner intents (WifiP2pConfig.groupOwnerIntent)
+    public static final int GO_INTENT_OWNER = 15;
+    public static final int GO_INTENT_CLIENT = 0;
+
+    private final LinkedHashMap<String, Entry> entries;
+    private int maxEntries;
+    private long maxAgeMs;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Default constructor
+     */
+    public ReconnectCache() {
+        // Access order, so that the eldest entry is the least recently used
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxEntries = DEFAULT_MAX_ENTRIES;
+        this.maxAgeMs = DEFAULT_MAX_AGE_MS;
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to set the bounds of the cache.
+     *
+     * @param maxEntries    Integer value representing the maximum number of
+     *                      remote peers remembered.
+     * @param maxAgeMs      Long value representing the time in milliseconds
+     *                      after which an entry expires.
+     */
+    public synchronized void setLimits(int maxEntries, long maxAgeMs) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxAgeMs = Math.max(0, maxAgeMs);
+        trim();
+    }
+
+    /**
+     * Method allowing to remember the group formed with a remote peer.
+     *
+     * @param mac           String value representing the MAC address of the
+     *                      remote peer.
+     * @param groupOwner    Boolean value stating whether this device was the
+     *                      group owner.
+     */
+    public synchronized void put(String mac, boolean groupOwner) {
+        entries.put(mac.toLowerCase(), new Entry(groupOwner, now()));
+        trim();
+    }
+
+    /**
+     * Method allowing to get the group formed with a remote peer.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     *
+     * @return Entry object describing the group, or null if the remote peer
+     *         is unknown or if the entry has expired.
+     */
+    public synchronized Entry get(String mac) {
+        String key = mac.toLowerCase();
+        Entry entry = entries.get(key);
+
+        if (entry != null && now() - entry.timestamp > maxAgeMs) {
+            entries.remove(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Method allowing to forget a remote peer, e.g. after a failed
+     * reconnection.
+     *
+     * @param mac   String value representing the MAC address of the remote
+     *              peer.
+     */
+    public synchronized void remove(String mac) {
+        entries.remove(mac.toLowerCase());
+    }
+
+    /**
+     * Method allowing to get the number of remote peers remembered.
+     *
+     * @return Integer value representing the number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Method allowing to get the statistics of the cache.
+     *
+     * @return HashMap<String, Object> containing the 'entries', 'hits', and
+     *         'misses' keys.
+     */
+    public synchronized HashMap<String, Object> getStats() {
+        HashMap<String, Object> mapStats = new HashMap<>();
+        mapStats.put("entries", entries.size());
+        mapStats.put("hits", hits);
+        mapStats.put("misses", misses);
+
+        return mapStats;
+    }
+
+/*------------------------------Protected methods-----------------------------*/
+
+    /**
+     * Method allowing to get the current time.
+     *
+     * @return Long value representing a monotonic time in milliseconds.
+     */
+    protected long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to drop the expired entries and the least recently used
+     * ones beyond the maximum number of entries.
+     */
+    private void trim() {
+        long now = now();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entries.size() > maxEntries || now - entry.timestamp > maxAgeMs)
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Class describing the group formed with a remote peer.
+     */
+    public static class Entry {
+        public final boolean groupOwner;
+        private final long timestamp;
+
+        private Entry(boolean groupOwner, long timestamp) {
+            this.groupOwner = groupOwner;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * Method allowing to get the group owner intent keeping the previous
+         * roles.
+         *
+         * @return Integer value representing the group owner intent.
+         */
+        public int groupOwnerIntent() {
+            return groupOwner ? GO_INTENT_OWNER : GO_INTENT_CLIENT;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.net.NetworkSpecifier;
+import android.net.wifi.aware.AttachCallback;
+import android.net.wifi.aware.DiscoverySession;
+import android.net.wifi.aware.DiscoverySessionCallback;
+import android.net.wifi.aware.PeerHandle;
+import android.net.wifi.aware.PublishConfig;
+import android.net.wifi.aware.PublishDiscoverySession;
+import android.net.wifi.aware.SubscribeConfig;
+import android.net.wifi.aware.SubscribeDiscoverySession;
+import android.net.wifi.aware.WifiAwareNetworkInfo;
+import android.net.wifi.aware.WifiAwareNetworkSpecifier;
+import android.net.wifi.aware.WifiAwareSession;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Class implementing the AwareSessionLayer interface with the Wi-Fi Aware
+ * framework of Android (API 26+).
+ *
+ * The data paths are open (unencrypted) links, the messages being secured by
+ * the presentation layer of the library. From API 29, the IPv6 link-local
+ * address of the remote peer is reported; before, only the network interface
+ * and the local address are known, and the address of the remote peer is
+ * exchanged by AwareController.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O)
+public class SystemAwareSessionLayer implements AwareSessionLayer {
+    private static final String TAG = "[AdHocPlugin][WifiAware]";
+
+    private boolean verbose;
+    private final Context context;
+    private final Handler handler;
+    private final android.net.wifi.aware.WifiAwareManager awareManager;
+    private final ConnectivityManager connectivityManager;
+
+    private Callback callback;
+    private WifiAwareSession session;
+    private PublishDiscoverySession publishSession;
+    private SubscribeDiscoverySession subscribeSession;
+    private boolean receiverRegistered;
+    private int messageId;
+
+    // Session through which each remote peer is reachable
+    private final HashMap<PeerHandle, DiscoverySession> mapPeerSession;
+    private final HashMap<PeerHandle, ConnectivityManager.NetworkCallback> mapPeerNetwork;
+
+    /**
+     * Default constructor
+     *
+     * @param context   Context object giving global information about the
+     *                  application environment.
+     * @param handler   Handler object on which the callbacks are invoked.
+     */
+    public SystemAwareSessionLayer(Context context, Handler handler) {
+        this.verbose = false;
+        this.context = context;
+        this.handler = handler;
+        this.awareManager = (android.net.wifi.aware.WifiAwareManager)
+            context.getSystemService(Context.WIFI_AWARE_SERVICE);
+        this.connectivityManager =
+            (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.receiverRegistered = false;
+        this.messageId = 0;
+        this.mapPeerSession = new HashMap<>();
+        this.mapPeerNetwork = new HashMap<>();
+    }
+
+/*------------------------------Override methods------------------------------*/
+
+    @Override
+    public boolean isAvailable() {
+        return context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_WIFI_AWARE)
+            && awareManager != null && awareManager.isAvailable();
+    }
+
+    @Override
+    public void attach(Callback callback) {
+        if (verbose) Log.d(TAG, "attach()");
+
+        this.callback = callback;
+        if (!receiverRegistered) {
+            IntentFilter filter = new IntentFilter(
+                android.net.wifi.aware.WifiAwareManager.ACTION_WIFI_AWARE_STATE_CHANGED
+            );
+            context.registerReceiver(stateReceiver, filter, null, handler);
+            receiverRegistered = true;
+        }
+
+        awareManager.attach(new AttachCallback() {
+            @Override
+            public void onAttached(WifiAwareSession awareSession) {
+                if (verbose) Log.d(TAG, "onAttached()");
+                session = awareSession;
+                if (SystemAwareSessionLayer.this.callback != null)
+                    SystemAwareSessionLayer.this.callback.onAttached();
+            }
+
+            @Override
+            public void onAttachFailed() {
+                Log.e(TAG, "onAttachFailed()");
+                if (SystemAwareSessionLayer.this.callback != null)
+                    SystemAwareSessionLayer.this.callback.onAttachFailed();
+            }
+        }, handler);
+    }
+
+    @Override
+    public void publish(String serviceName, byte[] info) {
+        if (session == null)
+            return;
+
+        PublishConfig config = new PublishConfig.Builder()
+            .setServiceName(serviceName)
+            .setServiceSpecificInfo(info)
+            .build();
+
+        if (publishSession != null) {
+            publishSession.updatePublish(config);
+            return;
+        }
+
+        session.publish(config, new DiscoverySessionCallback() {
+            @Override
+            public void onPublishStarted(@NonNull PublishDiscoverySession discoverySession) {
+                if (verbose) Log.d(TAG, "onPublishStarted()");
+                publishSession = discoverySession;
+            }
+
+            @Override
+            public void onMessageReceived(PeerHandle peerHandle, byte[] message) {
+                // A subscriber is only known to the publisher through its messages
+                mapPeerSession.put(peerHandle, publishSession);
+                if (callback != null)
+                    callback.onMessageReceived(peerHandle, message);
+            }
+
+            @Override
+            public void onSessionTerminated() {
+                publishSession = null;
+            }
+        }, handler);
+    }
+
+    @Override
+    public void subscribe(String serviceName) {
+        if (session == null || subscribeSession != null)
+            return;
+
+        SubscribeConfig config = new SubscribeConfig.Builder()
+            .setServiceName(serviceName)
+            .build();
+
+        session.subscribe(config, new DiscoverySessionCallback() {
+            @Override
+            public void onSubscribeStarted(@NonNull SubscribeDiscoverySession discoverySession) {
+                if (verbose) Log.d(TAG, "onSubscribeStarted()");
+                subscribeSession = discoverySession;
+            }
+
+            @Override
+            public void onServiceDiscovered(
+                PeerHandle peerHandle, byte[] serviceSpecificInfo, List<byte[]> matchFilter
+            ) {
+                mapPeerSession.put(peerHandle, subscribeSession);
+                if (callback != null)
+                    callback.onServiceDiscovered(peerHandle, serviceSpecificInfo);
+            }
+
+            @Override
+            public void onMessageReceived(PeerHandle peerHandle, byte[] message) {
+                if (callback != null)
+                    callback.onMessageReceived(peerHandle, message);
+            }
+
+            @Override
+            public void onSessionTerminated() {
+                subscribeSession = null;
+            }
+        }, handler);
+    }
+
+    @Override
+    public void sendMessage(Object peer, byte[] message) {
+        DiscoverySession discoverySession = mapPeerSession.get((PeerHandle) peer);
+        if (discoverySession != null)
+            discoverySession.sendMessage((PeerHandle) peer, ++messageId, message);
+    }
+
+    @Override
+    public void requestDataPath(final Object peer) {
+        final PeerHandle peerHandle = (PeerHandle) peer;
+        DiscoverySession discoverySession = mapPeerSession.get(peerHandle);
+        if (discoverySession == null || mapPeerNetwork.containsKey(peerHandle))
+            return;
+
+        if (verbose) Log.d(TAG, "requestDataPath()");
+
+        NetworkSpecifier specifier;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            specifier = new WifiAwareNetworkSpecifier.Builder(discoverySession, peerHandle)
+                .build();
+        } else {
+            specifier = discoverySession.createNetworkSpecifierOpen(peerHandle);
+        }
+
+        NetworkRequest request = new NetworkRequest.Builder()
+            .addTransportType(NetworkCapabilities.TRANSPORT_WIFI_AWARE)
+            .setNetworkSpecifier(specifier)
+            .build();
+
+        ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(
+                @NonNull Network network, @NonNull NetworkCapabilities capabilities
+            ) {
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q)
+                    return;
+
+                WifiAwareNetworkInfo info = (WifiAwareNetworkInfo) capabilities.getTransportInfo();
+                if (info != null && info.getPeerIpv6Addr() != null && callback != null)
+                    callback.onDataPathAvailable(peer, info.getPeerIpv6Addr().getHostAddress());
+            }
+
+            @Override
+            public void onLinkPropertiesChanged(
+                @NonNull Network network, @NonNull LinkProperties linkProperties
+            ) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q || callback == null)
+                    return;
+
+                String interfaceName = linkProperties.getInterfaceName();
+                for (LinkAddress linkAddress : linkProperties.getLinkAddresses()) {
+                    InetAddress address = linkAddress.getAddress();
+                    if (interfaceName != null && address instanceof Inet6Address
+                            && address.isLinkLocalAddress()) {
+                        // Scope of the remote side unknown, only the address is sent
+                        String host = address.getHostAddress();
+                        int scope = host.indexOf('%');
+                        callback.onDataPathInterface(
+                            peer, interfaceName, (scope < 0) ? host : host.substring(0, scope)
+                        );
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public void onLost(@NonNull Network network) {
+                if (callback != null)
+                    callback.onDataPathLost(peer);
+            }
+        };
+
+        mapPeerNetwork.put(peerHandle, networkCallback);
+        connectivityManager.requestNetwork(request, networkCallback);
+    }
+
+    @Override
+    public void releaseDataPath(Object peer) {
+        ConnectivityManager.NetworkCallback networkCallback = mapPeerNetwork.remove((PeerHandle) peer);
+        if (networkCallback != null)
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+    }
+
+    @Override
+    public void close() {
+        if (verbose) Log.d(TAG, "close()");
+
+        for (ConnectivityManager.NetworkCallback networkCallback : mapPeerNetwork.values()) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+        }
+        mapPeerNetwork.clear();
+        mapPeerSession.clear();
+
+        if (publishSession != null) {
+            publishSession.close();
+            publishSession = null;
+        }
+
+        if (subscribeSession != null) {
+            subscribeSession.close();
+            subscribeSession = null;
+        }
+
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+
+        if (receiverRegistered) {
+            context.unregisterReceiver(stateReceiver);
+            receiverRegistered = false;
+        }
+
+        callback = null;
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to update the verbose/debug mode.
+     *
+     * @param verbose   Boolean value representing the sate of the verbose/debug
+     *                  mode.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    // Broadcast receiver notified of the availability of Wi-Fi Aware
+    private final BroadcastReceiver stateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            boolean available = isAvailable();
+            if (verbose) Log.d(TAG, "onReceive(): available=" + available);
+
+            if (callback != null)
+                callback.onAvailabilityChanged(available);
+        }
+    };
+}
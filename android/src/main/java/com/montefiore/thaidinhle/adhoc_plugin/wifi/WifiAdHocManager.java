@@ -5,12 +5,18 @@ import android.content.IntentFilter;
 import android.net.wifi.WifiManager;
 import android.net.wifi.WpsInfo;
 import android.net.wifi.p2p.WifiP2pConfig;
+import android.net.wifi.p2p.WifiP2pDevice;
 import android.net.wifi.p2p.WifiP2pGroup;
+import android.net.wifi.p2p.WifiP2pInfo;
 import android.net.wifi.p2p.WifiP2pManager;
 import android.net.wifi.p2p.WifiP2pManager.Channel;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 import androidx.annotation.NonNull;
 
+import com.montefiore.thaidinhle.adhoc_plugin.utils.BatchingEventSink;
+
 import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.EventChannel.EventSink;
@@ -26,11 +32,7 @@ import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.Collections;
-
-import static android.net.wifi.p2p.WifiP2pManager.BUSY;
-import static android.net.wifi.p2p.WifiP2pManager.ERROR;
-import static android.net.wifi.p2p.WifiP2pManager.P2P_UNSUPPORTED;
-import static android.os.Looper.getMainLooper;
+import java.util.Map;
 
 /**
  * Class managing the Wi-Fi discovery and the pairing with other Wi-Fi devices.
@@ -41,19 +43,31 @@ import static android.os.Looper.getMainLooper;
  */
 public class WifiAdHocManager implements MethodCallHandler {
     private static final String TAG = "[AdHocPlugin][Wifi]";
-    private static final String METHOD_NAME = "ad.hoc.lib/wifi.method.channel";
-    private static final String EVENT_NAME = "ad.hoc.lib/wifi.event.channel";
+    public static final String METHOD_NAME = "ad.hoc.lib/wifi.method.channel";
+    public static final String EVENT_NAME = "ad.hoc.lib/wifi.event.channel";
 
     private boolean verbose;
     private boolean registered;
     private final Channel channel;
     private final Context context;
+    // Thread on which the Wi-Fi Direct callbacks and events are received
+    private final HandlerThread p2pThread;
+    private final Handler p2pHandler;
     private MethodChannel methodChannel;
     private EventChannel eventChannel;
-    private EventSink eventSink;
+    private BatchingEventSink eventSink;
+    private int batchMaxEvents;
+    private long batchMaxDelayUs;
     private String initialName;
     private String currentAdapterName;
     private WifiBroadcastReceiver receiver;
+    private final WifiPeerTable peerTable;
+    private final WifiServiceDiscovery serviceDiscovery;
+    private final P2pOperationQueue operationQueue;
+    private final ReconnectCache reconnectCache;
+    private final WifiDataPlane dataPlane;
+    private final WifiManager.MulticastLock multicastLock;
+    private final WifiFileTransferManager fileTransferManager;
     private final WifiP2pManager wifiP2pManager;
 
     /**
@@ -65,10 +79,28 @@ public class WifiAdHocManager implements MethodCallHandler {
     public WifiAdHocManager(Context context) {
         this.verbose = false;
         this.registered = false;
+        this.batchMaxEvents = BatchingEventSink.DEFAULT_MAX_EVENTS;
+        this.batchMaxDelayUs = BatchingEventSink.DEFAULT_MAX_DELAY_US;
         this.context = context;
+        this.dataPlane = new WifiDataPlane();
+        // Some devices drop the broadcast datagrams unless the lock is held
+        this.multicastLock = ((WifiManager) context.getApplicationContext()
+            .getSystemService(Context.WIFI_SERVICE)).createMulticastLock(TAG);
+        this.multicastLock.setReferenceCounted(false);
+        this.fileTransferManager = new WifiFileTransferManager(context.getCacheDir());
+        this.peerTable = new WifiPeerTable();
+        this.reconnectCache = new ReconnectCache();
+        this.p2pThread = new HandlerThread("AdHocPlugin-WifiP2p");
+        this.p2pThread.start();
+        this.p2pHandler = new Handler(p2pThread.getLooper());
         this.wifiP2pManager = 
             (WifiP2pManager) context.getSystemService(Context.WIFI_P2P_SERVICE);
-        this.channel = wifiP2pManager.initialize(context, getMainLooper(), null);
+        // Keep the peer list and connection callbacks off the UI thread, only
+        // the batched events are delivered on the main thread
+        this.channel = wifiP2pManager.initialize(context, p2pThread.getLooper(), null);
+        this.operationQueue = new P2pOperationQueue(p2pThread.getLooper());
+        this.serviceDiscovery = 
+            new WifiServiceDiscovery(channel, wifiP2pManager, operationQueue);
     }
 
 /*------------------------------Override methods------------------------------*/
@@ -103,14 +135,87 @@ public class WifiAdHocManager implements MethodCallHandler {
             unregister();
             break;
         case "discovery":
-            startDiscovery();
+            startDiscovery(result);
+            break;
+        case "getPeers":
+            result.success(peerTable.snapshot());
+            break;
+        case "registerService":
+            final String label = call.argument("label");
+            final Integer neighbours = call.argument("neighbours");
+            final String digest = call.argument("digest");
+            serviceDiscovery.register(label, neighbours == null ? 0 : neighbours, digest);
+            result.success(null);
+            break;
+        case "unregisterService":
+            serviceDiscovery.unregister();
+            result.success(null);
+            break;
+        case "discoverServices":
+            serviceDiscovery.discover(result);
             break;
         case "connect":
             final String remoteAddress = call.arguments();
-            connect(remoteAddress);
+            connect(remoteAddress, result);
             break;
         case "removeGroup":
-            removeGroup();
+            removeGroup(result);
+            break;
+        case "setReconnectCache":
+            final int maxEntries = ((Number) call.argument("maxEntries")).intValue();
+            final long maxAgeMs = ((Number) call.argument("maxAgeMs")).longValue();
+            reconnectCache.setLimits(maxEntries, maxAgeMs);
+            result.success(null);
+            break;
+        case "getReconnectStats":
+            result.success(reconnectCache.getStats());
+            break;
+        case "startDataPlane":
+            final int port = call.arguments();
+            multicastLock.acquire();
+            dataPlane.start(port);
+            result.success(null);
+            break;
+        case "stopDataPlane":
+            dataPlane.stop();
+            if (multicastLock.isHeld())
+                multicastLock.release();
+            result.success(null);
+            break;
+        case "sendData":
+            final Map<String, Object> message = call.arguments();
+            result.success(
+                dataPlane.send((String) message.get("address"), (byte[]) message.get("data"))
+            );
+            break;
+        case "broadcastData":
+            final byte[] data = call.argument("data");
+            final int ttl = call.argument("ttl");
+            result.success(dataPlane.broadcast(data, ttl));
+            break;
+        case "closeDataConnection":
+            final String address = call.arguments();
+            dataPlane.close(address);
+            result.success(null);
+            break;
+        case "startFileReceiver":
+            final int filePort = call.arguments();
+            result.success(fileTransferManager.startReceiver(filePort));
+            break;
+        case "stopFileReceiver":
+            fileTransferManager.stopReceiver();
+            result.success(null);
+            break;
+        case "sendFile":
+            final String fileAddress = call.argument("address");
+            final int remotePort = call.argument("port");
+            final String path = call.argument("path");
+            result.success(fileTransferManager.send(fileAddress, remotePort, path));
+            break;
+        case "cancelTransfer":
+            final String id = call.arguments();
+            fileTransferManager.cancel(id);
+            result.success(null);
             break;
 
         default:
@@ -132,30 +237,67 @@ public class WifiAdHocManager implements MethodCallHandler {
 
         methodChannel = new MethodChannel(messenger, METHOD_NAME);
         methodChannel.setMethodCallHandler(this);
+        dataPlane.setMessenger(messenger);
+        fileTransferManager.setupEventChannel(messenger);
         eventChannel = new EventChannel(messenger, EVENT_NAME);
         eventChannel.setStreamHandler(new StreamHandler() {
             @Override
             public void onListen(Object arguments, EventSink events) {
-              eventSink = events;
+              // Deliver events by batch on the main thread, the peer deltas
+              // must all be delivered in order
+              eventSink = new BatchingEventSink(events);
+              eventSink.configure(batchMaxEvents, batchMaxDelayUs);
+              serviceDiscovery.setEventSink(eventSink);
             }
 
             @Override
             public void onCancel(Object arguments) {
               eventSink = null;
+              serviceDiscovery.setEventSink(null);
               eventChannel.setStreamHandler(null);
               eventChannel = null;
             }
         });
     }
 
+    /**
+     * Method allowing to configure how events are batched before being sent 
+     * to the Flutter client.
+     * 
+     * @param maxEvents     Integer value representing the maximum number of 
+     *                      events of a batch (1 = no batching).
+     * @param maxDelayUs    Long value representing the maximum time in 
+     *                      microseconds an event waits before being delivered
+     *                      (0 = next frame).
+     */
+    public void setEventBatching(int maxEvents, long maxDelayUs) {
+        if (verbose) Log.d(TAG, "setEventBatching(): " + maxEvents + ", " + maxDelayUs);
+
+        this.batchMaxEvents = maxEvents;
+        this.batchMaxDelayUs = maxDelayUs;
+        if (eventSink != null)
+            eventSink.configure(maxEvents, maxDelayUs);
+    }
+
     /** 
-     * Method allowing to release the resources used.
+     * Method allowing to release the resources used. It is the final dispose 
+     * of the manager, whose Wi-Fi Direct thread is stopped: it no longer 
+     * handles the platform calls afterwards.
      */
     public void close() {
         if (verbose) Log.d(TAG, "close()");
 
-        unregister();
+        // No call may register the receiver again on the stopped thread
         methodChannel.setMethodCallHandler(null);
+        unregister();
+        serviceDiscovery.close();
+        operationQueue.close();
+        p2pThread.quitSafely();
+        dataPlane.close();
+        dataPlane.setMessenger(null);
+        if (multicastLock.isHeld())
+            multicastLock.release();
+        fileTransferManager.close();
     }
 
 /*-------------------------------Private methods------------------------------*/
@@ -169,6 +311,10 @@ public class WifiAdHocManager implements MethodCallHandler {
     private void setVerbose(boolean verbose) {
         if (verbose) Log.d(TAG, "setVerbose()");
         this.verbose = verbose;
+        this.dataPlane.setVerbose(verbose);
+        this.fileTransferManager.setVerbose(verbose);
+        this.serviceDiscovery.setVerbose(verbose);
+        this.operationQueue.setVerbose(verbose);
     }
 
     /** 
@@ -184,10 +330,19 @@ public class WifiAdHocManager implements MethodCallHandler {
         filter.addAction(WifiP2pManager.WIFI_P2P_CONNECTION_CHANGED_ACTION);
         filter.addAction(WifiP2pManager.WIFI_P2P_THIS_DEVICE_CHANGED_ACTION);
     
-        receiver = new WifiBroadcastReceiver(channel, eventSink, wifiP2pManager);
+        receiver = new WifiBroadcastReceiver(channel, eventSink, peerTable, wifiP2pManager);
         receiver.setVerbose(verbose);
+        receiver.setGroupInfoListener(new WifiBroadcastReceiver.GroupInfoListener() {
+            @Override
+            public void onGroupInfo(WifiP2pInfo info) {
+                // Open the sockets of the group, if the data plane is enabled
+                dataPlane.onGroupInfo(info.groupFormed, info.isGroupOwner, info.groupOwnerAddress);
+                if (info.groupFormed)
+                    rememberGroup();
+            }
+        });
 
-        context.registerReceiver(receiver, filter);
+        context.registerReceiver(receiver, filter, null, p2pHandler);
 
         registered = true;
     }
@@ -286,44 +441,22 @@ public class WifiAdHocManager implements MethodCallHandler {
         return "";
     }
 
-    /**
-     * Method allowing to get the error message as a String according to the
-     * error code integer value.
-     *
-     * @param reasonCode    Integer value representing the reason of failure.
-     * 
-     * @return String value representing the reason for failure.
-     */
-    private String errorCode(int reasonCode) {
-        switch (reasonCode) {
-            case ERROR:
-                return "P2P internal error";
-            case P2P_UNSUPPORTED:
-                return "P2P is not supported";
-            case BUSY:
-                return "P2P is busy";
-        }
-
-        return "Unknown error";
-    }
-
 /*------------------------------WiFi P2P methods------------------------------*/
 
-    /* 
+    /**
      * Method allowing to start the discovery process of Wi-Fi Direct peers.
+     *
+     * @param result    Result object of the platform call, completed with the
+     *                  outcome of the operation.
      */
-    private void startDiscovery() {
-        wifiP2pManager.discoverPeers(channel, new WifiP2pManager.ActionListener() {
-            @Override
-            public void onSuccess() {
-                if (verbose) 
-                    Log.d(TAG, "startDiscovery(): success");
-            }
-
+    private void startDiscovery(Result result) {
+        // A discovery requested while another one is pending is merged with it
+        operationQueue.submit(new P2pOperationQueue.Operation(
+            "discoverPeers", "discoverPeers", result
+        ) {
             @Override
-            public void onFailure(int reasonCode) {
-                if (verbose) 
-                    Log.d(TAG, "startDiscovery(): failure -> " + errorCode(reasonCode));
+            protected void execute(WifiP2pManager.ActionListener listener) {
+                wifiP2pManager.discoverPeers(channel, listener);
             }
         });
     }
@@ -333,47 +466,103 @@ public class WifiAdHocManager implements MethodCallHandler {
      *
      * @param remoteAddress String value representing the IP address of the 
      *                      remote Wi-Fi Direct peer.
+     * @param result        Result object of the platform call, completed with
+     *                      the outcome of the operation.
      */
-    private void connect(final String remoteAddress) {
-        final WifiP2pConfig config = new WifiP2pConfig();
-        config.deviceAddress = remoteAddress.toLowerCase();
-        config.wps.setup = WpsInfo.PBC;
-
-        wifiP2pManager.connect(channel, config, new WifiP2pManager.ActionListener() {
+    private void connect(final String remoteAddress, Result result) {
+        final String address = remoteAddress.toLowerCase();
+        final ReconnectCache.Entry entry = reconnectCache.get(address);
+        final WifiP2pConfig config = reconnectConfig(address, entry);
+
+        operationQueue.submit(new P2pOperationQueue.Operation(
+            "connect", "connect/" + address, result
+        ) {
             @Override
-            public void onSuccess() {
-                if (verbose) Log.d(TAG, "connect(): success");
+            protected void execute(WifiP2pManager.ActionListener listener) {
+                wifiP2pManager.connect(channel, config, listener);
             }
 
             @Override
-            public void onFailure(int reasonCode) {
-                if (verbose) Log.e(TAG, "connect(): failure -> " + errorCode(reasonCode));
+            protected void onFinished(boolean success) {
+                // The group may no longer exist, negotiate it next time
+                if (!success && entry != null)
+                    reconnectCache.remove(address);
             }
         });
     }
 
     /**
-     * Method allowing to remove a existing P2P group.
+     * Method allowing to build the configuration of a connection, keeping 
+     * the roles of the group previously formed with the remote peer if any.
+     *
+     * The previous group cannot be joined directly: its passphrase is only
+     * known by the group owner, and not by the client which would join it.
+     *
+     * @param address   String value representing the MAC address of the 
+     *                  remote peer.
+     * @param entry     ReconnectCache.Entry object describing the previous
+     *                  group, or null.
+     * 
+     * @return WifiP2pConfig object representing the configuration.
+     */
+    private WifiP2pConfig reconnectConfig(String address, ReconnectCache.Entry entry) {
+        WifiP2pConfig config = new WifiP2pConfig();
+        config.deviceAddress = address;
+        config.wps.setup = WpsInfo.PBC;
+        if (entry != null) {
+            // Keep the previous roles, the negotiation and the WPS 
+            // provisioning still take place
+            config.groupOwnerIntent = entry.groupOwnerIntent();
+        }
+
+        return config;
+    }
+
+    /**
+     * Method allowing to remember the role of this device in the group just 
+     * formed, kept on a reconnection with its members.
      */
-    private void removeGroup() {
+    private void rememberGroup() {
         wifiP2pManager.requestGroupInfo(channel, new WifiP2pManager.GroupInfoListener() {
             @Override
             public void onGroupInfoAvailable(WifiP2pGroup group) {
-                if (group != null) {
-                    wifiP2pManager.removeGroup(channel, new WifiP2pManager.ActionListener() {
-                        @Override
-                        public void onSuccess() {
-                            if (verbose) 
-                                Log.d(TAG, "removeGroup(): success");
-                        }
+                if (group == null)
+                    return;
+
+                if (group.isGroupOwner()) {
+                    for (WifiP2pDevice client : group.getClientList()) {
+                        reconnectCache.put(client.deviceAddress, true);
+                    }
+                } else if (group.getOwner() != null) {
+                    reconnectCache.put(group.getOwner().deviceAddress, false);
+                }
+            }
+        });
+    }
 
-                        @Override
-                        public void onFailure(int reason) {
-                            if (verbose) 
-                                Log.e(TAG, "removeGroup(): failure -> " + errorCode(reason));
+    /**
+     * Method allowing to remove a existing P2P group.
+     *
+     * @param result    Result object of the platform call, completed with the
+     *                  outcome of the operation.
+     */
+    private void removeGroup(Result result) {
+        operationQueue.submit(new P2pOperationQueue.Operation(
+            "removeGroup", "removeGroup", result
+        ) {
+            @Override
+            protected void execute(final WifiP2pManager.ActionListener listener) {
+                wifiP2pManager.requestGroupInfo(channel, new WifiP2pManager.GroupInfoListener() {
+                    @Override
+                    public void onGroupInfoAvailable(WifiP2pGroup group) {
+                        if (group != null) {
+                            wifiP2pManager.removeGroup(channel, listener);
+                        } else {
+                            // Not part of a group, nothing to remove
+                            listener.onSuccess();
                         }
-                    });
-                }
+                    }
+                });
             }
         });
     }
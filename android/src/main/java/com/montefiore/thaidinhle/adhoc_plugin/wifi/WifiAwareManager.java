@@ -0,0 +1,244 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.NonNull;
+
+import com.montefiore.thaidinhle.adhoc_plugin.utils.BatchingEventSink;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.EventChannel.EventSink;
+import io.flutter.plugin.common.EventChannel.StreamHandler;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
+import io.flutter.plugin.common.MethodChannel.Result;
+
+import java.util.HashMap;
+
+/**
+ * Class managing the Wi-Fi Aware (NAN) transport, alongside the Wi-Fi Direct
+ * one managed by WifiAdHocManager.
+ *
+ * Wi-Fi Aware requires API 26 and a device supporting it. Its availability is
+ * checked at runtime, the Flutter client falling back to Wi-Fi Direct when it
+ * cannot be used. The Wi-Fi Aware framework is only accessed from a dedicated
+ * background thread.
+ */
+public class WifiAwareManager implements MethodCallHandler {
+    private static final String TAG = "[AdHocPlugin][Aware]";
+    public static final String METHOD_NAME = "ad.hoc.lib/wifi.aware.method.channel";
+    public static final String EVENT_NAME = "ad.hoc.lib/wifi.aware.event.channel";
+
+    private boolean verbose;
+    private final Handler mainHandler;
+    private HandlerThread awareThread;
+    private Handler awareHandler;
+    private SystemAwareSessionLayer layer;
+    private AwareController controller;
+
+    private MethodChannel methodChannel;
+    private EventChannel eventChannel;
+    private volatile BatchingEventSink eventSink;
+    private int batchMaxEvents;
+    private long batchMaxDelayUs;
+
+    /**
+     * Default constructor
+     *
+     * @param context   Context object giving global information about the
+     *                  application environment.
+     */
+    public WifiAwareManager(Context context) {
+        this.verbose = false;
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.batchMaxEvents = BatchingEventSink.DEFAULT_MAX_EVENTS;
+        this.batchMaxDelayUs = BatchingEventSink.DEFAULT_MAX_DELAY_US;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            this.awareThread = new HandlerThread("AdHocPlugin-WifiAware");
+            this.awareThread.start();
+            this.awareHandler = new Handler(awareThread.getLooper());
+            this.layer = new SystemAwareSessionLayer(context, awareHandler);
+            this.controller = new AwareController(layer, new AwareController.Listener() {
+                @Override
+                public void onEvent(HashMap<String, Object> event) {
+                    // Notify Flutter client
+                    BatchingEventSink sink = eventSink;
+                    if (sink != null)
+                        sink.success(event);
+                }
+            });
+        }
+    }
+
+/*------------------------------Override methods------------------------------*/
+
+    @Override
+    public void onMethodCall(@NonNull final MethodCall call, @NonNull final Result result) {
+        if (controller == null) {
+            // Wi-Fi Aware is not supported below API 26
+            switch (call.method) {
+                case "isAvailable":
+                case "start":
+                case "connect":
+                    result.success(false);
+                    break;
+                default:
+                    result.success(null);
+                    break;
+            }
+
+            return;
+        }
+
+        awareHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Object value = null;
+                switch (call.method) {
+                    case "setVerbose":
+                        final boolean verbose = call.arguments();
+                        setVerbose(verbose);
+                        break;
+                    case "isAvailable":
+                        value = controller.isAvailable();
+                        break;
+                    case "start":
+                        final String label = call.arguments();
+                        value = controller.start(label);
+                        break;
+                    case "stop":
+                        controller.stop();
+                        break;
+                    case "connect":
+                        final String connectPeer = call.arguments();
+                        value = controller.connect(connectPeer);
+                        break;
+                    case "disconnect":
+                        final String disconnectPeer = call.arguments();
+                        controller.disconnect(disconnectPeer);
+                        break;
+
+                    default:
+                        reply(result, null, true);
+                        return;
+                }
+
+                reply(result, value, false);
+            }
+        });
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to initialize the method call handler.
+     *
+     * @param messenger BinaryMessenger object, which sends binary data across
+     *                  the Flutter platform barrier.
+     */
+    public void initMethodCallHandler(BinaryMessenger messenger) {
+        if (verbose) Log.d(TAG, "initMethodCallHandler()");
+
+        methodChannel = new MethodChannel(messenger, METHOD_NAME);
+        methodChannel.setMethodCallHandler(this);
+        eventChannel = new EventChannel(messenger, EVENT_NAME);
+        eventChannel.setStreamHandler(new StreamHandler() {
+            @Override
+            public void onListen(Object arguments, EventSink events) {
+                // Deliver events by batch on the main thread
+                BatchingEventSink sink = new BatchingEventSink(events);
+                sink.configure(batchMaxEvents, batchMaxDelayUs);
+                eventSink = sink;
+            }
+
+            @Override
+            public void onCancel(Object arguments) {
+                eventSink = null;
+            }
+        });
+    }
+
+    /**
+     * Method allowing to configure how events are batched before being sent
+     * to the Flutter client.
+     *
+     * @param maxEvents     Integer value representing the maximum number of
+     *                      events of a batch (1 = no batching).
+     * @param maxDelayUs    Long value representing the maximum time in
+     *                      microseconds an event waits before being delivered
+     *                      (0 = next frame).
+     */
+    public void setEventBatching(int maxEvents, long maxDelayUs) {
+        this.batchMaxEvents = maxEvents;
+        this.batchMaxDelayUs = maxDelayUs;
+
+        BatchingEventSink sink = eventSink;
+        if (sink != null)
+            sink.configure(maxEvents, maxDelayUs);
+    }
+
+    /**
+     * Method allowing to release the resources used.
+     */
+    public void close() {
+        if (verbose) Log.d(TAG, "close()");
+
+        if (controller != null) {
+            awareHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    controller.stop();
+                }
+            });
+            awareThread.quitSafely();
+        }
+
+        if (methodChannel != null)
+            methodChannel.setMethodCallHandler(null);
+        if (eventChannel != null)
+            eventChannel.setStreamHandler(null);
+        eventSink = null;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to update the verbose/debug mode.
+     *
+     * @param verbose   Boolean value representing the sate of the verbose/debug
+     *                  mode.
+     */
+    private void setVerbose(boolean verbose) {
+        if (verbose) Log.d(TAG, "setVerbose()");
+        this.verbose = verbose;
+        this.layer.setVerbose(verbose);
+    }
+
+    /**
+     * Method allowing to answer a platform call on the main thread.
+     *
+     * @param result            Result object of the platform call.
+     * @param value             Object representing the value returned.
+     * @param notImplemented    Boolean value stating whether the method is
+     *                          unknown.
+     */
+    private void reply(final Result result, final Object value, final boolean notImplemented) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (notImplemented) {
+                    result.notImplemented();
+                } else {
+                    result.success(value);
+                }
+            }
+        });
+    }
+}
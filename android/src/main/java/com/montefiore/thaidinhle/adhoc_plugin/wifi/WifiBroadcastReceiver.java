@@ -31,8 +31,10 @@ public class WifiBroadcastReceiver extends BroadcastReceiver {
     private static final byte ANDROID_CHANGES    = 123;
 
     private boolean verbose;
+    private GroupInfoListener groupInfoListener;
     private final Channel channel;
     private final EventSink eventSink;
+    private final WifiPeerTable peerTable;
     private final WifiP2pManager wifiP2pManager;
 
     /**
@@ -43,14 +45,18 @@ public class WifiBroadcastReceiver extends BroadcastReceiver {
      *                          framework.
      * @param eventSink         Event callback for sending event to the Flutter
      *                          client.
+     * @param peerTable         WifiPeerTable object holding the peers last
+     *                          sent to the Flutter client.
      * @param wifiP2pManager    Class managing Wi-Fi Direct connectivity.
     */
     public WifiBroadcastReceiver(
-        Channel channel, EventSink eventSink, WifiP2pManager wifiP2pManager
+        Channel channel, EventSink eventSink, WifiPeerTable peerTable,
+        WifiP2pManager wifiP2pManager
     ) {
         this.verbose = false;
         this.channel = channel;
         this.eventSink = eventSink;
+        this.peerTable = peerTable;
         this.wifiP2pManager = wifiP2pManager;
     }
 
@@ -64,6 +70,17 @@ public class WifiBroadcastReceiver extends BroadcastReceiver {
         this.verbose = verbose;
     }
 
+    /**
+     * Method allowing to set the listener notified of the state of the Wi-Fi
+     * Direct group.
+     *
+     * @param listener  GroupInfoListener object notified on each connection
+     *                  change.
+     */
+    public void setGroupInfoListener(GroupInfoListener listener) {
+        this.groupInfoListener = listener;
+    }
+
     @Override
     public void onReceive(Context context, Intent intent) {
         HashMap<String, Object> mapInfoValue = new HashMap<>();
@@ -129,24 +146,47 @@ public class WifiBroadcastReceiver extends BroadcastReceiver {
         public void onPeersAvailable(WifiP2pDeviceList peerList) {
             if (verbose) Log.d(TAG, "onPeersAvailable()");
             // List of peer information available
-            HashMap<String, Object> mapInfoValue = new HashMap<>();
-            mapInfoValue.put("type", ANDROID_DISCOVERY);
-
-            List<WifiP2pDevice> refreshedPeers = new ArrayList<>(peerList.getDeviceList());
-            List<HashMap<String, Object>> listPeers = new ArrayList<>();
-            for (WifiP2pDevice wifiP2pDevice : refreshedPeers) {
-                HashMap<String, Object> mapDeviceInfoValue = new HashMap<>();
-                mapDeviceInfoValue.put("name", wifiP2pDevice.deviceName);
-                mapDeviceInfoValue.put("mac", wifiP2pDevice.deviceAddress.toUpperCase());
-                listPeers.add(mapDeviceInfoValue);
+            List<WifiPeerTable.Peer> refreshedPeers = new ArrayList<>();
+            for (WifiP2pDevice wifiP2pDevice : peerList.getDeviceList()) {
+                refreshedPeers.add(new WifiPeerTable.Peer(
+                    wifiP2pDevice.deviceAddress.toUpperCase(), wifiP2pDevice.deviceName,
+                    wifiP2pDevice.status, capabilities(wifiP2pDevice)
+                ));
             }
 
-            mapInfoValue.put("peers", listPeers);
+            // Only the peers added, changed, or removed are sent
+            HashMap<String, Object> mapInfoValue = peerTable.update(refreshedPeers);
+            if (mapInfoValue == null)
+                return;
+
+            mapInfoValue.put("type", ANDROID_DISCOVERY);
             // Notify Flutter client
             eventSink.success(mapInfoValue);
         }
     };
 
+    /**
+     * Method allowing to get the capabilities of a Wi-Fi Direct peer.
+     *
+     * @param device    WifiP2pDevice object representing the peer.
+     *
+     * @return Integer value representing the WifiPeerTable.CAPABILITY_* flags.
+     */
+    private static int capabilities(WifiP2pDevice device) {
+        int capabilities = 0;
+        if (device.isGroupOwner())
+            capabilities |= WifiPeerTable.CAPABILITY_GROUP_OWNER;
+        if (device.isServiceDiscoveryCapable())
+            capabilities |= WifiPeerTable.CAPABILITY_SERVICE_DISCOVERY;
+        if (device.wpsPbcSupported())
+            capabilities |= WifiPeerTable.CAPABILITY_WPS_PBC;
+        if (device.wpsKeypadSupported())
+            capabilities |= WifiPeerTable.CAPABILITY_WPS_KEYPAD;
+        if (device.wpsDisplaySupported())
+            capabilities |= WifiPeerTable.CAPABILITY_WPS_DISPLAY;
+        return capabilities;
+    }
+
     // Interface for callback invocation when the connection info is available
     private final WifiP2pManager.ConnectionInfoListener connectionInfoListener = new WifiP2pManager.ConnectionInfoListener() {
         @Override
@@ -170,6 +210,16 @@ public class WifiBroadcastReceiver extends BroadcastReceiver {
             mapInfoValue.put("info", mapConnectionInfoValue);
             // Notify Flutter client
             eventSink.success(mapInfoValue);
+
+            if (groupInfoListener != null)
+                groupInfoListener.onGroupInfo(info);
         }
     };
+
+    /**
+     * Interface notified of the state of the Wi-Fi Direct group.
+     */
+    public interface GroupInfoListener {
+        void onGroupInfo(WifiP2pInfo info);
+    }
 }
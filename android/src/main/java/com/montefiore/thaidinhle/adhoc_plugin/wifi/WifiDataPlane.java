@@ -0,0 +1,807 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.montefiore.thaidinhle.adhoc_plugin.ble.BufferPool;
+
+import io.flutter.plugin.common.BinaryMessenger;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Class managing the TCP sockets of a Wi-Fi Direct group on a single
+ * selector thread.
+ *
+ * The messages are length-prefixed frames. The group owner listens on its
+ * group address, and the other members connect to it. The frames received
+ * during a round of the selector are sent in one batch to the Flutter client
+ * through the data channel.
+ *
+ * Each record of a batch is made of a type (1 byte), the IPv4 address of the
+ * remote peer (4 bytes), a length (4 bytes, big-endian), and a payload.
+ *
+ * The messages flooded to the whole group are sent as UDP broadcast datagrams
+ * on the same port (see GroupBroadcast). The group owner relays the datagrams
+ * of the other members, so that each member is reached with one transmission
+ * instead of one copy per connection.
+ */
+public class WifiDataPlane {
+    private static final String TAG = "[AdHocPlugin][WifiData]";
+    private static final String DATA_NAME = "ad.hoc.lib/wifi.data.channel";
+
+    // Types of the records sent to the Flutter client
+    public static final byte RECORD_CONNECTED    = 1;
+    public static final byte RECORD_DATA         = 2;
+    public static final byte RECORD_DISCONNECTED = 3;
+    public static final byte RECORD_BROADCAST    = 4;
+    // Size of a record header: type (1 byte), address (4 bytes), length (4 bytes)
+    public static final int RECORD_HEADER_SIZE = 9;
+
+    // Socket tuning
+    private static final int SOCKET_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    // Capacity of a batch buffer (the largest capacity kept by the pool), after
+    // which a batch is sent without waiting for the end of the round
+    private static final int BATCH_SIZE = 64 * 1024;
+    // Maximum number of idle batch buffers kept by the pool
+    private static final int MAX_IDLE_BATCHES = 8;
+
+    private boolean verbose;
+    private volatile int port;
+    private volatile BinaryMessenger messenger;
+
+    private final Handler handler;
+    private final ConcurrentHashMap<String, Connection> connections;
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+
+    private Selector selector;
+    private Thread thread;
+    private ServerSocketChannel serverChannel;
+
+    private final GroupBroadcast groupBroadcast;
+    private DatagramChannel datagramChannel;
+    private ByteBuffer datagramBuffer;
+    private InetSocketAddress broadcastAddress;
+    private byte[] localAddress;
+    private boolean groupOwner;
+
+    private final BufferPool batchPool;
+    private ByteBuffer batch;
+
+    /**
+     * Default constructor
+     */
+    public WifiDataPlane() {
+        this.verbose = false;
+        this.port = -1;
+        this.handler = new Handler(Looper.getMainLooper());
+        this.connections = new ConcurrentHashMap<>();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.batchPool = new BufferPool(true, MAX_IDLE_BATCHES);
+        this.batch = null;
+        this.groupBroadcast = new GroupBroadcast();
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to update the verbose/debug mode.
+     *
+     * @param verbose   Boolean value representing the sate of the verbose/debug
+     *                  mode.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Method allowing to set the messenger used to send the batches to the
+     * Flutter client.
+     *
+     * @param messenger BinaryMessenger object, which sends binary data across
+     *                  the Flutter platform barrier.
+     */
+    public void setMessenger(BinaryMessenger messenger) {
+        this.messenger = messenger;
+    }
+
+    /**
+     * Method allowing to enable the data plane. The sockets are opened once
+     * a Wi-Fi Direct group is formed.
+     *
+     * @param port  Integer value representing the port of the group owner.
+     */
+    public synchronized void start(int port) {
+        if (verbose) Log.d(TAG, "start(): " + port);
+
+        this.port = port;
+        if (thread != null)
+            return;
+
+        // The selector thread is kept until close()
+        try {
+            selector = Selector.open();
+        } catch (IOException exception) {
+            Log.e(TAG, "start(): " + exception);
+            return;
+        }
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "AdHocPlugin-WifiData");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method allowing to disable the data plane and to close every socket.
+     */
+    public void stop() {
+        if (verbose) Log.d(TAG, "stop()");
+
+        port = -1;
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                closeAll();
+            }
+        });
+    }
+
+    /**
+     * Method allowing to release the resources used, including the selector
+     * thread. The data plane cannot be started again afterwards.
+     */
+    public synchronized void close() {
+        if (verbose) Log.d(TAG, "close()");
+
+        port = -1;
+        if (thread == null)
+            return;
+
+        thread.interrupt();
+        selector.wakeup();
+    }
+
+    /**
+     * Method allowing to open the sockets of a Wi-Fi Direct group, if the
+     * data plane is enabled.
+     *
+     * @param groupFormed   Boolean value stating whether a group is formed.
+     * @param isGroupOwner  Boolean value stating whether this device is the
+     *                      group owner.
+     * @param groupOwner    InetAddress object representing the address of the
+     *                      group owner.
+     */
+    public void onGroupInfo(
+        final boolean groupFormed, final boolean isGroupOwner, final InetAddress groupOwner
+    ) {
+        if (port < 0)
+            return;
+
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                if (!groupFormed) {
+                    closeAll();
+                    return;
+                }
+
+                openDatagram(groupOwner, isGroupOwner);
+                if (isGroupOwner) {
+                    listen(groupOwner);
+                } else if (!connections.containsKey(groupOwner.getHostAddress())) {
+                    connect(groupOwner);
+                }
+            }
+        });
+    }
+
+    /**
+     * Method allowing to send a message to a remote peer.
+     *
+     * @param address   String value representing the IP address of the
+     *                  remote peer.
+     * @param data      Byte array representing the message.
+     *
+     * @return true if the message has been queued, otherwise false.
+     */
+    public boolean send(String address, byte[] data) {
+        final Connection connection = connections.get(address);
+        if (connection == null)
+            return false;
+
+        connection.queue.offer(FrameDecoder.encode(data));
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                flush(connection);
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Method allowing to send a message to every member of the group with a
+     * single broadcast datagram.
+     *
+     * @param data  Byte array representing the message.
+     * @param ttl   Integer value representing the number of hops (2 lets the
+     *              group owner relay the message of a member).
+     *
+     * @return true if the message has been queued, otherwise false.
+     */
+    public boolean broadcast(final byte[] data, final int ttl) {
+        if (port < 0 || data.length > GroupBroadcast.MAX_PAYLOAD_SIZE)
+            return false;
+
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                sendDatagram(data, ttl);
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Method allowing to close the connection with a remote peer.
+     *
+     * @param address   String value representing the IP address of the
+     *                  remote peer.
+     */
+    public void close(String address) {
+        final Connection connection = connections.get(address);
+        if (connection == null)
+            return;
+
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                closeConnection(connection);
+            }
+        });
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to run a task on the selector thread.
+     *
+     * @param task  Runnable object representing the task.
+     */
+    private void submit(Runnable task) {
+        Selector current = selector;
+        if (current == null)
+            return;
+
+        tasks.offer(task);
+        current.wakeup();
+    }
+
+    /**
+     * Method running the selector loop until the data plane is stopped.
+     */
+    private void loop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                selector.select();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.channel() == datagramChannel) {
+                        receiveDatagrams();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isConnectable())
+                            finishConnect(connection);
+                        if (key.isValid() && key.isReadable())
+                            read(connection);
+                        if (key.isValid() && key.isWritable())
+                            flush(connection);
+                    }
+                }
+
+                // Deliver the frames received during this round at once
+                flushRecords();
+            }
+        } catch (IOException exception) {
+            Log.e(TAG, "loop(): " + exception);
+        } finally {
+            closeAll();
+            flushRecords();
+            tasks.clear();
+            try {
+                selector.close();
+            } catch (IOException exception) {
+                // Nothing to do
+            }
+        }
+    }
+
+    /**
+     * Method allowing to listen for the connections of the group members.
+     *
+     * @param address   InetAddress object representing the group owner
+     *                  address on which the server is bound.
+     */
+    private void listen(InetAddress address) {
+        if (serverChannel != null)
+            return;
+
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            // Set before binding, so that it applies to the accepted sockets
+            serverChannel.socket().setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+            serverChannel.socket().bind(new InetSocketAddress(address, port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            if (verbose) Log.d(TAG, "listen(): " + address + ":" + port);
+        } catch (IOException exception) {
+            Log.e(TAG, "listen(): " + exception);
+            closeServer();
+        }
+    }
+
+    /**
+     * Method allowing to accept the pending connection of a group member.
+     */
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null)
+                return;
+
+            InetAddress address = channel.socket().getInetAddress();
+            if (!(address instanceof Inet4Address)) {
+                closeQuietly(channel);
+                return;
+            }
+
+            established(open(channel, address, SelectionKey.OP_READ));
+        } catch (IOException exception) {
+            Log.e(TAG, "accept(): " + exception);
+            if (channel != null)
+                closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Method allowing to connect to the group owner. The messages sent
+     * meanwhile are queued until the connection is established.
+     *
+     * @param address   InetAddress object representing the group owner
+     *                  address.
+     */
+    private void connect(InetAddress address) {
+        Connection connection = null;
+        try {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                connection = open(channel, address, SelectionKey.OP_CONNECT);
+            } catch (IOException exception) {
+                closeQuietly(channel);
+                throw exception;
+            }
+
+            if (channel.connect(new InetSocketAddress(address, port)))
+                finishConnect(connection);
+        } catch (IOException exception) {
+            Log.e(TAG, "connect(): " + exception);
+            if (connection != null)
+                closeConnection(connection);
+        }
+    }
+
+    /**
+     * Method allowing to complete a pending connection to the group owner.
+     *
+     * @param connection    Connection object being established.
+     */
+    private void finishConnect(Connection connection) {
+        try {
+            if (connection.channel.finishConnect())
+                established(connection);
+        } catch (IOException exception) {
+            Log.e(TAG, "finishConnect(): " + exception);
+            closeConnection(connection);
+        }
+    }
+
+    /**
+     * Method allowing to tune and register a socket.
+     *
+     * @param channel   SocketChannel object of a remote peer.
+     * @param address   InetAddress object representing the address of the
+     *                  remote peer.
+     * @param ops       Integer value representing the interest set.
+     *
+     * @return Connection object representing the remote peer.
+     *
+     * @throws IOException if the socket cannot be configured.
+     */
+    private Connection open(SocketChannel channel, InetAddress address, int ops)
+            throws IOException {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().setKeepAlive(true);
+        channel.socket().setSendBufferSize(SOCKET_BUFFER_SIZE);
+        channel.socket().setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+
+        Connection connection = new Connection(channel, address);
+        connection.key = channel.register(selector, ops, connection);
+
+        Connection previous = connections.put(connection.address, connection);
+        if (previous != null)
+            closeConnection(previous);
+
+        return connection;
+    }
+
+    /**
+     * Method allowing to start exchanging frames with a remote peer once
+     * connected.
+     *
+     * @param connection    Connection object connected to a remote peer.
+     */
+    private void established(Connection connection) {
+        if (verbose) Log.d(TAG, "established(): " + connection.address);
+
+        connection.connected = true;
+        addRecord(RECORD_CONNECTED, connection.rawAddress, null);
+        flush(connection);
+    }
+
+    /**
+     * Method allowing to read the frames sent by a remote peer.
+     *
+     * @param connection    Connection object having bytes to read.
+     */
+    private void read(final Connection connection) {
+        try {
+            int count;
+            while ((count = connection.channel.read(connection.decoder.buffer())) > 0) {
+                connection.decoder.decode(new FrameDecoder.Listener() {
+                    @Override
+                    public void onFrame(ByteBuffer frame) {
+                        addRecord(RECORD_DATA, connection.rawAddress, frame);
+                    }
+                });
+            }
+
+            if (count < 0)
+                closeConnection(connection);
+        } catch (IOException exception) {
+            if (verbose) Log.d(TAG, "read(): " + exception);
+            closeConnection(connection);
+        }
+    }
+
+    /**
+     * Method allowing to write the queued frames of a remote peer, until the
+     * socket buffer is full.
+     *
+     * @param connection    Connection object having frames to write.
+     */
+    private void flush(Connection connection) {
+        if (!connection.connected || !connection.key.isValid())
+            return;
+
+        try {
+            ByteBuffer frame;
+            while ((frame = connection.queue.peek()) != null) {
+                connection.channel.write(frame);
+                if (frame.hasRemaining())
+                    break;
+                connection.queue.poll();
+            }
+
+            // Wait for room in the socket buffer only when needed
+            int ops = SelectionKey.OP_READ;
+            if (!connection.queue.isEmpty())
+                ops |= SelectionKey.OP_WRITE;
+            connection.key.interestOps(ops);
+        } catch (IOException exception) {
+            if (verbose) Log.d(TAG, "flush(): " + exception);
+            closeConnection(connection);
+        }
+    }
+
+    /**
+     * Method allowing to close the connection with a remote peer.
+     *
+     * @param connection    Connection object to close.
+     */
+    private void closeConnection(Connection connection) {
+        if (!connections.remove(connection.address, connection))
+            return;
+
+        if (verbose) Log.d(TAG, "closeConnection(): " + connection.address);
+
+        connection.key.cancel();
+        connection.queue.clear();
+        closeQuietly(connection.channel);
+
+        if (connection.connected)
+            addRecord(RECORD_DISCONNECTED, connection.rawAddress, null);
+    }
+
+    /**
+     * Method allowing to open the broadcast socket of the group.
+     *
+     * @param groupOwner    InetAddress object representing the group owner
+     *                      address.
+     * @param isGroupOwner  Boolean value stating whether this device is the
+     *                      group owner.
+     */
+    private void openDatagram(InetAddress groupOwner, boolean isGroupOwner) {
+        // Wi-Fi Direct groups use a /24 subnet
+        byte[] broadcast = groupOwner.getAddress();
+        broadcast[3] = (byte) 0xFF;
+
+        this.groupOwner = isGroupOwner;
+        this.localAddress = isGroupOwner ? groupOwner.getAddress() : null;
+        if (datagramChannel != null)
+            return;
+
+        try {
+            broadcastAddress = new InetSocketAddress(InetAddress.getByAddress(broadcast), port);
+
+            datagramChannel = DatagramChannel.open();
+            datagramChannel.socket().setReuseAddress(true);
+            datagramChannel.socket().setBroadcast(true);
+            datagramChannel.socket().setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+            // Bound on every interface, so that the broadcast datagrams are received
+            datagramChannel.socket().bind(new InetSocketAddress(port));
+            datagramChannel.configureBlocking(false);
+            datagramChannel.register(selector, SelectionKey.OP_READ);
+
+            if (datagramBuffer == null)
+                datagramBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+            if (verbose) Log.d(TAG, "openDatagram(): " + broadcastAddress);
+        } catch (IOException exception) {
+            Log.e(TAG, "openDatagram(): " + exception);
+            closeDatagram();
+        }
+    }
+
+    /**
+     * Method allowing to broadcast a message originated by this device.
+     *
+     * @param data  Byte array representing the message.
+     * @param ttl   Integer value representing the number of hops.
+     */
+    private void sendDatagram(byte[] data, int ttl) {
+        if (datagramChannel == null)
+            return;
+
+        // A member only knows its address once the DHCP of the group is done
+        if (localAddress == null)
+            localAddress = findLocalAddress(broadcastAddress.getAddress().getAddress());
+        if (localAddress == null)
+            return;
+
+        try {
+            datagramChannel.send(groupBroadcast.encode(localAddress, ttl, data), broadcastAddress);
+        } catch (IOException exception) {
+            if (verbose) Log.d(TAG, "sendDatagram(): " + exception);
+        }
+    }
+
+    /**
+     * Method allowing to read the pending datagrams. The group owner relays
+     * the datagrams of the other members.
+     */
+    private void receiveDatagrams() {
+        try {
+            while (true) {
+                datagramBuffer.clear();
+                if (datagramChannel.receive(datagramBuffer) == null)
+                    break;
+                datagramBuffer.flip();
+
+                GroupBroadcast.Packet packet = groupBroadcast.decode(datagramBuffer);
+                if (packet == null)
+                    continue;
+
+                if (groupOwner) {
+                    ByteBuffer relayed = GroupBroadcast.relay(packet);
+                    if (relayed != null)
+                        datagramChannel.send(relayed, broadcastAddress);
+                }
+
+                addRecord(RECORD_BROADCAST, packet.origin, packet.payload);
+            }
+        } catch (IOException exception) {
+            Log.e(TAG, "receiveDatagrams(): " + exception);
+            closeDatagram();
+        }
+    }
+
+    /**
+     * Method allowing to close the broadcast socket.
+     */
+    private void closeDatagram() {
+        if (datagramChannel != null) {
+            closeQuietly(datagramChannel);
+            datagramChannel = null;
+        }
+
+        localAddress = null;
+    }
+
+    /**
+     * Method allowing to find the address of this device in a group.
+     *
+     * @param broadcast Byte array representing the broadcast address of the
+     *                  group.
+     *
+     * @return Byte array representing the IPv4 address, or null if this
+     *         device has no address in the group yet.
+     */
+    private static byte[] findLocalAddress(byte[] broadcast) {
+        try {
+            for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+                    byte[] raw = address.getAddress();
+                    if (address instanceof Inet4Address && raw[0] == broadcast[0]
+                            && raw[1] == broadcast[1] && raw[2] == broadcast[2])
+                        return raw;
+                }
+            }
+        } catch (SocketException exception) {
+            Log.e(TAG, "findLocalAddress(): " + exception);
+        }
+
+        return null;
+    }
+
+    /**
+     * Method allowing to close every connection and the server socket.
+     */
+    private void closeAll() {
+        for (Connection connection : connections.values()) {
+            closeConnection(connection);
+        }
+
+        closeServer();
+        closeDatagram();
+    }
+
+    /**
+     * Method allowing to close the server socket.
+     */
+    private void closeServer() {
+        if (serverChannel != null) {
+            closeQuietly(serverChannel);
+            serverChannel = null;
+        }
+    }
+
+    /**
+     * Method allowing to add a record to the batch being built.
+     *
+     * The record is written directly into the pooled batch buffer. A record
+     * larger than a batch buffer gets a buffer of its own, which is not pooled.
+     *
+     * @param type      Byte value representing the type of the record.
+     * @param address   Byte array representing the IPv4 address of the
+     *                  remote peer.
+     * @param payload   ByteBuffer object holding the payload, or null.
+     */
+    private void addRecord(byte type, byte[] address, ByteBuffer payload) {
+        int length = (payload == null) ? 0 : payload.remaining();
+        int size = RECORD_HEADER_SIZE + length;
+
+        if (batch != null && batch.remaining() < size)
+            flushRecords();
+        if (batch == null)
+            batch = batchPool.acquire(Math.max(size, BATCH_SIZE));
+
+        batch.put(type)
+            .put(address)
+            .putInt(length);
+        if (payload != null)
+            batch.put(payload);
+    }
+
+    /**
+     * Method allowing to send the batch being built to the Flutter client.
+     */
+    private void flushRecords() {
+        if (batch == null)
+            return;
+
+        // The binary messenger sends the bytes before the position, which is
+        // left at the end of the batch
+        final ByteBuffer records = batch;
+        batch = null;
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (messenger != null)
+                        messenger.send(DATA_NAME, records);
+                } finally {
+                    // The engine copies the bytes of the message before send()
+                    // returns, so that the buffer can be reused right away
+                    batchPool.release(records);
+                }
+            }
+        });
+    }
+
+    /**
+     * Method allowing to close a channel, ignoring any error.
+     *
+     * @param channel   java.nio.channels.Channel object to close.
+     */
+    private static void closeQuietly(java.nio.channels.Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            // Nothing to do
+        }
+    }
+
+    /**
+     * Class holding the state of a connection with a remote peer.
+     */
+    private static class Connection {
+        private final SocketChannel channel;
+        private final String address;
+        private final byte[] rawAddress;
+        private final FrameDecoder decoder;
+        private final ConcurrentLinkedQueue<ByteBuffer> queue;
+        private SelectionKey key;
+        private boolean connected;
+
+        private Connection(SocketChannel channel, InetAddress address) {
+            this.channel = channel;
+            this.address = address.getHostAddress();
+            this.rawAddress = address.getAddress();
+            this.decoder = new FrameDecoder(MAX_FRAME_SIZE);
+            this.queue = new ConcurrentLinkedQueue<>();
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import android.util.Log;
+
+import com.montefiore.thaidinhle.adhoc_plugin.utils.BatchingEventSink;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.EventChannel.EventSink;
+import io.flutter.plugin.common.EventChannel.StreamHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Class managing the file transfers between the members of a Wi-Fi Direct
+ * group.
+ *
+ * Each transfer uses its own TCP connection and thread, and streams the file
+ * without loading it in memory (see FileTransfer). The received files are
+ * written in the cache directory of the application. The progress is sent to
+ * the Flutter client through a dedicated event channel.
+ */
+public class WifiFileTransferManager {
+    private static final String TAG = "[AdHocPlugin][WifiFile]";
+    public static final String EVENT_NAME = "ad.hoc.lib/wifi.transfer.channel";
+    private static final String DIRECTORY_NAME = "adhoc_transfers";
+
+    // Types of the events sent to the Flutter client
+    private static final byte TRANSFER_PROGRESS = 1;
+    private static final byte TRANSFER_SENT     = 2;
+    private static final byte TRANSFER_RECEIVED = 3;
+    private static final byte TRANSFER_FAILED   = 4;
+
+    // Socket tuning
+    private static final int SOCKET_BUFFER_SIZE = 256 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+
+    private boolean verbose;
+    private final File directory;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, SocketChannel> transfers;
+
+    private EventChannel eventChannel;
+    private volatile BatchingEventSink eventSink;
+    private volatile ServerSocketChannel serverChannel;
+
+    /**
+     * Default constructor
+     *
+     * @param cacheDirectory    File object representing the cache directory
+     *                          of the application.
+     */
+    public WifiFileTransferManager(File cacheDirectory) {
+        this.verbose = false;
+        this.directory = new File(cacheDirectory, DIRECTORY_NAME);
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AdHocPlugin-WifiFile");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.transfers = new ConcurrentHashMap<>();
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to update the verbose/debug mode.
+     *
+     * @param verbose   Boolean value representing the sate of the verbose/debug
+     *                  mode.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Method allowing to set up the event channel of the transfers.
+     *
+     * @param messenger BinaryMessenger object, which sends binary data across
+     *                  the Flutter platform barrier.
+     */
+    public void setupEventChannel(BinaryMessenger messenger) {
+        eventChannel = new EventChannel(messenger, EVENT_NAME);
+        eventChannel.setStreamHandler(new StreamHandler() {
+            @Override
+            public void onListen(Object arguments, EventSink events) {
+                // Deliver events by batch on the main thread, only the latest
+                // progress of a transfer is relevant
+                eventSink = new BatchingEventSink(events, TRANSFER_PROGRESS);
+            }
+
+            @Override
+            public void onCancel(Object arguments) {
+                eventSink = null;
+            }
+        });
+    }
+
+    /**
+     * Method allowing to accept the files sent by the remote peers.
+     *
+     * @param port  Integer value representing the port to listen on.
+     *
+     * @return true if the port is open, otherwise false.
+     */
+    public synchronized boolean startReceiver(int port) {
+        if (verbose) Log.d(TAG, "startReceiver(): " + port);
+
+        if (serverChannel != null)
+            return true;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "startReceiver(): cannot create " + directory);
+            return false;
+        }
+
+        try {
+            final ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.socket().setReuseAddress(true);
+            // Set before binding, so that it applies to the accepted sockets
+            channel.socket().setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+            channel.socket().bind(new InetSocketAddress(port));
+            serverChannel = channel;
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    accept(channel);
+                }
+            });
+
+            return true;
+        } catch (IOException exception) {
+            Log.e(TAG, "startReceiver(): " + exception);
+            return false;
+        }
+    }
+
+    /**
+     * Method allowing to stop accepting files. The ongoing transfers are not
+     * interrupted.
+     */
+    public synchronized void stopReceiver() {
+        if (verbose) Log.d(TAG, "stopReceiver()");
+
+        if (serverChannel != null) {
+            closeQuietly(serverChannel);
+            serverChannel = null;
+        }
+    }
+
+    /**
+     * Method allowing to send a file to a remote peer.
+     *
+     * A file sent again after a failure resumes where the previous transfer
+     * stopped, as long as the file is unchanged.
+     *
+     * @param address   String value representing the IP address of the
+     *                  remote peer.
+     * @param port      Integer value representing the port of the remote
+     *                  peer.
+     * @param path      String value representing the path of the file.
+     *
+     * @return String value representing the ID of the transfer, or null if
+     *         the file cannot be read.
+     */
+    public String send(final String address, final int port, String path) {
+        final File file = new File(path);
+        if (!file.isFile() || !file.canRead())
+            return null;
+
+        // Same ID for the same content, so that a new attempt is resumed
+        final String id = UUID.nameUUIDFromBytes(
+            (file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified()).getBytes()
+        ).toString();
+
+        if (verbose) Log.d(TAG, "send(): " + path + " -> " + address + " (" + id + ")");
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SocketChannel channel = null;
+                try {
+                    channel = SocketChannel.open();
+                    if (transfers.putIfAbsent(id, channel) != null) {
+                        // Already being sent
+                        closeQuietly(channel);
+                        return;
+                    }
+
+                    tune(channel);
+                    channel.socket().connect(new InetSocketAddress(address, port), CONNECT_TIMEOUT_MS);
+                    new FileTransfer().send(
+                        channel, file, id, FileTransfer.DEFAULT_CHUNK_SIZE, progressListener
+                    );
+
+                    HashMap<String, Object> mapInfoValue = event(TRANSFER_SENT, id);
+                    mapInfoValue.put("address", address);
+                    sendEvent(mapInfoValue);
+                } catch (IOException exception) {
+                    if (verbose) Log.d(TAG, "send(): " + exception);
+                    HashMap<String, Object> mapInfoValue = failed(id, exception);
+                    mapInfoValue.put("address", address);
+                    sendEvent(mapInfoValue);
+                } finally {
+                    if (channel != null) {
+                        transfers.remove(id, channel);
+                        closeQuietly(channel);
+                    }
+                }
+            }
+        });
+
+        return id;
+    }
+
+    /**
+     * Method allowing to interrupt a transfer. It can be resumed later.
+     *
+     * @param id    String value representing the ID of the transfer.
+     */
+    public void cancel(String id) {
+        if (verbose) Log.d(TAG, "cancel(): " + id);
+
+        SocketChannel channel = transfers.get(id);
+        if (channel != null)
+            closeQuietly(channel);
+    }
+
+    /**
+     * Method allowing to release the resources used.
+     */
+    public void close() {
+        if (verbose) Log.d(TAG, "close()");
+
+        stopReceiver();
+        for (SocketChannel channel : transfers.values()) {
+            closeQuietly(channel);
+        }
+        executor.shutdown();
+
+        if (eventChannel != null) {
+            eventChannel.setStreamHandler(null);
+            eventChannel = null;
+        }
+        eventSink = null;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to accept the incoming transfers until the server socket
+     * is closed.
+     *
+     * @param server    ServerSocketChannel object listening for transfers.
+     */
+    private void accept(ServerSocketChannel server) {
+        while (server.isOpen()) {
+            try {
+                final SocketChannel channel = server.accept();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        receive(channel);
+                    }
+                });
+            } catch (IOException exception) {
+                if (server.isOpen())
+                    Log.e(TAG, "accept(): " + exception);
+            }
+        }
+    }
+
+    /**
+     * Method allowing to receive a file.
+     *
+     * @param channel   SocketChannel object connected to the sender.
+     */
+    private void receive(SocketChannel channel) {
+        String address = channel.socket().getInetAddress().getHostAddress();
+        FileTransfer transfer = new FileTransfer();
+        try {
+            tune(channel);
+            File file = transfer.receive(channel, directory, progressListener);
+
+            if (verbose) Log.d(TAG, "receive(): " + file + " <- " + address);
+
+            HashMap<String, Object> mapInfoValue = event(TRANSFER_RECEIVED, transfer.getReceivedId());
+            mapInfoValue.put("address", address);
+            mapInfoValue.put("path", file.getAbsolutePath());
+            mapInfoValue.put("size", file.length());
+            sendEvent(mapInfoValue);
+        } catch (IOException exception) {
+            // The partial file is kept, the sender may resume the transfer
+            if (verbose) Log.d(TAG, "receive(): " + address + " -> " + exception);
+            // The ID is null if the header has not been received
+            HashMap<String, Object> mapInfoValue = failed(transfer.getReceivedId(), exception);
+            mapInfoValue.put("address", address);
+            sendEvent(mapInfoValue);
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Method allowing to tune a socket for bulk transfers.
+     *
+     * @param channel   SocketChannel object to tune.
+     *
+     * @throws IOException if the socket cannot be configured.
+     */
+    private static void tune(SocketChannel channel) throws IOException {
+        channel.configureBlocking(true);
+        channel.socket().setSendBufferSize(SOCKET_BUFFER_SIZE);
+        channel.socket().setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+        channel.socket().setKeepAlive(true);
+    }
+
+    private static HashMap<String, Object> failed(String id, IOException exception) {
+        HashMap<String, Object> mapInfoValue = event(TRANSFER_FAILED, id);
+        mapInfoValue.put("reason", String.valueOf(exception.getMessage()));
+        return mapInfoValue;
+    }
+
+    private static HashMap<String, Object> event(byte type, String id) {
+        HashMap<String, Object> mapInfoValue = new HashMap<>();
+        mapInfoValue.put("type", type);
+        mapInfoValue.put("id", id);
+        return mapInfoValue;
+    }
+
+    private void sendEvent(HashMap<String, Object> mapInfoValue) {
+        BatchingEventSink sink = eventSink;
+        if (sink != null)
+            sink.success(mapInfoValue);
+    }
+
+    private static void closeQuietly(java.nio.channels.Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            // Nothing to do
+        }
+    }
+
+    // Listener sending the progress of the transfers
+    private final FileTransfer.Listener progressListener = new FileTransfer.Listener() {
+        @Override
+        public void onProgress(String id, long transferred, long size) {
+            HashMap<String, Object> mapInfoValue = event(TRANSFER_PROGRESS, id);
+            mapInfoValue.put("transferred", transferred);
+            mapInfoValue.put("size", size);
+            sendEvent(mapInfoValue);
+        }
+    };
+}
@@ -0,0 +1,159 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Class keeping track of the Wi-Fi Direct peers last reported by the
+ * framework, so that only the differences are sent to the Flutter client.
+ *
+ * Each update that changes the peer set increments a version number. The
+ * Flutter client applies the deltas in order, and requests a snapshot if it
+ * misses one.
+ */
+public class WifiPeerTable {
+    // Capability flags of a peer
+    public static final int CAPABILITY_GROUP_OWNER       = 1;
+    public static final int CAPABILITY_SERVICE_DISCOVERY = 1 << 1;
+    public static final int CAPABILITY_WPS_PBC           = 1 << 2;
+    public static final int CAPABILITY_WPS_KEYPAD        = 1 << 3;
+    public static final int CAPABILITY_WPS_DISPLAY       = 1 << 4;
+
+    private final HashMap<String, Peer> peers;
+    private long version;
+
+    /**
+     * Default constructor
+     */
+    public WifiPeerTable() {
+        this.peers = new HashMap<>();
+        this.version = 0;
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to replace the peer set by the one reported by the
+     * framework.
+     *
+     * @param refreshedPeers    List of Peer objects currently visible.
+     *
+     * @return HashMap<String, Object> containing the 'version', 'added',
+     *         'changed', and 'removed' keys, or null if nothing changed.
+     */
+    public synchronized HashMap<String, Object> update(List<Peer> refreshedPeers) {
+        List<HashMap<String, Object>> added = new ArrayList<>();
+        List<HashMap<String, Object>> changed = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+
+        HashMap<String, Peer> previous = new HashMap<>(peers);
+        for (Peer peer : refreshedPeers) {
+            Peer known = previous.remove(peer.mac);
+            if (known == null) {
+                added.add(peer.toMap());
+            } else if (!known.equals(peer)) {
+                changed.add(peer.toMap());
+            } else {
+                continue;
+            }
+
+            peers.put(peer.mac, peer);
+        }
+
+        for (String mac : previous.keySet()) {
+            peers.remove(mac);
+            removed.add(mac);
+        }
+
+        if (added.isEmpty() && changed.isEmpty() && removed.isEmpty())
+            return null;
+
+        HashMap<String, Object> mapInfoValue = new HashMap<>();
+        mapInfoValue.put("version", ++version);
+        mapInfoValue.put("added", added);
+        mapInfoValue.put("changed", changed);
+        mapInfoValue.put("removed", removed);
+
+        return mapInfoValue;
+    }
+
+    /**
+     * Method allowing to get the whole peer set.
+     *
+     * @return HashMap<String, Object> containing the 'version' and 'peers'
+     *         keys.
+     */
+    public synchronized HashMap<String, Object> snapshot() {
+        List<HashMap<String, Object>> listPeers = new ArrayList<>();
+        for (Peer peer : peers.values()) {
+            listPeers.add(peer.toMap());
+        }
+
+        HashMap<String, Object> mapInfoValue = new HashMap<>();
+        mapInfoValue.put("version", version);
+        mapInfoValue.put("peers", listPeers);
+
+        return mapInfoValue;
+    }
+
+    /**
+     * Method allowing to get the number of peers.
+     *
+     * @return Integer value representing the number of peers.
+     */
+    public synchronized int size() {
+        return peers.size();
+    }
+
+    /**
+     * Class representing the state of a Wi-Fi Direct peer.
+     */
+    public static class Peer {
+        private final String mac;
+        private final String name;
+        private final int status;
+        private final int capabilities;
+
+        /**
+         * Default constructor
+         *
+         * @param mac           String value representing the MAC address.
+         * @param name          String value representing the device name.
+         * @param status        Integer value representing the status
+         *                      (WifiP2pDevice.CONNECTED, INVITED, etc.).
+         * @param capabilities  Integer value representing the CAPABILITY_*
+         *                      flags.
+         */
+        public Peer(String mac, String name, int status, int capabilities) {
+            this.mac = mac;
+            this.name = (name == null) ? "" : name;
+            this.status = status;
+            this.capabilities = capabilities;
+        }
+
+        private HashMap<String, Object> toMap() {
+            HashMap<String, Object> mapDeviceInfoValue = new HashMap<>();
+            mapDeviceInfoValue.put("name", name);
+            mapDeviceInfoValue.put("mac", mac);
+            mapDeviceInfoValue.put("status", status);
+            mapDeviceInfoValue.put("capabilities", capabilities);
+            return mapDeviceInfoValue;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Peer))
+                return false;
+
+            Peer peer = (Peer) object;
+            return mac.equals(peer.mac) && name.equals(peer.name)
+                && status == peer.status && capabilities == peer.capabilities;
+        }
+
+        @Override
+        public int hashCode() {
+            return mac.hashCode();
+        }
+    }
+}
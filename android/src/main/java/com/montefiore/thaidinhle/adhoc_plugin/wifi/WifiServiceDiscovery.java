@@ -0,0 +1,246 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pManager;
+import android.net.wifi.p2p.WifiP2pManager.Channel;
+import android.net.wifi.p2p.nsd.WifiP2pDnsSdServiceInfo;
+import android.net.wifi.p2p.nsd.WifiP2pDnsSdServiceRequest;
+import android.util.Log;
+
+import io.flutter.plugin.common.EventChannel.EventSink;
+import io.flutter.plugin.common.MethodChannel.Result;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class managing the advertisement and the discovery of the ad hoc service
+ * through Wi-Fi Direct DNS-SD.
+ *
+ * The TXT record of the service carries the metadata of the node (label,
+ * number of neighbours, and digest of the routing table), so that the Flutter
+ * client can choose a group to join before any connection attempt. Only the
+ * devices advertising the ad hoc service are reported.
+ */
+public class WifiServiceDiscovery {
+    private static final String TAG = "[AdHocPlugin][WifiDnsSd]";
+
+    // Constants for communication with the Flutter platform barrier
+    private static final byte ANDROID_SERVICE = 127;
+
+    // DNS-SD service of the ad hoc nodes
+    private static final String SERVICE_INSTANCE = "adhoc";
+    private static final String SERVICE_TYPE = "_adhoc._tcp";
+
+    // Keys of the TXT record
+    private static final String KEY_LABEL = "label";
+    private static final String KEY_NEIGHBOURS = "neighbours";
+    private static final String KEY_DIGEST = "digest";
+
+    private boolean verbose;
+    private final Channel channel;
+    private final WifiP2pManager wifiP2pManager;
+    private final P2pOperationQueue operationQueue;
+    private volatile EventSink eventSink;
+    private WifiP2pDnsSdServiceRequest serviceRequest;
+
+    /**
+     * Default constructor
+     *
+     * @param channel           Wi-Fi Direct channel representing the channel
+     *                          connecting the application to the Wi-Fi Direct
+     *                          framework.
+     * @param wifiP2pManager    Class managing Wi-Fi Direct connectivity.
+     * @param operationQueue    P2pOperationQueue object serializing the
+     *                          discoveries with the other operations.
+     */
+    public WifiServiceDiscovery(
+        Channel channel, WifiP2pManager wifiP2pManager, P2pOperationQueue operationQueue
+    ) {
+        this.verbose = false;
+        this.channel = channel;
+        this.wifiP2pManager = wifiP2pManager;
+        this.operationQueue = operationQueue;
+
+        wifiP2pManager.setDnsSdResponseListeners(channel, null, txtRecordListener);
+    }
+
+/*--------------------------------Public methods------------------------------*/
+
+    /**
+     * Method allowing to update the verbose/debug mode.
+     *
+     * @param verbose   Boolean value representing the sate of the verbose/debug
+     *                  mode.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Method allowing to set the event sink notified of the services found.
+     *
+     * @param eventSink Event callback for sending event to the Flutter client.
+     */
+    public void setEventSink(EventSink eventSink) {
+        this.eventSink = eventSink;
+    }
+
+    /**
+     * Method allowing to advertise the ad hoc service, or to update the
+     * metadata of the service already advertised.
+     *
+     * @param label         String value representing the label of the node.
+     * @param neighbours    Integer value representing the number of
+     *                      neighbours of the node.
+     * @param digest        String value representing the digest of the
+     *                      routing table of the node.
+     */
+    public void register(String label, int neighbours, String digest) {
+        if (verbose) Log.d(TAG, "register(): " + label + ", " + neighbours);
+
+        Map<String, String> txtRecord = new HashMap<>();
+        txtRecord.put(KEY_LABEL, label);
+        txtRecord.put(KEY_NEIGHBOURS, String.valueOf(neighbours));
+        txtRecord.put(KEY_DIGEST, digest);
+
+        final WifiP2pDnsSdServiceInfo serviceInfo =
+            WifiP2pDnsSdServiceInfo.newInstance(SERVICE_INSTANCE, SERVICE_TYPE, txtRecord);
+
+        // A TXT record cannot be updated in place, the service is replaced
+        wifiP2pManager.clearLocalServices(channel, new WifiP2pManager.ActionListener() {
+            @Override
+            public void onSuccess() {
+                wifiP2pManager.addLocalService(channel, serviceInfo, actionListener("register()"));
+            }
+
+            @Override
+            public void onFailure(int reasonCode) {
+                if (verbose)
+                    Log.e(TAG, "register(): failure -> " + P2pOperationQueue.errorCode(reasonCode));
+            }
+        });
+    }
+
+    /**
+     * Method allowing to stop advertising the ad hoc service.
+     */
+    public void unregister() {
+        if (verbose) Log.d(TAG, "unregister()");
+
+        wifiP2pManager.clearLocalServices(channel, actionListener("unregister()"));
+    }
+
+    /**
+     * Method allowing to start the discovery of the ad hoc service.
+     *
+     * @param result    Result object of the platform call, completed with the
+     *                  outcome of the operation.
+     */
+    public void discover(Result result) {
+        if (verbose) Log.d(TAG, "discover()");
+
+        if (serviceRequest == null) {
+            // Only the devices advertising the ad hoc service are queried
+            serviceRequest = WifiP2pDnsSdServiceRequest.newInstance(SERVICE_TYPE);
+            wifiP2pManager.addServiceRequest(
+                channel, serviceRequest, actionListener("addServiceRequest()")
+            );
+        }
+
+        // Competes with the peer discovery, BUSY is frequent
+        operationQueue.submit(new P2pOperationQueue.Operation(
+            "discoverServices", "discoverServices", result
+        ) {
+            @Override
+            protected void execute(WifiP2pManager.ActionListener listener) {
+                wifiP2pManager.discoverServices(channel, listener);
+            }
+        });
+    }
+
+    /**
+     * Method allowing to release the resources used.
+     */
+    public void close() {
+        if (verbose) Log.d(TAG, "close()");
+
+        unregister();
+        if (serviceRequest != null) {
+            wifiP2pManager.removeServiceRequest(
+                channel, serviceRequest, actionListener("removeServiceRequest()")
+            );
+            serviceRequest = null;
+        }
+
+        eventSink = null;
+    }
+
+/*-------------------------------Private methods------------------------------*/
+
+    /**
+     * Method allowing to get a listener logging the outcome of an operation.
+     *
+     * @param operation String value representing the operation.
+     *
+     * @return ActionListener object logging the outcome.
+     */
+    private WifiP2pManager.ActionListener actionListener(final String operation) {
+        return new WifiP2pManager.ActionListener() {
+            @Override
+            public void onSuccess() {
+                if (verbose) Log.d(TAG, operation + ": success");
+            }
+
+            @Override
+            public void onFailure(int reasonCode) {
+                if (verbose)
+                    Log.e(TAG, operation + ": failure -> " + P2pOperationQueue.errorCode(reasonCode));
+            }
+        };
+    }
+
+    /**
+     * Method allowing to parse the number of neighbours of a TXT record.
+     *
+     * @param value String value representing the number of neighbours.
+     *
+     * @return Integer value representing the number of neighbours, or -1 if
+     *         it is missing.
+     */
+    private static int parseNeighbours(String value) {
+        try {
+            return (value == null) ? -1 : Integer.parseInt(value);
+        } catch (NumberFormatException exception) {
+            return -1;
+        }
+    }
+
+    // Interface for callback invocation when a TXT record is available
+    private final WifiP2pManager.DnsSdTxtRecordListener txtRecordListener = new WifiP2pManager.DnsSdTxtRecordListener() {
+        @Override
+        public void onDnsSdTxtRecordAvailable(
+            String fullDomainName, Map<String, String> txtRecordMap, WifiP2pDevice srcDevice
+        ) {
+            // Ignore the other services of the device
+            if (fullDomainName == null
+                    || !fullDomainName.toLowerCase().contains(SERVICE_TYPE + "."))
+                return;
+
+            if (verbose) Log.d(TAG, "onDnsSdTxtRecordAvailable(): " + srcDevice.deviceAddress);
+
+            HashMap<String, Object> mapInfoValue = new HashMap<>();
+            mapInfoValue.put("type", ANDROID_SERVICE);
+            mapInfoValue.put("name", srcDevice.deviceName);
+            mapInfoValue.put("mac", srcDevice.deviceAddress.toUpperCase());
+            mapInfoValue.put("label", txtRecordMap.get(KEY_LABEL));
+            mapInfoValue.put("neighbours", parseNeighbours(txtRecordMap.get(KEY_NEIGHBOURS)));
+            mapInfoValue.put("digest", txtRecordMap.get(KEY_DIGEST));
+
+            // Notify Flutter client
+            EventSink sink = eventSink;
+            if (sink != null)
+                sink.success(mapInfoValue);
+        }
+    };
+}
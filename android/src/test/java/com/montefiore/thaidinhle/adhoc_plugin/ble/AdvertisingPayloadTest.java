@@ -0,0 +1,71 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdvertisingPayloadTest {
+    @Test
+    public void payloadRoundTrips() {
+        byte[] digest = AdvertisingPayload.digest(Arrays.asList("b", "c"), AdvertisingPayload.LEGACY_DIGEST_SIZE);
+        AdvertisingPayload payload = new AdvertisingPayload(0x0081, AdvertisingPayload.nodeId("a"), 0x12345, 3, digest);
+
+        byte[] data = payload.encode();
+        // Fits in a legacy scan response next to the service UUID
+        assertEquals(26, data.length);
+        assertEquals(0x0081, AdvertisingPayload.decodePsm(data));
+
+        AdvertisingPayload decoded = AdvertisingPayload.decode(data);
+        assertEquals(payload, decoded);
+        assertEquals(0x2345, decoded.getSeq());
+        assertEquals(3, decoded.getNeighbours());
+    }
+
+    @Test
+    public void psmOnlyServiceDataHasNoIdentity() {
+        byte[] data = new byte[] {(byte) 0x81, 0x00};
+        assertEquals(0x0081, AdvertisingPayload.decodePsm(data));
+        assertNull(AdvertisingPayload.decode(data));
+    }
+
+    @Test
+    public void nodeIdIsFnv1a() {
+        // Reference values of the 32-bit FNV-1a hash
+        assertEquals(0x811C9DC5, AdvertisingPayload.nodeId(""));
+        assertEquals(0xE40C292C, AdvertisingPayload.nodeId("a"));
+        assertEquals(0xBF9CF968, AdvertisingPayload.nodeId("foobar"));
+    }
+
+    @Test
+    public void digestHasNoFalseNegative() {
+        List<String> labels = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            labels.add("node-" + i);
+        }
+
+        AdvertisingPayload payload = new AdvertisingPayload(
+            0, AdvertisingPayload.nodeId("self"), 1, labels.size(),
+            AdvertisingPayload.digest(labels, AdvertisingPayload.EXTENDED_DIGEST_SIZE)
+        );
+
+        assertTrue(payload.mightReach("self"));
+        for (String label : labels) {
+            assertTrue(payload.mightReach(label));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (payload.mightReach("other-" + i))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 10);
+        assertFalse(AdvertisingPayload.mightContain(new byte[0], "node-0"));
+    }
+}
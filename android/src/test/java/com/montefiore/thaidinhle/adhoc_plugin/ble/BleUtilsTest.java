@@ -0,0 +1,42 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BleUtilsTest {
+    private static final String MAC_A = "AA:BB:CC:DD:EE:01";
+
+    @Test
+    public void frameHandedToMessengerHoldsHeaderAndMessage() {
+        byte[] payload = new byte[] {1, 2, 3, 4, 5};
+
+        // Message as delivered by the reassembly, after its headroom
+        ByteBuffer message = ByteBuffer.allocateDirect(64);
+        message.position(BleUtils.FRAME_HEADER_SIZE);
+        message.put(payload);
+        message.limit(message.position());
+        message.position(BleUtils.FRAME_HEADER_SIZE);
+
+        assertEquals(payload.length, BleUtils.putFrameHeader(message, (byte) 125, MAC_A));
+
+        // The binary messenger sends the bytes from 0 up to the position
+        byte[] frame = new byte[message.position()];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = message.get(i);
+        }
+
+        assertEquals(BleUtils.FRAME_HEADER_SIZE + payload.length, frame.length);
+        assertEquals(125, frame[0]);
+        assertArrayEquals(
+            new byte[] {(byte) 0xAA, (byte) 0xBB, (byte) 0xCC, (byte) 0xDD, (byte) 0xEE, 0x01},
+            Arrays.copyOfRange(frame, 1, 7)
+        );
+        assertEquals(payload.length, ByteBuffer.wrap(frame, 7, 4).getInt());
+        assertArrayEquals(payload, Arrays.copyOfRange(frame, BleUtils.FRAME_HEADER_SIZE, frame.length));
+    }
+}
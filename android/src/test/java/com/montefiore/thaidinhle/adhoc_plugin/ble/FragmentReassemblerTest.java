@@ -0,0 +1,275 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FragmentReassemblerTest {
+    private static final String MAC_A = "AA:BB:CC:DD:EE:01";
+    private static final String MAC_B = "AA:BB:CC:DD:EE:02";
+
+    private BufferPool pool;
+    private FragmentReassembler reassembler;
+
+    @Before
+    public void setUp() {
+        pool = new BufferPool(false, 4);
+        reassembler = new FragmentReassembler(pool, 0);
+    }
+
+    @Test
+    public void singleFragmentMessage() {
+        byte[] payload = randomPayload(15, 1);
+
+        ByteBuffer message = reassembler.onFragment(MAC_A, fragment(0, BleUtils.MESSAGE_END, payload, 0, payload.length));
+
+        assertNotNull(message);
+        assertArrayEquals(payload, toArray(message));
+        assertEquals(0, reassembler.pendingCount());
+    }
+
+    @Test
+    public void multiFragmentMessage() {
+        byte[] payload = randomPayload(10_000, 2);
+        ByteBuffer message = null;
+
+        for (byte[] value : fragments(7, payload, 495)) {
+            assertNull(message);
+            message = reassembler.onFragment(MAC_A, value);
+        }
+
+        assertNotNull(message);
+        assertArrayEquals(payload, toArray(message));
+    }
+
+    @Test
+    public void interleavedMessagesAndPeers() {
+        byte[] payloadA1 = randomPayload(1200, 3);
+        byte[] payloadA2 = randomPayload(700, 4);
+        byte[] payloadB1 = randomPayload(900, 5);
+
+        List<byte[]> streamA1 = fragments(1, payloadA1, 100);
+        List<byte[]> streamA2 = fragments(2, payloadA2, 100);
+        List<byte[]> streamB1 = fragments(1, payloadB1, 100);
+
+        ByteBuffer a1 = null, a2 = null, b1 = null;
+        int max = Math.max(streamA1.size(), Math.max(streamA2.size(), streamB1.size()));
+        for (int i = 0; i < max; i++) {
+            if (i < streamA1.size()) a1 = reassembler.onFragment(MAC_A, streamA1.get(i));
+            if (i < streamA2.size()) a2 = reassembler.onFragment(MAC_A, streamA2.get(i));
+            if (i < streamB1.size()) b1 = reassembler.onFragment(MAC_B, streamB1.get(i));
+        }
+
+        assertArrayEquals(payloadA1, toArray(a1));
+        assertArrayEquals(payloadA2, toArray(a2));
+        assertArrayEquals(payloadB1, toArray(b1));
+        assertEquals(0, reassembler.pendingCount());
+    }
+
+    @Test
+    public void releasedBufferIsReused() {
+        byte[] payload = randomPayload(300, 6);
+
+        ByteBuffer first = reassembler.onFragment(MAC_A, fragment(0, BleUtils.MESSAGE_END, payload, 0, payload.length));
+        reassembler.release(first);
+        ByteBuffer second = reassembler.onFragment(MAC_A, fragment(1, BleUtils.MESSAGE_END, payload, 0, payload.length));
+
+        assertSame(first, second);
+        assertArrayEquals(payload, toArray(second));
+    }
+
+    @Test
+    public void removePeerReleasesPendingBuffers() {
+        byte[] payload = randomPayload(100, 7);
+
+        reassembler.onFragment(MAC_A, fragment(3, BleUtils.MESSAGE_FRAG, payload, 0, payload.length));
+        reassembler.onFragment(MAC_A, fragment(4, BleUtils.MESSAGE_FRAG, payload, 0, payload.length));
+        assertEquals(2, reassembler.pendingCount());
+
+        reassembler.removePeer(MAC_A);
+
+        assertEquals(0, reassembler.pendingCount());
+        assertEquals(2, pool.idleCount());
+        // A new message with a previously used ID starts from scratch
+        ByteBuffer message = reassembler.onFragment(MAC_A, fragment(3, BleUtils.MESSAGE_END, payload, 0, payload.length));
+        assertArrayEquals(payload, toArray(message));
+    }
+
+    @Test
+    public void headroomIsReservedBeforePayload() {
+        FragmentReassembler framed = new FragmentReassembler(new BufferPool(true, 4), 11);
+        byte[] payload = randomPayload(2000, 9);
+
+        ByteBuffer message = null;
+        for (byte[] value : fragments(5, payload, 180))
+            message = framed.onFragment(MAC_A, value);
+
+        assertEquals(11, message.position());
+        assertEquals(11 + payload.length, message.limit());
+        assertArrayEquals(payload, toArray(message));
+    }
+
+    @Test
+    public void truncatedFragmentIsIgnored() {
+        assertNull(reassembler.onFragment(MAC_A, new byte[] { 1 }));
+        assertNull(reassembler.onFragment(MAC_A, null));
+        assertEquals(0, reassembler.pendingCount());
+    }
+
+    @Test
+    public void highMessageIdIsUnsigned() {
+        byte[] payload = randomPayload(64, 8);
+
+        ByteBuffer message = null;
+        for (byte[] value : fragments(255, payload, 20))
+            message = reassembler.onFragment(MAC_A, value);
+
+        assertArrayEquals(payload, toArray(message));
+    }
+
+    @Test
+    public void peerQuotaDiscardsRemainingFragments() {
+        reassembler.setLimits(1000, Long.MAX_VALUE, 60_000);
+        byte[] large = randomPayload(3000, 10);
+        byte[] small = randomPayload(500, 11);
+
+        ByteBuffer message = null;
+        for (byte[] value : fragments(1, large, 100))
+            message = reassembler.onFragment(MAC_A, value);
+
+        assertNull(message);
+        assertEquals(0, reassembler.pendingBytes());
+        assertEquals(1L, reassembler.getStats().get("overflows"));
+        assertEquals(19L, reassembler.getStats().get("discardedFragments"));
+
+        // The next message with the same ID is reassembled normally
+        for (byte[] value : fragments(1, small, 100))
+            message = reassembler.onFragment(MAC_A, value);
+        assertArrayEquals(small, toArray(message));
+    }
+
+    @Test
+    public void globalCapIsSharedByPeers() {
+        reassembler.setLimits(Integer.MAX_VALUE, 1500, 60_000);
+        byte[] payload = randomPayload(1000, 12);
+        List<byte[]> stream = fragments(1, payload, 100);
+
+        // Keep both messages incomplete
+        for (int i = 0; i < stream.size() - 1; i++) {
+            reassembler.onFragment(MAC_A, stream.get(i));
+            reassembler.onFragment(MAC_B, stream.get(i));
+        }
+
+        assertTrue(reassembler.pendingBytes() <= 1500);
+        assertEquals(1L, reassembler.getStats().get("overflows"));
+        assertArrayEquals(payload, toArray(reassembler.onFragment(MAC_A, stream.get(stream.size() - 1))));
+        assertNull(reassembler.onFragment(MAC_B, stream.get(stream.size() - 1)));
+        assertEquals(0, reassembler.pendingBytes());
+    }
+
+    @Test
+    public void invalidLimitsAreClamped() {
+        reassembler.setLimits(-1, -1, 0);
+        assertEquals(FragmentReassembler.MIN_STALE_TIMEOUT_MS, reassembler.getStaleTimeoutMs());
+
+        // Reassembly is still possible within the minimum quota
+        byte[] payload = randomPayload(400, 16);
+        ByteBuffer message = null;
+        for (byte[] value : fragments(1, payload, 200))
+            message = reassembler.onFragment(MAC_A, value);
+        assertArrayEquals(payload, toArray(message));
+    }
+
+    @Test
+    public void staleMessagesAreEvicted() {
+        FakeClockReassembler clocked = new FakeClockReassembler(pool);
+        clocked.setLimits(Integer.MAX_VALUE, Long.MAX_VALUE, 1000);
+        byte[] payload = randomPayload(300, 13);
+        List<byte[]> stream = fragments(9, payload, 100);
+
+        clocked.onFragment(MAC_A, stream.get(0));
+        clocked.onFragment(MAC_B, stream.get(0));
+        clocked.time += 500;
+        clocked.onFragment(MAC_B, stream.get(1));
+        clocked.time += 600;
+
+        assertEquals(1, clocked.evictStale());
+        assertEquals(1, clocked.pendingCount());
+        assertEquals(1L, clocked.getStats().get("evictions"));
+        assertArrayEquals(payload, toArray(clocked.onFragment(MAC_B, stream.get(2))));
+    }
+
+    @Test
+    public void wrappedIdDoesNotMixWithStaleMessage() {
+        FakeClockReassembler clocked = new FakeClockReassembler(pool);
+        clocked.setLimits(Integer.MAX_VALUE, Long.MAX_VALUE, 1000);
+        byte[] dropped = randomPayload(300, 14);
+        byte[] fresh = randomPayload(300, 15);
+
+        // The end of the first message is lost
+        clocked.onFragment(MAC_A, fragments(42, dropped, 100).get(0));
+        clocked.time += 5000;
+
+        ByteBuffer message = null;
+        for (byte[] value : fragments(42, fresh, 100))
+            message = clocked.onFragment(MAC_A, value);
+
+        assertArrayEquals(fresh, toArray(message));
+        assertEquals(1L, clocked.getStats().get("evictions"));
+    }
+
+    static List<byte[]> fragments(int id, byte[] payload, int chunk) {
+        List<byte[]> list = new ArrayList<>();
+        for (int i = 0; i < payload.length; i += chunk) {
+            int end = Math.min(payload.length, i + chunk);
+            byte flag = end == payload.length ? BleUtils.MESSAGE_END : BleUtils.MESSAGE_FRAG;
+            list.add(fragment(id, flag, payload, i, end - i));
+        }
+
+        return list;
+    }
+
+    static byte[] fragment(int id, byte flag, byte[] payload, int offset, int length) {
+        byte[] value = new byte[length + FragmentReassembler.HEADER_SIZE];
+        value[0] = (byte) id;
+        value[1] = flag;
+        System.arraycopy(payload, offset, value, FragmentReassembler.HEADER_SIZE, length);
+        return value;
+    }
+
+    static byte[] randomPayload(int length, long seed) {
+        byte[] payload = new byte[length];
+        new Random(seed).nextBytes(payload);
+        return payload;
+    }
+
+    static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static class FakeClockReassembler extends FragmentReassembler {
+        private long time = 1_000_000;
+
+        FakeClockReassembler(BufferPool pool) {
+            super(pool, 0);
+        }
+
+        @Override
+        protected long now() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationQueueTest {
+    private static final String MAC_A = "AA:BB:CC:DD:EE:01";
+    private static final String MAC_B = "AA:BB:CC:DD:EE:02";
+
+    private NotificationQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new NotificationQueue(1000);
+    }
+
+    @Test
+    public void oneNotificationIsInFlight() {
+        assertTrue(queue.offer(MAC_A, fragments(3, 100)));
+        assertNotNull(queue.poll(MAC_A));
+        // The first fragment has not been reported as sent
+        assertNull(queue.poll(MAC_A));
+        assertEquals(2, queue.size(MAC_A));
+
+        assertNotNull(queue.onSent(MAC_A));
+        assertNotNull(queue.onSent(MAC_A));
+        assertNull(queue.onSent(MAC_A));
+        assertEquals(0, queue.size(MAC_A));
+    }
+
+    @Test
+    public void fullQueueRejectsMessage() {
+        assertTrue(queue.offer(MAC_A, fragments(4, 200)));
+        // The message is rejected as a whole
+        assertFalse(queue.offer(MAC_A, fragments(2, 200)));
+        assertEquals(4, queue.size(MAC_A));
+
+        // The queue of another peer is not affected
+        assertTrue(queue.offer(MAC_B, fragments(2, 200)));
+
+        // Room is made as the fragments are sent
+        queue.poll(MAC_A);
+        assertTrue(queue.offer(MAC_A, fragments(1, 200)));
+    }
+
+    @Test
+    public void removedQueueIsEmptied() {
+        assertTrue(queue.offer(MAC_A, fragments(4, 200)));
+        queue.remove(MAC_A);
+
+        assertTrue(queue.offer(MAC_A, fragments(4, 200)));
+        assertNotNull(queue.poll(MAC_A));
+    }
+
+    private static List<byte[]> fragments(int count, int size) {
+        byte[] message = new byte[count * size];
+        return Fragmenter.fragment((byte) 0, message, 0, message.length, size);
+    }
+}
@@ -0,0 +1,107 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PeerRegistryTest {
+    private static final String MAC_A = "AA:BB:CC:DD:EE:01";
+    private static final String MAC_B = "AA:BB:CC:DD:EE:02";
+    private static final String MAC_C = "AA:BB:CC:DD:EE:03";
+
+    private PeerRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new PeerRegistry();
+        registry.setLimits(2, 1_000);
+    }
+
+    @Test
+    public void activityIsTracked() {
+        registry.onConnected(MAC_A, 0);
+        registry.onMessageIn(MAC_A, 100, 10);
+        registry.onMessageOut(MAC_A, 40, 20);
+        registry.onMessageOut(MAC_A, 60, 30);
+
+        HashMap<String, Object> info = registry.toMap(MAC_A, 50);
+        assertEquals(100L, info.get("bytesIn"));
+        assertEquals(100L, info.get("bytesOut"));
+        assertEquals(1L, info.get("messagesIn"));
+        assertEquals(2L, info.get("messagesOut"));
+        assertEquals(50L, info.get("connectedMs"));
+        assertEquals(20L, info.get("idleMs"));
+    }
+
+    @Test
+    public void lateLinkUpdateDoesNotRestorePeer() {
+        registry.onConnected(MAC_A, 0);
+        registry.updateMtu(MAC_A, 185);
+        assertEquals(185, registry.getMtu(MAC_A));
+
+        registry.onDisconnected(MAC_A);
+        registry.updateMtu(MAC_A, 247);
+        registry.updatePhy(MAC_A, 2, 2);
+        assertFalse(registry.contains(MAC_A));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedIdlePeerIsReclaimed() {
+        registry.onConnected(MAC_A, 0);
+        registry.onConnected(MAC_B, 0);
+        registry.touch(MAC_A, 500);
+        registry.onConnected(MAC_C, 800);
+        assertTrue(registry.isOverloaded());
+
+        // Neither peer has been inactive for the timeout yet
+        assertNull(registry.reclaimIdle(800, MAC_C));
+
+        // B is the least recently used
+        assertEquals(MAC_B, registry.reclaimIdle(1_600, MAC_C));
+        assertFalse(registry.isOverloaded());
+        assertTrue(registry.isFull());
+
+        // B no longer holds a slot, A is the next one
+        assertEquals(MAC_A, registry.reclaimIdle(1_600, MAC_C));
+        assertEquals(2L, registry.getAdmissionStats().get("reclaimed"));
+    }
+
+    @Test
+    public void pinnedPeerIsNeverReclaimed() {
+        registry.onConnected(MAC_A, 0);
+        registry.onConnected(MAC_B, 0);
+        registry.pin(MAC_A, true);
+        registry.setPinPolicy(new PeerRegistry.PinPolicy() {
+            @Override
+            public boolean isPinned(String mac) {
+                return MAC_B.equals(mac);
+            }
+        });
+
+        assertNull(registry.reclaimIdle(10_000, null));
+
+        registry.pin(MAC_A, false);
+        assertEquals(MAC_A, registry.reclaimIdle(10_000, null));
+    }
+
+    @Test
+    public void rejectedPeerReleasesItsSlot() {
+        registry.onConnected(MAC_A, 0);
+        registry.onConnected(MAC_B, 0);
+        registry.onConnected(MAC_C, 0);
+
+        registry.reject(MAC_C);
+        assertFalse(registry.isOverloaded());
+        assertEquals(1L, registry.getAdmissionStats().get("rejected"));
+
+        registry.onDisconnected(MAC_C);
+        assertEquals(2, registry.size());
+    }
+}
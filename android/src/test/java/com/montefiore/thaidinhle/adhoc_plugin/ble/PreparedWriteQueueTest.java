@@ -0,0 +1,116 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.montefiore.thaidinhle.adhoc_plugin.ble.FragmentReassemblerTest.randomPayload;
+import static com.montefiore.thaidinhle.adhoc_plugin.ble.FragmentReassemblerTest.toArray;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PreparedWriteQueueTest {
+    private static final String MAC_A = "AA:BB:CC:DD:EE:01";
+    private static final String MAC_B = "AA:BB:CC:DD:EE:02";
+
+    private BufferPool pool;
+    private PreparedWriteQueue queue;
+
+    @Before
+    public void setUp() {
+        pool = new BufferPool(false, 4);
+        queue = new PreparedWriteQueue(pool, 0, 4096);
+    }
+
+    @Test
+    public void sequentialOffsetsAreExecuted() {
+        byte[] payload = randomPayload(2000, 1);
+
+        for (int offset = 0; offset < payload.length; offset += 18) {
+            assertEquals(PreparedWriteQueue.PREPARED, queue.prepare(MAC_A, offset, slice(payload, offset, 18)));
+        }
+
+        assertEquals(payload.length, queue.pendingLength(MAC_A));
+        assertArrayEquals(payload, toArray(queue.execute(MAC_A, true)));
+        assertEquals(0, queue.pendingLength(MAC_A));
+    }
+
+    @Test
+    public void overlappingOffsetOverwritesPreviousBytes() {
+        byte[] payload = randomPayload(100, 2);
+
+        queue.prepare(MAC_A, 0, new byte[60]);
+        queue.prepare(MAC_A, 40, slice(payload, 40, 60));
+        // Rewrite the beginning, e.g. a retransmitted prepared write
+        queue.prepare(MAC_A, 0, slice(payload, 0, 40));
+
+        assertArrayEquals(payload, toArray(queue.execute(MAC_A, true)));
+    }
+
+    @Test
+    public void gapIsRejected() {
+        queue.prepare(MAC_A, 0, new byte[20]);
+
+        assertEquals(PreparedWriteQueue.INVALID_OFFSET, queue.prepare(MAC_A, 21, new byte[20]));
+        assertEquals(PreparedWriteQueue.INVALID_OFFSET, queue.prepare(MAC_A, -1, new byte[20]));
+        assertEquals(PreparedWriteQueue.INVALID_OFFSET, queue.prepare(MAC_B, 5, new byte[20]));
+        assertEquals(20, queue.pendingLength(MAC_A));
+    }
+
+    @Test
+    public void tooLongWriteIsRejected() {
+        queue.prepare(MAC_A, 0, new byte[4000]);
+
+        assertEquals(PreparedWriteQueue.INVALID_LENGTH, queue.prepare(MAC_A, 4000, new byte[100]));
+        assertEquals(PreparedWriteQueue.PREPARED, queue.prepare(MAC_A, 4000, new byte[96]));
+        assertEquals(4096, toArray(queue.execute(MAC_A, true)).length);
+    }
+
+    @Test
+    public void cancelledWritesAreDropped() {
+        queue.prepare(MAC_A, 0, new byte[300]);
+
+        assertNull(queue.execute(MAC_A, false));
+        assertEquals(1, pool.idleCount());
+        assertNull(queue.execute(MAC_A, true));
+    }
+
+    @Test
+    public void peersAreIndependent() {
+        byte[] payloadA = randomPayload(700, 3);
+        byte[] payloadB = randomPayload(500, 4);
+
+        for (int offset = 0; offset < 700; offset += 100) {
+            queue.prepare(MAC_A, offset, slice(payloadA, offset, 100));
+            if (offset < 500)
+                queue.prepare(MAC_B, offset, slice(payloadB, offset, 100));
+        }
+
+        queue.remove(MAC_A);
+
+        assertNull(queue.execute(MAC_A, true));
+        assertArrayEquals(payloadB, toArray(queue.execute(MAC_B, true)));
+    }
+
+    @Test
+    public void headroomIsReservedBeforeMessage() {
+        PreparedWriteQueue framed = new PreparedWriteQueue(new BufferPool(true, 4), 11, 4096);
+        byte[] payload = randomPayload(1500, 5);
+
+        for (int offset = 0; offset < payload.length; offset += 250) {
+            framed.prepare(MAC_A, offset, slice(payload, offset, 250));
+        }
+
+        ByteBuffer message = framed.execute(MAC_A, true);
+        assertEquals(11, message.position());
+        assertEquals(11 + payload.length, message.limit());
+        assertArrayEquals(payload, toArray(message));
+    }
+
+    private static byte[] slice(byte[] payload, int offset, int length) {
+        return Arrays.copyOfRange(payload, offset, Math.min(payload.length, offset + length));
+    }
+}
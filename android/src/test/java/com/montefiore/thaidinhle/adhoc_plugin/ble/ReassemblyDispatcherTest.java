@@ -0,0 +1,220 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import com.montefiore.thaidinhle.adhoc_plugin.utils.StripedExecutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReassemblyDispatcherTest {
+    private static final int PEERS = 32;
+    private static final int THREADS = 8;
+    private static final int MESSAGES_PER_PEER = 300;
+
+    private FragmentReassembler reassembler;
+    private StripedExecutor executor;
+    private ReassemblyDispatcher dispatcher;
+
+    private ConcurrentHashMap<String, List<byte[]>> received;
+    private AtomicInteger corrupted;
+    private CountDownLatch remaining;
+
+    @Before
+    public void setUp() {
+        reassembler = new FragmentReassembler(new BufferPool(true, 64), 11);
+        executor = new StripedExecutor("test", 4);
+        received = new ConcurrentHashMap<>();
+        corrupted = new AtomicInteger();
+        remaining = new CountDownLatch(PEERS * MESSAGES_PER_PEER);
+
+        dispatcher = new ReassemblyDispatcher(reassembler, executor, new ReassemblyDispatcher.Listener() {
+            @Override
+            public void onMessage(String mac, ByteBuffer message) {
+                byte[] bytes = new byte[message.remaining()];
+                message.get(bytes);
+                dispatcher.release(message);
+
+                List<byte[]> list = received.get(mac);
+                // Messages of a peer are delivered by a single thread
+                synchronized (list) {
+                    list.add(bytes);
+                }
+
+                if (!Arrays.equals(bytes, payload(mac, list.size() - 1)))
+                    corrupted.incrementAndGet();
+                remaining.countDown();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown(1000);
+    }
+
+    @Test
+    public void concurrentPeersAreReassembledInOrder() throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            final int first = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (Exception exception) {
+                        return;
+                    }
+
+                    // Each thread plays the Gatt callback of its own peers,
+                    // interleaving their fragments
+                    List<String> macs = new ArrayList<>();
+                    for (int p = first; p < PEERS; p += THREADS)
+                        macs.add(mac(p));
+
+                    for (int m = 0; m < MESSAGES_PER_PEER; m++) {
+                        List<List<byte[]>> streams = new ArrayList<>();
+                        for (String mac : macs)
+                            streams.add(FragmentReassemblerTest.fragments(m & 0xFF, payload(mac, m), 17 + m % 200));
+
+                        boolean more = true;
+                        for (int i = 0; more; i++) {
+                            more = false;
+                            for (int k = 0; k < macs.size(); k++) {
+                                if (i < streams.get(k).size()) {
+                                    dispatcher.onWrite(macs.get(k), 0, streams.get(k).get(i));
+                                    more = true;
+                                }
+                            }
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+        }
+
+        for (int p = 0; p < PEERS; p++)
+            received.put(mac(p), new ArrayList<byte[]>());
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertTrue(remaining.await(30, TimeUnit.SECONDS));
+        assertEquals(0, corrupted.get());
+        for (List<byte[]> list : received.values())
+            assertEquals(MESSAGES_PER_PEER, list.size());
+        assertEquals(0, reassembler.pendingCount());
+    }
+
+    @Test
+    public void disconnectDropsPendingFragmentsAfterPreviousOnes() throws Exception {
+        String mac = mac(0);
+        received.put(mac, new ArrayList<byte[]>());
+        List<byte[]> complete = FragmentReassemblerTest.fragments(1, payload(mac, 0), 20);
+        List<byte[]> partial = FragmentReassemblerTest.fragments(2, payload(mac, 1), 20);
+
+        // Complete message, then a partial one, then a disconnection
+        for (byte[] value : complete)
+            dispatcher.onWrite(mac, 0, value);
+        dispatcher.onWrite(mac, 0, partial.get(0));
+        dispatcher.onDisconnected(mac, 1);
+
+        assertTrue(executor.shutdown(5000));
+        assertEquals(1, received.get(mac).size());
+        assertEquals(0, corrupted.get());
+        assertEquals(0, reassembler.pendingCount());
+    }
+
+    @Test
+    public void writesAfterShutdownAreIgnored() throws Exception {
+        String mac = mac(0);
+        received.put(mac, new ArrayList<byte[]>());
+        List<byte[]> fragments = FragmentReassemblerTest.fragments(1, payload(mac, 0), 20);
+
+        dispatcher.shutdown();
+        for (byte[] value : fragments)
+            dispatcher.onWrite(mac, 0, value);
+
+        assertTrue(executor.shutdown(5000));
+        assertTrue(received.get(mac).isEmpty());
+        assertEquals(0, reassembler.pendingCount());
+    }
+
+    @Test
+    public void writesBeforeShutdownAreProcessed() throws Exception {
+        String mac = mac(0);
+        received.put(mac, new ArrayList<byte[]>());
+        List<byte[]> complete = FragmentReassemblerTest.fragments(1, payload(mac, 0), 20);
+        List<byte[]> partial = FragmentReassemblerTest.fragments(2, payload(mac, 1), 20);
+
+        for (byte[] value : complete)
+            dispatcher.onWrite(mac, 0, value);
+        // Incomplete message, dropped by the shutdown
+        dispatcher.onWrite(mac, 0, partial.get(0));
+
+        assertTrue(dispatcher.shutdown());
+        assertEquals(1, received.get(mac).size());
+        assertEquals(0, reassembler.pendingCount());
+    }
+
+    @Test
+    public void streamsOfPeerAreReassembledIndependently() throws Exception {
+        final List<byte[]> messages = new ArrayList<>();
+        ReassemblyDispatcher striped = new ReassemblyDispatcher(reassembler, executor, new ReassemblyDispatcher.Listener() {
+            @Override
+            public void onMessage(String mac, ByteBuffer message) {
+                byte[] bytes = new byte[message.remaining()];
+                message.get(bytes);
+                reassembler.release(message);
+
+                synchronized (messages) {
+                    messages.add(bytes);
+                }
+            }
+        });
+
+        String mac = mac(0);
+        byte[] bulk = payload(mac, 50);
+        byte[] control = payload(mac, 2);
+        List<byte[]> bulkStream = FragmentReassemblerTest.fragments(1, bulk, 20);
+        List<byte[]> controlStream = FragmentReassemblerTest.fragments(1, control, 20);
+
+        // Same message ID on both streams, interleaved, then a partial one
+        for (int i = 0; i < Math.max(bulkStream.size(), controlStream.size()); i++) {
+            if (i < bulkStream.size()) striped.onWrite(mac, 1, bulkStream.get(i));
+            if (i < controlStream.size()) striped.onWrite(mac, 0, controlStream.get(i));
+        }
+        striped.onWrite(mac, 1, bulkStream.get(0));
+        striped.onDisconnected(mac, 2);
+
+        assertTrue(executor.shutdown(5000));
+        assertEquals(2, messages.size());
+        assertTrue(Arrays.equals(bulk, messages.get(0)) || Arrays.equals(bulk, messages.get(1)));
+        assertTrue(Arrays.equals(control, messages.get(0)) || Arrays.equals(control, messages.get(1)));
+        assertEquals(0, reassembler.pendingCount());
+    }
+
+    private static String mac(int index) {
+        return String.format("AA:BB:CC:DD:%02X:%02X", index >> 8, index & 0xFF);
+    }
+
+    private static byte[] payload(String mac, int index) {
+        return FragmentReassemblerTest.randomPayload(1 + (index * 37) % 3000, mac.hashCode() * 31L + index);
+    }
+}
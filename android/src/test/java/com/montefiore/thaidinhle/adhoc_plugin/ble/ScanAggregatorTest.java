@@ -0,0 +1,118 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ScanAggregatorTest {
+    private static final String MAC_A = "AA:BB:CC:DD:EE:01";
+    private static final String MAC_B = "AA:BB:CC:DD:EE:02";
+
+    private ScanAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        aggregator = new ScanAggregator(0.5, 4, 10_000);
+    }
+
+    @Test
+    public void resultsAreDeduplicated() {
+        for (int i = 0; i < 100; i++) {
+            aggregator.onResult(MAC_A, "A", -60, 0, i);
+            aggregator.onResult(MAC_B, null, -70, 0, i);
+        }
+
+        List<Map<String, Object>> devices = devices(aggregator.drainDelta(100));
+        assertEquals(2, devices.size());
+        assertEquals(2, aggregator.size());
+
+        // Nothing changed since the previous report
+        aggregator.onResult(MAC_A, "A", -61, 0, 200);
+        assertNull(aggregator.drainDelta(200));
+    }
+
+    @Test
+    public void rssiIsSmoothed() {
+        aggregator.onResult(MAC_A, "A", -60, 0, 0);
+        aggregator.drainDelta(0);
+
+        // A single outlier does not move the average enough
+        aggregator.onResult(MAC_A, "A", -66, 0, 1);
+        assertNull(aggregator.drainDelta(1));
+
+        aggregator.onResult(MAC_A, "A", -79, 0, 2);
+        List<Map<String, Object>> devices = devices(aggregator.drainDelta(2));
+        assertEquals(1, devices.size());
+        // -60 -> -63 -> -71
+        assertEquals(-71, devices.get(0).get("rssi"));
+    }
+
+    @Test
+    public void scanResponseUpdatesDevice() {
+        aggregator.onResult(MAC_A, null, -60, 0, 0);
+        assertEquals("", devices(aggregator.drainDelta(0)).get(0).get("name"));
+
+        // The name and PSM come with the scan response
+        aggregator.onResult(MAC_A, "A", -60, 0x0081, 1);
+        Map<String, Object> device = devices(aggregator.drainDelta(1)).get(0);
+        assertEquals("A", device.get("name"));
+        assertEquals(0x0081, device.get("psm"));
+    }
+
+    @Test
+    public void newSequenceNumberUpdatesDevice() {
+        byte[] digest = AdvertisingPayload.digest(Collections.singletonList("c"), 16);
+        AdvertisingPayload payload = new AdvertisingPayload(0, AdvertisingPayload.nodeId("b"), 1, 1, digest);
+        aggregator.onResult(MAC_A, "A", -60, 0, payload, 0);
+        Map<String, Object> device = devices(aggregator.drainDelta(0)).get(0);
+        assertEquals(payload.getNodeId(), device.get("nodeId"));
+        assertEquals(1, device.get("seq"));
+
+        // Same payload (advertised again)
+        aggregator.onResult(MAC_A, "A", -60, 0, AdvertisingPayload.decode(payload.encode()), 1);
+        assertNull(aggregator.drainDelta(1));
+
+        aggregator.onResult(MAC_A, "A", -60, 0, new AdvertisingPayload(0, payload.getNodeId(), 2, 1, digest), 2);
+        assertEquals(2, devices(aggregator.drainDelta(2)).get(0).get("seq"));
+    }
+
+    @Test
+    public void withdrawnHintsAreReported() {
+        byte[] digest = AdvertisingPayload.digest(Collections.singletonList("c"), 16);
+        AdvertisingPayload payload = new AdvertisingPayload(0, AdvertisingPayload.nodeId("b"), 1, 1, digest);
+        aggregator.onResult(MAC_A, "A", -60, 0x0081, payload, 0);
+        aggregator.drainDelta(0);
+
+        // The channel is closed and the hints are no longer advertised
+        aggregator.onResult(MAC_A, "A", -60, 0, null, 1);
+        Map<String, Object> device = devices(aggregator.drainDelta(1)).get(0);
+        assertEquals(0, device.get("psm"));
+        assertNull(device.get("nodeId"));
+    }
+
+    @Test
+    public void silentDeviceIsLost() {
+        aggregator.onResult(MAC_A, "A", -60, 0, 0);
+        aggregator.onResult(MAC_B, "B", -60, 0, 0);
+        aggregator.drainDelta(0);
+
+        aggregator.onResult(MAC_B, "B", -60, 0, 9_000);
+        HashMap<String, Object> delta = aggregator.drainDelta(10_000);
+        assertTrue(devices(delta).isEmpty());
+        assertEquals(MAC_A, ((List<?>) delta.get("removed")).get(0));
+        assertEquals(1, aggregator.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> devices(HashMap<String, Object> delta) {
+        return (List<Map<String, Object>>) delta.get("changed");
+    }
+}
@@ -0,0 +1,99 @@
+package com.montefiore.thaidinhle.adhoc_plugin.ble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class WritePipelineTest {
+    private static final String MAC_A = "AA:BB:CC:DD:EE:01";
+    private static final String MAC_B = "AA:BB:CC:DD:EE:02";
+
+    private WritePipeline pipeline;
+
+    @Before
+    public void setUp() {
+        pipeline = new WritePipeline(3);
+    }
+
+    @Test
+    public void fragmentsAreWrittenOneAtATime() {
+        List<byte[]> fragments = Fragmenter.fragment((byte) 7, new byte[100], 0, 100, 30);
+
+        WritePipeline.Write first = pipeline.offer(MAC_A, 2, fragments);
+        assertArrayEquals(fragments.get(0), first.value);
+        assertEquals(2, first.stream);
+        // A write is in flight, the next message waits for it
+        assertNull(pipeline.offer(MAC_A, 0, Arrays.asList(new byte[] {1})));
+        assertEquals(fragments.size() + 1, pipeline.size(MAC_A));
+
+        for (int i = 1; i < fragments.size(); i++) {
+            assertArrayEquals(fragments.get(i), pipeline.onWritten(MAC_A).value);
+        }
+        assertEquals(0, pipeline.onWritten(MAC_A).stream);
+        assertNull(pipeline.onWritten(MAC_A));
+        assertEquals(0, pipeline.size(MAC_A));
+
+        HashMap<String, Object> stats = pipeline.getStats(MAC_A);
+        assertEquals((long) fragments.size() + 1, stats.get("fragments"));
+        assertEquals(100L + 2 * fragments.size() + 1, stats.get("bytes"));
+    }
+
+    @Test
+    public void peersArePipelinedIndependently() {
+        assertArrayEquals(new byte[] {1}, pipeline.offer(MAC_A, 0, Arrays.asList(new byte[] {1})).value);
+        assertArrayEquals(new byte[] {2}, pipeline.offer(MAC_B, 0, Arrays.asList(new byte[] {2})).value);
+
+        pipeline.remove(MAC_A);
+        assertNull(pipeline.onWritten(MAC_A));
+        assertEquals(1, pipeline.size(MAC_B));
+    }
+
+    @Test
+    public void busyWriteIsRetriedThenDropped() {
+        WritePipeline.Write first = pipeline.offer(
+            MAC_A, 0, Arrays.asList(new byte[] {1}, new byte[] {2}, new byte[] {3})
+        );
+
+        assertSame(first, pipeline.onBusy(MAC_A));
+        assertSame(first, pipeline.onBusy(MAC_A));
+        // A successful write resets the attempts
+        WritePipeline.Write second = pipeline.onWritten(MAC_A);
+        assertSame(second, pipeline.onBusy(MAC_A));
+        assertSame(second, pipeline.onBusy(MAC_A));
+        assertSame(second, pipeline.onBusy(MAC_A));
+        assertNull(pipeline.onBusy(MAC_A));
+
+        HashMap<String, Object> stats = pipeline.getStats(MAC_A);
+        assertEquals(2L, stats.get("dropped"));
+        assertEquals(6L, stats.get("retries"));
+        assertEquals(0, pipeline.size(MAC_A));
+    }
+
+    @Test
+    public void onlyTheMessageInFlightIsDropped() {
+        WritePipeline.Write first = pipeline.offer(
+            MAC_A, 1, Arrays.asList(new byte[] {1}, new byte[] {2})
+        );
+        assertNull(pipeline.offer(MAC_A, 0, Arrays.asList(new byte[] {3}, new byte[] {4})));
+
+        for (int i = 0; i < 3; i++) {
+            assertSame(first, pipeline.onBusy(MAC_A));
+        }
+        // The next message is written from its first fragment
+        WritePipeline.Write next = pipeline.onBusy(MAC_A);
+        assertArrayEquals(new byte[] {3}, next.value);
+        assertEquals(0, next.stream);
+        assertArrayEquals(new byte[] {4}, pipeline.onWritten(MAC_A).value);
+        assertNull(pipeline.onWritten(MAC_A));
+
+        assertEquals(2L, pipeline.getStats(MAC_A).get("dropped"));
+    }
+}
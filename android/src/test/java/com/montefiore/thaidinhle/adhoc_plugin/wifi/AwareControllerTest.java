@@ -0,0 +1,279 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AwareControllerTest {
+    private static final byte ANDROID_STATE      = 121;
+    private static final byte ANDROID_CONNECTION = 122;
+    private static final byte ANDROID_SERVICE    = 127;
+
+    private FakeAir air;
+
+    @Before
+    public void setUp() {
+        air = new FakeAir();
+    }
+
+    @Test
+    public void nodesDiscoverEachOther() {
+        Node a = new Node(air, "A");
+        Node b = new Node(air, "B");
+        Node c = new Node(air, "C");
+
+        assertTrue(a.controller.start("A"));
+        assertTrue(b.controller.start("B"));
+        assertTrue(c.controller.start("C"));
+        air.discoveryRound();
+        // A new round does not report the same peers again
+        air.discoveryRound();
+
+        for (Node node : new Node[] {a, b, c}) {
+            assertEquals(Boolean.TRUE, node.events(ANDROID_STATE).get(0).get("state"));
+            assertEquals(2, node.events(ANDROID_SERVICE).size());
+            assertEquals(2, node.controller.peerCount());
+        }
+
+        Set<Object> labels = new HashSet<>();
+        for (Map<String, Object> event : a.events(ANDROID_SERVICE)) {
+            labels.add(event.get("label"));
+        }
+        assertEquals(new HashSet<Object>(Arrays.asList("B", "C")), labels);
+    }
+
+    @Test
+    public void dataPathsAreIndependent() {
+        Node a = new Node(air, "A");
+        Node b = new Node(air, "B");
+        Node c = new Node(air, "C");
+        a.controller.start("A");
+        b.controller.start("B");
+        c.controller.start("C");
+        air.discoveryRound();
+
+        // A holds a data path with both B and C, without any group owner
+        assertTrue(a.controller.connect(a.peerId("B")));
+        assertTrue(a.controller.connect(a.peerId("C")));
+        assertEquals(2, a.events(ANDROID_CONNECTION).size());
+        assertEquals(1, b.events(ANDROID_CONNECTION).size());
+        assertEquals(1, c.events(ANDROID_CONNECTION).size());
+        assertEquals(Boolean.TRUE, info(b.events(ANDROID_CONNECTION).get(0)).get("connected"));
+
+        a.controller.disconnect(a.peerId("B"));
+        Map<String, Object> lost = info(b.events(ANDROID_CONNECTION).get(1));
+        assertEquals(Boolean.FALSE, lost.get("connected"));
+        assertEquals(1, c.events(ANDROID_CONNECTION).size());
+
+        assertFalse(a.controller.connect("aware-unknown"));
+    }
+
+    @Test
+    public void dataPathAddressIsExchangedBeforeApi29() {
+        Node a = new Node(air, "A");
+        Node b = new Node(air, "B");
+        a.layer.legacy = true;
+        b.layer.legacy = true;
+        a.controller.start("A");
+        b.controller.start("B");
+        air.discoveryRound();
+
+        assertTrue(a.controller.connect(a.peerId("B")));
+        // Reported again by the framework on each change of the link
+        a.layer.callback.onDataPathInterface("B", "aware_data0", "fe80::a");
+
+        assertEquals(1, a.events(ANDROID_CONNECTION).size());
+        assertEquals(1, b.events(ANDROID_CONNECTION).size());
+        assertEquals("fe80::b%aware_data0", info(a.events(ANDROID_CONNECTION).get(0)).get("address"));
+        assertEquals("fe80::a%aware_data1", info(b.events(ANDROID_CONNECTION).get(0)).get("address"));
+    }
+
+    @Test
+    public void unavailableAwareFallsBack() {
+        Node a = new Node(air, "A");
+        a.layer.available = false;
+        assertFalse(a.controller.isAvailable());
+        assertFalse(a.controller.start("A"));
+
+        Node b = new Node(air, "B");
+        b.controller.start("B");
+        b.layer.setAvailable(false);
+        List<Map<String, Object>> states = b.events(ANDROID_STATE);
+        assertEquals(Boolean.FALSE, states.get(states.size() - 1).get("state"));
+        assertEquals(0, b.controller.peerCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> info(Map<String, Object> event) {
+        return (Map<String, Object>) event.get("info");
+    }
+
+    /**
+     * Node made of a controller on top of a fake layer.
+     */
+    private static class Node {
+        private final FakeLayer layer;
+        private final AwareController controller;
+        private final List<Map<String, Object>> events;
+
+        private Node(FakeAir air, String name) {
+            this.events = new ArrayList<>();
+            this.layer = new FakeLayer(air, name);
+            this.controller = new AwareController(layer, new AwareController.Listener() {
+                @Override
+                public void onEvent(HashMap<String, Object> event) {
+                    events.add(event);
+                }
+            });
+        }
+
+        private List<Map<String, Object>> events(byte type) {
+            List<Map<String, Object>> result = new ArrayList<>();
+            for (Map<String, Object> event : events) {
+                if (event.get("type").equals(type))
+                    result.add(event);
+            }
+            return result;
+        }
+
+        private String peerId(String label) {
+            for (Map<String, Object> event : events(ANDROID_SERVICE)) {
+                if (label.equals(event.get("label")))
+                    return (String) event.get("mac");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Shared medium delivering the publications, messages, and data paths
+     * between the fake layers, synchronously.
+     */
+    private static class FakeAir {
+        private final List<FakeLayer> layers = new ArrayList<>();
+
+        private void discoveryRound() {
+            for (FakeLayer subscriber : layers) {
+                for (FakeLayer publisher : layers) {
+                    if (subscriber != publisher && subscriber.subscribed && publisher.info != null)
+                        subscriber.callback.onServiceDiscovered(publisher.name, publisher.info);
+                }
+            }
+        }
+
+        private FakeLayer find(Object handle) {
+            for (FakeLayer layer : layers) {
+                if (layer.name.equals(handle))
+                    return layer;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Fake layer using the node names as peer handles.
+     */
+    private static class FakeLayer implements AwareSessionLayer {
+        private final FakeAir air;
+        private final String name;
+        private final Set<Object> requested = new HashSet<>();
+        private final Set<Object> paths = new HashSet<>();
+        private Callback callback;
+        private boolean available = true;
+        // Only the local side of the data paths is known (API 26-28)
+        private boolean legacy;
+        private boolean subscribed;
+        private byte[] info;
+
+        private FakeLayer(FakeAir air, String name) {
+            this.air = air;
+            this.name = name;
+        }
+
+        private void setAvailable(boolean available) {
+            this.available = available;
+            callback.onAvailabilityChanged(available);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return available;
+        }
+
+        @Override
+        public void attach(Callback callback) {
+            this.callback = callback;
+            air.layers.add(this);
+            callback.onAttached();
+        }
+
+        @Override
+        public void publish(String serviceName, byte[] info) {
+            this.info = info;
+        }
+
+        @Override
+        public void subscribe(String serviceName) {
+            this.subscribed = true;
+        }
+
+        @Override
+        public void sendMessage(Object peer, byte[] message) {
+            FakeLayer remote = air.find(peer);
+            if (remote != null)
+                remote.callback.onMessageReceived(name, message);
+        }
+
+        @Override
+        public void requestDataPath(Object peer) {
+            requested.add(peer);
+            FakeLayer remote = air.find(peer);
+            // Set up once both peers requested it
+            if (remote != null && remote.requested.contains(name)) {
+                paths.add(peer);
+                remote.paths.add(name);
+                if (legacy) {
+                    callback.onDataPathInterface(peer, "aware_data0", local());
+                    remote.callback.onDataPathInterface(name, "aware_data1", remote.local());
+                } else {
+                    callback.onDataPathAvailable(peer, "fe80::" + peer);
+                    remote.callback.onDataPathAvailable(name, "fe80::" + name);
+                }
+            }
+        }
+
+        private String local() {
+            return "fe80::" + name.toLowerCase();
+        }
+
+        @Override
+        public void releaseDataPath(Object peer) {
+            requested.remove(peer);
+            FakeLayer remote = air.find(peer);
+            if (paths.remove(peer) && remote != null) {
+                remote.paths.remove(name);
+                remote.requested.remove(name);
+                callback.onDataPathLost(peer);
+                remote.callback.onDataPathLost(name);
+            }
+        }
+
+        @Override
+        public void close() {
+            air.layers.remove(this);
+            subscribed = false;
+            info = null;
+        }
+    }
+}
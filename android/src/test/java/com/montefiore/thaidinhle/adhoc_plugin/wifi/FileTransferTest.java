@@ -0,0 +1,163 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileTransferTest {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private File folder;
+    private ServerSocketChannel server;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("transfer").toFile();
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        server.close();
+        delete(folder);
+    }
+
+    @Test
+    public void fileIsReceivedIntact() throws Exception {
+        File source = randomFile("source.bin", 10 * CHUNK_SIZE + 123, 1);
+        File directory = newFolder("received");
+
+        FileTransfer transfer = new FileTransfer();
+        Future<File> received = receive(transfer, directory, new AtomicLong());
+        send(source, "transfer-1", new AtomicLong());
+
+        File file = received.get(10, TimeUnit.SECONDS);
+        assertEquals("transfer-1_source.bin", file.getName());
+        // The receiver reports the ID chosen by the sender
+        assertEquals("transfer-1", transfer.getReceivedId());
+        assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(file.toPath()));
+        assertFalse(new File(directory, "transfer-1.part").exists());
+    }
+
+    @Test
+    public void transferResumesAfterVerifiedChunks() throws Exception {
+        File source = randomFile("source.bin", 8 * CHUNK_SIZE, 2);
+        File directory = newFolder("received");
+
+        // Three chunks were received, followed by an incomplete one
+        byte[] bytes = Files.readAllBytes(source.toPath());
+        FileOutputStream partial = new FileOutputStream(new File(directory, "transfer-2.part"));
+        partial.write(Arrays.copyOf(bytes, 3 * CHUNK_SIZE + 500));
+        partial.close();
+
+        AtomicLong firstOffset = new AtomicLong(-1);
+        Future<File> received = receive(new FileTransfer(), directory, new AtomicLong());
+        send(source, "transfer-2", firstOffset);
+
+        File file = received.get(10, TimeUnit.SECONDS);
+        assertEquals(3 * CHUNK_SIZE, firstOffset.get());
+        assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void tooLongIdIsRejected() throws Exception {
+        File source = randomFile("source.bin", 100, 3);
+        char[] id = new char[1000];
+        Arrays.fill(id, 'x');
+
+        boolean rejected = false;
+        try {
+            send(source, new String(id), new AtomicLong());
+        } catch (IOException exception) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+    }
+
+    private Future<File> receive(
+        final FileTransfer transfer, final File directory, final AtomicLong progress
+    ) {
+        return executor.submit(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                SocketChannel channel = server.accept();
+                try {
+                    return transfer.receive(channel, directory, listener(progress));
+                } finally {
+                    channel.close();
+                }
+            }
+        });
+    }
+
+    private void send(File source, String id, AtomicLong firstOffset) throws IOException {
+        SocketChannel channel = SocketChannel.open(server.socket().getLocalSocketAddress());
+        try {
+            new FileTransfer().send(channel, source, id, CHUNK_SIZE, listener(firstOffset));
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static FileTransfer.Listener listener(final AtomicLong firstOffset) {
+        return new FileTransfer.Listener() {
+            @Override
+            public void onProgress(String id, long transferred, long size) {
+                firstOffset.compareAndSet(-1, transferred);
+            }
+        };
+    }
+
+    private File randomFile(String name, int size, long seed) throws IOException {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+
+        File file = new File(folder, name);
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(bytes);
+        output.close();
+        return file;
+    }
+
+    private File newFolder(String name) {
+        File directory = new File(folder, name);
+        directory.mkdir();
+        return directory;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,58 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class GroupBroadcastTest {
+    private static final byte[] MEMBER = {(byte) 192, (byte) 168, 49, 42};
+    private static final byte[] PAYLOAD = {1, 2, 3, 4, 5};
+
+    private GroupBroadcast member;
+    private GroupBroadcast owner;
+
+    @Before
+    public void setUp() {
+        member = new GroupBroadcast();
+        owner = new GroupBroadcast();
+    }
+
+    @Test
+    public void datagramIsDeliveredOnce() {
+        ByteBuffer datagram = member.encode(MEMBER, GroupBroadcast.DEFAULT_TTL, PAYLOAD);
+
+        GroupBroadcast.Packet packet = owner.decode(datagram.duplicate());
+        assertNotNull(packet);
+        assertArrayEquals(MEMBER, packet.origin);
+        assertEquals(GroupBroadcast.DEFAULT_TTL, packet.ttl);
+        assertEquals(ByteBuffer.wrap(PAYLOAD), packet.payload);
+
+        assertNull(owner.decode(datagram.duplicate()));
+    }
+
+    @Test
+    public void relayIsIgnoredByOriginator() {
+        GroupBroadcast.Packet packet = owner.decode(member.encode(MEMBER, 2, PAYLOAD));
+
+        ByteBuffer relayed = GroupBroadcast.relay(packet);
+        assertNotNull(relayed);
+        assertNull(member.decode(relayed.duplicate()));
+
+        GroupBroadcast.Packet other = new GroupBroadcast().decode(relayed);
+        assertEquals(1, other.ttl);
+        assertArrayEquals(MEMBER, other.origin);
+        assertNull(GroupBroadcast.relay(other));
+    }
+
+    @Test
+    public void foreignDatagramIsRejected() {
+        assertNull(owner.decode(ByteBuffer.wrap(new byte[GroupBroadcast.HEADER_SIZE + 4])));
+        assertNull(owner.decode(ByteBuffer.wrap(PAYLOAD)));
+    }
+}
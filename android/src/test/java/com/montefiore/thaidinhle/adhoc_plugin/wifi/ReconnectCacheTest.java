@@ -0,0 +1,70 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ReconnectCacheTest {
+    private static final String MAC_A = "AA:BB:CC:DD:EE:01";
+    private static final String MAC_B = "AA:BB:CC:DD:EE:02";
+    private static final String MAC_C = "AA:BB:CC:DD:EE:03";
+
+    private long time;
+    private ReconnectCache cache;
+
+    @Before
+    public void setUp() {
+        time = 0;
+        cache = new ReconnectCache() {
+            @Override
+            protected long now() {
+                return time;
+            }
+        };
+    }
+
+    @Test
+    public void previousRoleIsKept() {
+        cache.put(MAC_A, true);
+        cache.put(MAC_B, false);
+
+        ReconnectCache.Entry owner = cache.get(MAC_A.toLowerCase());
+        assertEquals(ReconnectCache.GO_INTENT_OWNER, owner.groupOwnerIntent());
+
+        ReconnectCache.Entry client = cache.get(MAC_B);
+        assertEquals(ReconnectCache.GO_INTENT_CLIENT, client.groupOwnerIntent());
+    }
+
+    @Test
+    public void entriesExpire() {
+        cache.setLimits(8, 1000);
+        cache.put(MAC_A, true);
+
+        time = 1000;
+        assertNotNull(cache.get(MAC_A));
+        time = 1001;
+        assertNull(cache.get(MAC_A));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsDropped() {
+        cache.setLimits(2, ReconnectCache.DEFAULT_MAX_AGE_MS);
+        cache.put(MAC_A, true);
+        cache.put(MAC_B, true);
+
+        // MAC_B becomes the least recently used
+        cache.get(MAC_A);
+        cache.put(MAC_C, false);
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(MAC_A));
+        assertNull(cache.get(MAC_B));
+        assertNotNull(cache.get(MAC_C));
+        assertEquals(3L, cache.getStats().get("hits"));
+        assertEquals(1L, cache.getStats().get("misses"));
+    }
+}
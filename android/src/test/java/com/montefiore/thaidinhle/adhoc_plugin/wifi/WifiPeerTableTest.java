@@ -0,0 +1,83 @@
+package com.montefiore.thaidinhle.adhoc_plugin.wifi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WifiPeerTableTest {
+    private WifiPeerTable table;
+
+    @Before
+    public void setUp() {
+        table = new WifiPeerTable();
+    }
+
+    @Test
+    public void firstUpdateAddsEveryPeer() {
+        HashMap<String, Object> delta = table.update(peers(50, 3));
+
+        assertEquals(1L, delta.get("version"));
+        assertEquals(50, ((List<?>) delta.get("added")).size());
+        assertEquals(0, ((List<?>) delta.get("changed")).size());
+        assertEquals(0, ((List<?>) delta.get("removed")).size());
+    }
+
+    @Test
+    public void unchangedPeersAreNotSent() {
+        table.update(peers(50, 3));
+
+        assertNull(table.update(peers(50, 3)));
+        assertEquals(1L, table.snapshot().get("version"));
+    }
+
+    @Test
+    public void onlyDifferencesAreSent() {
+        table.update(peers(50, 3));
+
+        List<WifiPeerTable.Peer> refreshed = peers(50, 3);
+        // Peer 0 leaves, peer 1 gets connected, peer 50 appears
+        refreshed.remove(0);
+        refreshed.set(0, new WifiPeerTable.Peer(mac(1), "peer-1", 0, 3));
+        refreshed.add(new WifiPeerTable.Peer(mac(50), "peer-50", 3, 0));
+
+        HashMap<String, Object> delta = table.update(refreshed);
+
+        assertEquals(2L, delta.get("version"));
+        assertEquals(Arrays.asList(mac(0)), delta.get("removed"));
+        assertEquals(mac(1), ((Map<?, ?>) ((List<?>) delta.get("changed")).get(0)).get("mac"));
+        assertEquals(0, ((Map<?, ?>) ((List<?>) delta.get("changed")).get(0)).get("status"));
+        assertEquals(mac(50), ((Map<?, ?>) ((List<?>) delta.get("added")).get(0)).get("mac"));
+        assertEquals(1, ((List<?>) delta.get("added")).size());
+        assertEquals(50, table.size());
+    }
+
+    @Test
+    public void snapshotHoldsCurrentPeers() {
+        table.update(peers(10, 3));
+        table.update(peers(4, 3));
+
+        HashMap<String, Object> snapshot = table.snapshot();
+        assertEquals(2L, snapshot.get("version"));
+        assertEquals(4, ((List<?>) snapshot.get("peers")).size());
+    }
+
+    private static List<WifiPeerTable.Peer> peers(int count, int status) {
+        List<WifiPeerTable.Peer> peers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            peers.add(new WifiPeerTable.Peer(mac(i), "peer-" + i, status, 3));
+        }
+        return peers;
+    }
+
+    private static String mac(int index) {
+        return String.format("AA:BB:CC:DD:%02X:%02X", index >> 8, index & 0xFF);
+    }
+}
@@ -1,3 +1,6 @@
+import 'dart:convert';
+import 'dart:typed_data';
+
 import 'package:adhoc_plugin/src/datalink/service/adhoc_device.dart';
 import 'package:adhoc_plugin/src/datalink/service/constants.dart';
 import 'package:adhoc_plugin/src/datalink/utils/identifier.dart';
@@ -5,7 +8,18 @@ import 'package:flutter_reactive_ble/flutter_reactive_ble.dart';
 
 /// Class representing a remote Ble-capable device.
 class BleAdHocDevice extends AdHocDevice {
+  // Number of bits set per destination in the digest
+  static const int _HASHES = 3;
+
   late int mtu;
+  late int characteristics;
+  int? psm;
+
+  // Routing hints advertised by the remote device, null if none
+  int? nodeId;
+  int? seq;
+  int? neighbours;
+  Uint8List? digest;
 
   /// Creates a [BleAdHocDevice] object.
   ///
@@ -20,10 +34,40 @@ class BleAdHocDevice extends AdHocDevice {
           type: BLE,
         ) {
     mtu = MIN_MTU;
+    characteristics = 1;
+    psm = l2capPsm(device);
     address = device.id.replaceAll(RegExp(':'), '').toLowerCase();
     address = BLUETOOTHLE_UUID + address!;
   }
 
+  /// Creates a [BleAdHocDevice] object from a device reported by the scanner
+  /// of the platform-specific side.
+  ///
+  /// The map should contain the keys 'name', 'mac', and 'psm' (0 if the
+  /// remote device does not advertise an L2CAP channel), and the keys
+  /// 'nodeId', 'seq', 'neighbours', and 'digest' if the remote device
+  /// advertises its routing hints.
+  BleAdHocDevice.fromScan(Map<dynamic, dynamic> map)
+      : super(
+            label: '',
+            address: '',
+            name: map['name'] as String,
+            mac: Identifier(ble: map['mac'] as String),
+            type: BLE) {
+    mtu = MIN_MTU;
+    characteristics = 1;
+    var value = map['psm'] as int;
+    psm = value > 0 ? value : null;
+    // The node id is a signed 32-bit value on the platform-specific side
+    var id = map['nodeId'] as int?;
+    nodeId = id == null ? null : id & 0xFFFFFFFF;
+    seq = map['seq'] as int?;
+    neighbours = map['neighbours'] as int?;
+    digest = map['digest'] as Uint8List?;
+    address = (map['mac'] as String).replaceAll(RegExp(':'), '');
+    address = BLUETOOTHLE_UUID + address!.toLowerCase();
+  }
+
   /// Creates an [BleAdHocDevice] object.
   ///
   /// The information of the created object is filled according to the
@@ -38,16 +82,104 @@ class BleAdHocDevice extends AdHocDevice {
             mac: map['mac'] as Identifier,
             type: BLE) {
     mtu = MIN_MTU;
+    characteristics = 1;
     address = (map['mac'] as Identifier).ble.replaceAll(RegExp(':'), '');
     address = BLUETOOTHLE_UUID + address!.toLowerCase();
   }
 
+/*-------------------------------Public methods-------------------------------*/
+
+  /// Checks whether the destination [label] may be reached through this
+  /// remote device, according to its advertisement.
+  ///
+  /// Returns true if the remote device is the destination or if its digest
+  /// may contain it (false positives are possible), otherwise false (also if
+  /// the remote device does not advertise its routing hints).
+  bool mightReach(String label) {
+    if (nodeId == null) {
+      return false;
+    }
+
+    var hash = BleAdHocDevice.nodeIdOf(label);
+    if (nodeId == hash) {
+      return true;
+    }
+
+    var filter = digest;
+    if (filter == null || filter.isEmpty) {
+      return false;
+    }
+
+    // Double hashing (h1 + i * h2), as done by the platform-specific side
+    var bits = filter.length * 8;
+    var h2 = (((hash << 16) | (hash >> 16)) & 0xFFFFFFFF) | 1;
+    for (var i = 0; i < _HASHES; i++) {
+      var bit = (hash + i * h2) % bits;
+      if ((filter[bit >> 3] & (1 << (bit & 7))) == 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /// Updates the PSM and the routing hints of this remote device with the
+  /// ones of [device], which has been reported by a new advertisement.
+  ///
+  /// They are replaced even if [device] does not hold them, as the remote
+  /// device may have closed its channel or withdrawn its hints.
+  void updateHints(BleAdHocDevice device) {
+    psm = device.psm;
+    nodeId = device.nodeId;
+    seq = device.seq;
+    neighbours = device.neighbours;
+    digest = device.digest;
+  }
+
+/*-------------------------------Static methods-------------------------------*/
+
+  /// Gets the node id advertised by the node whose label is [label].
+  ///
+  /// Returns the 32-bit FNV-1a hash of the label.
+  static int nodeIdOf(String label) {
+    var hash = 0x811C9DC5;
+    for (var byte in utf8.encode(label)) {
+      hash ^= byte;
+      hash = (hash * 0x01000193) & 0xFFFFFFFF;
+    }
+
+    return hash;
+  }
+
+  /// Gets the PSM of the L2CAP channel advertised by [device] in the service
+  /// data of its scan response.
+  ///
+  /// Returns the PSM, or null if the remote device does not advertise one (the
+  /// GATT characteristics are then used).
+  static int? l2capPsm(DiscoveredDevice device) {
+    for (var entry in device.serviceData.entries) {
+      // The service UUID may be reported in its 16-bit form
+      var key = entry.key;
+      if ((key == Uuid.parse(SERVICE_UUID) || key == Uuid.parse('0001')) &&
+          entry.value.length >= 2) {
+        var psm = entry.value[0] | (entry.value[1] << 8);
+        return psm > 0 ? psm : null;
+      }
+    }
+
+    return null;
+  }
+
 /*------------------------------Override methods------------------------------*/
 
   @override
   String toString() {
     return 'BleAdHocDevice{' +
         'mtu=$mtu' +
+        ', characteristics=$characteristics' +
+        ', psm=$psm' +
+        ', nodeId=$nodeId' +
+        ', seq=$seq' +
         ', label=$label' +
         ', uuid=$address' +
         ', name=$name' +
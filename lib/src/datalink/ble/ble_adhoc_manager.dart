@@ -17,6 +17,8 @@ class BleAdHocManager extends ServiceManager {
 
   late FlutterReactiveBle _reactiveBle;
   late HashMap<String?, BleAdHocDevice?> _mapMacDevice;
+  StreamSubscription<Map<dynamic, dynamic>>? _scanSub;
+  Timer? _scanTimer;
 
   /// Creates a [BleAdHocManager] object.
   ///
@@ -35,6 +37,11 @@ class BleAdHocManager extends ServiceManager {
 
 /*-------------------------------Public methods-------------------------------*/
 
+  /// Gets the remote device discovered whose MAC address is [mac].
+  ///
+  /// Returns the [BleAdHocDevice], or null if it is not in range.
+  BleAdHocDevice? discovered(String mac) => _mapMacDevice[mac];
+
   /// Releases the ressources used by this and others plugins.
   @override
   void release() {
@@ -71,11 +78,13 @@ class BleAdHocManager extends ServiceManager {
           'Duration must be between 0 and 3600 second(s)');
     }
 
-    // Start discovery mode
-    BleServices.startAdvertise();
+    if (duration == 0) {
+      return;
+    }
 
-    // Start timer to stop discovery mode after 'duration' seconds
-    Timer(Duration(seconds: duration), BleServices.stopAdvertise);
+    // Start discovery mode, which is stopped by the platform-specific side
+    // after 'duration' seconds
+    BleServices.startAdvertise(duration * 1000);
   }
 
   /// Triggers the discovery of other Ble-capable devices.
@@ -83,40 +92,13 @@ class BleAdHocManager extends ServiceManager {
   void discovery() {
     if (verbose) log(TAG, 'discovery()');
 
-    // If a discovery process is ongoing, then cancel the process
+    // If a discovery process is ongoing, then cancel the process before
+    // starting over
     if (isDiscovering) {
-      _stopScan();
+      _stopScan().then((_) => _startScan());
+    } else {
+      _startScan();
     }
-
-    _mapMacDevice.clear();
-
-    // Start the discovery process
-    _reactiveBle.scanForDevices(
-      withServices: [Uuid.parse(SERVICE_UUID)],
-      scanMode: ScanMode.balanced,
-    ).listen(
-      (device) {
-        var bleDevice = BleAdHocDevice(device);
-        // Add the discovered device to the HashMap
-        _mapMacDevice.putIfAbsent(bleDevice.mac.ble, () {
-          if (verbose) {
-            log(TAG,
-                'Device found: Name: ${device.name} - Address: ${device.id}');
-          }
-
-          // Notify upper layer of a device discovered
-          controller.add(AdHocEvent(DEVICE_DISCOVERED, bleDevice));
-          return bleDevice;
-        });
-      },
-    );
-
-    isDiscovering = true;
-
-    // Notify upper layer of the discovery process' start
-    controller.add(AdHocEvent(DISCOVERY_START, <dynamic>[]));
-    // Stop the discovery process after DISCOVERY_TIME
-    Timer(Duration(milliseconds: DISCOVERY_TIME), _stopScan);
   }
 
   /// Updates the local adapter name of the device with [name].
@@ -156,11 +138,82 @@ class BleAdHocManager extends ServiceManager {
 
 /*------------------------------Private methods-------------------------------*/
 
+  /// Starts the discovery process.
+  void _startScan() {
+    _mapMacDevice.clear();
+
+    // Start the discovery process, the results being filtered and batched by
+    // the platform-specific side
+    _scanSub = BleServices.scanStream.listen(
+        _applyScanDelta, onError: _onScanError);
+    BleServices.startScan(DISCOVERY_TIME);
+
+    isDiscovering = true;
+
+    // Notify upper layer of the discovery process' start
+    controller.add(AdHocEvent(DISCOVERY_START, <dynamic>[]));
+    // Stop the discovery process after DISCOVERY_TIME
+    _scanTimer = Timer(Duration(milliseconds: DISCOVERY_TIME), _stopScan);
+  }
+
+  /// Applies a discovery delta [map] sent by the platform-specific side.
+  ///
+  /// The delta holds the devices found or updated since the previous one
+  /// ('changed') and the MAC addresses of the devices lost ('removed').
+  void _applyScanDelta(Map<dynamic, dynamic> map) {
+    for (var mac in map['removed'] as List<dynamic>) {
+      _mapMacDevice.remove(mac);
+    }
+
+    for (var info in map['changed'] as List<dynamic>) {
+      var bleDevice = BleAdHocDevice.fromScan(info as Map<dynamic, dynamic>);
+      var known = _mapMacDevice[bleDevice.mac.ble];
+      if (known != null) {
+        // The PSM and the routing hints follow the latest advertisement, as
+        // the hints change with the remote routing table
+        known.updateHints(bleDevice);
+        continue;
+      }
+
+      if (verbose) {
+        log(TAG, 'Device found: Name: ${bleDevice.name} - '
+            'Address: ${bleDevice.mac.ble}');
+      }
+
+      // Add the discovered device to the HashMap
+      _mapMacDevice[bleDevice.mac.ble] = bleDevice;
+      // Notify upper layer of a device discovered
+      controller.add(AdHocEvent(DEVICE_DISCOVERED, bleDevice));
+    }
+  }
+
+  /// Ends the discovery process when the platform-specific side reports that
+  /// the scan has failed ([error]).
+  void _onScanError(Object error) {
+    if (verbose) log(TAG, 'Scan failed: $error');
+
+    if (isDiscovering) {
+      _stopScan();
+    }
+  }
+
   /// Stops the discovery process.
-  void _stopScan() {
+  ///
+  /// The scan stream is only left once the platform-specific side has stopped
+  /// the scan, as it then reports the results still batched by the controller.
+  Future<void> _stopScan() async {
     if (verbose) log(TAG, 'Discovery end');
 
+    _scanTimer?.cancel();
+    _scanTimer = null;
+    final scanSub = _scanSub;
+    _scanSub = null;
     isDiscovering = false;
+
+    // Answered after the last report has been sent
+    await BleServices.stopScan();
+    await scanSub?.cancel();
+
     // Notify upper layer of the discovery process completed
     controller.add(AdHocEvent(DISCOVERY_END, _mapMacDevice));
   }
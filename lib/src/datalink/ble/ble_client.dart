@@ -1,4 +1,7 @@
 import 'dart:async';
+import 'dart:collection';
+import 'dart:convert';
+import 'dart:typed_data';
 
 import 'package:adhoc_plugin/src/datalink/ble/ble_adhoc_device.dart';
 import 'package:adhoc_plugin/src/datalink/ble/ble_services.dart';
@@ -6,17 +9,21 @@ import 'package:adhoc_plugin/src/datalink/exceptions/no_connection.dart';
 import 'package:adhoc_plugin/src/datalink/service/adhoc_event.dart';
 import 'package:adhoc_plugin/src/datalink/service/constants.dart';
 import 'package:adhoc_plugin/src/datalink/service/service_client.dart';
+import 'package:adhoc_plugin/src/datalink/utils/identifier.dart';
 import 'package:adhoc_plugin/src/datalink/utils/msg_adhoc.dart';
+import 'package:adhoc_plugin/src/datalink/utils/msg_header.dart';
 import 'package:adhoc_plugin/src/datalink/utils/utils.dart';
 import 'package:flutter_reactive_ble/flutter_reactive_ble.dart';
 
 /// Class defining the client's logic for the Bluetooth LE implementation.
 class BleClient extends ServiceClient {
   StreamSubscription<ConnectionStateUpdate>? _connectionSub;
+  StreamSubscription<List<int>>? _notificationSub;
 
   late final BleAdHocDevice _device;
   late FlutterReactiveBle _reactiveBle;
   late bool _isInitialised;
+  late HashMap<int, BytesBuilder> _mapIdBuffer;
 
   /// Creates a [BleClient] object.
   ///
@@ -30,6 +37,7 @@ class BleClient extends ServiceClient {
       : super(verbose, attempts, timeOut) {
     _reactiveBle = FlutterReactiveBle();
     _isInitialised = false;
+    _mapIdBuffer = HashMap();
   }
 
 /*-------------------------------Public methods-------------------------------*/
@@ -60,6 +68,9 @@ class BleClient extends ServiceClient {
   @override
   void stopListening() {
     super.stopListening();
+    _notificationSub?.cancel();
+    _notificationSub = null;
+    _mapIdBuffer.clear();
   }
 
   /// Initiates a connection with the remote device.
@@ -74,6 +85,7 @@ class BleClient extends ServiceClient {
     if (_connectionSub != null) {
       // Abort connection with the remote host
       _connectionSub!.cancel();
+      await BleServices.clientDisconnect(_device.mac.ble);
       // Notify upper layer of a connection aborted
       controller.add(AdHocEvent(CONNECTION_ABORTED, _device.mac));
     }
@@ -91,7 +103,8 @@ class BleClient extends ServiceClient {
       throw NoConnectionException('No remote connection');
     }
 
-    BleServices.writeToCharacteristic(message, _device.mac.ble, _device.mtu);
+    BleServices.writeToCharacteristic(
+        message, _device.mac.ble, _device.mtu, _device.characteristics);
   }
 
 /*------------------------------Private methods-------------------------------*/
@@ -176,6 +189,25 @@ class BleClient extends ServiceClient {
     _device.mtu =
         await _reactiveBle.requestMtu(deviceId: _device.mac.ble, mtu: MAX_MTU);
 
+    // Count the data characteristics published by the remote GATT server
+    _device.characteristics = await _countCharacteristics();
+
+    // Open the native link through which the messages are written, and the
+    // L2CAP channel if the remote host advertises one
+    await BleServices.clientConnect(_device.mac.ble);
+    if (_device.psm != null) {
+      await BleServices.l2capConnect(_device.mac.ble, _device.psm!);
+    }
+
+    // Subscribe to the messages notified by the remote GATT server
+    final characteristic = QualifiedCharacteristic(
+        serviceId: Uuid.parse(SERVICE_UUID),
+        characteristicId: Uuid.parse(CHARACTERISTIC_UUID),
+        deviceId: _device.mac.ble);
+    _notificationSub = _reactiveBle
+        .subscribeToCharacteristic(characteristic)
+        .listen(_processFragment);
+
     // Notify upper layer of a successful connection performed
     controller.add(AdHocEvent(
         CONNECTION_PERFORMED, [_device.mac.ble, _device.address, CLIENT]));
@@ -183,4 +215,85 @@ class BleClient extends ServiceClient {
     state = STATE_CONNECTED;
     _isInitialised = true;
   }
+
+  /// Counts the data characteristics published by the remote GATT server.
+  ///
+  /// Returns the number of consecutive data characteristics found, or 1 if the
+  /// services cannot be discovered.
+  Future<int> _countCharacteristics() async {
+    try {
+      var services = await _reactiveBle.discoverServices(_device.mac.ble);
+      var service = services.firstWhere(
+          (service) => service.serviceId == Uuid.parse(SERVICE_UUID));
+
+      var count = 1;
+      while (service.characteristicIds
+          .contains(Uuid.parse(BleServices.characteristicUuid(count)))) {
+        count++;
+      }
+
+      return count;
+    } catch (error) {
+      if (verbose) log(ServiceClient.TAG, 'Service discovery failed: $error');
+      return 1;
+    }
+  }
+
+  /// Processes a fragment [value] notified by the remote GATT server.
+  ///
+  /// The first byte is the message ID and the second byte is the flag value.
+  /// Once the last fragment is received, the message is delivered to the
+  /// upper layer.
+  ///
+  /// The remote GATT server notifies the messages one after the other, and
+  /// drops the fragments left of a message when a notification fails. The
+  /// first fragment of a new message therefore discards any partial message.
+  void _processFragment(List<int> value) {
+    if (value.length < 2) {
+      return;
+    }
+
+    var id = value[0], flag = value[1];
+    var buffer = _mapIdBuffer[id];
+    if (buffer == null) {
+      if (verbose && _mapIdBuffer.isNotEmpty) {
+        log(ServiceClient.TAG, 'Partial message dropped by ${_device.mac.ble}');
+      }
+
+      _mapIdBuffer.clear();
+      buffer = _mapIdBuffer[id] = BytesBuilder(copy: false);
+    }
+
+    buffer.add(value.sublist(2));
+
+    if (flag != MESSAGE_END) {
+      return;
+    }
+
+    _mapIdBuffer.remove(id);
+
+    // Reconstruct the message
+    var message = MessageAdHoc.fromJson(
+        json.decode(Utf8Decoder().convert(buffer.takeBytes()))
+            as Map<String, dynamic>);
+
+    // Update the header of the message
+    if (message.header.mac.ble == '') {
+      message.header = Header(
+          seqNum: message.header.seqNum,
+          messageType: message.header.messageType,
+          label: message.header.label,
+          name: message.header.name,
+          address: _device.address,
+          mac: Identifier(ble: _device.mac.ble),
+          deviceType: message.header.deviceType);
+    }
+
+    if (verbose) {
+      log(ServiceClient.TAG, 'Message received from ${_device.mac.ble}');
+    }
+
+    // Notify upper layer of message received
+    controller.add(AdHocEvent(MESSAGE_RECEIVED, message));
+  }
 }
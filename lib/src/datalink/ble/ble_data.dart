@@ -0,0 +1,32 @@
+import 'dart:typed_data';
+
+/// Class representing a message received from a remote Ble-capable device
+/// through the data channel of the platform-specific side.
+class BleData {
+  /// Size of the frame header: type (1 byte), MAC (6 bytes), length (4 bytes)
+  static const int HEADER_SIZE = 11;
+
+  late final int type;
+  late final String mac;
+  late final Uint8List bytes;
+
+  /// Creates a [BleData] object.
+  ///
+  /// The object is filled with the binary [frame] sent by the platform-specific
+  /// side. The [bytes] are a view on the frame, no copy is performed.
+  BleData.fromFrame(ByteData frame) {
+    type = frame.getUint8(0);
+
+    var buffer = StringBuffer();
+    for (var i = 1; i < 7; i++) {
+      if (i > 1) {
+        buffer.write(':');
+      }
+      buffer.write(frame.getUint8(i).toRadixString(16).padLeft(2, '0'));
+    }
+    mac = buffer.toString().toUpperCase();
+
+    var length = frame.getUint32(7);
+    bytes = frame.buffer.asUint8List(frame.offsetInBytes + HEADER_SIZE, length);
+  }
+}
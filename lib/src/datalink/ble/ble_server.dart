@@ -1,7 +1,6 @@
 import 'dart:async';
 import 'dart:collection';
 import 'dart:convert';
-import 'dart:typed_data';
 
 import 'package:adhoc_plugin/src/datalink/ble/ble_services.dart';
 import 'package:adhoc_plugin/src/datalink/service/adhoc_event.dart';
@@ -40,7 +39,7 @@ class BleServer extends ServiceServer {
     BleServices.openGATTServer();
 
     // Listen to event from the platform-specific side for connections
-    // information, and data received.
+    // information.
     BleServices.platformEventStream.listen((map) async {
       switch (map['type']) {
         case ANDROID_CONNECTION:
@@ -65,41 +64,6 @@ class BleServer extends ServiceServer {
           }
           break;
 
-        case ANDROID_DATA:
-          // Message received as bytes
-          var bytes =
-              Uint8List.fromList((map['data'] as List<dynamic>).cast<int>());
-
-          // Reconstruct the message
-          var message = MessageAdHoc.fromJson(json
-              .decode(Utf8Decoder().convert(bytes)) as Map<String, dynamic>);
-
-          // Update the header of the message
-          if (message.header.mac.ble == '') {
-            var uuid = BLUETOOTHLE_UUID +
-                (map['mac'] as String)
-                    .replaceAll(RegExp(':'), '')
-                    .toLowerCase();
-
-            message.header = Header(
-                seqNum: message.header.seqNum,
-                messageType: message.header.messageType,
-                label: message.header.label,
-                name: message.header.name,
-                address: uuid,
-                mac: Identifier(ble: map['mac'] as String),
-                deviceType: message.header.deviceType);
-          }
-
-          if (verbose) {
-            log(ServiceServer.TAG, 'Message received from ${map['mac']}');
-            print(message);
-          }
-
-          // Notify upper layer of message received
-          controller.add(AdHocEvent(MESSAGE_RECEIVED, message));
-          break;
-
         case ANDROID_MTU:
           var mac = map['mac'] as String;
           var mtu = map['mtu'] as int;
@@ -112,6 +76,38 @@ class BleServer extends ServiceServer {
       }
     });
 
+    // Listen to messages received by the GATT server of the platform-specific
+    // side, which are sent as binary frames
+    BleServices.platformDataStream.listen((data) {
+      // Reconstruct the message
+      var message = MessageAdHoc.fromJson(
+          json.decode(Utf8Decoder().convert(data.bytes))
+              as Map<String, dynamic>);
+
+      // Update the header of the message
+      if (message.header.mac.ble == '') {
+        var uuid = BLUETOOTHLE_UUID +
+            data.mac.replaceAll(RegExp(':'), '').toLowerCase();
+
+        message.header = Header(
+            seqNum: message.header.seqNum,
+            messageType: message.header.messageType,
+            label: message.header.label,
+            name: message.header.name,
+            address: uuid,
+            mac: Identifier(ble: data.mac),
+            deviceType: message.header.deviceType);
+      }
+
+      if (verbose) {
+        log(ServiceServer.TAG, 'Message received from ${data.mac}');
+        print(message);
+      }
+
+      // Notify upper layer of message received
+      controller.add(AdHocEvent(MESSAGE_RECEIVED, message));
+    });
+
     // Update state of the server
     state = STATE_LISTENING;
   }
@@ -135,8 +131,12 @@ class BleServer extends ServiceServer {
   Future<void> send(MessageAdHoc message, String mac) async {
     if (verbose) log(ServiceServer.TAG, 'Server: send() -> $mac');
 
-    BleServices.writeToCharacteristic(
-        message, mac, _mapMacMTU[mac] == null ? MIN_MTU : MAX_MTU);
+    // Notify the message if the remote device subscribed to notifications,
+    // otherwise write it to the characteristic of its GATT server
+    if (!await BleServices.GATTSendMessage(message, mac)) {
+      BleServices.writeToCharacteristic(
+          message, mac, _mapMacMTU[mac] == null ? MIN_MTU : MAX_MTU);
+    }
   }
 
   /// Cancels an active connection with the remote device of MAC address [mac].
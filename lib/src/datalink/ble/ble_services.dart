@@ -1,5 +1,8 @@
+import 'dart:async';
 import 'dart:convert';
+import 'dart:typed_data';
 
+import 'package:adhoc_plugin/src/datalink/ble/ble_data.dart';
 import 'package:adhoc_plugin/src/datalink/service/constants.dart';
 import 'package:adhoc_plugin/src/datalink/utils/msg_adhoc.dart';
 import 'package:flutter/services.dart';
@@ -13,13 +16,39 @@ class BleServices {
   static const String _eventName = 'ad.hoc.lib/ble.event.channel';
   static const MethodChannel _methodChannel = MethodChannel(_methodName);
   static const EventChannel _eventChannel = EventChannel(_eventName);
+  static const String _dataName = 'ad.hoc.lib/ble.data.channel';
+  static const BasicMessageChannel<ByteData> _dataChannel =
+      BasicMessageChannel(_dataName, BinaryCodec());
+  static final StreamController<BleData> _dataController =
+      StreamController.broadcast(
+    onListen: () => _dataChannel.setMessageHandler((frame) async {
+      if (frame != null) {
+        _dataController.add(BleData.fromFrame(frame));
+      }
+
+      return ByteData(0);
+    }),
+    onCancel: () => _dataChannel.setMessageHandler(null),
+  );
   static final Stream<Map<dynamic, dynamic>> _platformEventStream =
       _eventChannel
           .receiveBroadcastStream()
+          .expand((event) => event is List ? event : <dynamic>[event])
           .cast<Map<dynamic, dynamic>>()
           .asBroadcastStream();
 
-  static int id = 0;
+  static const String _scanName = 'ad.hoc.lib/ble.scan.channel';
+  static const EventChannel _scanChannel = EventChannel(_scanName);
+  static final Stream<Map<dynamic, dynamic>> _scanStream = _scanChannel
+      .receiveBroadcastStream()
+      .cast<Map<dynamic, dynamic>>()
+      .asBroadcastStream();
+  static final FlutterReactiveBle _reactiveBle = FlutterReactiveBle();
+
+  // Next message ID of each remote host, shared by the native GATT client and
+  // the fallback below so that the remote host never sees two messages with
+  // the same ID in a row
+  static final Map<String, int> _ids = <String, int>{};
   static int seqNum = 0;
 
   const BleServices();
@@ -31,6 +60,24 @@ class BleServices {
     return _platformEventStream;
   }
 
+  /// Data stream of the platform-specific side.
+  ///
+  /// Messages received by the GATT server are delivered through this stream
+  /// as binary frames, whereas control events are delivered through
+  /// [platformEventStream].
+  static Stream<BleData> get platformDataStream {
+    return _dataController.stream;
+  }
+
+  /// Discovery stream of the platform-specific side.
+  ///
+  /// Each event is a delta of the devices in range since the previous one,
+  /// with the devices found or updated ('changed') and the MAC addresses of
+  /// the devices lost ('removed').
+  static Stream<Map<dynamic, dynamic>> get scanStream {
+    return _scanStream;
+  }
+
   /// Bluetooth adapter name.
   static Future<String> get bleAdapterName async {
     final name = await _methodChannel.invokeMethod('getAdapterName');
@@ -50,6 +97,31 @@ class BleServices {
     _methodChannel.invokeMethod('setVerbose', verbose);
   }
 
+  /// Configures how the platform-specific side batches its events.
+  ///
+  /// Events are delivered as soon as [maxEvents] are pending, or after
+  /// [maxDelayUs] microseconds (0 meaning at the next frame). Setting
+  /// [maxEvents] to 1 disables the batching.
+  ///
+  /// The configuration applies to both the Bluetooth Low Energy and the Wi-Fi
+  /// Direct event channels.
+  static Future<void> setEventBatching(int maxEvents, int maxDelayUs) async {
+    await _methodChannel.invokeMethod('setEventBatching', <String, int>{
+      'maxEvents': maxEvents,
+      'maxDelayUs': maxDelayUs,
+    });
+  }
+
+  /// Gets the transports supported by the device.
+  ///
+  /// Returns a [Map] with the 'ble', 'wifiDirect', and 'wifiAware' boolean
+  /// keys, the time spent attaching the plugin ('attachUs'), and the time
+  /// spent creating each transport ('creationUs', -1 if not created yet).
+  static Future<Map<dynamic, dynamic>> getCapabilities() async {
+    return await _methodChannel.invokeMethod('getCapabilities')
+        as Map<dynamic, dynamic>;
+  }
+
 /*------------------------------Adapter methods------------------------------*/
 
   /// Enables the Bluetooth adapter.
@@ -69,9 +141,11 @@ class BleServices {
     return await _methodChannel.invokeMethod('isEnabled') as bool;
   }
 
-  /// Starts the advertisement process.
-  static void startAdvertise() {
-    _methodChannel.invokeMethod('startAdvertise');
+  /// Starts the advertisement process for [durationMs] milliseconds.
+  ///
+  /// The advertisement is not time-limited if [durationMs] is 0.
+  static void startAdvertise([int durationMs = 0]) {
+    _methodChannel.invokeMethod('startAdvertise', durationMs);
   }
 
   /// Stops the advertisement process.
@@ -79,6 +153,90 @@ class BleServices {
     _methodChannel.invokeMethod('stopAdvertise');
   }
 
+  /// Sets the profile of the advertising scheduler.
+  ///
+  /// The advertisement is sent in low latency for [burstMs] milliseconds after
+  /// a change of the connected neighbours, then in balanced mode, and finally
+  /// in low power mode once nothing changed for [stableAfterMs] milliseconds.
+  /// Without neighbour, a low latency burst is repeated every [stableAfterMs]
+  /// milliseconds.
+  ///
+  /// The transmission power of each phase ([burstTxPower], [balancedTxPower],
+  /// and [lowPowerTxPower]) ranges from 0 (ultra low) to 3 (high).
+  static Future<void> setAdvertisingProfile({
+    int burstMs = 10000,
+    int stableAfterMs = 60000,
+    int burstTxPower = 3,
+    int balancedTxPower = 2,
+    int lowPowerTxPower = 1,
+  }) async {
+    await _methodChannel.invokeMethod('setAdvertisingProfile', <String, int>{
+      'burstMs': burstMs,
+      'stableAfterMs': stableAfterMs,
+      'burstTxPower': burstTxPower,
+      'balancedTxPower': balancedTxPower,
+      'lowPowerTxPower': lowPowerTxPower,
+    });
+  }
+
+  /// Gets the metrics of the advertising scheduler.
+  ///
+  /// Returns a [Map] containing the keys 'advertising', 'phase', 'neighbours',
+  /// 'discoveries', 'lastTimeToDiscoveryMs', 'meanTimeToDiscoveryMs',
+  /// 'burstTimeMs', 'balancedTimeMs', 'lowPowerTimeMs', 'extended' (whether
+  /// the extended advertisements are used), and 'routingAdvertised'.
+  static Future<Map<dynamic, dynamic>> getAdvertisingStats() async {
+    return await _methodChannel.invokeMethod('getAdvertisingStats')
+        as Map<dynamic, dynamic>;
+  }
+
+  /// Sets the routing hints advertised by this node.
+  ///
+  /// The advertisement holds the identity of the node ([label]), its sequence
+  /// number [seq], its number of neighbours, and a digest of the
+  /// [destinations] reachable through it. The extended advertisements are used
+  /// if [extended] is true and if they are supported by the controller (the
+  /// remote devices must support them too), otherwise the hints are in the
+  /// scan response.
+  static Future<void> setAdvertisedRouting(
+      String label, int seq, List<String> destinations,
+      {bool extended = false}) async {
+    await _methodChannel.invokeMethod('setAdvertisedRouting', <String, dynamic>{
+      'label': label,
+      'seq': seq,
+      'destinations': destinations,
+      'extended': extended,
+    });
+  }
+
+  /// Starts the discovery of the remote devices for [durationMs] milliseconds.
+  ///
+  /// The results are filtered by the Bluetooth controller, and reported by
+  /// [scanStream] at most every [reportDelayMs] milliseconds.
+  ///
+  /// Returns true if the discovery has been started, otherwise false.
+  static Future<bool> startScan(int durationMs,
+      {int reportDelayMs = 1000}) async {
+    return await _methodChannel.invokeMethod('startScan', <String, int>{
+      'durationMs': durationMs,
+      'reportDelayMs': reportDelayMs,
+    }) as bool;
+  }
+
+  /// Stops the discovery of the remote devices.
+  static Future<void> stopScan() async {
+    await _methodChannel.invokeMethod('stopScan');
+  }
+
+  /// Gets the metrics of the discovery.
+  ///
+  /// Returns a [Map] containing the keys 'scanning', 'offloadedBatching',
+  /// 'reportDelayMs', 'callbacks', 'results', 'reports', and 'devices'.
+  static Future<Map<dynamic, dynamic>> getScanStats() async {
+    return await _methodChannel.invokeMethod('getScanStats')
+        as Map<dynamic, dynamic>;
+  }
+
   /// Updates the local adapter name of the device with [name].
   ///
   /// Returns true if the name is successfully set, otherwise false.
@@ -96,8 +254,25 @@ class BleServices {
 /*----------------------------Gatt Server methods----------------------------*/
 
   /// Opens the GATT server on the platform-specific side.
-  static void openGATTServer() {
-    _methodChannel.invokeMethod('openGattServer');
+  ///
+  /// The GATT server publishes [characteristics] data characteristics, which
+  /// are reassembled independently.
+  static void openGATTServer([int characteristics = DATA_CHARACTERISTICS]) {
+    _methodChannel.invokeMethod('openGattServer', <String, int>{
+      'characteristics': characteristics,
+    });
+  }
+
+  /// Gets the UUID of the data characteristic of index [index].
+  ///
+  /// The first one is the ad hoc characteristic, the next ones follow it.
+  static String characteristicUuid(int index) {
+    if (index == 0) {
+      return CHARACTERISTIC_UUID;
+    }
+
+    return (2 + index).toRadixString(16).padLeft(8, '0') +
+        CHARACTERISTIC_UUID.substring(8);
   }
 
   /// Closes the GATT server on the platform-specific side.
@@ -107,19 +282,108 @@ class BleServices {
 
   /// Gets the GATT server of the platform-specific side to send [message] to
   /// the remote Ble-capable device of MAC addresss [mac].
-  static Future<void> GATTSendMessage(MessageAdHoc message, String mac) async {
-    return await _methodChannel.invokeMethod('sendMessage', <String, String>{
+  ///
+  /// The message is notified to the remote device, which must have subscribed
+  /// to the notifications of the ad hoc characteristic.
+  ///
+  /// Returns true if the message has been queued, otherwise false.
+  static Future<bool> GATTSendMessage(MessageAdHoc message, String mac) async {
+    return sendBytes(
+        mac, Utf8Encoder().convert(json.encode(message.toJson())));
+  }
+
+  /// Sends the raw [bytes] to the remote Ble-capable device of MAC address
+  /// [mac] through the GATT server of the platform-specific side.
+  ///
+  /// The bytes are fragmented on the platform-specific side according to the
+  /// MTU negotiated with the remote device, so that a single platform call is
+  /// made whatever the size of the data.
+  ///
+  /// Returns true if the data has been queued, otherwise false.
+  static Future<bool> sendBytes(String mac, Uint8List bytes) async {
+    return await _methodChannel.invokeMethod('sendBytes', <String, dynamic>{
       'mac': mac,
-      'message': json.encode(message.toJson()),
+      'data': bytes,
+    }) as bool;
+  }
+
+  /// Sets the limits of the memory used by the GATT server to reassemble the
+  /// messages written by remote devices.
+  ///
+  /// At most [peerQuota] bytes of incomplete messages are kept for a remote
+  /// device, and at most [globalCap] bytes for all of them. An incomplete
+  /// message that does not receive any fragment during [staleTimeoutMs]
+  /// milliseconds is evicted.
+  static Future<void> setReassemblyLimits(
+      int peerQuota, int globalCap, int staleTimeoutMs) async {
+    await _methodChannel.invokeMethod('setReassemblyLimits', <String, int>{
+      'peerQuota': peerQuota,
+      'globalCap': globalCap,
+      'staleTimeoutMs': staleTimeoutMs,
     });
   }
 
+  /// Gets the counters of the reassembly performed by the GATT server.
+  ///
+  /// Returns a [Map] containing the keys 'pendingBytes', 'pendingMessages',
+  /// 'evictions', 'overflows', and 'discardedFragments'.
+  static Future<Map<dynamic, dynamic>> getReassemblyStats() async {
+    return await _methodChannel.invokeMethod('getReassemblyStats')
+        as Map<dynamic, dynamic>;
+  }
+
+  /// Gets the link parameters negotiated with the remote Ble-capable device of
+  /// MAC address [mac], and its activity.
+  ///
+  /// Returns a [Map] containing the keys 'mac', 'mtu', 'txPhy', 'rxPhy',
+  /// 'bytesIn', 'bytesOut', 'messagesIn', 'messagesOut', 'connectedMs',
+  /// 'idleMs', and 'pinned', or null if the remote device is not connected to
+  /// the GATT server.
+  static Future<Map<dynamic, dynamic>?> getPeerInfo(String mac) async {
+    return await _methodChannel.invokeMethod('getPeerInfo', mac)
+        as Map<dynamic, dynamic>?;
+  }
+
   /// Cancels a connection to the remote Ble-capable device of MAC addresss
   /// [mac].
   static Future<void> cancelConnection(String mac) async {
     return await _methodChannel.invokeMethod('cancelConnection', mac);
   }
 
+  /// Sets the limits of the admission control of the GATT server.
+  ///
+  /// At most [maxPeers] remote devices are connected. Beyond it, the remote
+  /// device idle for the longest time (inactive for at least [idleTimeoutMs]
+  /// milliseconds) is disconnected to make room for the new one, which is
+  /// otherwise refused. The idle remote devices are never disconnected if
+  /// [idleTimeoutMs] is 0.
+  static Future<void> setAdmissionLimits(
+      {int maxPeers = 7, int idleTimeoutMs = 30000}) async {
+    await _methodChannel.invokeMethod('setAdmissionLimits', <String, int>{
+      'maxPeers': maxPeers,
+      'idleTimeoutMs': idleTimeoutMs,
+    });
+  }
+
+  /// Pins the remote Ble-capable device of MAC address [mac] if [pinned] is
+  /// true, so that it is never disconnected by the admission control, or
+  /// unpins it otherwise.
+  static Future<void> pinPeer(String mac, bool pinned) async {
+    await _methodChannel.invokeMethod('pinPeer', <String, dynamic>{
+      'mac': mac,
+      'pinned': pinned,
+    });
+  }
+
+  /// Gets the metrics of the admission control of the GATT server.
+  ///
+  /// Returns a [Map] containing the keys 'maxPeers', 'idleTimeoutMs', 'peers',
+  /// 'pinned', 'rejected', and 'reclaimed'.
+  static Future<Map<dynamic, dynamic>> getAdmissionStats() async {
+    return await _methodChannel.invokeMethod('getAdmissionStats')
+        as Map<dynamic, dynamic>;
+  }
+
   /// Gets the current name of the Bluetooth adapter.
   ///
   /// Returns the name of the Bluetooth adapter as a String.
@@ -145,6 +409,48 @@ class BleServices {
     return await _methodChannel.invokeMethod('createBond', mac) as bool;
   }
 
+/*----------------------------Gatt Client methods----------------------------*/
+
+  /// Opens the native GATT client link with the remote GATT server of MAC
+  /// address [mac].
+  ///
+  /// Returns true if the connection has been initiated, otherwise false.
+  static Future<bool> clientConnect(String mac) async {
+    return await _methodChannel.invokeMethod('clientConnect', mac) as bool;
+  }
+
+  /// Closes the native GATT client link with the remote GATT server of MAC
+  /// address [mac].
+  static Future<void> clientDisconnect(String mac) async {
+    await _methodChannel.invokeMethod('clientDisconnect', mac);
+  }
+
+  /// Opens an L2CAP channel with the remote host of MAC address [mac], which
+  /// advertises the PSM [psm].
+  ///
+  /// Once the channel is open, the messages written by [writeToCharacteristic]
+  /// go through it instead of the GATT characteristics.
+  ///
+  /// Returns true if the connection has been initiated, otherwise false (e.g.
+  /// L2CAP channels require API 29).
+  static Future<bool> l2capConnect(String mac, int psm) async {
+    return await _methodChannel.invokeMethod('l2capConnect', <String, dynamic>{
+      'mac': mac,
+      'psm': psm,
+    }) as bool;
+  }
+
+  /// Gets the statistics of the native GATT client link with the remote GATT
+  /// server of MAC address [mac].
+  ///
+  /// Returns a [Map] containing the MTU, the bytes and fragments written, the
+  /// retries, the throughput measured ('bytesPerSecond'), and whether an L2CAP
+  /// channel is open ('l2cap'), or null if the link is not open.
+  static Future<Map<dynamic, dynamic>?> getLinkStats(String mac) async {
+    return await _methodChannel.invokeMethod('getLinkStats', mac)
+        as Map<dynamic, dynamic>?;
+  }
+
   /// Writes data to the ad hoc characteristic.
   ///
   /// The [message] is transformed into bytes, which are then written to the
@@ -152,26 +458,48 @@ class BleServices {
   ///
   /// The remote host is identified by [mac].
   ///
-  /// The data is fragmented into smaller chunk of [mtu] bytes size.
+  /// If a native GATT client link is open with the remote host (see
+  /// [clientConnect]), the whole message is handed to it in a single call,
+  /// and fragmented on the platform-specific side. Otherwise, the data is
+  /// fragmented into smaller chunk of [mtu] bytes size.
+  ///
+  /// If the remote host GATT server publishes [characteristics] data
+  /// characteristics, a message fitting in a single chunk (control traffic)
+  /// is written to the ad hoc characteristic, and larger ones (bulk traffic)
+  /// are striped over the other characteristics by message ID.
   static Future<void> writeToCharacteristic(
-      MessageAdHoc message, String mac, int mtu) async {
-    var _reactiveBle = FlutterReactiveBle();
-    var _characteristicUuid = Uuid.parse(CHARACTERISTIC_UUID);
+      MessageAdHoc message, String mac, int mtu,
+      [int characteristics = 1]) async {
     var _serviceUuid = Uuid.parse(SERVICE_UUID);
 
-    // Get the characteristic of the remote host GATT server
-    final characteristic = QualifiedCharacteristic(
-        serviceId: _serviceUuid,
-        characteristicId: _characteristicUuid,
-        deviceId: mac);
-
     // Avoid BLE to send twice the same message. More information can be found
     // at https://www.forward.com.au/pfod/BLE/BLEProblems/index.html
     message.header.seqNum = seqNum++;
 
     // Convert the MessageAdHoc into bytes
     var msg = Utf8Encoder().convert(json.encode(message.toJson()));
-    int _id = id++ % UINT8_SIZE, _mtu = mtu - 3 - 2, i = 0, flag, end;
+
+    final _id = _ids[mac] ?? 0;
+    _ids[mac] = (_id + 1) % UINT8_SIZE;
+
+    // Pipelined by the native GATT client, if the link is ready
+    if (await _methodChannel.invokeMethod('writeMessage',
+        <String, dynamic>{'mac': mac, 'id': _id, 'data': msg}) as bool) {
+      return;
+    }
+
+    int _mtu = mtu - 3 - 2, i = 0, flag, end;
+
+    var stream = 0;
+    if (characteristics > 1 && msg.length > _mtu) {
+      stream = 1 + _id % (characteristics - 1);
+    }
+
+    // Get the characteristic of the remote host GATT server
+    final characteristic = QualifiedCharacteristic(
+        serviceId: _serviceUuid,
+        characteristicId: Uuid.parse(characteristicUuid(stream)),
+        deviceId: mac);
 
     /* Fragment the message bytes into smaller chunk of bytes */
 
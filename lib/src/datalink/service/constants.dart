@@ -4,6 +4,10 @@ const SERVICE_UUID = '00000001-0000-1000-8000-00805f9b34fb';
 /// Ad hoc characteristic UUID
 const CHARACTERISTIC_UUID = '00000002-0000-1000-8000-00805f9b34fb';
 
+/// Number of data characteristics published by the GATT server: the ad hoc
+/// characteristic carries the control traffic, the next ones the bulk traffic
+const DATA_CHARACTERISTICS = 2;
+
 /// Prefix of BLE UUID
 const BLUETOOTHLE_UUID = 'e0917680-d427-11e4-8830-';
 
@@ -94,6 +98,9 @@ const DEVICE_INFO_BLE = 113;
 /// Device info (MAC + Wi-Fi IP) recovered
 const DEVICE_INFO_WIFI = 114;
 
+/// Ad hoc service (and its metadata) discovered through Wi-Fi Direct DNS-SD
+const SERVICE_DISCOVERED = 115;
+
 /// Discovery process finished notification
 const ANDROID_DISCOVERY = 120;
 
@@ -114,3 +121,6 @@ const ANDROID_DATA = 125;
 
 /// MTU size change notification
 const ANDROID_MTU = 126;
+
+/// Wi-Fi Direct DNS-SD service found notification
+const ANDROID_SERVICE = 127;
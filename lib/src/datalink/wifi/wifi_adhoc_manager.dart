@@ -1,13 +1,18 @@
 import 'dart:async';
 import 'dart:collection';
 import 'dart:io';
+import 'dart:typed_data';
 
+import 'package:adhoc_plugin/src/datalink/exceptions/device_failure.dart';
 import 'package:adhoc_plugin/src/datalink/exceptions/device_not_found.dart';
 import 'package:adhoc_plugin/src/datalink/service/adhoc_event.dart';
 import 'package:adhoc_plugin/src/datalink/service/constants.dart';
 import 'package:adhoc_plugin/src/datalink/service/service_manager.dart';
 import 'package:adhoc_plugin/src/datalink/utils/utils.dart';
 import 'package:adhoc_plugin/src/datalink/wifi/wifi_adhoc_device.dart';
+import 'package:adhoc_plugin/src/datalink/wifi/wifi_data.dart';
+import 'package:adhoc_plugin/src/datalink/wifi/wifi_service_info.dart';
+import 'package:adhoc_plugin/src/datalink/wifi/wifi_transfer.dart';
 import 'package:flutter/services.dart';
 
 /// Class managing the Wi-Fi discovery and the pairing process with other
@@ -19,9 +24,27 @@ class WifiAdHocManager extends ServiceManager {
   static const String _eventName = 'ad.hoc.lib/wifi.event.channel';
   static const MethodChannel _methodCh = MethodChannel(_methodName);
   static const EventChannel _eventCh = EventChannel(_eventName);
+  static const String _dataName = 'ad.hoc.lib/wifi.data.channel';
+  static const BasicMessageChannel<ByteData> _dataCh =
+      BasicMessageChannel(_dataName, BinaryCodec());
+  static final StreamController<WifiData> _dataController =
+      StreamController.broadcast(
+    onListen: () => _dataCh.setMessageHandler((batch) async {
+      if (batch != null) {
+        WifiData.fromBatch(batch).forEach(_dataController.add);
+      }
+
+      return ByteData(0);
+    }),
+    onCancel: () => _dataCh.setMessageHandler(null),
+  );
+  static const String _transferName = 'ad.hoc.lib/wifi.transfer.channel';
+  static const EventChannel _transferCh = EventChannel(_transferName);
 
   late String _adapterName;
   late HashMap<String?, WifiAdHocDevice?> _mapMacDevice;
+  late HashMap<String, _WifiP2PDevice> _peers;
+  late int _peersVersion;
 
   /// Creates a [WifiAdHocManager] object.
   ///
@@ -30,6 +53,8 @@ class WifiAdHocManager extends ServiceManager {
     _methodCh.invokeMethod('setVerbose', verbose);
     _adapterName = '';
     _mapMacDevice = HashMap();
+    _peers = HashMap();
+    _peersVersion = 0;
   }
 
 /*------------------------------Getters & Setters-----------------------------*/
@@ -73,33 +98,24 @@ class WifiAdHocManager extends ServiceManager {
   /// Initializes the listening process of platform-side streams.
   @override
   void initialize() async {
-    _eventCh.receiveBroadcastStream().listen((event) async {
+    _eventCh
+        .receiveBroadcastStream()
+        .expand((event) => event is List ? event : <dynamic>[event])
+        .listen((event) async {
       var map = event as Map;
 
       switch (map['type']) {
-        case ANDROID_DISCOVERY: // Discovery process
-          var list = map['peers'] as List<dynamic>;
-          var peers = List<_WifiP2PDevice>.empty(growable: true);
-          for (var map in list) {
-            peers.add(_WifiP2PDevice.fromMap(map as Map<dynamic, dynamic>));
-          }
+        case ANDROID_DISCOVERY: // Peers added, changed, or removed
+          await _applyPeerDelta(map);
+          break;
 
-          for (var device in peers) {
-            // Get a WifiAdHocDevice object from device
-            var wifiDevice = WifiAdHocDevice(device.name, device.mac);
-            // Add the discovered device to the HashMap
-            _mapMacDevice.putIfAbsent(wifiDevice.mac.wifi, () {
-              if (verbose) {
-                log(TAG,
-                    'Device found: Name=(${device.name}) - Address=(${device.mac})');
-              }
-
-              return wifiDevice;
-            });
-
-            // Notify upper layer of a device discovered
-            controller.add(AdHocEvent(DEVICE_DISCOVERED, wifiDevice));
-          }
+        case ANDROID_SERVICE: // Ad hoc node found through DNS-SD
+          var info = WifiServiceInfo.fromMap(map);
+          // Keep the device so that a connection can be performed
+          _mapMacDevice.putIfAbsent(info.device.mac.wifi, () => info.device);
+
+          // Notify upper layer of the ad hoc node and its metadata
+          controller.add(AdHocEvent(SERVICE_DISCOVERED, info));
           break;
 
         case ANDROID_STATE: // Status of the Wi-Fi (enabled/disabled)
@@ -158,11 +174,15 @@ class WifiAdHocManager extends ServiceManager {
     _mapMacDevice.clear();
 
     // Start the discovery process
-    _methodCh.invokeMethod('discovery');
+    _methodCh.invokeMethod('discovery').then((outcome) => _logOutcome(
+        'discovery()', outcome as Map<dynamic, dynamic>));
 
     // Notify upper layer of the discovery process' start
     controller.add(AdHocEvent(DISCOVERY_START, []));
 
+    // The peers still visible are only reported again if they change
+    _peers.values.toList().forEach(_onPeerFound);
+
     // Stop the discovery process after DISCOVERY_TIME
     Timer(Duration(milliseconds: DISCOVERY_TIME), () {
       if (verbose) log(TAG, 'Discovery completed');
@@ -188,6 +208,9 @@ class WifiAdHocManager extends ServiceManager {
 /*-------------------------------Public methods-------------------------------*/
 
   /// Performs a connection with the remote device of MAC address [mac].
+  ///
+  /// Throws a [DeviceNotFoundException] if the device has not been discovered,
+  /// and a [DeviceFailureException] if the request is rejected by Wi-Fi Direct.
   Future<void> connect(String mac) async {
     if (verbose) log(TAG, 'connect(): $mac');
 
@@ -196,11 +219,217 @@ class WifiAdHocManager extends ServiceManager {
       throw DeviceNotFoundException('Discovery is required before connecting');
     }
 
-    await _methodCh.invokeMethod('connect', mac);
+    // Completed once the framework accepted the request, after the retries
+    var outcome = await _methodCh.invokeMethod('connect', mac) as Map;
+    _logOutcome('connect()', outcome);
+    if (!(outcome['success'] as bool)) {
+      throw DeviceFailureException(
+          'Connection to $mac failed: ${outcome['reason']}');
+    }
+  }
+
+  /// Advertises the ad hoc service through Wi-Fi Direct DNS-SD.
+  ///
+  /// The service carries the [label] of this node, its number of [neighbours],
+  /// and the [digest] of its routing table. Calling it again updates the
+  /// metadata advertised.
+  Future<void> advertiseService(
+      String label, int neighbours, String digest) async {
+    if (verbose) log(TAG, 'advertiseService(): $label, $neighbours');
+
+    await _methodCh.invokeMethod('registerService', <String, dynamic>{
+      'label': label,
+      'neighbours': neighbours,
+      'digest': digest,
+    });
+  }
+
+  /// Stops advertising the ad hoc service.
+  Future<void> stopAdvertisingService() async {
+    if (verbose) log(TAG, 'stopAdvertisingService()');
+
+    await _methodCh.invokeMethod('unregisterService');
+  }
+
+  /// Triggers the discovery of the ad hoc service through Wi-Fi Direct DNS-SD.
+  ///
+  /// Only the devices advertising the service are reported, through
+  /// [SERVICE_DISCOVERED] events holding a [WifiServiceInfo] object.
+  Future<void> discoverServices() async {
+    if (verbose) log(TAG, 'discoverServices()');
+
+    var outcome = await _methodCh.invokeMethod('discoverServices') as Map;
+    _logOutcome('discoverServices()', outcome);
+  }
+
+/*------------------------------Private methods-------------------------------*/
+
+  /// Applies the delta of peers [map] sent by the platform-specific side.
+  ///
+  /// A snapshot of the peers is requested if a delta has been missed.
+  Future<void> _applyPeerDelta(Map map) async {
+    var version = map['version'] as int;
+    if (version <= _peersVersion) {
+      return;
+    } else if (version != _peersVersion + 1) {
+      await _resyncPeers();
+      return;
+    }
+
+    _peersVersion = version;
+    for (var mac in map['removed'] as List<dynamic>) {
+      _peers.remove(mac);
+    }
+
+    for (var peer in map['changed'] as List<dynamic>) {
+      var device = _WifiP2PDevice.fromMap(peer as Map<dynamic, dynamic>);
+      _peers[device.mac] = device;
+    }
+
+    for (var peer in map['added'] as List<dynamic>) {
+      _onPeerFound(_WifiP2PDevice.fromMap(peer as Map<dynamic, dynamic>));
+    }
+  }
+
+  /// Replaces the peers by a snapshot of the platform-specific side.
+  Future<void> _resyncPeers() async {
+    if (verbose) log(TAG, '_resyncPeers()');
+
+    var snapshot = await _methodCh.invokeMethod('getPeers') as Map;
+    _peersVersion = snapshot['version'] as int;
+    _peers.clear();
+
+    for (var peer in snapshot['peers'] as List<dynamic>) {
+      _onPeerFound(_WifiP2PDevice.fromMap(peer as Map<dynamic, dynamic>));
+    }
+  }
+
+  /// Logs the [outcome] of the Wi-Fi Direct [operation].
+  void _logOutcome(String operation, Map outcome) {
+    if (verbose) {
+      log(
+          TAG,
+          '$operation: success=${outcome['success']}, '
+          'reason=${outcome['reason']}, attempts=${outcome['attempts']}, '
+          'elapsed=${outcome['elapsedMs']} ms');
+    }
+  }
+
+  /// Records the peer [device] and notifies the upper layer of it.
+  void _onPeerFound(_WifiP2PDevice device) {
+    _peers[device.mac] = device;
+
+    // Get a WifiAdHocDevice object from device
+    var wifiDevice = WifiAdHocDevice(device.name, device.mac);
+    // Add the discovered device to the HashMap
+    _mapMacDevice.putIfAbsent(wifiDevice.mac.wifi, () {
+      if (verbose) {
+        log(TAG,
+            'Device found: Name=(${device.name}) - Address=(${device.mac})');
+      }
+
+      return wifiDevice;
+    });
+
+    // Notify upper layer of a device discovered
+    controller.add(AdHocEvent(DEVICE_DISCOVERED, wifiDevice));
   }
 
 /*-------------------------------Static methods-------------------------------*/
 
+  /// Data stream of the platform-specific side.
+  ///
+  /// The connections and the messages of the native data plane are delivered
+  /// through this stream.
+  static Stream<WifiData> get dataStream => _dataController.stream;
+
+  /// Enables the native data plane of the platform-specific side.
+  ///
+  /// Once a Wi-Fi Direct group is formed, the group owner listens on [port]
+  /// and the other members connect to it.
+  static Future<void> startDataPlane(int port) async {
+    await _methodCh.invokeMethod('startDataPlane', port);
+  }
+
+  /// Disables the native data plane and closes its connections.
+  static Future<void> stopDataPlane() async {
+    await _methodCh.invokeMethod('stopDataPlane');
+  }
+
+  /// Sends [data] to the remote peer of IP address [address] through the
+  /// native data plane.
+  ///
+  /// Returns true if the message has been queued, otherwise false.
+  static Future<bool> sendData(String address, Uint8List data) async {
+    var message = <String, dynamic>{'address': address, 'data': data};
+    return await _methodCh.invokeMethod('sendData', message) as bool;
+  }
+
+  /// Sends [data] to every member of the Wi-Fi Direct group with a single
+  /// broadcast datagram of the native data plane.
+  ///
+  /// The group owner relays the datagram to the other members while [ttl] is
+  /// greater than 1. The members receive a [WifiData.BROADCAST] record whose
+  /// address is the one of the originator. The [data] must fit in one datagram
+  /// (1460 bytes).
+  ///
+  /// Returns true if the message has been queued, otherwise false.
+  static Future<bool> broadcastData(Uint8List data, {int ttl = 2}) async {
+    var message = <String, dynamic>{'data': data, 'ttl': ttl};
+    return await _methodCh.invokeMethod('broadcastData', message) as bool;
+  }
+
+  /// Closes the connection of the native data plane with the remote peer of
+  /// IP address [address].
+  static Future<void> closeDataConnection(String address) async {
+    await _methodCh.invokeMethod('closeDataConnection', address);
+  }
+
+  /// Transfer stream of the platform-specific side.
+  ///
+  /// The progress and the outcome of the file transfers are delivered through
+  /// this stream.
+  static Stream<WifiTransferEvent> get transferStream => _transferCh
+      .receiveBroadcastStream()
+      .expand((batch) => batch as List)
+      .map((event) => WifiTransferEvent.fromMap(event as Map));
+
+  /// Accepts the files sent by the remote peers on [port].
+  ///
+  /// The files received are written in the cache directory of the application.
+  ///
+  /// Returns true if the port is open, otherwise false.
+  static Future<bool> startFileReceiver(int port) async {
+    return await _methodCh.invokeMethod('startFileReceiver', port) as bool;
+  }
+
+  /// Stops accepting files. The ongoing transfers are not interrupted.
+  static Future<void> stopFileReceiver() async {
+    await _methodCh.invokeMethod('stopFileReceiver');
+  }
+
+  /// Sends the file located at [path] to the remote peer of IP address
+  /// [address] listening on [port].
+  ///
+  /// A file sent again after a failure is resumed where the previous transfer
+  /// stopped, as long as the file is unchanged.
+  ///
+  /// Returns the ID of the transfer, or null if the file cannot be read.
+  static Future<String?> sendFile(String address, int port, String path) async {
+    var arguments = <String, dynamic>{
+      'address': address,
+      'port': port,
+      'path': path,
+    };
+
+    return await _methodCh.invokeMethod('sendFile', arguments) as String?;
+  }
+
+  /// Interrupts the transfer of ID [id]. It can be resumed later.
+  static Future<void> cancelTransfer(String id) async {
+    await _methodCh.invokeMethod('cancelTransfer', id);
+  }
+
   /// Checks whether the Wi-Fi technology is enabled.
   ///
   /// Returns true if it is, otherwise false.
@@ -208,6 +437,26 @@ class WifiAdHocManager extends ServiceManager {
     return await _methodCh.invokeMethod('isWifiEnabled') as bool;
   }
 
+  /// Sets the bounds of the reconnect cache.
+  ///
+  /// The role of this device in the groups formed with at most [maxEntries]
+  /// remote peers is remembered for [maxAgeMs] milliseconds, so that a
+  /// reconnection keeps the same group owner. The group owner negotiation and
+  /// the WPS provisioning still take place.
+  static Future<void> setReconnectCache(int maxEntries, int maxAgeMs) async {
+    await _methodCh.invokeMethod('setReconnectCache', <String, dynamic>{
+      'maxEntries': maxEntries,
+      'maxAgeMs': maxAgeMs,
+    });
+  }
+
+  /// Gets the statistics of the reconnect cache.
+  ///
+  /// Returns a [Map] containing the 'entries', 'hits', and 'misses' keys.
+  static Future<Map<dynamic, dynamic>> get reconnectStats async {
+    return await _methodCh.invokeMethod('getReconnectStats') as Map;
+  }
+
   /// Removes the device from a Wi-Fi Direct group.
   static Future<void> removeGroup() async {
     await _methodCh.invokeMethod('removeGroup');
@@ -218,20 +467,25 @@ class WifiAdHocManager extends ServiceManager {
 class _WifiP2PDevice {
   late String name;
   late String mac;
+  late int status;
+  late int capabilities;
 
   /// Creates a [_WifiP2PDevice] object.
   ///
-  /// The device is named after [name] and has the MAC address [mac].
-  _WifiP2PDevice(this.name, this.mac);
+  /// The device is named after [name] and has the MAC address [mac], the
+  /// [status], and the [capabilities] flags.
+  _WifiP2PDevice(this.name, this.mac, this.status, this.capabilities);
 
   /// Creates a [_WifiP2PDevice] object.
   ///
   /// The object is filled with information from [map]. The map should be a map
   /// with the key type as [String] and value type as [dynamic]. The following
-  /// key should exits: 'name' and 'mac'.
+  /// key should exits: 'name', 'mac', 'status', and 'capabilities'.
   _WifiP2PDevice.fromMap(Map map) {
     name = map['name'] as String;
     mac = map['mac'] as String;
+    status = map['status'] as int;
+    capabilities = map['capabilities'] as int;
   }
 }
 
@@ -0,0 +1,178 @@
+import 'dart:async';
+import 'dart:collection';
+
+import 'package:adhoc_plugin/src/datalink/exceptions/device_failure.dart';
+import 'package:adhoc_plugin/src/datalink/exceptions/device_not_found.dart';
+import 'package:adhoc_plugin/src/datalink/service/adhoc_event.dart';
+import 'package:adhoc_plugin/src/datalink/service/constants.dart';
+import 'package:adhoc_plugin/src/datalink/service/service_manager.dart';
+import 'package:adhoc_plugin/src/datalink/utils/utils.dart';
+import 'package:adhoc_plugin/src/datalink/wifi/wifi_service_info.dart';
+import 'package:flutter/services.dart';
+
+/// Class managing the Wi-Fi Aware (NAN) discovery and the data paths with
+/// other Wi-Fi Aware devices.
+///
+/// Wi-Fi Aware is only available on some devices running Android 8.0 (API 26)
+/// or later. [isAvailable] must be checked first, [WifiAdHocManager] (Wi-Fi
+/// Direct) being used otherwise. The events are the same as the Wi-Fi Direct
+/// ones: [WIFI_READY], [SERVICE_DISCOVERED], and [CONNECTION_INFORMATION].
+class WifiAwareManager extends ServiceManager {
+  static const String TAG = '[WifiAwareManager]';
+
+  static const String _methodName = 'ad.hoc.lib/wifi.aware.method.channel';
+  static const String _eventName = 'ad.hoc.lib/wifi.aware.event.channel';
+  static const MethodChannel _methodCh = MethodChannel(_methodName);
+  static const EventChannel _eventCh = EventChannel(_eventName);
+
+  late String _label;
+  late HashMap<String, WifiServiceInfo> _mapIdInfo;
+  StreamSubscription<dynamic>? _subscription;
+
+  /// Creates a [WifiAwareManager] object.
+  ///
+  /// The debug/verbose mode is set if [verbose] is true. The node is
+  /// advertised with [label].
+  WifiAwareManager(bool verbose, String label) : super(verbose) {
+    _methodCh.invokeMethod('setVerbose', verbose);
+    _label = label;
+    _mapIdInfo = HashMap();
+  }
+
+/*------------------------------Override methods------------------------------*/
+
+  /// Closes the stream controller and stops Wi-Fi Aware.
+  @override
+  void release() {
+    _subscription?.cancel();
+    _methodCh.invokeMethod('stop');
+    super.release();
+  }
+
+  /// Initializes the listening process of platform-side streams.
+  @override
+  void initialize() {
+    _subscription = _eventCh
+        .receiveBroadcastStream()
+        .expand((event) => event is List ? event : <dynamic>[event])
+        .listen((event) {
+      var map = event as Map;
+
+      switch (map['type']) {
+        case ANDROID_STATE: // Wi-Fi Aware available or not
+          var state = map['state'] as bool;
+          if (!state) {
+            _mapIdInfo.clear();
+          }
+
+          // Notify upper layer of the Wi-Fi Aware state
+          controller.add(AdHocEvent(WIFI_READY, state));
+          break;
+
+        case ANDROID_SERVICE: // Ad hoc node found through publish/subscribe
+          var info = WifiServiceInfo.fromMap(map);
+          _mapIdInfo[info.device.mac.wifi] = info;
+
+          // Notify upper layer of the ad hoc node and its label
+          controller.add(AdHocEvent(SERVICE_DISCOVERED, info));
+          break;
+
+        case ANDROID_CONNECTION: // Data path set up or lost
+          var info = map['info'] as Map;
+
+          // Notify upper layer of the data path, there is no group owner
+          controller.add(AdHocEvent(CONNECTION_INFORMATION, [
+            info['connected'] as bool,
+            false,
+            info['address'] as String,
+            info['peer'] as String,
+          ]));
+          break;
+
+        default:
+      }
+    });
+  }
+
+  /// Starts the publish and subscribe sessions of the ad hoc service.
+  ///
+  /// The sessions last until [release] is called. A [WIFI_READY] event with
+  /// false is sent if Wi-Fi Aware cannot be used, in which case Wi-Fi Direct
+  /// should be used instead.
+  @override
+  void discovery() async {
+    if (verbose) log(TAG, 'discovery()');
+
+    if (isDiscovering) {
+      return;
+    }
+
+    isDiscovering = true;
+    // Notify upper layer of the discovery process' start
+    controller.add(AdHocEvent(DISCOVERY_START, []));
+
+    var started = await _methodCh.invokeMethod('start', _label) as bool;
+    if (!started) {
+      isDiscovering = false;
+      controller.add(AdHocEvent(WIFI_READY, false));
+    }
+  }
+
+  /// Updates the label advertised with [newName].
+  ///
+  /// Returns true if the label is advertised, otherwise false.
+  @override
+  Future<bool> updateDeviceName(final String newName) async {
+    _label = newName;
+    if (!isDiscovering) {
+      return true;
+    }
+
+    return await _methodCh.invokeMethod('start', _label) as bool;
+  }
+
+  /// Resets the label advertised.
+  ///
+  /// Returns false as there is no default label.
+  @override
+  Future<bool> resetDeviceName() async {
+    return false;
+  }
+
+/*-------------------------------Public methods-------------------------------*/
+
+  /// Sets up a data path with the remote peer of ID [peer].
+  ///
+  /// The data path is reported by a [CONNECTION_INFORMATION] event once set
+  /// up on both sides.
+  ///
+  /// Throws a [DeviceNotFoundException] if the peer has not been discovered,
+  /// or a [DeviceFailureException] if the request cannot be performed.
+  Future<void> connect(String peer) async {
+    if (verbose) log(TAG, 'connect(): $peer');
+
+    if (!_mapIdInfo.containsKey(peer)) {
+      throw DeviceNotFoundException('Discovery is required before connecting');
+    }
+
+    if (!(await _methodCh.invokeMethod('connect', peer) as bool)) {
+      throw DeviceFailureException('Data path request to $peer failed');
+    }
+  }
+
+  /// Releases the data path with the remote peer of ID [peer].
+  Future<void> disconnect(String peer) async {
+    if (verbose) log(TAG, 'disconnect(): $peer');
+
+    await _methodCh.invokeMethod('disconnect', peer);
+  }
+
+/*-------------------------------Static methods-------------------------------*/
+
+  /// Checks whether Wi-Fi Aware can be used on this device.
+  ///
+  /// Returns true if it is supported and currently available, otherwise false.
+  static Future<bool> isAvailable() async {
+    return await _methodCh.invokeMethod('isAvailable') as bool;
+  }
+}
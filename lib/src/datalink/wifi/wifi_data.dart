@@ -0,0 +1,49 @@
+import 'dart:typed_data';
+
+/// Class representing a record sent by the Wi-Fi data plane of the
+/// platform-specific side.
+class WifiData {
+  /// Size of the record header: type (1 byte), IPv4 (4 bytes), length (4 bytes)
+  static const int HEADER_SIZE = 9;
+
+  /// Types of the records
+  static const int CONNECTED = 1;
+  static const int DATA = 2;
+  static const int DISCONNECTED = 3;
+  static const int BROADCAST = 4;
+
+  late final int type;
+  late final String address;
+  late final Uint8List bytes;
+
+  /// Creates a [WifiData] object.
+  ///
+  /// The object is filled with the record of [batch] starting at [offset]. The
+  /// [bytes] are a view on the batch, no copy is performed.
+  WifiData._fromRecord(ByteData batch, int offset) {
+    type = batch.getUint8(offset);
+    address = [
+      for (var i = 1; i < 5; i++) batch.getUint8(offset + i).toString()
+    ].join('.');
+
+    var length = batch.getUint32(offset + 5);
+    bytes = batch.buffer
+        .asUint8List(batch.offsetInBytes + offset + HEADER_SIZE, length);
+  }
+
+  /// Splits the binary [batch] sent by the platform-specific side.
+  ///
+  /// Returns the list of [WifiData] records contained in the batch.
+  static List<WifiData> fromBatch(ByteData batch) {
+    var records = List<WifiData>.empty(growable: true);
+
+    var offset = 0;
+    while (offset + HEADER_SIZE <= batch.lengthInBytes) {
+      var record = WifiData._fromRecord(batch, offset);
+      records.add(record);
+      offset += HEADER_SIZE + record.bytes.length;
+    }
+
+    return records;
+  }
+}
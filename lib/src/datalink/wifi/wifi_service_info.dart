@@ -0,0 +1,34 @@
+import 'package:adhoc_plugin/src/datalink/wifi/wifi_adhoc_device.dart';
+
+/// Class representing the metadata advertised by a remote ad hoc node through
+/// Wi-Fi Direct DNS-SD.
+class WifiServiceInfo {
+  late final WifiAdHocDevice device;
+  late final String label;
+  late final int neighbours;
+  late final String digest;
+
+  /// Creates a [WifiServiceInfo] object.
+  ///
+  /// The object is filled with information from [map]. The map should be a map
+  /// with the key type as [String] and value type as [dynamic]. The following
+  /// key should exits: 'name', 'mac', 'label', 'neighbours', and 'digest'.
+  WifiServiceInfo.fromMap(Map map) {
+    device = WifiAdHocDevice(map['name'] as String, map['mac'] as String);
+    label = (map['label'] as String?) ?? '';
+    neighbours = map['neighbours'] as int;
+    digest = (map['digest'] as String?) ?? '';
+  }
+
+/*------------------------------Override methods------------------------------*/
+
+  @override
+  String toString() {
+    return 'WifiServiceInfo{' +
+        'device=$device' +
+        ', label=$label' +
+        ', neighbours=$neighbours' +
+        ', digest=$digest' +
+        '}';
+  }
+}
@@ -0,0 +1,47 @@
+/// Class representing an event of a file transfer performed by the
+/// platform-specific side.
+class WifiTransferEvent {
+  /// Types of the events
+  static const int PROGRESS = 1;
+  static const int SENT = 2;
+  static const int RECEIVED = 3;
+  static const int FAILED = 4;
+
+  late final int type;
+  late final String? id;
+  late final String? address;
+  late final String? path;
+  late final String? reason;
+  late final int transferred;
+  late final int size;
+
+  /// Creates a [WifiTransferEvent] object.
+  ///
+  /// The object is filled with information from [map]. The map should be a map
+  /// with the key type as [String] and value type as [dynamic]. The 'type' key
+  /// should exist, the other keys ('id', 'address', 'path', 'reason',
+  /// 'transferred', and 'size') depend on the type of the event.
+  WifiTransferEvent.fromMap(Map map) {
+    type = map['type'] as int;
+    id = map['id'] as String?;
+    address = map['address'] as String?;
+    path = map['path'] as String?;
+    reason = map['reason'] as String?;
+    size = (map['size'] as int?) ?? 0;
+    transferred = (map['transferred'] as int?) ?? (type == RECEIVED ? size : 0);
+  }
+
+/*------------------------------Override methods------------------------------*/
+
+  @override
+  String toString() {
+    return 'WifiTransferEvent{' +
+        'type=$type' +
+        ', id=$id' +
+        ', address=$address' +
+        ', path=$path' +
+        ', transferred=$transferred' +
+        ', size=$size' +
+        '}';
+  }
+}
@@ -19,6 +19,10 @@ class AodvHelper {
   late RoutingTable _routingTable;
   late HashSet<String> _entryBroadcast;
 
+  /// Callback invoked when a destination is added to or removed from the
+  /// routing table.
+  void Function()? onRoutesChanged;
+
   /// Creates a [AodvHelper] object.
   ///
   /// The debug/verbose mode is set if [_verbose] is true.
@@ -45,7 +49,12 @@ class AodvHelper {
     var entry =
         EntryRoutingTable(destAddress, next, hop, seq, lifetime, precursors);
 
-    return _routingTable.addEntry(entry) ? entry : null;
+    if (!_routingTable.addEntry(entry)) {
+      return null;
+    }
+
+    onRoutesChanged?.call();
+    return entry;
   }
 
   /// Controls the broadcast requests.
@@ -104,7 +113,17 @@ class AodvHelper {
   /// Removes an entry in the routing table from the destination address
   /// [destAddress].
   void removeEntry(String? destAddress) {
-    _routingTable.removeEntry(destAddress);
+    if (_routingTable.containsDest(destAddress)) {
+      _routingTable.removeEntry(destAddress);
+      onRoutesChanged?.call();
+    }
+  }
+
+  /// Gets the destinations of the routing table.
+  ///
+  /// Returns a [List] of the destination addresses.
+  List<String> getDestinations() {
+    return _routingTable.routingTable.keys.whereType<String>().toList();
   }
 
   /// Gets the size ([int]) of the routing table.
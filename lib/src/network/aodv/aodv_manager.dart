@@ -37,6 +37,7 @@ class AodvManager {
   final bool _verbose;
 
   MessageAdHoc? _dataMessage;
+  Timer? _advertiseTimer;
 
   late Identifier _ownMac;
   late String _ownName;
@@ -64,6 +65,7 @@ class AodvManager {
     _ownLabel = config.label;
     _ownSequenceNum = aodv.FIRST_SEQUENCE_NUMBER;
     _aodvHelper = AodvHelper(_verbose);
+    _aodvHelper.onRoutesChanged = _advertiseRoutes;
     _datalinkManager = DataLinkManager(_verbose, config);
     _mapDestSeqNum = HashMap();
     _controller = StreamController<AdHocEvent>.broadcast();
@@ -108,6 +110,7 @@ class AodvManager {
       switch (event.type) {
         case datalink.BROKEN_LINK:
           _brokenLinkDetected(event.payload as String?);
+          _advertiseRoutes();
           break;
 
         case datalink.MESSAGE_EVENT:
@@ -126,6 +129,12 @@ class AodvManager {
           _ownName = info[1] as String;
           break;
 
+        case CONNECTION_PERFORMED:
+          // A direct neighbor is a reachable destination too
+          _advertiseRoutes();
+          _controller.add(event);
+          break;
+
         default:
           // Notify upper layer of ad hoc events occuring in lower layers
           _controller.add(event);
@@ -265,6 +274,29 @@ class AodvManager {
     }
   }
 
+  /// Advertises the destinations of the routing table and the direct
+  /// neighbors, so that the remote nodes may choose a next hop from the
+  /// advertisements only. The changes made within [aodv.ADVERTISE_DELAY] ms
+  /// are advertised at once.
+  void _advertiseRoutes() {
+    if (_advertiseTimer != null) {
+      return;
+    }
+
+    _advertiseTimer = Timer(Duration(milliseconds: aodv.ADVERTISE_DELAY), () {
+      _advertiseTimer = null;
+
+      var destinations = _aodvHelper.getDestinations().toSet();
+      for (var neighbor in _datalinkManager.directNeighbors) {
+        if (neighbor.label != null) {
+          destinations.add(neighbor.label!);
+        }
+      }
+
+      _datalinkManager.advertiseRoutes(_ownSequenceNum, destinations.toList());
+    });
+  }
+
   /// Associates a destination sequence number [seqNum] with its destination
   /// [dest].
   void _saveDestSequenceNumber(String dest, int seqNum) {
@@ -302,8 +334,21 @@ class AodvManager {
             aodv.TTL[retry],
             List.empty(growable: true)));
 
-    // Broadcast RREQ message to all directly connected devices
-    _datalinkManager.broadcast(message);
+    // On the first attempt, the RREQ message is only sent to the directly
+    // connected devices which may reach the destination according to their
+    // advertisement, if any. Otherwise, it is broadcast to all of them.
+    var hinted = retry == aodv.RREQ_RETRIES
+        ? _datalinkManager.neighborsMightReach(destAddr)
+        : List<String>.empty();
+    if (hinted.isNotEmpty) {
+      if (_verbose) log(TAG, 'RREQ sent to $hinted (advertised hints)');
+      for (var label in hinted) {
+        _datalinkManager.sendMessage(label, message);
+      }
+    } else {
+      // Broadcast RREQ message to all directly connected devices
+      _datalinkManager.broadcast(message);
+    }
 
     // Start the timer
     Timer(Duration(milliseconds: time), () {
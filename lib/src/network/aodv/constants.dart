@@ -17,6 +17,10 @@ const EXPIRED_TIME = EXPIRED_TABLE * 2;
 const NO_LIFE_TIME = -1;
 const LIFE_TIME = EXPIRED_TIME; // Life time of a route
 
+// Constant indicating the delay gathering the routing table changes before
+// advertising them
+const ADVERTISE_DELAY = 1000;
+
 // Constants for displaying the routing table
 const DELAY = 60000;
 const PERIOD = DELAY;
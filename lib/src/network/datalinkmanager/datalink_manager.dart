@@ -193,6 +193,31 @@ class DataLinkManager {
     }
   }
 
+  /// Advertises the routing hints of this node: its sequence number [seq] and
+  /// the [destinations] reachable through it.
+  void advertiseRoutes(int seq, List<String> destinations) {
+    for (var wrapper in _wrappers) {
+      if (wrapper != null && wrapper.enabled) {
+        wrapper.advertiseRoutes(seq, destinations);
+      }
+    }
+  }
+
+  /// Gets the direct neighbors through which the node with address [label]
+  /// may be reached, according to their advertisements.
+  ///
+  /// Returns a [List] of the labels of these neighbors.
+  List<String> neighborsMightReach(String label) {
+    var labels = <String>{};
+    for (var wrapper in _wrappers) {
+      if (wrapper != null && wrapper.enabled) {
+        labels.addAll(wrapper.neighborsMightReach(label));
+      }
+    }
+
+    return labels.toList();
+  }
+
   /// Broadcasts a message to all directly connected nodes.
   ///
   /// The message is specified by [message].
@@ -200,6 +200,36 @@ class WrapperBle extends WrapperNetwork {
     return result ?? false;
   }
 
+  /// Advertises the routing hints of this node: its sequence number [seq] and
+  /// the [destinations] reachable through it.
+  @override
+  void advertiseRoutes(int seq, List<String> destinations) {
+    if (enabled) {
+      BleServices.setAdvertisedRouting(ownLabel, seq, destinations);
+    }
+  }
+
+  /// Gets the direct neighbors through which the node with address [label]
+  /// may be reached, according to their advertisements.
+  ///
+  /// Returns a [List] of the labels of these neighbors.
+  @override
+  List<String> neighborsMightReach(String label) {
+    var labels = List<String>.empty(growable: true);
+    if (!enabled) {
+      return labels;
+    }
+
+    neighbors.labelMac.forEach((neighbor, mac) {
+      var device = _bleAdHocManager.discovered(mac.ble);
+      if (device != null && device.mightReach(label)) {
+        labels.add(neighbor);
+      }
+    });
+
+    return labels;
+  }
+
 /*------------------------------Private methods-------------------------------*/
 
   /// Initializes the listening process of the under layer streams.
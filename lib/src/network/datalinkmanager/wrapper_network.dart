@@ -171,6 +171,19 @@ abstract class WrapperNetwork {
     return false;
   }
 
+  /// Advertises the routing hints of this node: its sequence number [seq] and
+  /// the [destinations] reachable through it.
+  ///
+  /// Does nothing if the technology does not advertise routing hints.
+  void advertiseRoutes(int seq, List<String> destinations) {}
+
+  /// Gets the direct neighbors through which the node with address [label]
+  /// may be reached, according to their advertisements.
+  ///
+  /// Returns a [List] of the labels of these neighbors, which is empty if the
+  /// technology does not advertise routing hints.
+  List<String> neighborsMightReach(String label) => List.empty();
+
   /// Checks if a node with address [label] is a direct neighbor.
   ///
   /// Returns true if it is, otherwise false.